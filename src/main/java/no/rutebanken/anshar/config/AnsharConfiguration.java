@@ -108,6 +108,75 @@ public class AnsharConfiguration {
     @Value("${anshar.validation.data.persist.hours:6}")
     private int numberOfHoursToKeepValidation;
 
+    @Value("${anshar.validation.buffer.memory.max.size.mb:16}")
+    private int maxInMemoryValidationSizeMb;
+
+    @Value("${anshar.validation.executor.threads:2}")
+    private int validationThreads;
+
+    @Value("${anshar.validation.executor.queue.size:20}")
+    private int validationQueueSize;
+
+    @Value("${anshar.validation.sample.interval:1}")
+    private int validationSampleInterval;
+
+    @Value("${anshar.validation.sample.max.per.minute:0}")
+    private int validationMaxPerMinute;
+
+    @Value("${anshar.rest.snapshot.cache.enabled:true}")
+    private boolean snapshotCacheEnabled;
+
+    @Value("${anshar.rest.snapshot.cache.max.age.seconds:30}")
+    private int snapshotCacheMaxAgeSeconds;
+
+    @Value("${anshar.rest.snapshot.cache.max.entry.size.mb:64}")
+    private int snapshotCacheMaxEntrySizeMb;
+
+    @Value("${anshar.rest.snapshot.cache.max.total.size.mb:256}")
+    private int snapshotCacheMaxTotalSizeMb;
+
+    @Value("${anshar.rest.streaming.batch.size:500}")
+    private int streamingBatchSize;
+
+    @Value("${anshar.rest.stream.max.connections:50}")
+    private int streamMaxConnections;
+
+    @Value("${anshar.rest.stream.buffer.size:100}")
+    private int streamBufferSize;
+
+    @Value("${anshar.rest.et.departures.enabled:true}")
+    private boolean etDeparturesEnabled;
+
+    @Value("${anshar.rest.et.departures.max.time.window.minutes:1440}")
+    private int etDeparturesMaxTimeWindowMinutes;
+
+    @Value("${anshar.rest.vm.area.enabled:true}")
+    private boolean vmAreaQueryEnabled;
+
+    @Value("${anshar.rest.sx.affects.enabled:true}")
+    private boolean sxAffectsQueryEnabled;
+
+    @Value("${anshar.rest.stream.heartbeat.interval.seconds:15}")
+    private int streamHeartbeatIntervalSeconds;
+
+    @Value("${anshar.rest.cursor.ttl.seconds:300}")
+    private int cursorTtlSeconds;
+
+    @Value("${anshar.rest.cursor.max.count:50}")
+    private int cursorMaxCount;
+
+    @Value("${anshar.rest.cursor.max.ids:250000}")
+    private int cursorMaxIds;
+
+    @Value("${anshar.compression.enabled:true}")
+    private boolean compressionEnabled;
+
+    @Value("${anshar.compression.level:6}")
+    private int compressionLevel;
+
+    @Value("${anshar.compression.min.size.bytes:1024}")
+    private int compressionMinSize;
+
 
     @Value("${anshar.tracking.data.buffer.commit.frequency.seconds:2}")
     private int changeBufferCommitFrequency;
@@ -230,6 +299,98 @@ public class AnsharConfiguration {
         return numberOfHoursToKeepValidation;
     }
 
+    public int getMaxInMemoryValidationSizeMb() {
+        return maxInMemoryValidationSizeMb;
+    }
+
+    public int getValidationThreads() {
+        return validationThreads;
+    }
+
+    public int getValidationQueueSize() {
+        return validationQueueSize;
+    }
+
+    public int getValidationSampleInterval() {
+        return validationSampleInterval;
+    }
+
+    public int getValidationMaxPerMinute() {
+        return validationMaxPerMinute;
+    }
+
+    public boolean isSnapshotCacheEnabled() {
+        return snapshotCacheEnabled;
+    }
+
+    public int getSnapshotCacheMaxAgeSeconds() {
+        return snapshotCacheMaxAgeSeconds;
+    }
+
+    public int getSnapshotCacheMaxEntrySizeMb() {
+        return snapshotCacheMaxEntrySizeMb;
+    }
+
+    public int getSnapshotCacheMaxTotalSizeMb() {
+        return snapshotCacheMaxTotalSizeMb;
+    }
+
+    public int getStreamingBatchSize() {
+        return streamingBatchSize;
+    }
+
+    public int getStreamMaxConnections() {
+        return streamMaxConnections;
+    }
+
+    public int getStreamBufferSize() {
+        return streamBufferSize;
+    }
+
+    public boolean isEtDeparturesEnabled() {
+        return etDeparturesEnabled;
+    }
+
+    public int getEtDeparturesMaxTimeWindowMinutes() {
+        return etDeparturesMaxTimeWindowMinutes;
+    }
+
+    public boolean isVmAreaQueryEnabled() {
+        return vmAreaQueryEnabled;
+    }
+
+    public boolean isSxAffectsQueryEnabled() {
+        return sxAffectsQueryEnabled;
+    }
+
+    public int getStreamHeartbeatIntervalSeconds() {
+        return streamHeartbeatIntervalSeconds;
+    }
+
+    public int getCursorTtlSeconds() {
+        return cursorTtlSeconds;
+    }
+
+    public int getCursorMaxCount() {
+        return cursorMaxCount;
+    }
+
+    public int getCursorMaxIds() {
+        return cursorMaxIds;
+    }
+
+    public boolean isCompressionEnabled() {
+        return compressionEnabled;
+    }
+
+    public int getCompressionLevel() {
+        return compressionLevel;
+    }
+
+    public int getCompressionMinSize() {
+        return compressionMinSize;
+    }
+
     public int getChangeBufferCommitFrequency() {
         return changeBufferCommitFrequency;
     }
@@ -0,0 +1,152 @@
+/*
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ *   https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ */
+
+
+package no.rutebanken.anshar.data;
+
+import uk.org.siri.siri21.AffectedLineStructure;
+import uk.org.siri.siri21.AffectedRouteStructure;
+import uk.org.siri.siri21.AffectedStopPlaceStructure;
+import uk.org.siri.siri21.AffectedStopPointStructure;
+import uk.org.siri.siri21.AffectedVehicleJourneyStructure;
+import uk.org.siri.siri21.AffectsScopeStructure;
+import uk.org.siri.siri21.DatedVehicleJourneyRef;
+import uk.org.siri.siri21.PtSituationElement;
+import uk.org.siri.siri21.VehicleJourneyRef;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Ids of the lines, stop points, stop places and vehicle journeys affected by a situation - collected in one walk
+ * through the Affects-structure.
+ *
+ * Lines are the AffectedLines of the AffectedNetworks. Stop points are the AffectedStopPoints, including those on
+ * the routes of affected lines.
+ */
+public class AffectedEntities {
+
+    private final Set<String> lineRefs = new HashSet<>();
+    private final Set<String> stopPointRefs = new HashSet<>();
+    private final Set<String> stopPlaceRefs = new HashSet<>();
+    private final Set<String> vehicleJourneyRefs = new HashSet<>();
+
+    private AffectedEntities() {
+    }
+
+    public static AffectedEntities of(PtSituationElement situation) {
+        AffectedEntities entities = new AffectedEntities();
+        AffectsScopeStructure affects = situation != null ? situation.getAffects() : null;
+        if (affects == null) {
+            return entities;
+        }
+
+        if (affects.getNetworks() != null) {
+            for (AffectsScopeStructure.Networks.AffectedNetwork network : affects.getNetworks().getAffectedNetworks()) {
+                for (AffectedLineStructure line : network.getAffectedLines()) {
+                    if (line.getLineRef() != null) {
+                        add(entities.lineRefs, line.getLineRef().getValue());
+                    }
+                    for (AffectedRouteStructure route : line.getRoutes()) {
+                        if (route.getStopPoints() != null) {
+                            for (Object stopPoint : route.getStopPoints().getAffectedStopPointsAndLinkProjectionToNextStopPoints()) {
+                                if (stopPoint instanceof AffectedStopPointStructure) {
+                                    entities.addStopPoint((AffectedStopPointStructure) stopPoint);
+                                }
+                            }
+                        }
+                    }
+                }
+            }
+        }
+
+        if (affects.getStopPoints() != null) {
+            for (AffectedStopPointStructure stopPoint : affects.getStopPoints().getAffectedStopPoints()) {
+                entities.addStopPoint(stopPoint);
+            }
+        }
+
+        if (affects.getStopPlaces() != null) {
+            for (AffectedStopPlaceStructure stopPlace : affects.getStopPlaces().getAffectedStopPlaces()) {
+                if (stopPlace.getStopPlaceRef() != null) {
+                    add(entities.stopPlaceRefs, stopPlace.getStopPlaceRef().getValue());
+                }
+            }
+        }
+
+        if (affects.getVehicleJourneys() != null) {
+            for (AffectedVehicleJourneyStructure journey : affects.getVehicleJourneys().getAffectedVehicleJourneies()) {
+                if (journey.getFramedVehicleJourneyRef() != null) {
+                    add(entities.vehicleJourneyRefs, journey.getFramedVehicleJourneyRef().getDatedVehicleJourneyRef());
+                }
+                for (VehicleJourneyRef vehicleJourneyRef : journey.getVehicleJourneyReves()) {
+                    add(entities.vehicleJourneyRefs, vehicleJourneyRef.getValue());
+                }
+                for (DatedVehicleJourneyRef datedVehicleJourneyRef : journey.getDatedVehicleJourneyReves()) {
+                    add(entities.vehicleJourneyRefs, datedVehicleJourneyRef.getValue());
+                }
+            }
+        }
+        return entities;
+    }
+
+    /**
+     * Only the lines - without walking the rest of the Affects-structure
+     */
+    public static Set<String> getAffectedLineRefs(PtSituationElement situation) {
+        AffectsScopeStructure affects = situation != null ? situation.getAffects() : null;
+        if (affects == null || affects.getNetworks() == null) {
+            return Set.of();
+        }
+        Set<String> lineRefs = new HashSet<>();
+        for (AffectsScopeStructure.Networks.AffectedNetwork network : affects.getNetworks().getAffectedNetworks()) {
+            for (AffectedLineStructure line : network.getAffectedLines()) {
+                if (line.getLineRef() != null) {
+                    add(lineRefs, line.getLineRef().getValue());
+                }
+            }
+        }
+        return lineRefs;
+    }
+
+    public Set<String> getLineRefs() {
+        return Collections.unmodifiableSet(lineRefs);
+    }
+
+    public Set<String> getStopPointRefs() {
+        return Collections.unmodifiableSet(stopPointRefs);
+    }
+
+    public Set<String> getStopPlaceRefs() {
+        return Collections.unmodifiableSet(stopPlaceRefs);
+    }
+
+    public Set<String> getVehicleJourneyRefs() {
+        return Collections.unmodifiableSet(vehicleJourneyRefs);
+    }
+
+    private void addStopPoint(AffectedStopPointStructure stopPoint) {
+        if (stopPoint.getStopPointRef() != null) {
+            add(stopPointRefs, stopPoint.getStopPointRef().getValue());
+        }
+    }
+
+    private static void add(Set<String> ids, String id) {
+        if (id != null && !id.isEmpty()) {
+            ids.add(id);
+        }
+    }
+}
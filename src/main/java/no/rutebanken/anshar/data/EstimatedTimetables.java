@@ -22,6 +22,7 @@ import no.rutebanken.anshar.data.collections.ExtendedHazelcastService;
 import no.rutebanken.anshar.data.util.TimingTracer;
 import no.rutebanken.anshar.metrics.SiriContent;
 import no.rutebanken.anshar.routes.siri.helpers.SiriObjectFactory;
+import no.rutebanken.anshar.routes.siri.processor.routedata.NetexUpdaterService;
 import no.rutebanken.anshar.subscription.SiriDataType;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -38,6 +39,8 @@ import uk.org.siri.siri21.StopAssignmentStructure;
 import uk.org.siri.siri21.StopPointRefStructure;
 
 import javax.annotation.PostConstruct;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
 import java.time.Instant;
 import java.time.ZonedDateTime;
 import java.time.temporal.ChronoUnit;
@@ -48,8 +51,6 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import java.util.SortedSet;
-import java.util.TreeSet;
 import java.util.UUID;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
@@ -101,6 +102,12 @@ public class EstimatedTimetables  extends SiriRepository<EstimatedVehicleJourney
 
     private long hardLimitFutureUpdates = Integer.MAX_VALUE;
 
+    private final LineJourneyIndex lineJourneyIndex = new LineJourneyIndex(this::getFirstAimedTime);
+
+    private final StopCallIndex stopCallIndex = new StopCallIndex(NetexUpdaterService::getQuays);
+
+    private volatile boolean stopCallIndexEnabled;
+
     protected EstimatedTimetables() {
         super(SiriDataType.ESTIMATED_TIMETABLE);
     }
@@ -122,6 +129,46 @@ public class EstimatedTimetables  extends SiriRepository<EstimatedVehicleJourney
                 Boolean.TRUE.equals(value.isExtraJourney()))
         );
         linkEntriesTtl(timetableDeliveries, changesMap, checksumCache, idStartTimeMap);
+        enableIndexes(configuration.isEtDeparturesEnabled());
+    }
+
+    /**
+     * Journeys are indexed by line on this node, and calls by stop if enabled - kept updated from entry listeners
+     */
+    private void enableIndexes(boolean indexStopCalls) {
+        long t1 = System.currentTimeMillis();
+        registerIndexListeners(timetableDeliveries, (key, journey) -> updateIndexes(key, journey, indexStopCalls));
+        stopCallIndexEnabled = indexStopCalls;
+        logger.info("Indexes initialized with {} journeys by line and {} journeys by stop in {} ms",
+            lineJourneyIndex.getIndexedJourneyCount(), stopCallIndex.getIndexedJourneyCount(), (System.currentTimeMillis() - t1));
+    }
+
+    /**
+     * @param journey Updated journey - null if removed
+     */
+    private void updateIndexes(SiriObjectStorageKey key, EstimatedVehicleJourney journey, boolean indexStopCalls) {
+        lineJourneyIndex.update(key, journey);
+        if (indexStopCalls) {
+            stopCallIndex.update(key, journey);
+        }
+    }
+
+    public boolean isStopCallIndexEnabled() {
+        return stopCallIndexEnabled;
+    }
+
+    /**
+     * Resolved from the node-local stop call index - journeys are read from the local cache when available
+     *
+     * @param stopIds Quays or stop places - stop places include calls at all their quays
+     * @param datasetId Only journeys from this dataset - all datasets if null
+     * @return Journeys calling at any of the stops from (inclusive) to (exclusive), ordered by the time of the first
+     * matching call
+     */
+    public List<EstimatedVehicleJourney> getJourneysCallingAt(Collection<String> stopIds, ZonedDateTime from, ZonedDateTime to,
+                                                             String datasetId, int maxSize) {
+        List<SiriObjectStorageKey> keys = stopCallIndex.find(stopIds, from.toInstant(), to.toInstant(), datasetId, maxSize);
+        return getByKeys(timetableDeliveries, keys);
     }
 
     /**
@@ -213,22 +260,20 @@ public class EstimatedTimetables  extends SiriRepository<EstimatedVehicleJourney
         changesMap.clear();
         lastUpdateRequested.clear();
         cache.clear();
+        lineJourneyIndex.clear();
+        stopCallIndex.clear();
     }
 
+    /**
+     * Resolved from the node-local line index, which is eventually consistent - a journey is included when its entry
+     * event has reached this node, not as soon as it is written.
+     *
+     * @return Journeys of the line, ordered by first aimed time
+     */
     public Siri createServiceDelivery(final String lineRef) {
-        SortedSet<EstimatedVehicleJourney> matchingEstimatedVehicleJourneys = new TreeSet<>((o1, o2) -> {
-            ZonedDateTime o1_firstTimestamp = getFirstAimedTime(o1);
-
-            ZonedDateTime o2_firstTimestamp = getFirstAimedTime(o2);
-
-            return o1_firstTimestamp.compareTo(o2_firstTimestamp);
-        });
-
-        final Set<SiriObjectStorageKey> lineRefKeys = timetableDeliveries.keySet(createHzLineRefPredicate(lineRef));
-
-        matchingEstimatedVehicleJourneys.addAll(timetableDeliveries.getAll(lineRefKeys).values());
+        List<SiriObjectStorageKey> lineRefKeys = lineJourneyIndex.find(URLDecoder.decode(lineRef, StandardCharsets.UTF_8));
 
-        return siriObjectFactory.createETServiceDelivery(matchingEstimatedVehicleJourneys);
+        return siriObjectFactory.createETServiceDelivery(getByKeys(timetableDeliveries, lineRefKeys));
     }
 
     public Siri createServiceDelivery(String requestorId, String datasetId, int maxSize) {
@@ -241,6 +286,34 @@ public class EstimatedTimetables  extends SiriRepository<EstimatedVehicleJourney
 
     public Siri createServiceDelivery(String requestorId, String datasetId, String clientTrackingName, List<String> excludedDatasetIds, int maxSize, long previewInterval) {
 
+        return createServiceDelivery(createStreamedServiceDelivery(requestorId, datasetId, clientTrackingName, excludedDatasetIds, maxSize, previewInterval));
+    }
+
+    /**
+     * @return ServiceDelivery with all journeys of the streamed delivery
+     */
+    public Siri createServiceDelivery(StreamedServiceDelivery delivery) {
+        long t1 = System.currentTimeMillis();
+        Collection<EstimatedVehicleJourney> values = timetableDeliveries.getAll(new HashSet<>(delivery.getIds())).values();
+        logger.info("Fetching data: {} ms", (System.currentTimeMillis()-t1));
+
+        Siri siri = delivery.getEnvelope();
+        siri.getServiceDelivery().getEstimatedTimetableDeliveries().get(0)
+            .getEstimatedJourneyVersionFrames().get(0)
+            .getEstimatedVehicleJourneies().addAll(values);
+
+        return siri;
+    }
+
+    /**
+     * Resolves the journeys to include in a ServiceDelivery - with the same filtering and change-tracking as
+     * createServiceDelivery - without fetching them. Journeys are fetched in batches with getEstimatedVehicleJourneys
+     * while the delivery is written, so that the full delivery is never held in memory.
+     *
+     * @return ServiceDelivery without journeys, and ids of journeys to include
+     */
+    public StreamedServiceDelivery createStreamedServiceDelivery(String requestorId, String datasetId, String clientTrackingName, List<String> excludedDatasetIds, int maxSize, long previewInterval) {
+
         requestorRefRepository.touchRequestorRef(requestorId, datasetId, clientTrackingName, SiriDataType.ESTIMATED_TIMETABLE);
 
         int trackingPeriodMinutes = configuration.getTrackingPeriodMinutes();
@@ -310,16 +383,21 @@ public class EstimatedTimetables  extends SiriRepository<EstimatedVehicleJourney
 
         logger.info("Filter by startTime: {}, limiting size: {} ms", (t2 - t1), (t3 - t2));
 
-        t1 = System.currentTimeMillis();
-
         Boolean isMoreData = (previewIntervalExclusionCounter.get() + sizeLimitedIds.size()) < requestedIds.size();
 
-        Collection<EstimatedVehicleJourney> values = timetableDeliveries.getAll(sizeLimitedIds).values();
-        logger.info("Fetching data: {} ms", (System.currentTimeMillis()-t1));
-        t1 = System.currentTimeMillis();
+        String nextCursor = null;
+        if (isAdHocRequest && isMoreData) {
+            List<SiriObjectStorageKey> remainingIds = requestedIds.stream()
+                    .filter(id -> !sizeLimitedIds.contains(id))
+                    .filter(id -> previewInterval < 0 || previewIntervalFilter.test(id))
+                    .collect(Collectors.toList());
 
-        Siri siri = siriObjectFactory.createETServiceDelivery(values);
-        logger.info("Creating SIRI-delivery: {} ms", (System.currentTimeMillis()-t1));
+            // Exact when all remaining ids have been resolved
+            isMoreData = !remainingIds.isEmpty();
+            nextCursor = createPagingCursor(remainingIds);
+        }
+
+        Siri siri = siriObjectFactory.createETServiceDelivery(new ArrayList<>());
 
         siri.getServiceDelivery().setMoreData(isMoreData);
 
@@ -337,7 +415,70 @@ public class EstimatedTimetables  extends SiriRepository<EstimatedVehicleJourney
             logger.info("Returning {}, {} left for requestorRef {}", sizeLimitedIds.size(), idSet.size(), requestorId);
         }
 
-        return siri;
+        return new StreamedServiceDelivery(siri, new ArrayList<>(sizeLimitedIds), nextCursor);
+    }
+
+    /**
+     * Resolves the next page of a response to a request without requestorId - journeys are fetched in batches as
+     * for createStreamedServiceDelivery
+     *
+     * @return null if the cursor is invalid or expired
+     */
+    public StreamedServiceDelivery createStreamedServiceDeliveryFromCursor(String cursor, int maxSize) {
+        PagingCursorRepository.Page page = getPagingCursorPage(cursor, maxSize);
+        if (page == null) {
+            return null;
+        }
+
+        Siri siri = siriObjectFactory.createETServiceDelivery(new ArrayList<>());
+        siri.getServiceDelivery().setMoreData(page.isMoreData());
+
+        return new StreamedServiceDelivery(siri, page.getIds(), page.getNextToken());
+    }
+
+    /**
+     * @return Journeys for the given ids in the same order - journeys removed since the ids were resolved are skipped
+     */
+    public List<EstimatedVehicleJourney> getEstimatedVehicleJourneys(List<SiriObjectStorageKey> ids) {
+        Map<SiriObjectStorageKey, EstimatedVehicleJourney> journeys = timetableDeliveries.getAll(new HashSet<>(ids));
+        List<EstimatedVehicleJourney> result = new ArrayList<>(journeys.size());
+        for (SiriObjectStorageKey id : ids) {
+            EstimatedVehicleJourney journey = journeys.get(id);
+            if (journey != null) {
+                result.add(journey);
+            }
+        }
+        return result;
+    }
+
+    public static class StreamedServiceDelivery {
+        private final Siri envelope;
+        private final List<SiriObjectStorageKey> ids;
+        private final String nextCursor;
+
+        StreamedServiceDelivery(Siri envelope, List<SiriObjectStorageKey> ids, String nextCursor) {
+            this.envelope = envelope;
+            this.ids = ids;
+            this.nextCursor = nextCursor;
+        }
+
+        /**
+         * @return ServiceDelivery with a single, empty EstimatedJourneyVersionFrame
+         */
+        public Siri getEnvelope() {
+            return envelope;
+        }
+
+        public List<SiriObjectStorageKey> getIds() {
+            return ids;
+        }
+
+        /**
+         * @return Token for the next page - null if there is no more data, or no paging cursor was created
+         */
+        public String getNextCursor() {
+            return nextCursor;
+        }
     }
     private void resolveContentMetrics(EstimatedVehicleJourney estimatedVehicleJourney, long expiration) {
 
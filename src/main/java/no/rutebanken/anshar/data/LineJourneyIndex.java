@@ -0,0 +1,129 @@
+/*
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ *   https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ */
+
+
+package no.rutebanken.anshar.data;
+
+import uk.org.siri.siri21.EstimatedVehicleJourney;
+
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+/**
+ * Node-local index of journeys by the lineRef of their key, ordered by first aimed time - so journeys of a line are
+ * found in order without reading all keys, and without sorting.
+ *
+ * The first aimed time is resolved once when a journey is written. Lines are matched ignoring case.
+ */
+class LineJourneyIndex {
+
+    private final Map<String, NavigableSet<IndexedJourney>> journeysByLine = new ConcurrentHashMap<>();
+    private final Map<SiriObjectStorageKey, IndexedJourney> journeys = new ConcurrentHashMap<>();
+    private final AtomicLong sequence = new AtomicLong();
+
+    private final Function<EstimatedVehicleJourney, ZonedDateTime> firstAimedTime;
+
+    LineJourneyIndex(Function<EstimatedVehicleJourney, ZonedDateTime> firstAimedTime) {
+        this.firstAimedTime = firstAimedTime;
+    }
+
+    /**
+     * Replaces the indexed journey
+     */
+    void update(SiriObjectStorageKey key, EstimatedVehicleJourney journey) {
+        IndexedJourney indexed = journey != null && key.getLineRef() != null ?
+                new IndexedJourney(key, normalize(key.getLineRef()), firstAimedTime.apply(journey).toInstant().toEpochMilli(),
+                        sequence.incrementAndGet()) : null;
+        journeys.compute(key, (k, previous) -> {
+            if (previous != null) {
+                journeysByLine.computeIfPresent(previous.line, (line, lineJourneys) -> {
+                    lineJourneys.remove(previous);
+                    return lineJourneys.isEmpty() ? null : lineJourneys;
+                });
+            }
+            if (indexed != null) {
+                journeysByLine.compute(indexed.line, (line, lineJourneys) -> {
+                    if (lineJourneys == null) {
+                        lineJourneys = new ConcurrentSkipListSet<>();
+                    }
+                    lineJourneys.add(indexed);
+                    return lineJourneys;
+                });
+            }
+            return indexed;
+        });
+    }
+
+    void remove(SiriObjectStorageKey key) {
+        update(key, null);
+    }
+
+    void clear() {
+        journeys.keySet().forEach(this::remove);
+    }
+
+    /**
+     * @return Keys of the journeys of the line, ordered by first aimed time
+     */
+    List<SiriObjectStorageKey> find(String lineRef) {
+        NavigableSet<IndexedJourney> lineJourneys = journeysByLine.get(normalize(lineRef));
+        List<SiriObjectStorageKey> keys = new ArrayList<>();
+        if (lineJourneys != null) {
+            for (IndexedJourney journey : lineJourneys) {
+                keys.add(journey.key);
+            }
+        }
+        return keys;
+    }
+
+    int getIndexedJourneyCount() {
+        return journeys.size();
+    }
+
+    private static String normalize(String lineRef) {
+        return lineRef.toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * Ordered by first aimed time - the sequence keeps journeys with the same time apart
+     */
+    private static class IndexedJourney implements Comparable<IndexedJourney> {
+        private final SiriObjectStorageKey key;
+        private final String line;
+        private final long firstAimedTime;
+        private final long sequence;
+
+        private IndexedJourney(SiriObjectStorageKey key, String line, long firstAimedTime, long sequence) {
+            this.key = key;
+            this.line = line;
+            this.firstAimedTime = firstAimedTime;
+            this.sequence = sequence;
+        }
+
+        @Override
+        public int compareTo(IndexedJourney other) {
+            int result = Long.compare(firstAimedTime, other.firstAimedTime);
+            return result != 0 ? result : Long.compare(sequence, other.sequence);
+        }
+    }
+}
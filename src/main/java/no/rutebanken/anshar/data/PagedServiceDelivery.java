@@ -0,0 +1,39 @@
+/*
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ *   https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ */
+
+package no.rutebanken.anshar.data;
+
+import uk.org.siri.siri21.Siri;
+
+public class PagedServiceDelivery {
+    private final Siri siri;
+    private final String nextCursor;
+
+    PagedServiceDelivery(Siri siri, String nextCursor) {
+        this.siri = siri;
+        this.nextCursor = nextCursor;
+    }
+
+    public Siri getSiri() {
+        return siri;
+    }
+
+    /**
+     * @return Token for the next page - null if there is no more data, or no paging cursor was created
+     */
+    public String getNextCursor() {
+        return nextCursor;
+    }
+}
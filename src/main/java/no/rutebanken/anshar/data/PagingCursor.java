@@ -0,0 +1,93 @@
+/*
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ *   https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ */
+
+package no.rutebanken.anshar.data;
+
+import no.rutebanken.anshar.subscription.SiriDataType;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Frozen, ordered list of ids remaining after the first page of a response. The list is never modified, so pages
+ * are read from it without writing it back.
+ *
+ * Pages are read with {@link PagingCursorSliceEntryProcessor} where the cursor is stored, so that only the ids of the
+ * page are transferred.
+ */
+public class PagingCursor implements Serializable {
+
+    private final SiriDataType dataType;
+    private final ArrayList<SiriObjectStorageKey> ids;
+
+    PagingCursor(SiriDataType dataType, List<SiriObjectStorageKey> ids) {
+        this.dataType = dataType;
+        this.ids = new ArrayList<>(ids);
+    }
+
+    SiriDataType getDataType() {
+        return dataType;
+    }
+
+    int size() {
+        return ids.size();
+    }
+
+    /**
+     * @return Max maxSize ids starting at position
+     */
+    List<SiriObjectStorageKey> getIds(int position, int maxSize) {
+        int end = (int) Math.min((long) position + Math.max(maxSize, 0), ids.size());
+        return new ArrayList<>(ids.subList(position, end));
+    }
+
+    /**
+     * @return Max maxSize ids starting at position - null if position is beyond the end of the cursor
+     */
+    Slice getSlice(int position, int maxSize) {
+        if (position > ids.size()) {
+            return null;
+        }
+        return new Slice(dataType, ids.size(), getIds(position, maxSize));
+    }
+
+    /**
+     * Part of a cursor, with the total number of ids in the cursor
+     */
+    static class Slice implements Serializable {
+        private final SiriDataType dataType;
+        private final int cursorSize;
+        private final List<SiriObjectStorageKey> ids;
+
+        Slice(SiriDataType dataType, int cursorSize, List<SiriObjectStorageKey> ids) {
+            this.dataType = dataType;
+            this.cursorSize = cursorSize;
+            this.ids = ids;
+        }
+
+        SiriDataType getDataType() {
+            return dataType;
+        }
+
+        int getCursorSize() {
+            return cursorSize;
+        }
+
+        List<SiriObjectStorageKey> getIds() {
+            return ids;
+        }
+    }
+}
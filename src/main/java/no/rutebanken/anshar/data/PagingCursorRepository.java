@@ -0,0 +1,183 @@
+/*
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ *   https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ */
+
+package no.rutebanken.anshar.data;
+
+import com.hazelcast.map.IMap;
+import no.rutebanken.anshar.config.AnsharConfiguration;
+import no.rutebanken.anshar.metrics.PrometheusMetricsService;
+import no.rutebanken.anshar.subscription.SiriDataType;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Keeps short-lived cursors for paging through responses to requests without requestorId.
+ *
+ * Clients get an opaque token that encodes cursor-id and position, so successive pages are read from the same frozen
+ * list of ids - independent of changes to the data, and of which instance serves the request.
+ *
+ * Each cursor is stored as one entry, and pages are read with an entry-processor on the member owning the entry - so
+ * only the ids of the requested page are transferred, regardless of the size of the cursor.
+ */
+@Component
+public class PagingCursorRepository {
+
+    private final Logger logger = LoggerFactory.getLogger(PagingCursorRepository.class);
+
+    private static final String TOKEN_SEPARATOR = ":";
+
+    @Autowired
+    @Qualifier("getPagingCursorMap")
+    private IMap<String, PagingCursor> cursors;
+
+    @Autowired
+    private AnsharConfiguration configuration;
+
+    @Autowired
+    private PrometheusMetricsService metrics;
+
+    private final AtomicLong createdCount = new AtomicLong();
+    private final AtomicLong rejectedCount = new AtomicLong();
+    private final AtomicLong invalidCount = new AtomicLong();
+
+    @PostConstruct
+    private void registerMetrics() {
+        metrics.registerPagingCursors(this);
+    }
+
+    /**
+     * Freezes the ids in the given order
+     *
+     * @return Token for the first page of the ids - null if there are no ids, or limits are exceeded
+     */
+    public String create(SiriDataType dataType, List<SiriObjectStorageKey> ids) {
+        if (ids.isEmpty()) {
+            return null;
+        }
+        if (ids.size() > configuration.getCursorMaxIds() || cursors.size() >= configuration.getCursorMaxCount()) {
+            rejectedCount.incrementAndGet();
+            logger.info("Cursor with {} ids not created - {} cursors active", ids.size(), cursors.size());
+            return null;
+        }
+
+        String cursorId = UUID.randomUUID().toString();
+        cursors.set(cursorId, new PagingCursor(dataType, ids), configuration.getCursorTtlSeconds(), TimeUnit.SECONDS);
+        createdCount.incrementAndGet();
+
+        return encodeToken(cursorId, 0);
+    }
+
+    /**
+     * @return Max maxSize ids from the position in the token, and token for the next page - null if the token is
+     * invalid, expired or created for a different datatype
+     */
+    public Page getPage(SiriDataType dataType, String token, int maxSize) {
+        String[] decoded = decodeToken(token);
+        int position = decoded != null ? Integer.parseInt(decoded[1]) : 0;
+        PagingCursor.Slice slice = decoded != null ?
+            cursors.executeOnKey(decoded[0], new PagingCursorSliceEntryProcessor(position, maxSize)) : null;
+        if (slice == null || slice.getDataType() != dataType) {
+            invalidCount.incrementAndGet();
+            return null;
+        }
+
+        List<SiriObjectStorageKey> ids = slice.getIds();
+
+        String nextToken = null;
+        if (position + ids.size() < slice.getCursorSize()) {
+            nextToken = encodeToken(decoded[0], position + ids.size());
+            // Kept as long as pages are requested - cursor is shared by all clients of the same snapshot
+            cursors.setTtl(decoded[0], configuration.getCursorTtlSeconds(), TimeUnit.SECONDS);
+        }
+
+        logger.info("Returning {} ids from position {}, {} left", ids.size(), position, slice.getCursorSize() - position - ids.size());
+
+        return new Page(ids, nextToken);
+    }
+
+    static String encodeToken(String cursorId, int position) {
+        String token = String.join(TOKEN_SEPARATOR, cursorId, Integer.toString(position));
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(token.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * @return cursor-id and position - null if token is malformed
+     */
+    static String[] decodeToken(String token) {
+        try {
+            String[] decoded = new String(Base64.getUrlDecoder().decode(token), StandardCharsets.UTF_8)
+                .split(TOKEN_SEPARATOR);
+            if (decoded.length != 2 || Integer.parseInt(decoded[1]) < 0) {
+                return null;
+            }
+            return decoded;
+        } catch (IllegalArgumentException e) {
+            // Also covers NumberFormatException
+            return null;
+        }
+    }
+
+    public int getActiveCount() {
+        return cursors.size();
+    }
+
+    public long getCreatedCount() {
+        return createdCount.get();
+    }
+
+    public long getRejectedCount() {
+        return rejectedCount.get();
+    }
+
+    public long getInvalidCount() {
+        return invalidCount.get();
+    }
+
+    public static class Page {
+        private final List<SiriObjectStorageKey> ids;
+        private final String nextToken;
+
+        Page(List<SiriObjectStorageKey> ids, String nextToken) {
+            this.ids = ids;
+            this.nextToken = nextToken;
+        }
+
+        public List<SiriObjectStorageKey> getIds() {
+            return ids;
+        }
+
+        /**
+         * @return Token for the next page - null if this is the last page
+         */
+        public String getNextToken() {
+            return nextToken;
+        }
+
+        public boolean isMoreData() {
+            return nextToken != null;
+        }
+    }
+}
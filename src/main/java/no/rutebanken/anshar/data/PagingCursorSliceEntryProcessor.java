@@ -0,0 +1,32 @@
+package no.rutebanken.anshar.data;
+
+import com.hazelcast.core.ReadOnly;
+import com.hazelcast.map.EntryProcessor;
+
+import java.util.Map;
+
+/**
+ * Reads a page of a cursor where it is stored - only the ids of the page are returned
+ */
+public class PagingCursorSliceEntryProcessor implements EntryProcessor<String, PagingCursor, PagingCursor.Slice>, ReadOnly {
+
+    private final int position;
+    private final int maxSize;
+
+    public PagingCursorSliceEntryProcessor(int position, int maxSize) {
+        this.position = position;
+        this.maxSize = maxSize;
+    }
+
+    @Override
+    public PagingCursor.Slice process(Map.Entry<String, PagingCursor> entry) {
+        PagingCursor cursor = entry.getValue();
+        return cursor != null ? cursor.getSlice(position, maxSize) : null;
+    }
+
+    @Override
+    public EntryProcessor<String, PagingCursor, PagingCursor.Slice> getBackupProcessor() {
+        // Read-only - nothing to apply to backups
+        return null;
+    }
+}
@@ -44,6 +44,7 @@ import java.time.Instant;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
@@ -52,6 +53,8 @@ import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
 import java.util.stream.Collectors;
 
 abstract class SiriRepository<T> {
@@ -88,8 +91,21 @@ abstract class SiriRepository<T> {
     @Autowired
     protected RequestorRefRepository requestorRefRepository;
 
+    @Autowired
+    protected PagingCursorRepository pagingCursorRepository;
+
     Map<SiriObjectStorageKey, T> cache = Maps.newConcurrentMap();
 
+    /*
+     * Versions are increased for every change to the repository, both in total and per codespace
+     */
+    private final AtomicLong changeVersion = new AtomicLong();
+    private final Map<String, AtomicLong> codespaceChangeVersions = Maps.newConcurrentMap();
+
+    private final Instant initialized = Instant.now();
+    private volatile Instant lastChanged = initialized;
+    private final Map<String, Instant> codespaceLastChanged = Maps.newConcurrentMap();
+
     protected SiriRepository (SiriDataType siriDataType) {
         this.SIRI_DATA_TYPE = siriDataType;
     }
@@ -106,6 +122,7 @@ abstract class SiriRepository<T> {
             if (includeInCachePredicate == null || includeInCachePredicate.test(entryEvent.getValue())) {
                 cache.put(entryEvent.getKey(), entryEvent.getValue());
             }
+            markChanged(entryEvent.getKey());
         }, true);
 
         // Entry updated - new version
@@ -114,24 +131,28 @@ abstract class SiriRepository<T> {
             if (includeInCachePredicate == null || includeInCachePredicate.test(entryEvent.getValue())) {
                 cache.put(entryEvent.getKey(), entryEvent.getValue());
             }
+            markChanged(entryEvent.getKey());
         }, true);
 
         //Entry expired by TTL
         map.addEntryListener((EntryExpiredListener<SiriObjectStorageKey, T>) entryEvent -> {
 
             cache.remove(entryEvent.getKey());
+            markChanged(entryEvent.getKey());
         }, false);
 
         // Entry evicted
         map.addEntryListener((EntryEvictedListener<SiriObjectStorageKey, T>) entryEvent -> {
 
             cache.remove(entryEvent.getKey());
+            markChanged(entryEvent.getKey());
         }, false);
 
         // Entry removed - e.g. "delete all for codespace"
         map.addEntryListener((EntryRemovedListener<SiriObjectStorageKey, T>) entryEvent -> {
 
             cache.remove(entryEvent.getKey());
+            markChanged(entryEvent.getKey());
         }, false);
 
         // Initialize cache
@@ -150,6 +171,133 @@ abstract class SiriRepository<T> {
         logger.info("Cache initialized with {} elements in {} ms", cache.size(), (System.currentTimeMillis()-t1));
     }
 
+    /**
+     * Keeps a node-local index updated from entry listeners, and fills it with the current content of the map. The
+     * index is eventually consistent - changes are indexed when the entry event reaches this node.
+     *
+     * Events received while the index is filled take precedence, so that the fill does not overwrite a newer value
+     * with the value read from the map.
+     *
+     * @param index Called with the updated value, or null when the entry is removed
+     */
+    protected void registerIndexListeners(IMap<SiriObjectStorageKey, T> map, BiConsumer<SiriObjectStorageKey, T> index) {
+        IndexFill fill = new IndexFill();
+        BiConsumer<SiriObjectStorageKey, T> update = (key, value) -> {
+            if (fill.filling) {
+                synchronized (fill) {
+                    if (fill.filling) {
+                        fill.updatedKeys.add(key);
+                    }
+                    index.accept(key, value);
+                }
+            } else {
+                index.accept(key, value);
+            }
+        };
+
+        map.addEntryListener((EntryAddedListener<SiriObjectStorageKey, T>) entryEvent ->
+            update.accept(entryEvent.getKey(), entryEvent.getValue()), true);
+
+        map.addEntryListener((EntryUpdatedListener<SiriObjectStorageKey, T>) entryEvent ->
+            update.accept(entryEvent.getKey(), entryEvent.getValue()), true);
+
+        map.addEntryListener((EntryExpiredListener<SiriObjectStorageKey, T>) entryEvent ->
+            update.accept(entryEvent.getKey(), null), false);
+
+        map.addEntryListener((EntryEvictedListener<SiriObjectStorageKey, T>) entryEvent ->
+            update.accept(entryEvent.getKey(), null), false);
+
+        map.addEntryListener((EntryRemovedListener<SiriObjectStorageKey, T>) entryEvent ->
+            update.accept(entryEvent.getKey(), null), false);
+
+        for (Map.Entry<SiriObjectStorageKey, T> entry : map.entrySet()) {
+            synchronized (fill) {
+                if (!fill.updatedKeys.contains(entry.getKey())) {
+                    index.accept(entry.getKey(), entry.getValue());
+                }
+            }
+        }
+        synchronized (fill) {
+            fill.filling = false;
+            fill.updatedKeys.clear();
+        }
+    }
+
+    /**
+     * Keys updated from entry listeners while an index is filled
+     */
+    private static class IndexFill {
+        private volatile boolean filling = true;
+        private final Set<SiriObjectStorageKey> updatedKeys = new HashSet<>();
+    }
+
+    /**
+     * Read from the local cache when available - order of the keys is kept
+     */
+    protected List<T> getByKeys(IMap<SiriObjectStorageKey, T> map, List<SiriObjectStorageKey> keys) {
+        Map<SiriObjectStorageKey, T> values = new HashMap<>();
+        Set<SiriObjectStorageKey> notCached = new HashSet<>();
+        for (SiriObjectStorageKey key : keys) {
+            T value = cache.get(key);
+            if (value != null) {
+                values.put(key, value);
+            } else {
+                notCached.add(key);
+            }
+        }
+        if (!notCached.isEmpty()) {
+            values.putAll(map.getAll(notCached));
+        }
+
+        List<T> result = new ArrayList<>(keys.size());
+        for (SiriObjectStorageKey key : keys) {
+            T value = values.get(key);
+            if (value != null) {
+                result.add(value);
+            }
+        }
+        return result;
+    }
+
+    private void markChanged(SiriObjectStorageKey key) {
+        Instant now = Instant.now();
+        if (key.getCodespaceId() != null) {
+            codespaceLastChanged.put(key.getCodespaceId(), now);
+            codespaceChangeVersions.computeIfAbsent(key.getCodespaceId(), k -> new AtomicLong()).incrementAndGet();
+        }
+        lastChanged = now;
+        changeVersion.incrementAndGet();
+    }
+
+    /**
+     * @return Version that is increased for every change to the data in this repository
+     */
+    public long getChangeVersion() {
+        return changeVersion.get();
+    }
+
+    /**
+     * @return Version that is increased for every change to the data for the given codespace - or for any codespace
+     * if codespaceId is null
+     */
+    public long getChangeVersion(String codespaceId) {
+        if (codespaceId == null) {
+            return getChangeVersion();
+        }
+        AtomicLong version = codespaceChangeVersions.get(codespaceId);
+        return version != null ? version.get() : 0;
+    }
+
+    /**
+     * @return Time of last change to the data for the given codespace - or for any codespace if codespaceId is null
+     */
+    public Instant getLastChanged(String codespaceId) {
+        if (codespaceId == null) {
+            return lastChanged;
+        }
+        return codespaceLastChanged.getOrDefault(codespaceId, initialized);
+    }
+
     /**
      * Links entries across provided Maps.
      *
@@ -360,6 +508,22 @@ abstract class SiriRepository<T> {
         logger.info("Changetracker-update submitted");
     }
 
+    /**
+     * Freezes the ids remaining after the first page of a request without requestorId
+     *
+     * @return Token for the next page - null if no cursor was created
+     */
+    String createPagingCursor(List<SiriObjectStorageKey> remainingIds) {
+        return pagingCursorRepository.create(SIRI_DATA_TYPE, remainingIds);
+    }
+
+    /**
+     * @return Next page of ids for the cursor - null if the cursor is invalid or expired
+     */
+    PagingCursorRepository.Page getPagingCursorPage(String cursor, int maxSize) {
+        return pagingCursorRepository.getPage(SIRI_DATA_TYPE, cursor, maxSize);
+    }
+
     /**
      * Helper method to retrieve multiple values by ids
      * @param collection
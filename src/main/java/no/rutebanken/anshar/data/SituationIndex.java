@@ -0,0 +1,257 @@
+/*
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ *   https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ */
+
+
+package no.rutebanken.anshar.data;
+
+import uk.org.siri.siri21.HalfOpenTimestampOutputRangeStructure;
+import uk.org.siri.siri21.PtSituationElement;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static no.rutebanken.anshar.routes.siri.transformer.impl.OutboundIdAdapter.getMappedId;
+
+/**
+ * Node-local index of situations by affected line, stop point, stop place and vehicle journey - so situations
+ * affecting an entity are found without walking the Affects-structure of all situations.
+ *
+ * Validity periods are only ordered by end time, which skips periods that have ended - this is not an interval index.
+ * Filtering by validity alone is linear in the number of situations that are still valid or planned, bounded by
+ * maxSize when enough situations match.
+ *
+ * Ids are indexed as mapped ids, as returned by default.
+ */
+class SituationIndex {
+
+    enum AffectedEntity {
+        LINE, STOP_POINT, STOP_PLACE, VEHICLE_JOURNEY
+    }
+
+    private final Map<AffectedEntity, Map<String, Set<SiriObjectStorageKey>>> keysByEntity = Map.of(
+            AffectedEntity.LINE, new ConcurrentHashMap<>(),
+            AffectedEntity.STOP_POINT, new ConcurrentHashMap<>(),
+            AffectedEntity.STOP_PLACE, new ConcurrentHashMap<>(),
+            AffectedEntity.VEHICLE_JOURNEY, new ConcurrentHashMap<>()
+    );
+    private final NavigableSet<ValidityPeriod> periodsByEnd = new ConcurrentSkipListSet<>();
+    private final Map<SiriObjectStorageKey, IndexedSituation> situations = new ConcurrentHashMap<>();
+    private final AtomicLong sequence = new AtomicLong();
+
+    /**
+     * Replaces the indexed entities and validity periods of the situation
+     */
+    void update(SiriObjectStorageKey key, PtSituationElement situation) {
+        IndexedSituation indexed = situation != null ? createIndexedSituation(key, situation) : null;
+        situations.compute(key, (k, previous) -> {
+            if (previous != null) {
+                previous.forEachEntity((entity, id) -> removeKey(entity, id, key));
+                previous.periods.forEach(periodsByEnd::remove);
+            }
+            if (indexed != null) {
+                indexed.forEachEntity((entity, id) -> addKey(entity, id, key));
+                periodsByEnd.addAll(indexed.periods);
+            }
+            return indexed;
+        });
+    }
+
+    void remove(SiriObjectStorageKey key) {
+        update(key, null);
+    }
+
+    void clear() {
+        situations.keySet().forEach(this::remove);
+    }
+
+    /**
+     * @param affected Ids by type of entity - situations affecting any of the entities match. All situations match
+     *                 when no ids are given
+     * @param validFrom Start of the validity window - validity is not checked if null
+     * @param validTo End of the validity window - same as validFrom for situations valid at a point in time
+     * @param datasetId Only situations from this dataset - all datasets if null
+     */
+    List<SiriObjectStorageKey> find(Map<AffectedEntity, ? extends Collection<String>> affected, Instant validFrom,
+                                    Instant validTo, String datasetId, int maxSize) {
+        long from = validFrom != null ? validFrom.toEpochMilli() : Long.MIN_VALUE;
+        long to = validTo != null ? validTo.toEpochMilli() : from;
+
+        Set<SiriObjectStorageKey> candidates = new LinkedHashSet<>();
+        boolean filteredByEntity = false;
+        for (Map.Entry<AffectedEntity, ? extends Collection<String>> ids : affected.entrySet()) {
+            for (String id : ids.getValue()) {
+                filteredByEntity = true;
+                Set<SiriObjectStorageKey> keys = keysByEntity.get(ids.getKey()).get(id);
+                if (keys != null) {
+                    candidates.addAll(keys);
+                }
+            }
+        }
+
+        if (!filteredByEntity) {
+            if (validFrom != null) {
+                return findValidWithin(from, to, datasetId, maxSize);
+            }
+            candidates.addAll(situations.keySet());
+        }
+
+        List<SiriObjectStorageKey> result = new ArrayList<>();
+        for (SiriObjectStorageKey key : candidates) {
+            if (result.size() >= maxSize) {
+                break;
+            }
+            IndexedSituation situation = situations.get(key);
+            if (situation != null &&
+                    (datasetId == null || datasetId.equals(key.getCodespaceId())) &&
+                    (validFrom == null || situation.isValidWithin(from, to))) {
+                result.add(key);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Walks all periods ending after the window, in order of end time, until maxSize situations are found
+     */
+    private List<SiriObjectStorageKey> findValidWithin(long from, long to, String datasetId, int maxSize) {
+        Set<SiriObjectStorageKey> result = new LinkedHashSet<>();
+        ValidityPeriod lower = new ValidityPeriod(null, 0, from, Long.MAX_VALUE);
+        for (ValidityPeriod period : periodsByEnd.tailSet(lower, false)) {
+            if (result.size() >= maxSize) {
+                break;
+            }
+            if (period.start <= to && (datasetId == null || datasetId.equals(period.key.getCodespaceId())) &&
+                    situations.containsKey(period.key)) {
+                result.add(period.key);
+            }
+        }
+        return new ArrayList<>(result);
+    }
+
+    int getIndexedSituationCount() {
+        return situations.size();
+    }
+
+    private void addKey(AffectedEntity entity, String id, SiriObjectStorageKey key) {
+        keysByEntity.get(entity).compute(id, (i, keys) -> {
+            if (keys == null) {
+                keys = ConcurrentHashMap.newKeySet();
+            }
+            keys.add(key);
+            return keys;
+        });
+    }
+
+    private void removeKey(AffectedEntity entity, String id, SiriObjectStorageKey key) {
+        keysByEntity.get(entity).computeIfPresent(id, (i, keys) -> {
+            keys.remove(key);
+            return keys.isEmpty() ? null : keys;
+        });
+    }
+
+    private IndexedSituation createIndexedSituation(SiriObjectStorageKey key, PtSituationElement situation) {
+        AffectedEntities affected = AffectedEntities.of(situation);
+
+        Map<AffectedEntity, Set<String>> ids = Map.of(
+                AffectedEntity.LINE, mapIds(affected.getLineRefs()),
+                AffectedEntity.STOP_POINT, mapIds(affected.getStopPointRefs()),
+                AffectedEntity.STOP_PLACE, mapIds(affected.getStopPlaceRefs()),
+                AffectedEntity.VEHICLE_JOURNEY, mapIds(affected.getVehicleJourneyRefs())
+        );
+
+        List<ValidityPeriod> periods = new ArrayList<>();
+        if (situation.getValidityPeriods() != null) {
+            for (HalfOpenTimestampOutputRangeStructure validity : situation.getValidityPeriods()) {
+                if (validity != null) {
+                    long start = validity.getStartTime() != null ? validity.getStartTime().toInstant().toEpochMilli() : Long.MIN_VALUE;
+                    long end = validity.getEndTime() != null ? validity.getEndTime().toInstant().toEpochMilli() : Long.MAX_VALUE;
+                    periods.add(new ValidityPeriod(key, start, end, sequence.incrementAndGet()));
+                }
+            }
+        }
+        if (periods.isEmpty()) {
+            // Without validity periods the situation is kept as valid
+            periods.add(new ValidityPeriod(key, Long.MIN_VALUE, Long.MAX_VALUE, sequence.incrementAndGet()));
+        }
+        return new IndexedSituation(ids, periods);
+    }
+
+    private static Set<String> mapIds(Set<String> ids) {
+        Set<String> mapped = new LinkedHashSet<>();
+        for (String id : ids) {
+            mapped.add(getMappedId(id));
+        }
+        return mapped;
+    }
+
+    private interface EntityConsumer {
+        void accept(AffectedEntity entity, String id);
+    }
+
+    private static class IndexedSituation {
+        private final Map<AffectedEntity, Set<String>> ids;
+        private final List<ValidityPeriod> periods;
+
+        private IndexedSituation(Map<AffectedEntity, Set<String>> ids, List<ValidityPeriod> periods) {
+            this.ids = ids;
+            this.periods = periods;
+        }
+
+        private void forEachEntity(EntityConsumer consumer) {
+            ids.forEach((entity, entityIds) -> entityIds.forEach(id -> consumer.accept(entity, id)));
+        }
+
+        private boolean isValidWithin(long from, long to) {
+            for (ValidityPeriod period : periods) {
+                if (period.start <= to && period.end > from) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    /**
+     * Ordered by end time - the sequence keeps periods with the same end apart
+     */
+    private static class ValidityPeriod implements Comparable<ValidityPeriod> {
+        private final SiriObjectStorageKey key;
+        private final long start;
+        private final long end;
+        private final long sequence;
+
+        private ValidityPeriod(SiriObjectStorageKey key, long start, long end, long sequence) {
+            this.key = key;
+            this.start = start;
+            this.end = end;
+            this.sequence = sequence;
+        }
+
+        @Override
+        public int compareTo(ValidityPeriod other) {
+            int result = Long.compare(end, other.end);
+            return result != 0 ? result : Long.compare(sequence, other.sequence);
+        }
+    }
+}
@@ -38,6 +38,7 @@ import java.time.ZonedDateTime;
 import java.time.temporal.ChronoUnit;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.EnumMap;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
@@ -77,6 +78,10 @@ public class Situations extends SiriRepository<PtSituationElement> {
     @Autowired
     ExtendedHazelcastService hazelcastService;
 
+    private final SituationIndex situationIndex = new SituationIndex();
+
+    private volatile boolean situationIndexEnabled;
+
     protected Situations() {
         super(SiriDataType.SITUATION_EXCHANGE);
     }
@@ -88,6 +93,56 @@ public class Situations extends SiriRepository<PtSituationElement> {
         enableCache(situationElements);
 
         linkEntriesTtl(situationElements, changesMap, checksumCache);
+        if (configuration.isSxAffectsQueryEnabled()) {
+            enableSituationIndex();
+        }
+    }
+
+    /**
+     * Affected entities and validity of all situations are indexed on this node, and kept updated from entry listeners
+     */
+    private void enableSituationIndex() {
+        long t1 = System.currentTimeMillis();
+        registerIndexListeners(situationElements, (key, situation) -> {
+            if (situation != null) {
+                situationIndex.update(key, situation);
+            } else {
+                situationIndex.remove(key);
+            }
+        });
+        situationIndexEnabled = true;
+        logger.info("Situation index initialized with {} situations in {} ms", situationIndex.getIndexedSituationCount(),
+            (System.currentTimeMillis() - t1));
+    }
+
+    public boolean isSituationIndexEnabled() {
+        return situationIndexEnabled;
+    }
+
+    /**
+     * Resolved from the node-local situation index - situations are read from the local cache when available
+     *
+     * @param lineRefs Lines affected through AffectedNetworks - may be null
+     * @param stopPointRefs Affected stop points - may be null
+     * @param stopPlaceRefs Affected stop places - may be null
+     * @param vehicleJourneyRefs Affected vehicle journeys - may be null
+     * @param validAt Only situations with a validity period covering this time - validity is not checked if null
+     * @param datasetId Only situations from this dataset - all datasets if null
+     * @return Situations affecting any of the given entities - all situations if no entities are given
+     */
+    public List<PtSituationElement> getAffectingSituations(Collection<String> lineRefs, Collection<String> stopPointRefs,
+                                                          Collection<String> stopPlaceRefs, Collection<String> vehicleJourneyRefs,
+                                                          ZonedDateTime validAt, String datasetId, int maxSize) {
+        Map<SituationIndex.AffectedEntity, Collection<String>> affected = new EnumMap<>(SituationIndex.AffectedEntity.class);
+        affected.put(SituationIndex.AffectedEntity.LINE, lineRefs != null ? lineRefs : List.of());
+        affected.put(SituationIndex.AffectedEntity.STOP_POINT, stopPointRefs != null ? stopPointRefs : List.of());
+        affected.put(SituationIndex.AffectedEntity.STOP_PLACE, stopPlaceRefs != null ? stopPlaceRefs : List.of());
+        affected.put(SituationIndex.AffectedEntity.VEHICLE_JOURNEY, vehicleJourneyRefs != null ? vehicleJourneyRefs : List.of());
+
+        Instant validAtInstant = validAt != null ? validAt.toInstant() : null;
+        List<SiriObjectStorageKey> keys = situationIndex.find(affected, validAtInstant, validAtInstant, datasetId, maxSize);
+
+        return getByKeys(situationElements, keys);
     }
 
     /**
@@ -158,9 +213,18 @@ public class Situations extends SiriRepository<PtSituationElement> {
         situationElements.clear();
         checksumCache.clear();
         cache.clear();
+        situationIndex.clear();
     }
 
     public Siri createServiceDelivery(String requestorId, String datasetId, String clientName, int maxSize) {
+        return createPagedServiceDelivery(requestorId, datasetId, clientName, maxSize).getSiri();
+    }
+
+    /**
+     * As createServiceDelivery - for requests without requestorId, the remaining ids are frozen in a paging cursor
+     * when the response is limited by maxSize
+     */
+    public PagedServiceDelivery createPagedServiceDelivery(String requestorId, String datasetId, String clientName, int maxSize) {
 
         requestorRefRepository.touchRequestorRef(requestorId, datasetId, clientName, SiriDataType.SITUATION_EXCHANGE);
 
@@ -200,7 +264,13 @@ public class Situations extends SiriRepository<PtSituationElement> {
         siri.getServiceDelivery().setMoreData(isMoreData);
         logger.info("Creating SIRI-delivery: {} ms", (System.currentTimeMillis()-start));
 
+        String nextCursor = null;
         if (isAdHocRequest) {
+            if (isMoreData) {
+                nextCursor = createPagingCursor(requestedIds.stream()
+                        .filter(id -> !sizeLimitedIds.contains(id))
+                        .collect(Collectors.toList()));
+            }
             logger.info("Returning {}, no requestorRef is set", sizeLimitedIds.size());
         } else {
 
@@ -215,7 +285,25 @@ public class Situations extends SiriRepository<PtSituationElement> {
             logger.info("Returning {}, {} left for requestorRef {}", sizeLimitedIds.size(), idSet.size(), requestorId);
         }
 
-        return siri;
+        return new PagedServiceDelivery(siri, nextCursor);
+    }
+
+    /**
+     * @return Next page of a response to a request without requestorId - null if the cursor is invalid or expired
+     */
+    public PagedServiceDelivery createServiceDeliveryFromCursor(String cursor, int maxSize) {
+        PagingCursorRepository.Page page = getPagingCursorPage(cursor, maxSize);
+        if (page == null) {
+            return null;
+        }
+
+        // Objects removed since the cursor was created are skipped
+        Collection<PtSituationElement> values = situationElements.getAll(new HashSet<>(page.getIds())).values();
+
+        Siri siri = siriObjectFactory.createSXServiceDelivery(values);
+        siri.getServiceDelivery().setMoreData(page.isMoreData());
+
+        return new PagedServiceDelivery(siri, page.getNextToken());
     }
     /**
      * @return All vehicle activities that are still valid
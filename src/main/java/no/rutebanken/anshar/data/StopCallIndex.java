@@ -0,0 +1,207 @@
+/*
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ *   https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ */
+
+package no.rutebanken.anshar.data;
+
+import uk.org.siri.siri21.EstimatedCall;
+import uk.org.siri.siri21.EstimatedVehicleJourney;
+import uk.org.siri.siri21.RecordedCall;
+import uk.org.siri.siri21.StopPointRefStructure;
+
+import java.time.Instant;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+import static no.rutebanken.anshar.routes.siri.transformer.impl.OutboundIdAdapter.getMappedId;
+
+/**
+ * Node-local index of ET-calls by stop, ordered by time - so journeys calling at a stop within a time window are found
+ * without reading all journeys.
+ *
+ * Calls are indexed by the mapped id of the StopPointRef, with the departure time - or the arrival time for calls
+ * without departure.
+ * Stop places are resolved to their quays when searching, so the index does not depend on route data being loaded
+ * when journeys are indexed.
+ */
+class StopCallIndex {
+
+    private final Map<String, NavigableSet<IndexedCall>> callsByStop = new ConcurrentHashMap<>();
+    private final Map<SiriObjectStorageKey, List<IndexedCall>> callsByJourney = new ConcurrentHashMap<>();
+    private final AtomicLong sequence = new AtomicLong();
+
+    private final Function<String, List<String>> quaysByStopPlace;
+
+    /**
+     * @param quaysByStopPlace Resolves quays of a stop place - empty if the id is not a known stop place
+     */
+    StopCallIndex(Function<String, List<String>> quaysByStopPlace) {
+        this.quaysByStopPlace = quaysByStopPlace;
+    }
+
+    /**
+     * Replaces the indexed calls of the journey
+     */
+    void update(SiriObjectStorageKey key, EstimatedVehicleJourney journey) {
+        List<IndexedCall> calls = journey != null ? createCalls(key, journey) : null;
+        callsByJourney.compute(key, (k, previous) -> {
+            if (previous != null) {
+                previous.forEach(this::removeCall);
+            }
+            if (calls == null || calls.isEmpty()) {
+                return null;
+            }
+            calls.forEach(this::addCall);
+            return calls;
+        });
+    }
+
+    void remove(SiriObjectStorageKey key) {
+        update(key, null);
+    }
+
+    void clear() {
+        callsByJourney.keySet().forEach(this::remove);
+    }
+
+    /**
+     * @param stopIds Quays or stop places
+     * @param datasetId Only journeys from this dataset - all datasets if null
+     * @return Journeys with a call at any of the stops from (inclusive) to (exclusive), ordered by the time of the first
+     * matching call
+     */
+    List<SiriObjectStorageKey> find(Collection<String> stopIds, Instant from, Instant to, String datasetId, int maxSize) {
+        IndexedCall lower = new IndexedCall(null, null, from.getEpochSecond(), Long.MIN_VALUE);
+        IndexedCall upper = new IndexedCall(null, null, to.getEpochSecond(), Long.MIN_VALUE);
+
+        List<IndexedCall> matches = new ArrayList<>();
+        for (String stopId : resolveStops(stopIds)) {
+            NavigableSet<IndexedCall> calls = callsByStop.get(stopId);
+            if (calls != null) {
+                for (IndexedCall call : calls.subSet(lower, true, upper, false)) {
+                    if (datasetId == null || datasetId.equals(call.key.getCodespaceId())) {
+                        matches.add(call);
+                    }
+                }
+            }
+        }
+        matches.sort(null);
+
+        Set<SiriObjectStorageKey> keys = new LinkedHashSet<>();
+        for (IndexedCall call : matches) {
+            if (keys.size() >= maxSize) {
+                break;
+            }
+            keys.add(call.key);
+        }
+        return new ArrayList<>(keys);
+    }
+
+    int getIndexedJourneyCount() {
+        return callsByJourney.size();
+    }
+
+    private Set<String> resolveStops(Collection<String> stopIds) {
+        Set<String> resolved = new LinkedHashSet<>();
+        for (String stopId : stopIds) {
+            resolved.add(stopId);
+            resolved.addAll(quaysByStopPlace.apply(stopId));
+        }
+        return resolved;
+    }
+
+    private void addCall(IndexedCall call) {
+        callsByStop.compute(call.stopId, (stopId, calls) -> {
+            if (calls == null) {
+                calls = new ConcurrentSkipListSet<>();
+            }
+            calls.add(call);
+            return calls;
+        });
+    }
+
+    private void removeCall(IndexedCall call) {
+        callsByStop.computeIfPresent(call.stopId, (stopId, calls) -> {
+            calls.remove(call);
+            return calls.isEmpty() ? null : calls;
+        });
+    }
+
+    private List<IndexedCall> createCalls(SiriObjectStorageKey key, EstimatedVehicleJourney journey) {
+        List<IndexedCall> calls = new ArrayList<>();
+        if (journey.getRecordedCalls() != null) {
+            for (RecordedCall call : journey.getRecordedCalls().getRecordedCalls()) {
+                addCall(calls, key, call.getStopPointRef(), call.getActualDepartureTime(), call.getExpectedDepartureTime(),
+                        call.getAimedDepartureTime(), call.getActualArrivalTime(), call.getExpectedArrivalTime(),
+                        call.getAimedArrivalTime());
+            }
+        }
+        if (journey.getEstimatedCalls() != null) {
+            for (EstimatedCall call : journey.getEstimatedCalls().getEstimatedCalls()) {
+                addCall(calls, key, call.getStopPointRef(), call.getExpectedDepartureTime(), call.getAimedDepartureTime(),
+                        call.getExpectedArrivalTime(), call.getAimedArrivalTime());
+            }
+        }
+        return calls;
+    }
+
+    /**
+     * @param times Candidate times in order of preference - the first that is set is used
+     */
+    private void addCall(List<IndexedCall> calls, SiriObjectStorageKey key, StopPointRefStructure stopPointRef, ZonedDateTime... times) {
+        if (stopPointRef == null || stopPointRef.getValue() == null) {
+            return;
+        }
+        for (ZonedDateTime time : times) {
+            if (time != null) {
+                calls.add(new IndexedCall(getMappedId(stopPointRef.getValue()), key, time.toEpochSecond(),
+                        sequence.incrementAndGet()));
+                return;
+            }
+        }
+    }
+
+    /**
+     * Ordered by time - the sequence keeps calls at the same time apart
+     */
+    private static class IndexedCall implements Comparable<IndexedCall> {
+        private final String stopId;
+        private final SiriObjectStorageKey key;
+        private final long epochSecond;
+        private final long sequence;
+
+        private IndexedCall(String stopId, SiriObjectStorageKey key, long epochSecond, long sequence) {
+            this.stopId = stopId;
+            this.key = key;
+            this.epochSecond = epochSecond;
+            this.sequence = sequence;
+        }
+
+        @Override
+        public int compareTo(IndexedCall other) {
+            int result = Long.compare(epochSecond, other.epochSecond);
+            return result != 0 ? result : Long.compare(sequence, other.sequence);
+        }
+    }
+}
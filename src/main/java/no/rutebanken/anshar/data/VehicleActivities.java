@@ -89,6 +89,15 @@ public class VehicleActivities extends SiriRepository<VehicleActivityStructure>
     @Value("${anshar.feature.setUsingAsync:false}")
     private boolean FEATURE_TOGGLE_USE_ASYNC_SET;
 
+    /**
+     * About 2.2 x 1.1 km at 60 degrees north
+     */
+    private static final double LOCATION_GRID_CELL_SIZE_DEGREES = 0.02;
+
+    private final VehicleLocationIndex locationIndex = new VehicleLocationIndex(LOCATION_GRID_CELL_SIZE_DEGREES);
+
+    private volatile boolean locationIndexEnabled;
+
     protected VehicleActivities() {
         super(SiriDataType.VEHICLE_MONITORING);
     }
@@ -106,6 +115,49 @@ public class VehicleActivities extends SiriRepository<VehicleActivityStructure>
 
         enableCache(monitoredVehicles);
         linkEntriesTtl(monitoredVehicles, changesMap);
+        if (configuration.isVmAreaQueryEnabled()) {
+            enableLocationIndex();
+        }
+    }
+
+    /**
+     * Positions of all vehicles are indexed on this node, and kept updated from entry listeners
+     */
+    private void enableLocationIndex() {
+        long t1 = System.currentTimeMillis();
+        registerIndexListeners(monitoredVehicles, (key, vehicle) -> {
+            if (vehicle != null) {
+                locationIndex.update(key, vehicle);
+            } else {
+                locationIndex.remove(key);
+            }
+        });
+        locationIndexEnabled = true;
+        logger.info("Location index initialized with {} vehicles in {} ms", locationIndex.getIndexedVehicleCount(),
+            (System.currentTimeMillis() - t1));
+    }
+
+    public boolean isLocationIndexEnabled() {
+        return locationIndexEnabled;
+    }
+
+    /**
+     * @param datasetId Only vehicles from this dataset - all datasets if null
+     * @return Vehicles with a location within the bounding box
+     */
+    public List<VehicleActivityStructure> getVehiclesWithin(double minLatitude, double minLongitude,
+                                                            double maxLatitude, double maxLongitude,
+                                                            String datasetId, int maxSize) {
+        return getByKeys(monitoredVehicles, locationIndex.findWithin(minLatitude, minLongitude, maxLatitude, maxLongitude, datasetId, maxSize));
+    }
+
+    /**
+     * @param datasetId Only vehicles from this dataset - all datasets if null
+     * @return Vehicles with a location within the radius, nearest first
+     */
+    public List<VehicleActivityStructure> getVehiclesNear(double latitude, double longitude, double radiusMeters,
+                                                          String datasetId, int maxSize) {
+        return getByKeys(monitoredVehicles, locationIndex.findNear(latitude, longitude, radiusMeters, datasetId, maxSize));
     }
 
     /**
@@ -172,6 +224,7 @@ public class VehicleActivities extends SiriRepository<VehicleActivityStructure>
         logger.error("Deleting all data - should only be used in test!!!");
         monitoredVehicles.clear();
         cache.clear();
+        locationIndex.clear();
     }
 
     /**
@@ -240,6 +293,14 @@ public class VehicleActivities extends SiriRepository<VehicleActivityStructure>
 
 
     public Siri createServiceDelivery(String requestorId, String datasetId, String clientName, List<String> excludedDatasetIds, int maxSize) {
+        return createPagedServiceDelivery(requestorId, datasetId, clientName, excludedDatasetIds, maxSize).getSiri();
+    }
+
+    /**
+     * As createServiceDelivery - for requests without requestorId, the remaining ids are frozen in a paging cursor
+     * when the response is limited by maxSize
+     */
+    public PagedServiceDelivery createPagedServiceDelivery(String requestorId, String datasetId, String clientName, List<String> excludedDatasetIds, int maxSize) {
         requestorRefRepository.touchRequestorRef(requestorId, datasetId, clientName, SiriDataType.VEHICLE_MONITORING);
 
         int trackingPeriodMinutes = configuration.getTrackingPeriodMinutes();
@@ -275,7 +336,13 @@ public class VehicleActivities extends SiriRepository<VehicleActivityStructure>
 
         siri.getServiceDelivery().setMoreData(isMoreData);
 
+        String nextCursor = null;
         if (isAdHocRequest) {
+            if (isMoreData) {
+                nextCursor = createPagingCursor(requestedIds.stream()
+                        .filter(id -> !sizeLimitedIds.contains(id))
+                        .collect(Collectors.toList()));
+            }
             logger.info("Returning {}, no requestorRef is set", sizeLimitedIds.size());
         } else {
 
@@ -291,7 +358,25 @@ public class VehicleActivities extends SiriRepository<VehicleActivityStructure>
             logger.info("Returning {}, {} left for requestorRef {}", sizeLimitedIds.size(), idSet.size(), requestorId);
         }
 
-        return siri;
+        return new PagedServiceDelivery(siri, nextCursor);
+    }
+
+    /**
+     * @return Next page of a response to a request without requestorId - null if the cursor is invalid or expired
+     */
+    public PagedServiceDelivery createServiceDeliveryFromCursor(String cursor, int maxSize) {
+        PagingCursorRepository.Page page = getPagingCursorPage(cursor, maxSize);
+        if (page == null) {
+            return null;
+        }
+
+        // Objects removed since the cursor was created are skipped
+        Collection<VehicleActivityStructure> values = monitoredVehicles.getAll(new HashSet<>(page.getIds())).values();
+
+        Siri siri = siriObjectFactory.createVMServiceDelivery(values);
+        siri.getServiceDelivery().setMoreData(page.isMoreData());
+
+        return new PagedServiceDelivery(siri, page.getNextToken());
     }
 
     public long getExpiration(VehicleActivityStructure a) {
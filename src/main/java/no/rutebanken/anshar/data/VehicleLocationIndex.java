@@ -0,0 +1,219 @@
+/*
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ *   https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ */
+
+
+package no.rutebanken.anshar.data;
+
+import no.rutebanken.anshar.routes.siri.processor.routedata.GeodesicDistance;
+import uk.org.siri.siri21.LocationStructure;
+import uk.org.siri.siri21.VehicleActivityStructure;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+
+/**
+ * Node-local index of vehicle positions in a uniform grid of latitude/longitude cells - so vehicles within an area
+ * are found by reading the cells covering the area, not all vehicles.
+ */
+class VehicleLocationIndex {
+
+    /**
+     * Conservative length of one degree of latitude - the meridian degree is 110.57 km at the equator and 111.69 km at
+     * the poles
+     */
+    private static final double MIN_METERS_PER_DEGREE = 110_000;
+
+    private final Map<Long, Set<SiriObjectStorageKey>> keysByCell = new ConcurrentHashMap<>();
+    private final Map<SiriObjectStorageKey, Position> positions = new ConcurrentHashMap<>();
+
+    private final double cellSizeDegrees;
+
+    VehicleLocationIndex(double cellSizeDegrees) {
+        this.cellSizeDegrees = cellSizeDegrees;
+    }
+
+    /**
+     * Replaces the indexed position of the vehicle - vehicles without a valid location are removed
+     */
+    void update(SiriObjectStorageKey key, VehicleActivityStructure activity) {
+        Position position = createPosition(key, activity);
+        positions.compute(key, (k, previous) -> {
+            if (previous != null && (position == null || previous.cell != position.cell)) {
+                removeFromCell(previous);
+            }
+            if (position != null && (previous == null || previous.cell != position.cell)) {
+                addToCell(position);
+            }
+            return position;
+        });
+    }
+
+    void remove(SiriObjectStorageKey key) {
+        update(key, null);
+    }
+
+    void clear() {
+        positions.keySet().forEach(this::remove);
+    }
+
+    /**
+     * @param datasetId Only vehicles from this dataset - all datasets if null
+     * @return Vehicles within the bounding box, edges included
+     */
+    List<SiriObjectStorageKey> findWithin(double minLatitude, double minLongitude, double maxLatitude, double maxLongitude,
+                                          String datasetId, int maxSize) {
+        List<SiriObjectStorageKey> result = new ArrayList<>();
+        forEachWithin(minLatitude, minLongitude, maxLatitude, maxLongitude, datasetId, position -> {
+            if (result.size() < maxSize) {
+                result.add(position.key);
+            }
+        });
+        return result;
+    }
+
+    /**
+     * @param datasetId Only vehicles from this dataset - all datasets if null
+     * @return Vehicles within the radius, nearest first
+     */
+    List<SiriObjectStorageKey> findNear(double latitude, double longitude, double radiusMeters, String datasetId, int maxSize) {
+        double latitudeDelta = radiusMeters / MIN_METERS_PER_DEGREE;
+        double maxAbsLatitude = Math.abs(latitude) + latitudeDelta;
+        double longitudeDelta = maxAbsLatitude < 90 ? Math.min(180, latitudeDelta / Math.cos(Math.toRadians(maxAbsLatitude))) : 180;
+
+        List<Map.Entry<SiriObjectStorageKey, Double>> matches = new ArrayList<>();
+        forEachWithin(latitude - latitudeDelta, longitude - longitudeDelta, latitude + latitudeDelta,
+                longitude + longitudeDelta, datasetId, position -> {
+            double distance = GeodesicDistance.distance(latitude, longitude, position.latitude, position.longitude);
+            if (distance <= radiusMeters) {
+                matches.add(Map.entry(position.key, distance));
+            }
+        });
+        matches.sort(Map.Entry.comparingByValue());
+
+        List<SiriObjectStorageKey> result = new ArrayList<>();
+        for (int i = 0; i < matches.size() && i < maxSize; i++) {
+            result.add(matches.get(i).getKey());
+        }
+        return result;
+    }
+
+    int getIndexedVehicleCount() {
+        return positions.size();
+    }
+
+    /**
+     * Reads the cells covering the bounding box - or all occupied cells when the box covers more cells than are
+     * occupied, as for a nationwide box
+     */
+    private void forEachWithin(double minLatitude, double minLongitude, double maxLatitude, double maxLongitude,
+                               String datasetId, Consumer<Position> consumer) {
+        int minRow = toCellIndex(minLatitude);
+        int maxRow = toCellIndex(maxLatitude);
+        int minColumn = toCellIndex(minLongitude);
+        int maxColumn = toCellIndex(maxLongitude);
+
+        Consumer<Set<SiriObjectStorageKey>> cellConsumer = keys -> {
+            for (SiriObjectStorageKey key : keys) {
+                Position position = positions.get(key);
+                if (position != null &&
+                        position.latitude >= minLatitude && position.latitude <= maxLatitude &&
+                        position.longitude >= minLongitude && position.longitude <= maxLongitude &&
+                        (datasetId == null || datasetId.equals(key.getCodespaceId()))) {
+                    consumer.accept(position);
+                }
+            }
+        };
+
+        long cellCount = (long) (maxRow - minRow + 1) * (maxColumn - minColumn + 1);
+        if (cellCount <= keysByCell.size()) {
+            for (int row = minRow; row <= maxRow; row++) {
+                for (int column = minColumn; column <= maxColumn; column++) {
+                    Set<SiriObjectStorageKey> keys = keysByCell.get(cellKey(row, column));
+                    if (keys != null) {
+                        cellConsumer.accept(keys);
+                    }
+                }
+            }
+        } else {
+            for (Map.Entry<Long, Set<SiriObjectStorageKey>> cell : keysByCell.entrySet()) {
+                int row = (int) (cell.getKey() >> 32);
+                int column = (int) (long) cell.getKey();
+                if (row >= minRow && row <= maxRow && column >= minColumn && column <= maxColumn) {
+                    cellConsumer.accept(cell.getValue());
+                }
+            }
+        }
+    }
+
+    private void addToCell(Position position) {
+        keysByCell.compute(position.cell, (cell, keys) -> {
+            if (keys == null) {
+                keys = ConcurrentHashMap.newKeySet();
+            }
+            keys.add(position.key);
+            return keys;
+        });
+    }
+
+    private void removeFromCell(Position position) {
+        keysByCell.computeIfPresent(position.cell, (cell, keys) -> {
+            keys.remove(position.key);
+            return keys.isEmpty() ? null : keys;
+        });
+    }
+
+    private Position createPosition(SiriObjectStorageKey key, VehicleActivityStructure activity) {
+        if (activity == null || activity.getMonitoredVehicleJourney() == null) {
+            return null;
+        }
+        LocationStructure location = activity.getMonitoredVehicleJourney().getVehicleLocation();
+        if (location == null || location.getLatitude() == null || location.getLongitude() == null) {
+            return null;
+        }
+        double latitude = location.getLatitude().doubleValue();
+        double longitude = location.getLongitude().doubleValue();
+        if (latitude == 0 || longitude == 0 || Double.isNaN(latitude) || Double.isNaN(longitude)) {
+            // Same as the location validation when VM-data is received
+            return null;
+        }
+        return new Position(key, latitude, longitude, cellKey(toCellIndex(latitude), toCellIndex(longitude)));
+    }
+
+    private int toCellIndex(double degrees) {
+        return (int) Math.floor(degrees / cellSizeDegrees);
+    }
+
+    private static long cellKey(int row, int column) {
+        return ((long) row << 32) | (column & 0xFFFFFFFFL);
+    }
+
+    private static class Position {
+        private final SiriObjectStorageKey key;
+        private final double latitude;
+        private final double longitude;
+        private final long cell;
+
+        private Position(SiriObjectStorageKey key, double latitude, double longitude, long cell) {
+            this.key = key;
+            this.latitude = latitude;
+            this.longitude = longitude;
+            this.cell = cell;
+        }
+    }
+}
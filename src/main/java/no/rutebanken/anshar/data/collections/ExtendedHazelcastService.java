@@ -32,6 +32,7 @@ import com.hazelcast.core.HazelcastInstance;
 import com.hazelcast.core.LifecycleEvent;
 import com.hazelcast.map.IMap;
 import com.hazelcast.replicatedmap.ReplicatedMap;
+import no.rutebanken.anshar.data.PagingCursor;
 import no.rutebanken.anshar.data.RequestorRefStats;
 import no.rutebanken.anshar.data.SiriObjectStorageKey;
 import no.rutebanken.anshar.routes.outbound.OutboundSubscriptionSetup;
@@ -189,6 +190,21 @@ public class ExtendedHazelcastService extends HazelCastService {
         return hazelcast.getMap("anshar.vm.changes");
     }
 
+    /**
+     * Cursors are stored as objects, so that pages are read without deserializing the complete cursor, and are not
+     * kept in the near-cache since pages are read from the member owning the cursor
+     */
+    @Bean
+    public IMap<String, PagingCursor> getPagingCursorMap() {
+        String mapName = "anshar.rest.cursors";
+        MapConfig cursorMapConfig = new MapConfig(hazelcast.getConfig().findMapConfig(mapName))
+                .setName(mapName)
+                .setInMemoryFormat(InMemoryFormat.OBJECT)
+                .setNearCacheConfig(null);
+        hazelcast.getConfig().addMapConfig(cursorMapConfig);
+        return hazelcast.getMap(mapName);
+    }
+
     @Bean
     public ReplicatedMap<String,SubscriptionSetup> getSubscriptionsMap() {
         return hazelcast.getReplicatedMap("anshar.subscriptions.active");
@@ -22,14 +22,20 @@ import io.micrometer.core.instrument.Tag;
 import io.micrometer.prometheus.PrometheusConfig;
 import io.micrometer.prometheus.PrometheusMeterRegistry;
 import no.rutebanken.anshar.data.EstimatedTimetables;
+import no.rutebanken.anshar.data.PagingCursorRepository;
 import no.rutebanken.anshar.data.Situations;
 import no.rutebanken.anshar.data.VehicleActivities;
+import no.rutebanken.anshar.routes.dataformat.JaxbPool;
+import no.rutebanken.anshar.routes.outbound.StreamingSubscriptionManager;
+import no.rutebanken.anshar.routes.siri.helpers.SnapshotCache;
 import no.rutebanken.anshar.routes.siri.transformer.ApplicationContextHolder;
 import no.rutebanken.anshar.routes.siri.transformer.MappingNames;
+import no.rutebanken.anshar.routes.validation.ValidationExecutor;
 import no.rutebanken.anshar.routes.validation.ValidationType;
 import no.rutebanken.anshar.subscription.SiriDataType;
 import no.rutebanken.anshar.subscription.SubscriptionManager;
 import no.rutebanken.anshar.subscription.SubscriptionSetup;
+import no.rutebanken.anshar.util.ContentEncoding;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
@@ -46,6 +52,7 @@ import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 import static no.rutebanken.anshar.subscription.SubscriptionSetup.SubscriptionMode.AVRO_PUBSUB;
 
@@ -93,10 +100,66 @@ public class PrometheusMetricsService extends PrometheusMeterRegistry {
     private static final String DATA_VALIDATION_COUNTER = METRICS_PREFIX + "data.validation";
     private static final String DATA_VALIDATION_RESULT_COUNTER = METRICS_PREFIX + "data.validation.result";
 
+    private static final String DATA_VALIDATION_SKIPPED_COUNTER = METRICS_PREFIX + "data.validation.skipped";
+    private static final String DATA_VALIDATION_RULE_TIMER = METRICS_PREFIX + "data.validation.rule.time";
+    private static final String VALIDATION_QUEUE_SIZE = METRICS_PREFIX + "validation.queue.size";
+    private static final String VALIDATION_ACTIVE = METRICS_PREFIX + "validation.active";
+    private static final String VALIDATION_SUBMITTED = METRICS_PREFIX + "validation.submitted";
+    private static final String VALIDATION_DROPPED = METRICS_PREFIX + "validation.dropped";
+
+    private static final String JAXB_POOL_TAG_NAME = "pool";
+    private static final String JAXB_POOL_ACTIVE = METRICS_PREFIX + "jaxb.pool.active";
+    private static final String JAXB_POOL_IDLE = METRICS_PREFIX + "jaxb.pool.idle";
+    private static final String JAXB_POOL_CREATED = METRICS_PREFIX + "jaxb.pool.created";
+    private static final String JAXB_POOL_BORROWED = METRICS_PREFIX + "jaxb.pool.borrowed";
+    private static final String JAXB_POOL_OVERFLOW = METRICS_PREFIX + "jaxb.pool.overflow";
+
+    private static final String SNAPSHOT_CACHE_SIZE = METRICS_PREFIX + "rest.snapshot.cache.size.bytes";
+    private static final String SNAPSHOT_CACHE_ENTRIES = METRICS_PREFIX + "rest.snapshot.cache.entries";
+    private static final String SNAPSHOT_CACHE_HITS = METRICS_PREFIX + "rest.snapshot.cache.hits";
+    private static final String SNAPSHOT_CACHE_MISSES = METRICS_PREFIX + "rest.snapshot.cache.misses";
+    private static final String SNAPSHOT_CACHE_EVICTIONS = METRICS_PREFIX + "rest.snapshot.cache.evictions";
+    private static final String SNAPSHOT_CACHE_REJECTED = METRICS_PREFIX + "rest.snapshot.cache.rejected";
+    private static final String SNAPSHOT_CACHE_TIMEOUTS = METRICS_PREFIX + "rest.snapshot.cache.timeouts";
+
+    private static final String STREAM_CONNECTIONS = METRICS_PREFIX + "rest.stream.connections";
+    private static final String STREAM_SLOW_CONSUMERS = METRICS_PREFIX + "rest.stream.slow.consumers";
+    private static final String STREAM_REJECTED = METRICS_PREFIX + "rest.stream.rejected";
+
+    private static final String CURSOR_ACTIVE = METRICS_PREFIX + "rest.cursor.active";
+    private static final String CURSOR_CREATED = METRICS_PREFIX + "rest.cursor.created";
+    private static final String CURSOR_REJECTED = METRICS_PREFIX + "rest.cursor.rejected";
+    private static final String CURSOR_INVALID = METRICS_PREFIX + "rest.cursor.invalid";
+
+    private static final String REST_CONDITIONAL_REQUEST_COUNTER = METRICS_PREFIX + "rest.conditional.request";
+    private static final String CONDITIONAL_RESULT_TAG_NAME = "result";
+
+    private static final String COMPRESSION_TIMER = METRICS_PREFIX + "compression.time";
+    private static final String COMPRESSION_BYTES_IN_COUNTER = METRICS_PREFIX + "compression.bytes.in";
+    private static final String COMPRESSION_BYTES_OUT_COUNTER = METRICS_PREFIX + "compression.bytes.out";
+    private static final String CONTENT_ENCODING_TAG_NAME = "encoding";
+    private static final String COMPRESSION_TARGET_TAG_NAME = "target";
+
+    private static final String DATA_ENCODING_REPAIR_COUNTER = METRICS_PREFIX + "data.encoding.repair";
+    private static final String ENCODING_REPLACEMENT_TAG_NAME = "replacement";
+
+    private static final String AVRO_PUBLISH_TIMER = METRICS_PREFIX + "avro.publish.time";
+    private static final String AVRO_PUBLISH_RECORDS_COUNTER = METRICS_PREFIX + "avro.publish.records";
+    private static final String AVRO_PUBLISH_BYTES_COUNTER = METRICS_PREFIX + "avro.publish.bytes";
+    private static final String TOPIC_TAG_NAME = "topic";
+
     @Value("${anshar.metrics.include.failing.subscriptions:false}")
     private boolean includeSubscriptionFailingMetrics;
     private Map<String, ExecutorService> outboundThreadFactoryMap;
 
+    private ValidationExecutor validationExecutor;
+
+    private SnapshotCache snapshotCache;
+
+    private StreamingSubscriptionManager streamingSubscriptionManager;
+
+    private PagingCursorRepository pagingCursorRepository;
+
     public PrometheusMetricsService() {
         super(PrometheusConfig.DEFAULT);
     }
@@ -160,7 +223,25 @@ public class PrometheusMetricsService extends PrometheusMeterRegistry {
         countOutgoingData(dataType, AVRO_PUBSUB, 1);
     }
 
-    public void countOutgoingData(Siri siri, SubscriptionSetup.SubscriptionMode mode) {
+    /**
+     * @param nanos Time from publishing started until all records are acknowledged
+     * @param bytes Serialized size of the records - ignored when unknown (0)
+     */
+    public void registerAvroPublished(String topic, int records, long bytes, long nanos) {
+        List<Tag> counterTags = new ArrayList<>();
+        counterTags.add(new ImmutableTag(TOPIC_TAG_NAME, topic));
+
+        timer(AVRO_PUBLISH_TIMER, counterTags).record(nanos, TimeUnit.NANOSECONDS);
+        counter(AVRO_PUBLISH_RECORDS_COUNTER, counterTags).increment(records);
+        if (bytes > 0) {
+            counter(AVRO_PUBLISH_BYTES_COUNTER, counterTags).increment(bytes);
+        }
+    }
+
+    /**
+     * @return number of counted objects
+     */
+    public int countOutgoingData(Siri siri, SubscriptionSetup.SubscriptionMode mode) {
         SiriDataType dataType = null;
         int count = 0;
         if (siri != null && siri.getServiceDelivery() != null) {
@@ -193,7 +274,7 @@ public class PrometheusMetricsService extends PrometheusMeterRegistry {
             }
             countOutgoingData(dataType, mode, count);
         }
-
+        return count;
     }
 
     public void addValidationMetrics(
@@ -220,7 +301,54 @@ public class PrometheusMetricsService extends PrometheusMeterRegistry {
         counter(DATA_VALIDATION_RESULT_COUNTER, counterTags).increment();
     }
 
-    private void countOutgoingData(SiriDataType dataType, SubscriptionSetup.SubscriptionMode mode, long objectCount) {
+    public void registerSkippedValidation(SiriDataType dataType, String subscriptionId) {
+        List<Tag> counterTags = new ArrayList<>();
+        counterTags.add(new ImmutableTag(DATATYPE_TAG_NAME, dataType.name()));
+        counterTags.add(new ImmutableTag("subscriptionId", subscriptionId));
+
+        counter(DATA_VALIDATION_SKIPPED_COUNTER, counterTags).increment();
+    }
+
+    public void registerValidationRuleTime(SiriDataType dataType, String category, long nanos) {
+        List<Tag> counterTags = new ArrayList<>();
+        counterTags.add(new ImmutableTag(DATATYPE_TAG_NAME, dataType.name()));
+        counterTags.add(new ImmutableTag(VALIDATION_RULE_TAG_NAME, category));
+
+        timer(DATA_VALIDATION_RULE_TIMER, counterTags).record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * @param notModified true if the request was completed with 304 Not Modified
+     */
+    public void registerConditionalRequest(SiriDataType dataType, boolean notModified) {
+        List<Tag> counterTags = new ArrayList<>();
+        counterTags.add(new ImmutableTag(DATATYPE_TAG_NAME, dataType.name()));
+        counterTags.add(new ImmutableTag(CONDITIONAL_RESULT_TAG_NAME, notModified ? "notModified" : "modified"));
+
+        counter(REST_CONDITIONAL_REQUEST_COUNTER, counterTags).increment();
+    }
+
+    /**
+     * @param target Where compressed data is sent - e.g. "rest" or "outbound"
+     */
+    public void registerCompression(ContentEncoding encoding, String target, long nanos, long uncompressedBytes, long compressedBytes) {
+        List<Tag> counterTags = new ArrayList<>();
+        counterTags.add(new ImmutableTag(CONTENT_ENCODING_TAG_NAME, encoding.getValue()));
+        counterTags.add(new ImmutableTag(COMPRESSION_TARGET_TAG_NAME, target));
+
+        timer(COMPRESSION_TIMER, counterTags).record(nanos, TimeUnit.NANOSECONDS);
+        counter(COMPRESSION_BYTES_IN_COUNTER, counterTags).increment(uncompressedBytes);
+        counter(COMPRESSION_BYTES_OUT_COUNTER, counterTags).increment(compressedBytes);
+    }
+
+    public void registerEncodingRepair(String replacement, int count) {
+        List<Tag> counterTags = new ArrayList<>();
+        counterTags.add(new ImmutableTag(ENCODING_REPLACEMENT_TAG_NAME, replacement));
+
+        counter(DATA_ENCODING_REPAIR_COUNTER, counterTags).increment(count);
+    }
+
+    public void countOutgoingData(SiriDataType dataType, SubscriptionSetup.SubscriptionMode mode, long objectCount) {
         if (dataType != null && objectCount > 0) {
             List<Tag> counterTags = new ArrayList<>();
             counterTags.add(new ImmutableTag(DATATYPE_TAG_NAME, dataType.name()));
@@ -301,6 +429,50 @@ public class PrometheusMetricsService extends PrometheusMeterRegistry {
             gauge(SUBSCRIPTION_OUTBOUND_QUEUE, counterTags, executor.getQueue().size());
         }
 
+        if (validationExecutor != null) {
+            List<Tag> counterTags = new ArrayList<>();
+            gauge(VALIDATION_QUEUE_SIZE, counterTags, validationExecutor, ValidationExecutor::getQueueSize);
+            gauge(VALIDATION_ACTIVE, counterTags, validationExecutor, ValidationExecutor::getActiveCount);
+            more().counter(VALIDATION_SUBMITTED, counterTags, validationExecutor, ValidationExecutor::getSubmittedCount);
+            more().counter(VALIDATION_DROPPED, counterTags, validationExecutor, ValidationExecutor::getDroppedCount);
+        }
+
+        if (snapshotCache != null) {
+            List<Tag> counterTags = new ArrayList<>();
+            gauge(SNAPSHOT_CACHE_SIZE, counterTags, snapshotCache, SnapshotCache::getSizeBytes);
+            gauge(SNAPSHOT_CACHE_ENTRIES, counterTags, snapshotCache, SnapshotCache::getEntryCount);
+            more().counter(SNAPSHOT_CACHE_HITS, counterTags, snapshotCache, SnapshotCache::getHitCount);
+            more().counter(SNAPSHOT_CACHE_MISSES, counterTags, snapshotCache, SnapshotCache::getMissCount);
+            more().counter(SNAPSHOT_CACHE_EVICTIONS, counterTags, snapshotCache, SnapshotCache::getEvictionCount);
+            more().counter(SNAPSHOT_CACHE_REJECTED, counterTags, snapshotCache, SnapshotCache::getRejectedCount);
+            more().counter(SNAPSHOT_CACHE_TIMEOUTS, counterTags, snapshotCache, SnapshotCache::getTimeoutCount);
+        }
+
+        if (streamingSubscriptionManager != null) {
+            List<Tag> counterTags = new ArrayList<>();
+            gauge(STREAM_CONNECTIONS, counterTags, streamingSubscriptionManager, StreamingSubscriptionManager::getConnectionCount);
+            more().counter(STREAM_SLOW_CONSUMERS, counterTags, streamingSubscriptionManager, StreamingSubscriptionManager::getSlowConsumerCount);
+            more().counter(STREAM_REJECTED, counterTags, streamingSubscriptionManager, StreamingSubscriptionManager::getRejectedCount);
+        }
+
+        if (pagingCursorRepository != null) {
+            List<Tag> counterTags = new ArrayList<>();
+            gauge(CURSOR_ACTIVE, counterTags, pagingCursorRepository, PagingCursorRepository::getActiveCount);
+            more().counter(CURSOR_CREATED, counterTags, pagingCursorRepository, PagingCursorRepository::getCreatedCount);
+            more().counter(CURSOR_REJECTED, counterTags, pagingCursorRepository, PagingCursorRepository::getRejectedCount);
+            more().counter(CURSOR_INVALID, counterTags, pagingCursorRepository, PagingCursorRepository::getInvalidCount);
+        }
+
+        for (JaxbPool pool : JaxbPool.getAllPools()) {
+            List<Tag> counterTags = new ArrayList<>();
+            counterTags.add(new ImmutableTag(JAXB_POOL_TAG_NAME, pool.getName()));
+            gauge(JAXB_POOL_ACTIVE, counterTags, pool, JaxbPool::getActiveCount);
+            gauge(JAXB_POOL_IDLE, counterTags, pool, JaxbPool::getIdleCount);
+            more().counter(JAXB_POOL_CREATED, counterTags, pool, JaxbPool::getCreatedCount);
+            more().counter(JAXB_POOL_BORROWED, counterTags, pool, JaxbPool::getBorrowedCount);
+            more().counter(JAXB_POOL_OVERFLOW, counterTags, pool, JaxbPool::getOverflowCount);
+        }
+
         if (includeSubscriptionFailingMetrics) {
             ReplicatedMap<String, SubscriptionSetup> subscriptions = manager.subscriptions;
             for (SubscriptionSetup subscription : subscriptions.values()) {
@@ -355,4 +527,20 @@ public class PrometheusMetricsService extends PrometheusMeterRegistry {
     public void registerOutboundThreadFactoryMap(Map<String, ExecutorService> threadFactoryMap) {
         this.outboundThreadFactoryMap = threadFactoryMap;
     }
+
+    public void registerValidationExecutor(ValidationExecutor validationExecutor) {
+        this.validationExecutor = validationExecutor;
+    }
+
+    public void registerSnapshotCache(SnapshotCache snapshotCache) {
+        this.snapshotCache = snapshotCache;
+    }
+
+    public void registerStreamingSubscriptions(StreamingSubscriptionManager streamingSubscriptionManager) {
+        this.streamingSubscriptionManager = streamingSubscriptionManager;
+    }
+
+    public void registerPagingCursors(PagingCursorRepository pagingCursorRepository) {
+        this.pagingCursorRepository = pagingCursorRepository;
+    }
 }
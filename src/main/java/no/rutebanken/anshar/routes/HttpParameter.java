@@ -31,7 +31,24 @@ public class HttpParameter {
     public static final String PARAM_MAX_SIZE        = "maxSize";
     public static final String PARAM_USE_ORIGINAL_ID = "useOriginalId";
     public static final String PARAM_LINE_REF        = "lineRef";
+    public static final String PARAM_VEHICLE_REF     = "vehicleRef";
     public static final String PARAM_PREVIEW_INTERVAL   = "previewIntervalMinutes";
+    public static final String PARAM_CURSOR          = "cursor";
+    public static final String PARAM_STOP_REF        = "stopRef";
+    public static final String PARAM_START_TIME     = "startTime";
+    public static final String PARAM_TIME_WINDOW    = "timeWindowMinutes";
+    public static final String PARAM_MIN_LATITUDE   = "minLat";
+    public static final String PARAM_MIN_LONGITUDE  = "minLon";
+    public static final String PARAM_MAX_LATITUDE   = "maxLat";
+    public static final String PARAM_MAX_LONGITUDE  = "maxLon";
+    public static final String PARAM_LATITUDE       = "lat";
+    public static final String PARAM_LONGITUDE      = "lon";
+    public static final String PARAM_RADIUS         = "radius";
+    public static final String PARAM_STOP_POINT_REF = "stopPointRef";
+    public static final String PARAM_STOP_PLACE_REF = "stopPlaceRef";
+    public static final String PARAM_VEHICLE_JOURNEY_REF = "vehicleJourneyRef";
+    public static final String PARAM_VALID_AT       = "validAt";
+    public static final String NEXT_CURSOR_HEADER_NAME = "Next-Cursor";
     public static final String PARAM_RESPONSE_CODE   = "CamelHttpResponseCode";
     public static final String PARAM_PATH           = "CamelHttpPath";
     public static final String INTERNAL_SIRI_DATA_TYPE           = "InternalSiriDatatype";
@@ -21,6 +21,11 @@ import jakarta.ws.rs.core.MediaType;
 import jakarta.xml.bind.JAXBException;
 import jakarta.xml.bind.UnmarshalException;
 import no.rutebanken.anshar.config.AnsharConfiguration;
+import no.rutebanken.anshar.metrics.PrometheusMetricsService;
+import no.rutebanken.anshar.routes.dataformat.SiriVersionMapper;
+import no.rutebanken.anshar.routes.protobuf.SiriProtobufMapper;
+import no.rutebanken.anshar.util.CompressingOutputStream;
+import no.rutebanken.anshar.util.ContentEncoding;
 import org.apache.camel.Exchange;
 import org.apache.camel.InvalidPayloadException;
 import org.apache.camel.LoggingLevel;
@@ -28,7 +33,6 @@ import org.apache.camel.builder.RouteBuilder;
 import org.apache.camel.support.builder.Namespaces;
 import org.entur.avro.realtime.siri.converter.jaxb2avro.Jaxb2AvroConverter;
 import org.entur.avro.realtime.siri.model.SiriRecord;
-import org.entur.protobuf.mapper.SiriMapper;
 import org.entur.siri21.util.SiriJson;
 import org.entur.siri21.util.SiriXml;
 import org.slf4j.Logger;
@@ -43,9 +47,11 @@ import uk.org.siri.siri20.VehicleMonitoringDeliveryStructure;
 import uk.org.siri.siri21.Siri;
 
 import javax.xml.stream.XMLStreamException;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.net.ConnectException;
 import java.util.HashMap;
 import java.util.Map;
@@ -72,6 +78,11 @@ public class RestRouteBuilder extends RouteBuilder {
     @Autowired
     private AnsharConfiguration configuration;
 
+    @Autowired
+    private PrometheusMetricsService metricsService;
+
+    private static final String COMPRESSION_TARGET = "rest";
+
     private static boolean isDataHandlersInitialized = false;
 
     @Override
@@ -160,6 +171,9 @@ public class RestRouteBuilder extends RouteBuilder {
             from("direct:anshar.rest.et.monitored.cached")
                     .to("direct:internal.anshar.rest.et.monitored.cached")
             ;
+            from("direct:anshar.rest.et.departures")
+                    .to("direct:internal.anshar.rest.et.departures")
+            ;
         } else {
             from("direct:process.et.subscription.request")
                     .to("direct:redirect.request.et")
@@ -183,6 +197,9 @@ public class RestRouteBuilder extends RouteBuilder {
             from("direct:anshar.rest.et.monitored.cached")
                     .to("direct:redirect.request.et")
             ;
+            from("direct:anshar.rest.et.departures")
+                    .to("direct:redirect.request.et")
+            ;
             if (!configuration.processAdmin()) {
                 // Data-instances should never redirect requests
                 from("direct:redirect.request.et")
@@ -198,9 +215,9 @@ public class RestRouteBuilder extends RouteBuilder {
 
                         //Force forwarding parameters - if used in query
                         .choice().when(header("CamelHttpQuery").isNull())
-                        .toD(etHandlerBaseUrl + "${header.CamelHttpUri}?Content-Type=${header.Content-Type}&bridgeEndpoint=true")
+                        .toD(etHandlerBaseUrl + "${header.CamelHttpUri}?Content-Type=${header.Content-Type}&bridgeEndpoint=true&okStatusCodeRange=200-299,304")
                         .otherwise()
-                        .toD(etHandlerBaseUrl + "${header.CamelHttpUri}?Content-Type=${header.Content-Type}&bridgeEndpoint=true&${header.CamelHttpQuery}")
+                        .toD(etHandlerBaseUrl + "${header.CamelHttpUri}?Content-Type=${header.Content-Type}&bridgeEndpoint=true&okStatusCodeRange=200-299,304&${header.CamelHttpQuery}")
                         .endChoice()
                 ;
             }
@@ -256,9 +273,9 @@ public class RestRouteBuilder extends RouteBuilder {
 
                         //Force forwarding parameters - if used in query
                         .choice().when(header("CamelHttpQuery").isNull())
-                        .toD(vmHandlerBaseUrl + "${header.CamelHttpUri}?Content-Type=${header.Content-Type}&bridgeEndpoint=true")
+                        .toD(vmHandlerBaseUrl + "${header.CamelHttpUri}?Content-Type=${header.Content-Type}&bridgeEndpoint=true&okStatusCodeRange=200-299,304")
                         .otherwise()
-                        .toD(vmHandlerBaseUrl + "${header.CamelHttpUri}?Content-Type=${header.Content-Type}&bridgeEndpoint=true&${header.CamelHttpQuery}")
+                        .toD(vmHandlerBaseUrl + "${header.CamelHttpUri}?Content-Type=${header.Content-Type}&bridgeEndpoint=true&okStatusCodeRange=200-299,304&${header.CamelHttpQuery}")
                         .endChoice()
                 ;
             }
@@ -314,9 +331,9 @@ public class RestRouteBuilder extends RouteBuilder {
 
                         //Force forwarding parameters - if used in query
                         .choice().when(header("CamelHttpQuery").isNull())
-                        .toD(sxHandlerBaseUrl + "${header.CamelHttpUri}?Content-Type=${header.Content-Type}&bridgeEndpoint=true")
+                        .toD(sxHandlerBaseUrl + "${header.CamelHttpUri}?Content-Type=${header.Content-Type}&bridgeEndpoint=true&okStatusCodeRange=200-299,304")
                         .otherwise()
-                        .toD(sxHandlerBaseUrl + "${header.CamelHttpUri}?Content-Type=${header.Content-Type}&bridgeEndpoint=true&${header.CamelHttpQuery}")
+                        .toD(sxHandlerBaseUrl + "${header.CamelHttpUri}?Content-Type=${header.Content-Type}&bridgeEndpoint=true&okStatusCodeRange=200-299,304&${header.CamelHttpQuery}")
                         .endChoice()
                 ;
             }
@@ -401,86 +418,259 @@ public class RestRouteBuilder extends RouteBuilder {
 
         return values;
     }
-    protected void streamOutput(Exchange p, Siri response, HttpServletResponse out) throws IOException, JAXBException, XMLStreamException {
+    /**
+     * Supported output-formats, resolved from Content-Type/Accept-headers
+     */
+    protected enum OutputFormat {
+        XML(MediaType.APPLICATION_XML),
+        JSON(MediaType.APPLICATION_JSON),
+        PROTOBUF("application/x-protobuf"),
+        AVRO("application/avro"),
+        AVRO_JSON(MediaType.APPLICATION_JSON);
 
-        boolean siri21Version = false;
-        if ("2.1".equals(p.getIn().getHeader(SIRI_VERSION_HEADER_NAME))) {
-            siri21Version = true;
+        private final String contentType;
+
+        OutputFormat(String contentType) {
+            this.contentType = contentType;
         }
 
-        if (MediaType.APPLICATION_JSON.equals(p.getIn().getHeader(HttpHeaders.CONTENT_TYPE)) |
-            MediaType.APPLICATION_JSON.equals(p.getIn().getHeader(HttpHeaders.ACCEPT))) {
-            p.getMessage().setHeader(HttpHeaders.CONTENT_TYPE, MediaType.APPLICATION_JSON);
-            if (siri21Version) {
-                SiriJson.toJson(response, out.getOutputStream());
-            } else {
-                org.rutebanken.siri20.util.SiriJson.toJson(
-                        downgradeSiriVersion(response),
-                        out.getOutputStream()
-                );
-            }
+        public String getContentType() {
+            return contentType;
         }
-        else if ("application/x-protobuf".equals(p.getIn().getHeader(HttpHeaders.CONTENT_TYPE)) |
-                "application/x-protobuf".equals(p.getIn().getHeader(HttpHeaders.ACCEPT))) {
-            try {
-                final byte[] bytes = SiriMapper.mapToPbf(downgradeSiriVersion(response)).toByteArray();
-                p.getMessage().setHeader(HttpHeaders.CONTENT_TYPE, "application/x-protobuf");
-                p.getMessage().setHeader(HttpHeaders.CONTENT_LENGTH, "" + bytes.length);
-                out.getOutputStream().write(bytes);
-            } catch (NullPointerException npe) {
-                File file = new File("ET-" + System.currentTimeMillis() + ".xml");
-                log.error("Caught NullPointerException, data written to " + file.getAbsolutePath(), npe);
-                SiriXml.toXml(response, null, new FileOutputStream(file));
-            }
+    }
+
+    /**
+     * Writes a delivery directly to the output, e.g. in batches from the repository
+     */
+    @FunctionalInterface
+    protected interface DeliveryWriter {
+        /**
+         * @return Number of objects written
+         */
+        int write(OutputFormat format, boolean siri21Version, OutputStream out) throws Exception;
+    }
+
+    protected OutputFormat resolveOutputFormat(Exchange p) {
+        if (isRequestedFormat(p, MediaType.APPLICATION_JSON)) {
+            return OutputFormat.JSON;
         }
-        else if ("application/avro".equals(p.getIn().getHeader(HttpHeaders.CONTENT_TYPE)) |
-                "application/avro".equals(p.getIn().getHeader(HttpHeaders.ACCEPT))) {
-            try {
-                final SiriRecord siriRecord = Jaxb2AvroConverter.convert(response);
-
-                p.getMessage().setHeader(HttpHeaders.CONTENT_TYPE, "application/avro");
-                SiriRecord.getEncoder().encode(siriRecord, out.getOutputStream());
-
-            } catch (NullPointerException npe) {
-                File file = new File("ET-" + System.currentTimeMillis() + ".xml");
-                log.error("Caught NullPointerException, data written to " + file.getAbsolutePath(), npe);
-                SiriXml.toXml(response, null, new FileOutputStream(file));
-            }
+        if (isRequestedFormat(p, "application/x-protobuf")) {
+            return OutputFormat.PROTOBUF;
+        }
+        if (isRequestedFormat(p, "application/avro")) {
+            return OutputFormat.AVRO;
+        }
+        if (isRequestedFormat(p, "application/avro+json")) {
+            return OutputFormat.AVRO_JSON;
         }
-        else if ("application/avro+json".equals(p.getIn().getHeader(HttpHeaders.CONTENT_TYPE)) |
-                "application/avro+json".equals(p.getIn().getHeader(HttpHeaders.ACCEPT))) {
-            try {
-                final SiriRecord siriRecord = Jaxb2AvroConverter.convert(response);
+        return OutputFormat.XML;
+    }
 
-                p.getMessage().setHeader(HttpHeaders.CONTENT_TYPE, MediaType.APPLICATION_JSON);
+    private boolean isRequestedFormat(Exchange p, String mediaType) {
+        return mediaType.equals(p.getIn().getHeader(HttpHeaders.CONTENT_TYPE)) |
+            mediaType.equals(p.getIn().getHeader(HttpHeaders.ACCEPT));
+    }
 
-                out.getOutputStream().write(siriRecord.toString().getBytes());
+    protected boolean isSiri21Version(Exchange p) {
+        return "2.1".equals(p.getIn().getHeader(SIRI_VERSION_HEADER_NAME));
+    }
 
-            } catch (NullPointerException npe) {
-                File file = new File("ET-" + System.currentTimeMillis() + ".xml");
-                log.error("Caught NullPointerException, data written to " + file.getAbsolutePath(), npe);
-                SiriXml.toXml(response, null, new FileOutputStream(file));
-            }
-        }
-        else {
-            p.getMessage().setHeader(HttpHeaders.CONTENT_TYPE, MediaType.APPLICATION_XML);
-            if (siri21Version) {
-                SiriXml.toXml(response, null, out.getOutputStream());
+    protected void streamOutput(Exchange p, Siri response, HttpServletResponse out) throws IOException, JAXBException, XMLStreamException {
+
+        OutputFormat format = resolveOutputFormat(p);
+        ContentEncoding contentEncoding = resolveContentEncoding(p, out);
+
+        p.getMessage().setHeader(HttpHeaders.CONTENT_TYPE, format.getContentType());
+        if (format == OutputFormat.PROTOBUF) {
+            // Protobuf is always fully encoded before written
+            final byte[] bytes = encodeOutput(format, isSiri21Version(p), response);
+            final byte[] compressed = compressOutput(bytes, contentEncoding);
+            if (compressed != null) {
+                streamOutput(p, compressed, format, contentEncoding, out);
             } else {
-                org.rutebanken.siri20.util.SiriXml.toXml(
-                        downgradeSiriVersion(response),
-                        null,
-                        out.getOutputStream()
-                );
+                streamOutput(p, bytes, format, null, out);
             }
+            return;
+        }
+
+        if (contentEncoding != null) {
+            CompressingOutputStream compressed = createCompressingOutputStream(contentEncoding, out);
+            writeOutput(format, isSiri21Version(p), response, compressed);
+            compressed.finish();
+        } else {
+            writeOutput(format, isSiri21Version(p), response, out.getOutputStream());
+        }
+        p.getMessage().setBody(out.getOutputStream());
+    }
+
+    /**
+     * Streams output written by the writer, without encoding a complete response first
+     *
+     * @return Number of objects written
+     */
+    protected int streamOutput(Exchange p, DeliveryWriter writer, HttpServletResponse out) throws Exception {
+
+        OutputFormat format = resolveOutputFormat(p);
+        ContentEncoding contentEncoding = resolveContentEncoding(p, out);
+
+        p.getMessage().setHeader(HttpHeaders.CONTENT_TYPE, format.getContentType());
+
+        int count;
+        if (contentEncoding != null) {
+            CompressingOutputStream compressed = createCompressingOutputStream(contentEncoding, out);
+            count = writer.write(format, isSiri21Version(p), compressed);
+            compressed.finish();
+        } else {
+            count = writer.write(format, isSiri21Version(p), out.getOutputStream());
         }
         p.getMessage().setBody(out.getOutputStream());
+        return count;
+    }
+
+    private CompressingOutputStream createCompressingOutputStream(ContentEncoding contentEncoding, HttpServletResponse out) throws IOException {
+        return createCompressingOutputStream(contentEncoding, out, out.getOutputStream());
+    }
+
+    /**
+     * @param target Stream the compressed data is written to - Content-Encoding is set on the response when
+     *               compression starts
+     */
+    protected CompressingOutputStream createCompressingOutputStream(ContentEncoding contentEncoding, HttpServletResponse out, OutputStream target) {
+        return new CompressingOutputStream(target,
+            contentEncoding,
+            configuration.getCompressionLevel(),
+            configuration.getCompressionMinSize(),
+            // Set directly on response - Camel would otherwise compress the body again
+            () -> out.setHeader(HttpHeaders.CONTENT_ENCODING, contentEncoding.getValue()),
+            (encoding, nanos, uncompressedBytes, compressedBytes) ->
+                metricsService.registerCompression(encoding, COMPRESSION_TARGET, nanos, uncompressedBytes, compressedBytes)
+        );
+    }
+
+    /**
+     * Writes already encoded output - e.g. from a cache
+     *
+     * @param contentEncoding Encoding already applied to the output - null if not compressed
+     */
+    protected void streamOutput(Exchange p, byte[] encodedResponse, OutputFormat format, ContentEncoding contentEncoding, HttpServletResponse out) throws IOException {
+        p.getMessage().setHeader(HttpHeaders.CONTENT_TYPE, format.getContentType());
+        p.getMessage().setHeader(HttpHeaders.CONTENT_LENGTH, "" + encodedResponse.length);
+        if (contentEncoding != null) {
+            // Set directly on response - Camel would otherwise compress the body again
+            out.setHeader(HttpHeaders.CONTENT_ENCODING, contentEncoding.getValue());
+        }
+        out.getOutputStream().write(encodedResponse);
+        p.getMessage().setBody(out.getOutputStream());
+    }
+
+    /**
+     * Resolves compression from the Accept-Encoding header of the request
+     *
+     * @return Encoding to use, or null if output should not be compressed
+     */
+    protected ContentEncoding resolveContentEncoding(Exchange p, HttpServletResponse out) {
+        if (!configuration.isCompressionEnabled()) {
+            return null;
+        }
+        // Response differs by Accept-Encoding, even when not compressed
+        out.setHeader(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING);
+        return ContentEncoding.negotiate(p.getIn().getHeader(HttpHeaders.ACCEPT_ENCODING, String.class));
+    }
+
+    /**
+     * Compresses an already marshalled message body if accepted by the client
+     */
+    protected void compressResponseBody(Exchange p) throws IOException {
+        byte[] body = p.getMessage().getBody(byte[].class);
+        if (body == null) {
+            return;
+        }
+        HttpServletResponse out = p.getIn().getBody(HttpServletResponse.class);
+        ContentEncoding contentEncoding = resolveContentEncoding(p, out);
+        byte[] compressed = compressOutput(body, contentEncoding);
+        if (compressed != null) {
+            // Set directly on response - Camel would otherwise compress the body again
+            out.setHeader(HttpHeaders.CONTENT_ENCODING, contentEncoding.getValue());
+            p.getMessage().setBody(compressed);
+        }
+    }
+
+    /**
+     * @return Data compressed with the given encoding, or null if data should not be compressed
+     */
+    protected byte[] compressOutput(byte[] data, ContentEncoding contentEncoding) throws IOException {
+        if (contentEncoding == null || data.length < configuration.getCompressionMinSize()) {
+            return null;
+        }
+        long start = System.nanoTime();
+        byte[] compressed = contentEncoding.compress(data, configuration.getCompressionLevel());
+        metricsService.registerCompression(contentEncoding, COMPRESSION_TARGET, System.nanoTime() - start, data.length, compressed.length);
+        return compressed;
+    }
+
+    protected byte[] encodeOutput(OutputFormat format, boolean siri21Version, Siri response) throws IOException, JAXBException, XMLStreamException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        writeOutput(format, siri21Version, response, out);
+        return out.toByteArray();
+    }
+
+    protected void writeOutput(OutputFormat format, boolean siri21Version, Siri response, OutputStream out) throws IOException, JAXBException, XMLStreamException {
+        switch (format) {
+            case JSON:
+                if (siri21Version) {
+                    SiriJson.toJson(response, out);
+                } else {
+                    org.rutebanken.siri20.util.SiriJson.toJson(
+                            downgradeSiriVersion(response),
+                            out
+                    );
+                }
+                break;
+            case PROTOBUF:
+                try {
+                    SiriProtobufMapper.mapToPbf(response).writeTo(out);
+                } catch (NullPointerException npe) {
+                    writeFailedOutput(response, npe);
+                }
+                break;
+            case AVRO:
+                try {
+                    final SiriRecord siriRecord = Jaxb2AvroConverter.convert(response);
+                    SiriRecord.getEncoder().encode(siriRecord, out);
+                } catch (NullPointerException npe) {
+                    writeFailedOutput(response, npe);
+                }
+                break;
+            case AVRO_JSON:
+                try {
+                    final SiriRecord siriRecord = Jaxb2AvroConverter.convert(response);
+                    out.write(siriRecord.toString().getBytes());
+                } catch (NullPointerException npe) {
+                    writeFailedOutput(response, npe);
+                }
+                break;
+            default:
+                if (siri21Version) {
+                    SiriXml.toXml(response, null, out);
+                } else {
+                    org.rutebanken.siri20.util.SiriXml.toXml(
+                            downgradeSiriVersion(response),
+                            null,
+                            out
+                    );
+                }
+        }
+    }
+
+    private void writeFailedOutput(Siri response, NullPointerException npe) throws IOException, JAXBException, XMLStreamException {
+        File file = new File("ET-" + System.currentTimeMillis() + ".xml");
+        log.error("Caught NullPointerException, data written to " + file.getAbsolutePath(), npe);
+        SiriXml.toXml(response, null, new FileOutputStream(file));
     }
 
     public static uk.org.siri.siri20.Siri downgradeSiriVersion(Siri response) throws JAXBException, XMLStreamException {
         uk.org.siri.siri20.Siri siri20Response;
-        String siri2_0Xml = SiriXml.toXml(response);
-        siri20Response = org.rutebanken.siri20.util.SiriXml.parseXml(siri2_0Xml);
+        siri20Response = SiriVersionMapper.SIRI_21_TO_20.convert(response, uk.org.siri.siri20.Siri.class);
         siri20Response.setVersion("2.0");
         ServiceDelivery serviceDelivery = siri20Response.getServiceDelivery();
         if (serviceDelivery != null) {
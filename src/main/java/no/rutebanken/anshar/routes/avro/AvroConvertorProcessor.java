@@ -17,6 +17,7 @@ import org.entur.avro.realtime.siri.model.VehicleActivityRecord;
 import org.entur.avro.realtime.siri.model.VehicleMonitoringDeliveryRecord;
 import org.entur.siri21.util.SiriXml;
 import org.springframework.stereotype.Component;
+import uk.org.siri.siri21.Siri;
 
 import java.util.Map;
 
@@ -30,11 +31,17 @@ public class AvroConvertorProcessor implements Processor {
     @Override
     public void process(Exchange exchange) throws Exception {
 
-        String body = exchange.getIn().getBody(String.class);
-
         String codespaceId = exchange.getIn().getHeader(CODESPACE_ID_KAFKA_HEADER_NAME, String.class);
 
-        SiriRecord siriRecord = Converter.jaxb2Avro(SiriXml.parseXml(body));
+        // Already split deliveries are converted directly - XML is only parsed when received as XML
+        Siri siri;
+        if (exchange.getIn().getBody() instanceof Siri) {
+            siri = exchange.getIn().getBody(Siri.class);
+        } else {
+            siri = SiriXml.parseXml(exchange.getIn().getBody(String.class));
+        }
+
+        SiriRecord siriRecord = Converter.jaxb2Avro(siri);
 
         Message out = exchange.getMessage();
         if (siriRecord.getServiceDelivery() != null) {
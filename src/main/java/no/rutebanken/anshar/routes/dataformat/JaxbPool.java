@@ -0,0 +1,288 @@
+/*
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ *   https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ */
+
+package no.rutebanken.anshar.routes.dataformat;
+
+import jakarta.xml.bind.JAXBContext;
+import jakarta.xml.bind.JAXBException;
+import jakarta.xml.bind.Marshaller;
+import jakarta.xml.bind.Unmarshaller;
+import org.rutebanken.netex.model.PublicationDeliveryStructure;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.xml.sax.SAXException;
+
+import javax.xml.XMLConstants;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.validation.Schema;
+import javax.xml.validation.SchemaFactory;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.net.URL;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded, thread-safe pool of pre-configured marshallers and unmarshallers for a single JAXBContext.
+ *
+ * Marshallers/unmarshallers are not thread-safe, but are expensive to create - especially when a Schema is attached.
+ * Instances are borrowed for the duration of a single callback, and reset to their initial configuration when returned.
+ *
+ * When all instances are in use, callers wait a short while before an unpooled instance is created to avoid blocking
+ * the caller - this is counted as an overflow.
+ */
+public class JaxbPool {
+
+    private static final Logger logger = LoggerFactory.getLogger(JaxbPool.class);
+
+    private static final int DEFAULT_POOL_SIZE = Math.max(4, Runtime.getRuntime().availableProcessors() * 2);
+
+    private static final long MAX_WAIT_MILLIS = 50;
+
+    private static final XMLInputFactory xmlInputFactory = XMLInputFactory.newInstance();
+
+    public static final JaxbPool SIRI_20 = new JaxbPool("siri20", uk.org.siri.siri20.Siri.class, null);
+    public static final JaxbPool SIRI_21 = new JaxbPool("siri21", uk.org.siri.siri21.Siri.class, null);
+    public static final JaxbPool SIRI_21_VALIDATING = new JaxbPool("siri21-validating", uk.org.siri.siri21.Siri.class, "siri-2.1/xsd/siri.xsd");
+    public static final JaxbPool NETEX = new JaxbPool("netex", PublicationDeliveryStructure.class, null);
+
+    private static final List<JaxbPool> ALL_POOLS = List.of(SIRI_20, SIRI_21, SIRI_21_VALIDATING, NETEX);
+
+    private final String name;
+    private final Class<?> rootClass;
+    private final String schemaResource;
+    private final int poolSize;
+
+    private volatile JAXBContext context;
+    private volatile Schema schema;
+
+    private final BlockingQueue<Marshaller> marshallers;
+    private final BlockingQueue<Unmarshaller> unmarshallers;
+    private final Semaphore marshallerPermits;
+    private final Semaphore unmarshallerPermits;
+
+    private final AtomicLong created = new AtomicLong();
+    private final AtomicLong borrowed = new AtomicLong();
+    private final AtomicLong overflow = new AtomicLong();
+
+    @FunctionalInterface
+    public interface JaxbFunction<T, R> {
+        R apply(T t) throws JAXBException, XMLStreamException;
+    }
+
+    JaxbPool(String name, Class<?> rootClass, String schemaResource) {
+        this(name, rootClass, schemaResource, DEFAULT_POOL_SIZE);
+    }
+
+    JaxbPool(String name, Class<?> rootClass, String schemaResource, int poolSize) {
+        this.name = name;
+        this.rootClass = rootClass;
+        this.schemaResource = schemaResource;
+        this.poolSize = poolSize;
+        this.marshallers = new ArrayBlockingQueue<>(poolSize);
+        this.unmarshallers = new ArrayBlockingQueue<>(poolSize);
+        this.marshallerPermits = new Semaphore(poolSize);
+        this.unmarshallerPermits = new Semaphore(poolSize);
+    }
+
+    public static List<JaxbPool> getAllPools() {
+        return ALL_POOLS;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public int getPoolSize() {
+        return poolSize;
+    }
+
+    /**
+     * @return number of instances currently borrowed
+     */
+    public int getActiveCount() {
+        return (poolSize - marshallerPermits.availablePermits()) + (poolSize - unmarshallerPermits.availablePermits());
+    }
+
+    /**
+     * @return number of instances currently idle in the pool
+     */
+    public int getIdleCount() {
+        return marshallers.size() + unmarshallers.size();
+    }
+
+    public long getCreatedCount() {
+        return created.get();
+    }
+
+    public long getBorrowedCount() {
+        return borrowed.get();
+    }
+
+    public long getOverflowCount() {
+        return overflow.get();
+    }
+
+    /**
+     * Executes the callback with a pooled Unmarshaller. The Unmarshaller must not be used after the callback returns.
+     */
+    public <R> R withUnmarshaller(JaxbFunction<Unmarshaller, R> callback) throws JAXBException, XMLStreamException {
+        boolean permit = acquire(unmarshallerPermits);
+        Unmarshaller unmarshaller = permit ? unmarshallers.poll() : null;
+        if (unmarshaller == null) {
+            unmarshaller = createUnmarshaller();
+        }
+        try {
+            return callback.apply(unmarshaller);
+        } finally {
+            if (permit) {
+                try {
+                    resetUnmarshaller(unmarshaller);
+                    unmarshallers.offer(unmarshaller);
+                } finally {
+                    unmarshallerPermits.release();
+                }
+            }
+        }
+    }
+
+    /**
+     * Executes the callback with a pooled Marshaller. The Marshaller must not be used after the callback returns.
+     */
+    public <R> R withMarshaller(JaxbFunction<Marshaller, R> callback) throws JAXBException, XMLStreamException {
+        boolean permit = acquire(marshallerPermits);
+        Marshaller marshaller = permit ? marshallers.poll() : null;
+        if (marshaller == null) {
+            marshaller = createMarshaller();
+        }
+        try {
+            return callback.apply(marshaller);
+        } finally {
+            if (permit) {
+                try {
+                    resetMarshaller(marshaller);
+                    marshallers.offer(marshaller);
+                } finally {
+                    marshallerPermits.release();
+                }
+            }
+        }
+    }
+
+    public <T> T unmarshal(InputStream xml, Class<T> type) throws JAXBException, XMLStreamException {
+        return withUnmarshaller(unmarshaller -> {
+            XMLStreamReader reader = xmlInputFactory.createXMLStreamReader(xml);
+            try {
+                return unmarshaller.unmarshal(reader, type).getValue();
+            } finally {
+                reader.close();
+            }
+        });
+    }
+
+    public byte[] marshal(Object jaxbElement) throws JAXBException, XMLStreamException {
+        return withMarshaller(marshaller -> {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            marshaller.marshal(jaxbElement, out);
+            return out.toByteArray();
+        });
+    }
+
+    /**
+     * Marshals the object with this pool, and unmarshals the result as the given type with the target pool.
+     */
+    public <T> T convert(Object jaxbElement, JaxbPool target, Class<T> type) throws JAXBException, XMLStreamException {
+        return target.unmarshal(new ByteArrayInputStream(marshal(jaxbElement)), type);
+    }
+
+    private boolean acquire(Semaphore permits) {
+        borrowed.incrementAndGet();
+        try {
+            if (permits.tryAcquire(MAX_WAIT_MILLIS, TimeUnit.MILLISECONDS)) {
+                return true;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        overflow.incrementAndGet();
+        return false;
+    }
+
+    private Unmarshaller createUnmarshaller() throws JAXBException {
+        Unmarshaller unmarshaller = getContext().createUnmarshaller();
+        resetUnmarshaller(unmarshaller);
+        created.incrementAndGet();
+        return unmarshaller;
+    }
+
+    private Marshaller createMarshaller() throws JAXBException {
+        Marshaller marshaller = getContext().createMarshaller();
+        resetMarshaller(marshaller);
+        created.incrementAndGet();
+        return marshaller;
+    }
+
+    private void resetUnmarshaller(Unmarshaller unmarshaller) throws JAXBException {
+        unmarshaller.setSchema(getSchema());
+        unmarshaller.setEventHandler(null);
+        unmarshaller.setListener(null);
+    }
+
+    private void resetMarshaller(Marshaller marshaller) throws JAXBException {
+        marshaller.setSchema(getSchema());
+        marshaller.setEventHandler(null);
+        marshaller.setListener(null);
+        marshaller.setProperty(Marshaller.JAXB_FRAGMENT, false);
+        marshaller.setProperty(Marshaller.JAXB_FORMATTED_OUTPUT, false);
+    }
+
+    private JAXBContext getContext() throws JAXBException {
+        if (context == null) {
+            synchronized (this) {
+                if (context == null) {
+                    context = JAXBContext.newInstance(rootClass);
+                    logger.info("Initialized JAXBContext for pool {}", name);
+                }
+            }
+        }
+        return context;
+    }
+
+    private Schema getSchema() {
+        if (schemaResource == null) {
+            return null;
+        }
+        if (schema == null) {
+            synchronized (this) {
+                if (schema == null) {
+                    URL resource = rootClass.getClassLoader().getResource(schemaResource);
+                    try {
+                        schema = SchemaFactory.newInstance(XMLConstants.W3C_XML_SCHEMA_NS_URI).newSchema(resource);
+                    } catch (SAXException e) {
+                        logger.warn("Caught exception when initializing schema {} for pool {}", schemaResource, name, e);
+                    }
+                }
+            }
+        }
+        return schema;
+    }
+}
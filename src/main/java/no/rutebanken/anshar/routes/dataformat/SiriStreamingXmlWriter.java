@@ -0,0 +1,130 @@
+/*
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ *   https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ */
+
+package no.rutebanken.anshar.routes.dataformat;
+
+import uk.org.siri.siri21.EstimatedVehicleJourney;
+import uk.org.siri.siri21.Siri;
+
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Writes large ServiceDeliveries directly to an output stream without holding all elements in memory.
+ *
+ * The envelope - i.e. the complete delivery without elements - is encoded first, and split where the elements
+ * belong. Elements are then fetched in fixed-size batches, and each batch is encoded in the same envelope with the
+ * same encoder - the bytes between the two parts of the envelope are written. Output is therefore identical to
+ * encoding the complete delivery at once, while only a single batch is held in memory at any time.
+ */
+public class SiriStreamingXmlWriter {
+
+    private static final byte[] ESTIMATED_FRAME_END = "EstimatedJourneyVersionFrame>".getBytes(StandardCharsets.UTF_8);
+
+    @FunctionalInterface
+    public interface BatchLoader<K, T> {
+        /**
+         * @return Elements for the given ids, ready to be written
+         */
+        List<T> load(List<K> ids) throws Exception;
+    }
+
+    @FunctionalInterface
+    public interface XmlEncoder {
+        byte[] encode(Siri siri) throws Exception;
+    }
+
+    private SiriStreamingXmlWriter() {
+    }
+
+    /**
+     * @param envelope ServiceDelivery with a single, empty EstimatedJourneyVersionFrame - journeys are added to it
+     *                 temporarily while each batch is encoded
+     * @param ids Ids of all journeys to write
+     * @param batchSize Max number of journeys fetched and encoded at once
+     * @param loader Fetches journeys
+     * @param encoder Encodes the complete delivery - e.g. as SIRI 2.0 or 2.1
+     * @return Number of journeys written
+     */
+    public static <K> int writeEstimatedTimetableDelivery(Siri envelope, List<K> ids, int batchSize,
+                                                          BatchLoader<K, EstimatedVehicleJourney> loader,
+                                                          XmlEncoder encoder, OutputStream out) throws Exception {
+        List<EstimatedVehicleJourney> frameJourneys = envelope.getServiceDelivery().getEstimatedTimetableDeliveries().get(0)
+            .getEstimatedJourneyVersionFrames().get(0)
+            .getEstimatedVehicleJourneies();
+
+        byte[] envelopeXml = encoder.encode(envelope);
+        int splitIndex = findClosingTag(envelopeXml, ESTIMATED_FRAME_END);
+        int suffixLength = envelopeXml.length - splitIndex;
+
+        out.write(envelopeXml, 0, splitIndex);
+
+        int count = 0;
+        for (int i = 0; i < ids.size(); i += batchSize) {
+            List<EstimatedVehicleJourney> journeys = loader.load(ids.subList(i, Math.min(i + batchSize, ids.size())));
+            if (journeys.isEmpty()) {
+                continue;
+            }
+            byte[] batchXml;
+            frameJourneys.addAll(journeys);
+            try {
+                batchXml = encoder.encode(envelope);
+            } finally {
+                frameJourneys.clear();
+            }
+
+            int batchEnd = batchXml.length - suffixLength;
+            if (batchEnd < splitIndex ||
+                !Arrays.equals(batchXml, 0, splitIndex, envelopeXml, 0, splitIndex) ||
+                !Arrays.equals(batchXml, batchEnd, batchXml.length, envelopeXml, splitIndex, envelopeXml.length)) {
+                throw new IllegalStateException("Encoded batch does not match envelope");
+            }
+            out.write(batchXml, splitIndex, batchEnd - splitIndex);
+            count += journeys.size();
+        }
+
+        out.write(envelopeXml, splitIndex, suffixLength);
+        return count;
+    }
+
+    /**
+     * @return Index of the last closing tag with the given local name - regardless of namespace prefix
+     */
+    static int findClosingTag(byte[] xml, byte[] localNameEnd) {
+        for (int i = xml.length - localNameEnd.length; i >= 0; i--) {
+            if (matches(xml, i, localNameEnd) && i > 0 && (xml[i - 1] == '/' || xml[i - 1] == ':')) {
+                int start = i - 1;
+                while (start >= 0 && xml[start] != '<' && xml[start] != '>') {
+                    start--;
+                }
+                if (start >= 0 && xml[start] == '<' && xml[start + 1] == '/') {
+                    return start;
+                }
+            }
+        }
+        throw new IllegalArgumentException("Envelope does not contain closing tag " + new String(localNameEnd, StandardCharsets.UTF_8));
+    }
+
+    private static boolean matches(byte[] xml, int offset, byte[] value) {
+        for (int i = 0; i < value.length; i++) {
+            if (xml[offset + i] != value[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
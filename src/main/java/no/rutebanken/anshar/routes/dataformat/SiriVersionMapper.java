@@ -0,0 +1,303 @@
+/*
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ *   https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ */
+
+package no.rutebanken.anshar.routes.dataformat;
+
+import jakarta.xml.bind.JAXBElement;
+import jakarta.xml.bind.JAXBException;
+import jakarta.xml.bind.annotation.XmlAttribute;
+import jakarta.xml.bind.annotation.XmlElement;
+import jakarta.xml.bind.annotation.XmlTransient;
+import jakarta.xml.bind.annotation.XmlValue;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.xml.stream.XMLStreamException;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.lang.reflect.WildcardType;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Maps objects between the SIRI 2.1 and SIRI 2.0 JAXB-models directly - without marshalling to XML and unmarshalling
+ * again.
+ *
+ * Fields are matched by XML-name, and the mapping for each class is resolved once and reused. Elements, attributes and
+ * enum values that do not exist in the target version are dropped - as they would be when unmarshalling XML of the
+ * other version. Values with a type that differs between the versions cannot be mapped directly - the object is then
+ * converted via XML instead, where the text value is parsed as the target type.
+ *
+ * Immutable values, DOM-nodes in extensions and calendar values are shared with the source, so the result should only
+ * be used for output and not modified.
+ */
+public class SiriVersionMapper {
+
+    private static final Logger logger = LoggerFactory.getLogger(SiriVersionMapper.class);
+
+    public static final SiriVersionMapper SIRI_21_TO_20 = new SiriVersionMapper("siri21", "siri20", JaxbPool.SIRI_21, JaxbPool.SIRI_20);
+    public static final SiriVersionMapper SIRI_20_TO_21 = new SiriVersionMapper("siri20", "siri21", JaxbPool.SIRI_20, JaxbPool.SIRI_21);
+
+    private final String sourceVersion;
+    private final String targetVersion;
+    private final JaxbPool sourcePool;
+    private final JaxbPool targetPool;
+
+    private final Map<Class<?>, ClassMapping> classMappings = new ConcurrentHashMap<>();
+
+    private final Map<String, Optional<Class<?>>> targetClasses = new ConcurrentHashMap<>();
+
+    private final AtomicLong fallbackCounter = new AtomicLong();
+
+    private SiriVersionMapper(String sourceVersion, String targetVersion, JaxbPool sourcePool, JaxbPool targetPool) {
+        this.sourceVersion = sourceVersion;
+        this.targetVersion = targetVersion;
+        this.sourcePool = sourcePool;
+        this.targetPool = targetPool;
+    }
+
+    /**
+     * Maps the object to the target version - falls back to converting via XML if the object cannot be mapped directly
+     *
+     * @param jaxbElement Root element, or JAXBElement
+     * @param type Type in the target version
+     */
+    public <T> T convert(Object jaxbElement, Class<T> type) throws JAXBException, XMLStreamException {
+        Object source = jaxbElement instanceof JAXBElement ? ((JAXBElement<?>) jaxbElement).getValue() : jaxbElement;
+        try {
+            return map(source, type);
+        } catch (IllegalStateException e) {
+            if (fallbackCounter.getAndIncrement() % 1000 == 0) {
+                logger.warn("Unable to map {} directly from {}, converting via XML - {} fallbacks so far", type.getSimpleName(), sourceVersion, fallbackCounter.get(), e);
+            }
+            return sourcePool.convert(jaxbElement, targetPool, type);
+        }
+    }
+
+    /**
+     * @return Number of objects that could not be mapped directly
+     */
+    public long getFallbackCount() {
+        return fallbackCounter.get();
+    }
+
+    /**
+     * @throws IllegalStateException if the object cannot be mapped
+     */
+    public <T> T map(Object source, Class<T> type) {
+        return type.cast(mapValue(source, type));
+    }
+
+    private Object mapValue(Object value, Type targetType) {
+        if (value == null) {
+            return null;
+        }
+        Class<?> targetClass = rawType(targetType);
+
+        if (value instanceof List) {
+            List<?> values = (List<?>) value;
+            Type elementType = elementType(targetType);
+            List<Object> result = new ArrayList<>(values.size());
+            for (Object element : values) {
+                Object converted = mapValue(element, elementType);
+                if (converted != null) {
+                    result.add(converted);
+                }
+            }
+            return result;
+        }
+
+        if (value instanceof JAXBElement) {
+            return convertElement((JAXBElement<?>) value);
+        }
+
+        if (value instanceof Enum) {
+            return convertEnum((Enum<?>) value, targetClass);
+        }
+
+        if (isSourceModel(value.getClass())) {
+            return getClassMapping(value.getClass(), targetClass).map(value);
+        }
+
+        if (targetClass.isPrimitive() || targetClass.isInstance(value)) {
+            return value;
+        }
+        // Type has changed between versions - XML conversion is required to parse the value as the target type
+        throw new IllegalStateException("Unable to map " + value.getClass().getName() + " to " + targetClass.getName());
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private Object convertElement(JAXBElement<?> element) {
+        Class<?> declaredType = resolveTargetClass(element.getDeclaredType(), Object.class);
+        Class scope = element.getScope();
+        if (scope != JAXBElement.GlobalScope.class) {
+            scope = resolveTargetClass(scope, Object.class);
+        }
+        Object value = mapValue(element.getValue(), declaredType);
+        if (value == null && !element.isNil()) {
+            return null;
+        }
+        JAXBElement result = new JAXBElement(element.getName(), declaredType, scope, value);
+        result.setNil(element.isNil());
+        return result;
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private Object convertEnum(Enum<?> value, Class<?> targetClass) {
+        Class<?> enumClass = targetClass.isEnum() ? targetClass : resolveTargetClass(value.getDeclaringClass(), targetClass);
+        try {
+            return Enum.valueOf((Class<Enum>) enumClass, value.name());
+        } catch (IllegalArgumentException e) {
+            // Value does not exist in target version
+            return null;
+        }
+    }
+
+    private ClassMapping getClassMapping(Class<?> sourceClass, Class<?> declaredTarget) {
+        ClassMapping mapping = classMappings.get(sourceClass);
+        if (mapping == null) {
+            mapping = classMappings.computeIfAbsent(sourceClass, c -> new ClassMapping(c, resolveTargetClass(c, declaredTarget)));
+        }
+        return mapping;
+    }
+
+    private boolean isSourceModel(Class<?> type) {
+        return type.getName().contains("." + sourceVersion);
+    }
+
+    /**
+     * Resolves the target class matching the source class - the declared type is used when it is not a supertype
+     */
+    private Class<?> resolveTargetClass(Class<?> sourceClass, Class<?> declaredTarget) {
+        if (!isSourceModel(sourceClass)) {
+            return sourceClass;
+        }
+        if (declaredTarget != Object.class && declaredTarget.getSimpleName().equals(sourceClass.getSimpleName()) &&
+            !Modifier.isAbstract(declaredTarget.getModifiers())) {
+            return declaredTarget;
+        }
+
+        String className = sourceClass.getName().replace("." + sourceVersion, "." + targetVersion);
+        Optional<Class<?>> targetClass = targetClasses.computeIfAbsent(className, name -> {
+            try {
+                return Optional.of(Class.forName(name, true, SiriVersionMapper.class.getClassLoader()));
+            } catch (ClassNotFoundException e) {
+                return Optional.empty();
+            }
+        });
+        return targetClass.orElseThrow(() -> new IllegalStateException("No " + targetVersion + " class for " + sourceClass.getName()));
+    }
+
+    private static Class<?> rawType(Type type) {
+        if (type instanceof Class) {
+            return (Class<?>) type;
+        }
+        if (type instanceof ParameterizedType) {
+            return (Class<?>) ((ParameterizedType) type).getRawType();
+        }
+        if (type instanceof WildcardType) {
+            return rawType(((WildcardType) type).getUpperBounds()[0]);
+        }
+        return Object.class;
+    }
+
+    private static Type elementType(Type listType) {
+        if (listType instanceof ParameterizedType) {
+            return ((ParameterizedType) listType).getActualTypeArguments()[0];
+        }
+        return Object.class;
+    }
+
+    /**
+     * Field-mappings from a source class to the matching target class
+     */
+    private class ClassMapping {
+        private final Constructor<?> constructor;
+        private final List<Field[]> fields = new ArrayList<>();
+
+        private ClassMapping(Class<?> sourceClass, Class<?> targetClass) {
+            try {
+                constructor = targetClass.getDeclaredConstructor();
+                constructor.setAccessible(true);
+            } catch (NoSuchMethodException e) {
+                throw new IllegalStateException("No default constructor for " + targetClass.getName(), e);
+            }
+
+            Map<String, Field> targetFields = getXmlFields(targetClass);
+            for (Map.Entry<String, Field> sourceField : getXmlFields(sourceClass).entrySet()) {
+                Field targetField = targetFields.get(sourceField.getKey());
+                if (targetField != null) {
+                    fields.add(new Field[]{sourceField.getValue(), targetField});
+                }
+            }
+        }
+
+        private Object map(Object source) {
+            try {
+                Object target = constructor.newInstance();
+                for (Field[] field : fields) {
+                    Object value = mapValue(field[0].get(source), field[1].getGenericType());
+                    if (value != null) {
+                        field[1].set(target, value);
+                    }
+                }
+                return target;
+            } catch (ReflectiveOperationException | IllegalArgumentException e) {
+                throw new IllegalStateException("Unable to map " + source.getClass().getName(), e);
+            }
+        }
+
+        /**
+         * @return All mapped fields in the class hierarchy, by XML-name
+         */
+        private Map<String, Field> getXmlFields(Class<?> type) {
+            Map<String, Field> result = new HashMap<>();
+            for (Class<?> c = type; c != null && c != Object.class; c = c.getSuperclass()) {
+                for (Field field : c.getDeclaredFields()) {
+                    if (Modifier.isStatic(field.getModifiers()) || Modifier.isTransient(field.getModifiers()) ||
+                        field.isAnnotationPresent(XmlTransient.class) || field.isSynthetic()) {
+                        continue;
+                    }
+                    field.setAccessible(true);
+                    result.putIfAbsent(getXmlName(field), field);
+                }
+            }
+            return result;
+        }
+
+        private String getXmlName(Field field) {
+            XmlElement element = field.getAnnotation(XmlElement.class);
+            if (element != null && !"##default".equals(element.name())) {
+                return element.name();
+            }
+            XmlAttribute attribute = field.getAnnotation(XmlAttribute.class);
+            if (attribute != null) {
+                return "@" + ("##default".equals(attribute.name()) ? field.getName() : attribute.name());
+            }
+            if (field.isAnnotationPresent(XmlValue.class)) {
+                return "#value";
+            }
+            return field.getName();
+        }
+    }
+}
@@ -1,16 +1,23 @@
 package no.rutebanken.anshar.routes.kafka;
 
 import no.rutebanken.anshar.metrics.PrometheusMetricsService;
+import org.apache.camel.Exchange;
+import org.apache.camel.ShutdownRunningTask;
 import org.apache.camel.builder.RouteBuilder;
+import org.apache.camel.component.kafka.KafkaConstants;
+import org.apache.kafka.clients.producer.RecordMetadata;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 
+import java.util.List;
 import java.util.concurrent.atomic.AtomicInteger;
 
 @Component
 public class KafkaAvroPublisherRoute extends RouteBuilder {
 
+    private static final String PUBLISH_STARTED_PROPERTY = "anshar.avro.publish.started";
+
     private final AtomicInteger etIgnoredCounter = new AtomicInteger();
     private final AtomicInteger vmIgnoredCounter = new AtomicInteger();
     private final AtomicInteger sxIgnoredCounter = new AtomicInteger();
@@ -30,7 +37,16 @@ public class KafkaAvroPublisherRoute extends RouteBuilder {
     @Value("${anshar.kafka.avro.sx.topicname:}")
     private String kafkaSxAvroTopic;
 
-
+    @Value("${anshar.kafka.avro.linger.ms:50}")
+    private int lingerMs;
+    @Value("${anshar.kafka.avro.batch.bytes:262144}")
+    private int batchBytes;
+    @Value("${anshar.kafka.avro.buffer.bytes:33554432}")
+    private int bufferBytes;
+    @Value("${anshar.kafka.avro.max.block.ms:60000}")
+    private int maxBlockMs;
+    @Value("${anshar.kafka.avro.queue.size:10000}")
+    private int queueSize;
 
     @Autowired
     PrometheusMetricsService metricsService;
@@ -40,10 +56,7 @@ public class KafkaAvroPublisherRoute extends RouteBuilder {
 
         if (publishEtAvroToKafkaEnabled) {
             log.info("Publishing Avro-ET to kafka-topic: {}", kafkaEtAvroTopic);
-            from("direct:publish.et.avro.kafka")
-                    .to("kafka:" + kafkaEtAvroTopic)
-                    .bean(metricsService, "registerAckedKafkaRecord(" + kafkaEtAvroTopic + ")")
-                    .routeId("anshar.kafka.et.producer.avro.kafka");
+            configurePublisher("direct:publish.et.avro.kafka", kafkaEtAvroTopic, "anshar.kafka.et.producer.avro.kafka");
         } else {
             log.info("Publish Avro-ET to kafka disabled");
             from("direct:publish.et.avro.kafka")
@@ -63,10 +76,7 @@ public class KafkaAvroPublisherRoute extends RouteBuilder {
 
         if (publishVmAvroToKafkaEnabled) {
             log.info("Publishing Avro-VM to kafka-topic: {}", kafkaVmAvroTopic);
-            from("direct:publish.vm.avro.kafka")
-                    .to("kafka:" + kafkaVmAvroTopic)
-                    .bean(metricsService, "registerAckedKafkaRecord(" + kafkaVmAvroTopic + ")")
-                    .routeId("anshar.kafka.vm.producer.avro.kafka");
+            configurePublisher("direct:publish.vm.avro.kafka", kafkaVmAvroTopic, "anshar.kafka.vm.producer.avro.kafka");
         } else {
             log.info("Publish Avro-VM to kafka disabled");
             from("direct:publish.vm.avro.kafka")
@@ -86,10 +96,7 @@ public class KafkaAvroPublisherRoute extends RouteBuilder {
 
         if (publishSxAvroToKafkaEnabled) {
             log.info("Publishing Avro-SX to kafka-topic: {}", kafkaSxAvroTopic);
-            from("direct:publish.sx.avro.kafka")
-                    .to("kafka:" + kafkaSxAvroTopic)
-                    .bean(metricsService, "registerAckedKafkaRecord(" + kafkaSxAvroTopic + ")")
-                    .routeId("anshar.kafka.sx.producer.avro.kafka");
+            configurePublisher("direct:publish.sx.avro.kafka", kafkaSxAvroTopic, "anshar.kafka.sx.producer.avro.kafka");
         } else {
             log.info("Publish Avro-SX to kafka disabled");
             from("direct:publish.sx.avro.kafka")
@@ -107,4 +114,49 @@ public class KafkaAvroPublisherRoute extends RouteBuilder {
                 .routeId("anshar.kafka.sx.producer.avro.kafka");
         }
     }
+
+    /**
+     * Records are sent asynchronously, and batched by the producer until the batch is full or linger-time has passed.
+     *
+     * Records are queued for the producer in a bounded queue. The producer blocks when the send-buffer is full, so
+     * when the topic lags the queue fills up and the wire-tap threads block until there is room. Once the wire-tap
+     * threads and their queue are used up, the producing route runs the wire-tap itself, so ingestion is slowed down.
+     * Records that are queued when the route stops are sent before it stops.
+     *
+     * Published bytes are the serialized size of the value, as reported by the producer when the record is acknowledged.
+     */
+    private void configurePublisher(String fromUri, String topic, String routeId) {
+        String queueUri = "seda:" + routeId + "?size=" + queueSize + "&blockWhenFull=true";
+
+        from(fromUri)
+                .to(queueUri)
+                .routeId(routeId + ".queue");
+
+        from(queueUri)
+                .shutdownRunningTask(ShutdownRunningTask.CompleteAllTasks)
+                .process(p -> p.setProperty(PUBLISH_STARTED_PROPERTY, System.nanoTime()))
+                .to("kafka:" + topic +
+                        "?lingerMs=" + lingerMs +
+                        "&producerBatchSize=" + batchBytes +
+                        "&bufferMemorySize=" + bufferBytes +
+                        "&maxBlockMs=" + maxBlockMs +
+                        "&recordMetadata=true")
+                .process(p -> metricsService.registerAvroPublished(topic, 1, getSerializedValueSize(p),
+                        System.nanoTime() - p.getProperty(PUBLISH_STARTED_PROPERTY, Long.class)))
+                .bean(metricsService, "registerAckedKafkaRecord(" + topic + ")")
+                .routeId(routeId);
+    }
+
+    private static long getSerializedValueSize(Exchange exchange) {
+        List<?> metadata = exchange.getMessage().getHeader(KafkaConstants.KAFKA_RECORD_META, List.class);
+        long size = 0;
+        if (metadata != null) {
+            for (Object recordMetadata : metadata) {
+                if (recordMetadata instanceof RecordMetadata && ((RecordMetadata) recordMetadata).serializedValueSize() > 0) {
+                    size += ((RecordMetadata) recordMetadata).serializedValueSize();
+                }
+            }
+        }
+        return size;
+    }
 }
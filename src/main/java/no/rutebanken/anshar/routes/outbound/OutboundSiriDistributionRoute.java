@@ -1,8 +1,10 @@
 package no.rutebanken.anshar.routes.outbound;
 
 import jakarta.ws.rs.core.MediaType;
+import no.rutebanken.anshar.config.AnsharConfiguration;
 import no.rutebanken.anshar.metrics.PrometheusMetricsService;
 import no.rutebanken.anshar.routes.dataformat.SiriDataFormatHelper;
+import no.rutebanken.anshar.util.ContentEncoding;
 import org.apache.camel.Configuration;
 import org.apache.camel.Exchange;
 import org.apache.camel.LoggingLevel;
@@ -14,6 +16,8 @@ import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 import uk.org.siri.siri21.Siri;
 
+import java.io.IOException;
+
 import static no.rutebanken.anshar.routes.HttpParameter.SIRI_VERSION_HEADER_NAME;
 import static no.rutebanken.anshar.routes.RestRouteBuilder.downgradeSiriVersion;
 
@@ -21,6 +25,8 @@ import static no.rutebanken.anshar.routes.RestRouteBuilder.downgradeSiriVersion;
 @Configuration
 public class OutboundSiriDistributionRoute extends RouteBuilder {
 
+    private static final String COMPRESSION_TARGET = "outbound";
+
     @Autowired
     private ServerSubscriptionManager subscriptionManager;
 
@@ -40,6 +46,9 @@ public class OutboundSiriDistributionRoute extends RouteBuilder {
     @Value("${anshar.outbound.timeout.connect:5000}")
     private int connectTimeout;
 
+    @Autowired
+    private AnsharConfiguration configuration;
+
     @Override
     public void configure() {
 
@@ -90,9 +99,30 @@ public class OutboundSiriDistributionRoute extends RouteBuilder {
                 .endChoice()
                 .end()
                 .removeHeader("showBody")
+                .choice()
+                .when(header("compressOutput").isEqualTo(true))
+                        .process(this::compressBody)
+                .endChoice()
+                .end()
+                .removeHeader("compressOutput")
                 .toD("${header.endpoint}")
                 .bean(subscriptionManager, "clearFailTracker(${header.SubscriptionId})")
                 .log(LoggingLevel.DEBUG, "POST complete ${header.SubscriptionId} - Response: [${header.CamelHttpResponseCode} ${header.CamelHttpResponseText}]");
 
     }
+
+    private void compressBody(Exchange p) throws IOException {
+        byte[] body = p.getMessage().getBody(byte[].class);
+        if (body == null || body.length < configuration.getCompressionMinSize()) {
+            return;
+        }
+        long start = System.nanoTime();
+        byte[] compressed = ContentEncoding.GZIP.compress(body, configuration.getCompressionLevel());
+        metrics.registerCompression(ContentEncoding.GZIP, COMPRESSION_TARGET, System.nanoTime() - start, body.length, compressed.length);
+
+        p.getMessage().setBody(compressed);
+        p.getMessage().setHeader(Exchange.CONTENT_ENCODING, ContentEncoding.GZIP.getValue());
+        // Body is already compressed - prevents the http-component from compressing it again
+        p.setProperty(Exchange.SKIP_GZIP_ENCODING, true);
+    }
 }
@@ -42,6 +42,7 @@ public class OutboundSubscriptionSetup implements Serializable {
     private String datasetId;
     private String clientTrackingName;
     private long changeBeforeUpdates;
+    private boolean gzipCompression;
 
     public OutboundSubscriptionSetup(ZonedDateTime requestTimestamp, SiriDataType subscriptionType, String address, long heartbeatInterval,
                                      long changeBeforeUpdates, Map<Class, Set<String>> filterMap, List<ValueAdapter> valueAdapters,
@@ -130,6 +131,17 @@ public class OutboundSubscriptionSetup implements Serializable {
         return siriVersion;
     }
 
+    /**
+     * @return true if deliveries should be posted gzip-compressed with Content-Encoding: gzip
+     */
+    public boolean isGzipCompression() {
+        return gzipCompression;
+    }
+
+    public void setGzipCompression(boolean gzipCompression) {
+        this.gzipCompression = gzipCompression;
+    }
+
     public String toString() {
         return MessageFormat.format("[subscriptionId={0}, clientTrackingName={1}, requestorRef={2}, address={3}]", subscriptionId, clientTrackingName, requestorRef, address);
     }
@@ -100,6 +100,9 @@ public class ServerSubscriptionManager {
     @Value("${anshar.outbound.pubsub.sx.topic.enabled}")
     private boolean pushToSxTopicEnabled;
 
+    @Value("${anshar.outbound.compression.gzip.clients:}")
+    private List<String> gzipCompressionClients;
+
     @Autowired
     private MappingAdapterPresets mappingAdapterPresets;
 
@@ -120,6 +123,9 @@ public class ServerSubscriptionManager {
     @Autowired
     private SiriHelper siriHelper;
 
+    @Autowired
+    private StreamingSubscriptionManager streamingSubscriptionManager;
+
 
     public Collection getSubscriptions() {
         return Collections.unmodifiableCollection(subscriptions.values());
@@ -213,7 +219,7 @@ public class ServerSubscriptionManager {
 
     private OutboundSubscriptionSetup createSubscription(SubscriptionRequest subscriptionRequest, String datasetId, OutboundIdMappingPolicy outboundIdMappingPolicy, String clientTrackingName) {
 
-        return new OutboundSubscriptionSetup(
+        OutboundSubscriptionSetup subscription = new OutboundSubscriptionSetup(
                 ZonedDateTime.now(),
                 getSubscriptionType(subscriptionRequest),
                 subscriptionRequest.getConsumerAddress() != null ? subscriptionRequest.getConsumerAddress():subscriptionRequest.getAddress(),
@@ -228,6 +234,11 @@ public class ServerSubscriptionManager {
                 clientTrackingName,
                 resolveSiriVersion(subscriptionRequest, outboundIdMappingPolicy)
                 );
+
+        if (clientTrackingName != null && gzipCompressionClients != null && gzipCompressionClients.contains(clientTrackingName)) {
+            subscription.setGzipCompression(true);
+        }
+        return subscription;
     }
 
     private static SiriValidator.Version resolveSiriVersion(SubscriptionRequest subscriptionRequest, OutboundIdMappingPolicy outboundIdMappingPolicy) {
@@ -401,6 +412,8 @@ public class ServerSubscriptionManager {
         }
         Siri delivery = siriObjectFactory.createVMServiceDelivery(addedOrUpdated);
 
+        streamingSubscriptionManager.push(SiriDataType.VEHICLE_MONITORING, delivery, datasetId);
+
         if (pushToVmTopicEnabled) {
             siriVmTopicProducer.asyncRequestBodyAndHeader(siriVmTopicProducer.getDefaultEndpoint(), delivery, CODESPACE_ID_KAFKA_HEADER_NAME, datasetId);
         }
@@ -444,6 +457,8 @@ public class ServerSubscriptionManager {
         }
         Siri delivery = siriObjectFactory.createSXServiceDelivery(addedOrUpdated);
 
+        streamingSubscriptionManager.push(SiriDataType.SITUATION_EXCHANGE, delivery, datasetId);
+
         if (pushToSxTopicEnabled) {
             siriSxTopicProducer.asyncRequestBodyAndHeader(siriSxTopicProducer.getDefaultEndpoint(), delivery, CODESPACE_ID_KAFKA_HEADER_NAME, datasetId);
         }
@@ -486,6 +501,8 @@ public class ServerSubscriptionManager {
 
         Siri delivery = siriObjectFactory.createETServiceDelivery(addedOrUpdated);
 
+        streamingSubscriptionManager.push(SiriDataType.ESTIMATED_TIMETABLE, delivery, datasetId);
+
         if (pushToEtTopicEnabled) {
             siriEtTopicProducer.asyncRequestBodyAndHeader(siriEtTopicProducer.getDefaultEndpoint(), delivery, CODESPACE_ID_KAFKA_HEADER_NAME, datasetId);
         }
@@ -15,6 +15,7 @@
 
 package no.rutebanken.anshar.routes.outbound;
 
+import no.rutebanken.anshar.data.AffectedEntities;
 import no.rutebanken.anshar.data.EstimatedTimetables;
 import no.rutebanken.anshar.data.Situations;
 import no.rutebanken.anshar.data.VehicleActivities;
@@ -24,8 +25,6 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
-import uk.org.siri.siri21.AffectedLineStructure;
-import uk.org.siri.siri21.AffectsScopeStructure;
 import uk.org.siri.siri21.EstimatedTimetableDeliveryStructure;
 import uk.org.siri.siri21.EstimatedTimetableRequestStructure;
 import uk.org.siri.siri21.EstimatedTimetableSubscriptionStructure;
@@ -397,23 +396,10 @@ public class SiriHelper {
             List<PtSituationElement> ptSituationElements = situations.getPtSituationElements();
             List<PtSituationElement> filteredSituationElements = new ArrayList<>();
             for (PtSituationElement s : ptSituationElements) {
-                if (s.getAffects() != null &&
-                        s.getAffects().getNetworks() != null &&
-                        s.getAffects().getNetworks().getAffectedNetworks() != null) {
-
-                    List<AffectsScopeStructure.Networks.AffectedNetwork> affectedNetworks = s.getAffects().getNetworks().getAffectedNetworks();
-                    for (AffectsScopeStructure.Networks.AffectedNetwork affectedNetwork : affectedNetworks) {
-                        List<AffectedLineStructure> affectedLines = affectedNetwork.getAffectedLines();
-                        if (affectedLines != null) {
-                            for (AffectedLineStructure affectedLine : affectedLines) {
-                                LineRef lineRef = affectedLine.getLineRef();
-                                if (!filteredSituationElements.contains(s) && lineRef != null) {
-                                    if (isLineRefMatch(linerefValues, lineRef.getValue())) {
-                                        filteredSituationElements.add(s);
-                                    }
-                                }
-                            }
-                        }
+                for (String lineRef : AffectedEntities.getAffectedLineRefs(s)) {
+                    if (isLineRefMatch(linerefValues, lineRef)) {
+                        filteredSituationElements.add(s);
+                        break;
                     }
                 }
             }
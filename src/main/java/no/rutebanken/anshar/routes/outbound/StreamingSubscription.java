@@ -0,0 +1,128 @@
+/*
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ *   https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ */
+
+package no.rutebanken.anshar.routes.outbound;
+
+import no.rutebanken.anshar.subscription.SiriDataType;
+import uk.org.siri.siri21.Siri;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A client connected to a streaming endpoint.
+ *
+ * Updates are buffered in a bounded queue until the connection has written them. When the buffer is full the
+ * client is not keeping up, and the subscription is closed instead of blocking the publisher.
+ *
+ * Updates received while the initial snapshot is written are buffered the same way, so the buffer must be large enough
+ * for the updates received while a snapshot is written to a client that is keeping up.
+ */
+public class StreamingSubscription {
+
+    private final String id = UUID.randomUUID().toString();
+    private final SiriDataType subscriptionType;
+    private final String datasetId;
+    private final Map<Class, Set<String>> filterMap;
+    private final String clientTrackingName;
+    private final BlockingQueue<Siri> buffer;
+
+    private volatile boolean closed;
+    private volatile boolean slowConsumer;
+
+    public StreamingSubscription(SiriDataType subscriptionType, String datasetId, Map<Class, Set<String>> filterMap, String clientTrackingName, int bufferSize) {
+        this.subscriptionType = subscriptionType;
+        this.datasetId = datasetId;
+        this.filterMap = filterMap;
+        this.clientTrackingName = clientTrackingName;
+        this.buffer = new ArrayBlockingQueue<>(bufferSize);
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public SiriDataType getSubscriptionType() {
+        return subscriptionType;
+    }
+
+    public String getDatasetId() {
+        return datasetId;
+    }
+
+    public Map<Class, Set<String>> getFilterMap() {
+        return filterMap;
+    }
+
+    public String getClientTrackingName() {
+        return clientTrackingName;
+    }
+
+    boolean matches(SiriDataType type, String datasetId) {
+        return subscriptionType == type && (this.datasetId == null || this.datasetId.equals(datasetId));
+    }
+
+    /**
+     * @return false if the buffer is full - the subscription is then closed
+     */
+    boolean offer(Siri delivery) {
+        if (closed) {
+            return false;
+        }
+        if (!buffer.offer(delivery)) {
+            slowConsumer = true;
+            close();
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * @return next buffered delivery, or null if none arrived within the timeout
+     */
+    public Siri poll(long timeout, TimeUnit unit) throws InterruptedException {
+        return buffer.poll(timeout, unit);
+    }
+
+    public int getBufferedCount() {
+        return buffer.size();
+    }
+
+    public void close() {
+        closed = true;
+    }
+
+    public boolean isClosed() {
+        return closed;
+    }
+
+    public boolean isSlowConsumer() {
+        return slowConsumer;
+    }
+
+    @Override
+    public String toString() {
+        return "StreamingSubscription{" +
+                "id='" + id + '\'' +
+                ", subscriptionType=" + subscriptionType +
+                ", datasetId='" + datasetId + '\'' +
+                ", clientTrackingName='" + clientTrackingName + '\'' +
+                '}';
+    }
+}
@@ -0,0 +1,111 @@
+/*
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ *   https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ */
+
+package no.rutebanken.anshar.routes.outbound;
+
+import no.rutebanken.anshar.config.AnsharConfiguration;
+import no.rutebanken.anshar.metrics.PrometheusMetricsService;
+import no.rutebanken.anshar.subscription.SiriDataType;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+import uk.org.siri.siri21.Siri;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Keeps track of clients connected to the streaming endpoints on this instance, and distributes updates to them.
+ *
+ * Connections are local to the instance, and receive the updates processed by the instance - the same updates that
+ * are pushed to outbound SIRI-subscriptions.
+ */
+@Service
+public class StreamingSubscriptionManager {
+
+    private final Logger logger = LoggerFactory.getLogger(StreamingSubscriptionManager.class);
+
+    private final Map<String, StreamingSubscription> subscriptions = new ConcurrentHashMap<>();
+
+    private final int maxConnections;
+    private final int bufferSize;
+
+    private final AtomicLong slowConsumerCount = new AtomicLong();
+    private final AtomicLong rejectedCount = new AtomicLong();
+
+    @Autowired
+    public StreamingSubscriptionManager(AnsharConfiguration configuration, PrometheusMetricsService metrics) {
+        this(configuration.getStreamMaxConnections(), configuration.getStreamBufferSize());
+        metrics.registerStreamingSubscriptions(this);
+    }
+
+    public StreamingSubscriptionManager(int maxConnections, int bufferSize) {
+        this.maxConnections = maxConnections;
+        this.bufferSize = bufferSize;
+    }
+
+    /**
+     * @return the new subscription, or null if max number of connections is reached
+     */
+    public synchronized StreamingSubscription register(SiriDataType type, String datasetId, Map<Class, Set<String>> filterMap, String clientTrackingName) {
+        if (subscriptions.size() >= maxConnections) {
+            rejectedCount.incrementAndGet();
+            logger.info("Rejecting streaming connection from {} - {} connections open", clientTrackingName, subscriptions.size());
+            return null;
+        }
+        StreamingSubscription subscription = new StreamingSubscription(type, datasetId, filterMap, clientTrackingName, bufferSize);
+        subscriptions.put(subscription.getId(), subscription);
+        logger.info("Added {}", subscription);
+        return subscription;
+    }
+
+    public void remove(StreamingSubscription subscription) {
+        subscription.close();
+        if (subscriptions.remove(subscription.getId()) != null) {
+            logger.info("Removed {}", subscription);
+        }
+    }
+
+    /**
+     * Adds the delivery to the buffer of all matching subscriptions - subscriptions with a full buffer are closed
+     */
+    public void push(SiriDataType type, Siri delivery, String datasetId) {
+        if (subscriptions.isEmpty()) {
+            return;
+        }
+        for (StreamingSubscription subscription : subscriptions.values()) {
+            if (subscription.matches(type, datasetId) && !subscription.offer(delivery)) {
+                slowConsumerCount.incrementAndGet();
+                logger.info("Disconnecting slow consumer {}", subscription);
+                remove(subscription);
+            }
+        }
+    }
+
+    public int getConnectionCount() {
+        return subscriptions.size();
+    }
+
+    public long getSlowConsumerCount() {
+        return slowConsumerCount.get();
+    }
+
+    public long getRejectedCount() {
+        return rejectedCount.get();
+    }
+}
@@ -1,12 +1,18 @@
 package no.rutebanken.anshar.routes.protobuf;
 
 import no.rutebanken.anshar.data.collections.KryoSerializer;
+import no.rutebanken.anshar.metrics.PrometheusMetricsService;
+import no.rutebanken.anshar.util.XmlEncodingRepairer;
+import org.apache.camel.NoTypeConversionAvailableException;
 import org.apache.camel.builder.RouteBuilder;
 import org.entur.protobuf.mapper.SiriMapper;
-import org.rutebanken.siri20.util.SiriXml;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 import uk.org.siri.siri20.Siri;
-import uk.org.siri.www.siri.SiriType;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringWriter;
 
 import static org.apache.camel.Exchange.CONTENT_LENGTH;
 
@@ -15,14 +21,16 @@ public class ProtobufConverterRoute extends RouteBuilder {
 
     KryoSerializer kryoSerializer = new KryoSerializer();
 
+    @Autowired
+    private PrometheusMetricsService metrics;
+
     @Override
     public void configure() {
 
 
         from("direct:compress.jaxb")
-                .setBody(body().convertToString())
                 .process(p -> {
-                    final String body = fixEncodingErrorsInXml(p.getIn().getBody(String.class), p.getIn().getHeader("subscriptionId", String.class));
+                    final String body = fixEncodingErrorsInXml(p.getIn().getBody(), p.getIn().getHeader("subscriptionId", String.class));
                     p.getOut().setBody(body);
                     p.getOut().setHeaders(p.getIn().getHeaders());
                     p.getOut().setHeader(CONTENT_LENGTH, body.getBytes().length);
@@ -42,13 +50,8 @@ public class ProtobufConverterRoute extends RouteBuilder {
 
         from("direct:map.jaxb.to.protobuf")
                 .process(p -> {
-                    p.getOut().setBody(p.getIn().getBody(String.class));
-                    p.getOut().setHeaders(p.getIn().getHeaders());
-                })
-                .bean(SiriMapper.class, "mapToPbf")
-                .process(p -> {
-                    final SiriType body = p.getIn().getBody(SiriType.class);
-                    p.getOut().setBody(body.toByteArray());
+                    final uk.org.siri.siri21.Siri body = p.getIn().getBody(uk.org.siri.siri21.Siri.class);
+                    p.getOut().setBody(SiriProtobufMapper.mapToPbf(body).toByteArray());
                     p.getOut().setHeaders(p.getIn().getHeaders());
                 })
         ;
@@ -62,8 +65,8 @@ public class ProtobufConverterRoute extends RouteBuilder {
                 .process(p -> {
                     final Siri body = p.getIn().getBody(Siri.class);
 
-                    //Map protobuf to SIRI 2.0, create XML, parse 2.0 XML to SIRI 2.1 object
-                    uk.org.siri.siri21.Siri siri = org.entur.siri21.util.SiriXml.parseXml(SiriXml.toXml(body));
+                    //Map protobuf to SIRI 2.0, and SIRI 2.0 directly to SIRI 2.1 object
+                    uk.org.siri.siri21.Siri siri = SiriProtobufMapper.mapToJaxb(body);
 
                     p.getOut().setBody(siri);
                     p.getOut().setHeaders(p.getIn().getHeaders());
@@ -75,45 +78,39 @@ public class ProtobufConverterRoute extends RouteBuilder {
     /*
      * Temporarily replaces characters when receiving data created by wrong encoding - KOLDATA-479
      */
-    private String fixEncodingErrorsInXml(String body, String subscriptionId) {
+    private String fixEncodingErrorsInXml(Object body, String subscriptionId) throws IOException {
 
         if (body == null) {
             // This should never happen (!), keeping it for now, but should be removed
-            body = "";
             log.warn("Body is null!!!");
+            return "";
         }
 
-        boolean replacedChars = false;
-        if (body.indexOf("Ã¦") >= 0) {
-            body = body.replaceAll("Ã¦", "æ");
-            replacedChars = true;
-        }
-        if (body.indexOf("Ã†") >= 0) {
-            body = body.replaceAll("Ã†", "Æ");
-            replacedChars = true;
-        }
-        if (body.indexOf("Ã¸") >= 0) {
-            body = body.replaceAll("Ã¸", "ø");
-            replacedChars = true;
-        }
-        if (body.indexOf("Ã\u0098") >= 0) {
-            body = body.replaceAll("Ã\u0098", "Ø");
-            replacedChars = true;
-        }
-        if (body.indexOf("Ã¥") >= 0) {
-            body = body.replaceAll("Ã¥", "å");
-            replacedChars = true;
-        }
-        if (body.indexOf("Ã\u0085") >= 0) {
-            body = body.replaceAll("Ã\u0085", "Å");
-            replacedChars = true;
+        final boolean[] replacedChars = {false};
+        XmlEncodingRepairer.RepairListener listener = (replacement, count) -> {
+            replacedChars[0] = true;
+            metrics.registerEncodingRepair(replacement, count);
+        };
+
+        String repaired;
+        if (body instanceof String) {
+            repaired = XmlEncodingRepairer.repair((String) body, listener);
+        } else {
+            StringWriter writer = new StringWriter();
+            try (Reader reader = XmlEncodingRepairer.repairingReader(
+                    getContext().getTypeConverter().mandatoryConvertTo(Reader.class, body), listener)) {
+                reader.transferTo(writer);
+            } catch (NoTypeConversionAvailableException e) {
+                throw new IOException(e);
+            }
+            repaired = writer.toString();
         }
 
-        if (replacedChars) {
+        if (replacedChars[0]) {
             log.info("Fixed encoding errors for subscriptionId: {}", subscriptionId);
         }
 
-        return body;
+        return repaired;
     }
 }
 
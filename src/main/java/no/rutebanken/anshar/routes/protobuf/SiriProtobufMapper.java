@@ -0,0 +1,34 @@
+package no.rutebanken.anshar.routes.protobuf;
+
+import jakarta.xml.bind.JAXBException;
+import no.rutebanken.anshar.routes.RestRouteBuilder;
+import no.rutebanken.anshar.routes.dataformat.SiriVersionMapper;
+import org.entur.protobuf.mapper.SiriMapper;
+import uk.org.siri.siri21.Siri;
+import uk.org.siri.www.siri.SiriType;
+
+import javax.xml.stream.XMLStreamException;
+
+/**
+ * Maps between SIRI 2.1 objects and protobuf without XML in between.
+ *
+ * The protobuf-model is based on SIRI 2.0, so objects are mapped directly between the SIRI 2.1 and 2.0 models, and
+ * between SIRI 2.0 and protobuf with SiriMapper.
+ */
+public class SiriProtobufMapper {
+
+    private SiriProtobufMapper() {
+    }
+
+    public static SiriType mapToPbf(Siri siri) throws JAXBException, XMLStreamException {
+        return SiriMapper.mapToPbf(RestRouteBuilder.downgradeSiriVersion(siri));
+    }
+
+    public static Siri mapToJaxb(SiriType siriType) throws JAXBException, XMLStreamException {
+        return mapToJaxb(SiriMapper.mapToJaxb(siriType));
+    }
+
+    public static Siri mapToJaxb(uk.org.siri.siri20.Siri siri) throws JAXBException, XMLStreamException {
+        return SiriVersionMapper.SIRI_20_TO_21.convert(siri, Siri.class);
+    }
+}
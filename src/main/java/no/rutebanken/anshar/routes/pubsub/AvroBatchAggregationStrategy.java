@@ -0,0 +1,35 @@
+package no.rutebanken.anshar.routes.pubsub;
+
+import org.apache.camel.AggregationStrategy;
+import org.apache.camel.Exchange;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Collects serialized records in a list, and keeps track of the total size of the batch.
+ *
+ * Headers are kept from the first exchange in the batch.
+ */
+public class AvroBatchAggregationStrategy implements AggregationStrategy {
+
+    public static final String BATCH_SIZE_BYTES = "anshar.avro.batch.size.bytes";
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public Exchange aggregate(Exchange oldExchange, Exchange newExchange) {
+        byte[] record = newExchange.getIn().getBody(byte[].class);
+
+        if (oldExchange == null) {
+            List<byte[]> batch = new ArrayList<>();
+            batch.add(record);
+            newExchange.getIn().setBody(batch);
+            newExchange.setProperty(BATCH_SIZE_BYTES, (long) record.length);
+            return newExchange;
+        }
+
+        oldExchange.getIn().getBody(List.class).add(record);
+        oldExchange.setProperty(BATCH_SIZE_BYTES, oldExchange.getProperty(BATCH_SIZE_BYTES, Long.class) + record.length);
+        return oldExchange;
+    }
+}
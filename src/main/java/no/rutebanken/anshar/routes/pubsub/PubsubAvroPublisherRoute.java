@@ -1,16 +1,28 @@
 package no.rutebanken.anshar.routes.pubsub;
 
 import no.rutebanken.anshar.metrics.PrometheusMetricsService;
+import no.rutebanken.anshar.subscription.SiriDataType;
+import org.apache.camel.Processor;
+import org.apache.camel.ShutdownRunningTask;
 import org.apache.camel.builder.RouteBuilder;
+import org.apache.camel.model.RouteDefinition;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.atomic.AtomicInteger;
 
+import static no.rutebanken.anshar.routes.pubsub.AvroBatchAggregationStrategy.BATCH_SIZE_BYTES;
+
 @Component
 public class PubsubAvroPublisherRoute extends RouteBuilder {
 
+    private static final String IGNORED_TOPIC = "mock:ignore";
+    private static final String PUBLISH_STARTED_PROPERTY = "anshar.avro.publish.started";
+
     private final AtomicInteger etIgnoredCounter = new AtomicInteger();
     private final AtomicInteger vmIgnoredCounter = new AtomicInteger();
     private final AtomicInteger sxIgnoredCounter = new AtomicInteger();
@@ -21,40 +33,64 @@ public class PubsubAvroPublisherRoute extends RouteBuilder {
     @Value("${anshar.pubsub.avro.et.topicname.json:}")
     private String pubsubEtAvroJsonTopic;
 
+    @Value("${anshar.pubsub.avro.et.topicname:mock:ignore}")
+    private String pubsubEtAvroTopic;
+
     @Value("${anshar.pubsub.avro.vm.enabled:false}")
     protected boolean publishVmAvroToPubsubEnabled;
 
     @Value("${anshar.pubsub.avro.vm.topicname.json:}")
     private String pubsubVmAvroJsonTopic;
 
+    @Value("${anshar.pubsub.avro.vm.topicname:mock:ignore}")
+    private String pubsubVmAvroTopic;
+
     @Value("${anshar.pubsub.avro.sx.enabled:false}")
     protected boolean publishSxAvroToPubsubEnabled;
 
     @Value("${anshar.pubsub.avro.sx.topicname.json:}")
     private String pubsubSxAvroJsonTopic;
 
+    @Value("${anshar.pubsub.avro.sx.topicname:mock:ignore}")
+    private String pubsubSxAvroTopic;
+
+    @Value("${anshar.pubsub.avro.batch.size:100}")
+    private int batchSize;
+
+    @Value("${anshar.pubsub.avro.batch.bytes:1000000}")
+    private long batchBytes;
+
+    @Value("${anshar.pubsub.avro.batch.linger.ms:50}")
+    private long batchLingerMs;
+
+    @Value("${anshar.pubsub.avro.batch.in.flight:10}")
+    private int batchesInFlight;
+
+    @Value("${anshar.pubsub.avro.publisher.threads:4}")
+    private int publisherThreads;
+
     @Autowired
     PrometheusMetricsService metricsService;
 
     @Autowired
     private SiriAvroJsonSerializer siriAvroJsonSerializer;
 
+    @Autowired
+    private SiriAvroBinarySerializer siriAvroBinarySerializer;
+
+    private ExecutorService publisherExecutor;
 
     @Override
     public void configure() throws Exception {
 
+        if (publishEtAvroToPubsubEnabled || publishVmAvroToPubsubEnabled || publishSxAvroToPubsubEnabled) {
+            publisherExecutor = getContext().getExecutorServiceManager()
+                    .newFixedThreadPool(this, "avro-pubsub-publisher", publisherThreads);
+        }
+
         if (publishEtAvroToPubsubEnabled) {
-            log.info("Publishing Avro-ET to pubsub-topic: {}", pubsubEtAvroJsonTopic);
-            from("direct:publish.et.avro.pubsub")
-                    .removeHeaders("*")
-                    .choice()
-                        .when().constant(!pubsubEtAvroJsonTopic.equals("mock:ignore"))
-                            .process(siriAvroJsonSerializer)
-                            .to(pubsubEtAvroJsonTopic)
-                    .end()
-                    .bean(metricsService, "registerAvroPubsubRecord(ESTIMATED_TIMETABLE)")
-                    .routeId("anshar.pubsub.et.producer.avro")
-            ;
+            log.info("Publishing Avro-ET to pubsub-topics: {}, {}", pubsubEtAvroTopic, pubsubEtAvroJsonTopic);
+            configurePublisher("et", SiriDataType.ESTIMATED_TIMETABLE, pubsubEtAvroTopic, pubsubEtAvroJsonTopic);
 
         } else {
             log.info("Publish Avro-ET to pubsub disabled");
@@ -74,15 +110,8 @@ public class PubsubAvroPublisherRoute extends RouteBuilder {
         }
 
         if (publishVmAvroToPubsubEnabled) {
-            log.info("Publishing Avro-VM to pubsub-topic: {}", pubsubVmAvroJsonTopic);
-            from("direct:publish.vm.avro.pubsub")
-                    .removeHeaders("*")
-                    .choice().when().constant(!pubsubVmAvroJsonTopic.equals("mock:ignore"))
-                        .process(siriAvroJsonSerializer)
-                        .to(pubsubVmAvroJsonTopic)
-                    .end()
-                    .bean(metricsService, "registerAvroPubsubRecord(VEHICLE_MONITORING)")
-                    .routeId("anshar.pubsub.vm.producer.avro");
+            log.info("Publishing Avro-VM to pubsub-topics: {}, {}", pubsubVmAvroTopic, pubsubVmAvroJsonTopic);
+            configurePublisher("vm", SiriDataType.VEHICLE_MONITORING, pubsubVmAvroTopic, pubsubVmAvroJsonTopic);
 
         } else {
             log.info("Publish Avro-VM to pubsub disabled");
@@ -101,16 +130,8 @@ public class PubsubAvroPublisherRoute extends RouteBuilder {
         }
 
         if (publishSxAvroToPubsubEnabled) {
-            log.info("Publishing Avro-SX to pubsub-topic: {}", pubsubSxAvroJsonTopic);
-
-            from("direct:publish.sx.avro.pubsub")
-                    .removeHeaders("*")
-                    .choice().when().constant(!pubsubSxAvroJsonTopic.equals("mock:ignore"))
-                        .process(siriAvroJsonSerializer)
-                        .to(pubsubSxAvroJsonTopic)
-                    .end()
-                    .bean(metricsService, "registerAvroPubsubRecord(SITUATION_EXCHANGE)")
-                    .routeId("anshar.pubsub.sx.producer.avro");
+            log.info("Publishing Avro-SX to pubsub-topics: {}, {}", pubsubSxAvroTopic, pubsubSxAvroJsonTopic);
+            configurePublisher("sx", SiriDataType.SITUATION_EXCHANGE, pubsubSxAvroTopic, pubsubSxAvroJsonTopic);
 
         } else {
             log.info("Publish Avro-SX to pubsub disabled");
@@ -129,4 +150,71 @@ public class PubsubAvroPublisherRoute extends RouteBuilder {
                 .routeId("anshar.pubsub.sx.producer.avro");
         }
     }
+
+    /**
+     * Publishes each record to the binary and/or JSON topic - topics set to "mock:ignore" are skipped.
+     */
+    private void configurePublisher(String type, SiriDataType dataType, String binaryTopic, String jsonTopic) {
+        String fromUri = "direct:publish." + type + ".avro.pubsub";
+        String routeId = "anshar.pubsub." + type + ".producer.avro";
+
+        List<String> publishers = new ArrayList<>();
+        if (!binaryTopic.equals(IGNORED_TOPIC)) {
+            publishers.add(configureBatchedPublisher(fromUri + ".binary", routeId + ".binary", binaryTopic, siriAvroBinarySerializer));
+        }
+        if (!jsonTopic.equals(IGNORED_TOPIC)) {
+            publishers.add(configureBatchedPublisher(fromUri + ".json", routeId + ".json", jsonTopic, siriAvroJsonSerializer));
+        }
+
+        RouteDefinition route = from(fromUri)
+                .removeHeaders("*");
+        if (!publishers.isEmpty()) {
+            route.multicast()
+                    .to(publishers.toArray(new String[0]))
+                    .end();
+        }
+        route.bean(metricsService, "registerAvroPubsubRecord(" + dataType.name() + ")")
+                .routeId(routeId);
+    }
+
+    /**
+     * Serialized records are collected in batches that are completed by count, size or linger-time. Each batch is
+     * published concurrently, and the batch is completed when all records are acknowledged.
+     *
+     * Records are queued for the aggregator in a bounded queue that holds batch size * batches in flight. When the
+     * topic lags, the queue fills up and the wire-tap threads block until there is room. Once the wire-tap threads and
+     * their queue are used up, the producing route runs the wire-tap itself, so ingestion is slowed down.
+     *
+     * Records that are queued or aggregated when the route stops are published before it stops.
+     *
+     * @return uri of the route
+     */
+    private String configureBatchedPublisher(String fromUri, String routeId, String topic, Processor serializer) {
+        String queueUri = "seda:" + routeId + "?size=" + (batchSize * batchesInFlight) + "&blockWhenFull=true";
+
+        from(fromUri)
+                .process(serializer)
+                .to(queueUri)
+                .routeId(routeId + ".queue");
+
+        from(queueUri)
+                .shutdownRunningTask(ShutdownRunningTask.CompleteAllTasks)
+                .aggregate(constant(true), new AvroBatchAggregationStrategy())
+                    .completionSize(batchSize)
+                    .completionPredicate(exchangeProperty(BATCH_SIZE_BYTES).isGreaterThanOrEqualTo(batchBytes))
+                    .completionTimeout(batchLingerMs)
+                    .forceCompletionOnStop()
+                    .process(p -> p.setProperty(PUBLISH_STARTED_PROPERTY, System.nanoTime()))
+                    .split(body()).parallelProcessing().executorService(publisherExecutor).stopOnException()
+                        .to(topic)
+                    .end()
+                    .process(p -> metricsService.registerAvroPublished(topic,
+                            p.getIn().getBody(List.class).size(),
+                            p.getProperty(BATCH_SIZE_BYTES, Long.class),
+                            System.nanoTime() - p.getProperty(PUBLISH_STARTED_PROPERTY, Long.class)
+                    ))
+                .end()
+                .routeId(routeId);
+        return fromUri;
+    }
 }
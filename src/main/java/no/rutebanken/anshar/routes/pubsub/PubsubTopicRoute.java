@@ -1,8 +1,8 @@
 package no.rutebanken.anshar.routes.pubsub;
 
 import no.rutebanken.anshar.routes.avro.AvroConvertorProcessor;
+import org.apache.camel.Exchange;
 import org.apache.camel.builder.RouteBuilder;
-import org.entur.avro.realtime.siri.model.SiriRecord;
 import org.entur.siri21.util.SiriXml;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
@@ -12,12 +12,11 @@ import uk.org.siri.siri21.Siri;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 
-import static org.entur.avro.realtime.siri.converter.Converter.avro2Jaxb;
-import static org.entur.avro.realtime.siri.converter.Converter.jaxb2Avro;
-
 @Service
 public class PubsubTopicRoute extends RouteBuilder {
 
+    private static final String SPLIT_DELIVERY_PROPERTY = "anshar.split.delivery";
+
     @Value("${anshar.outbound.camel.route.topic.et.name}")
     private String etTopic;
 
@@ -53,8 +52,7 @@ public class PubsubTopicRoute extends RouteBuilder {
             from("direct:send.to.pubsub.topic.estimated_timetable")
                     .to("direct:siri.transform.data")
                     .choice().when(body().isNotNull())
-                        .to("xslt-saxon:xsl/split.xsl")
-                        .split().tokenizeXML("Siri").streaming()
+                        .split(method(SiriDeliverySplitter.class, "split"))
                         .wireTap("direct:publish.et.avro")        // Publish as Avro
                         .to("direct:publish.et.xml")        // Publish as XML
                         .to("direct:map.jaxb.to.protobuf")
@@ -64,28 +62,20 @@ public class PubsubTopicRoute extends RouteBuilder {
             ;
 
             /**
-             * Splits SIRI VM-ServiceDelivery into singular messages (i.e. one VM-message per ServiceDelivery), converts
-             * message to protobuf, and posts to Cloud Pubsub
+             * Splits SIRI VM-ServiceDelivery into singular messages (i.e. one VM-message per ServiceDelivery), and
+             * publishes as Avro
              */
             from("direct:send.to.pubsub.topic.vehicle_monitoring")
                     .to("direct:siri.transform.data")
                     .choice().when(body().isNotNull())
-                        .process(p -> {
-                            try {
-                                p.getMessage().setBody(SiriXml.toXml(p.getIn().getBody(Siri.class)));
-                            } catch (NullPointerException e) {
-                                try {
-                                    SiriRecord siriRecord = jaxb2Avro(p.getIn().getBody(Siri.class));
-                                    Siri siri = avro2Jaxb(siriRecord);
-                                    p.getMessage().setBody(SiriXml.toXml(siri));
-                                } catch (NullPointerException e2) {
-                                    log.error("Caught NullPointerException twice - giving up.", e2);
-                                }
-                            }
-                        })
-                        .to("xslt-saxon:xsl/split.xsl")
-                        .split().tokenizeXML("Siri").streaming()
-                        .to("direct:publish.vm.avro")// Publish as Avro
+                        .split(method(SiriDeliverySplitter.class, "split"))
+                        .doTry()
+                            .to("direct:publish.vm.avro")// Publish as Avro
+                        .doCatch(NullPointerException.class)
+                            // Only the failing activity is skipped - not the rest of the delivery
+                            .process(p -> log.error("Caught NullPointerException converting VM to Avro - giving up.",
+                                    p.getProperty(Exchange.EXCEPTION_CAUGHT, Exception.class)))
+                        .end()
                         .wireTap("direct:log.pubsub.vm.traffic")
                     .end()
             ;
@@ -97,8 +87,7 @@ public class PubsubTopicRoute extends RouteBuilder {
             from("direct:send.to.pubsub.topic.situation_exchange")
                     .to("direct:siri.transform.data")
                     .choice().when(body().isNotNull())
-                        .to("xslt-saxon:xsl/split.xsl")
-                        .split().tokenizeXML("Siri").streaming()
+                        .split(method(SiriDeliverySplitter.class, "split"))
                         .wireTap("direct:publish.sx.avro")// Publish as Avro
                         .to("direct:map.jaxb.to.protobuf")
                         .wireTap("direct:log.pubsub.sx.traffic")
@@ -107,8 +96,13 @@ public class PubsubTopicRoute extends RouteBuilder {
             ;
 
             if (etTopicXml != null) {
+                // XML is only created for the XML-topic - the split delivery is restored for the next steps
                 from("direct:publish.et.xml")
+                        .setProperty(SPLIT_DELIVERY_PROPERTY, body())
+                        .process(p -> p.getMessage().setBody(SiriXml.toXml(p.getIn().getBody(Siri.class))))
                         .to(etTopicXml)
+                        .setBody(exchangeProperty(SPLIT_DELIVERY_PROPERTY))
+                        .removeProperty(SPLIT_DELIVERY_PROPERTY)
                 ;
             } else {
                 AtomicBoolean etTopicXmlWarned = new AtomicBoolean(false);
@@ -0,0 +1,66 @@
+package no.rutebanken.anshar.routes.pubsub;
+
+import org.apache.avro.Schema;
+import org.apache.avro.SchemaNormalization;
+import org.apache.avro.io.BinaryEncoder;
+import org.apache.avro.io.DatumWriter;
+import org.apache.avro.io.EncoderFactory;
+import org.apache.avro.specific.SpecificDatumWriter;
+import org.apache.avro.specific.SpecificRecord;
+import org.apache.camel.Exchange;
+import org.apache.camel.Processor;
+import org.apache.camel.component.google.pubsub.GooglePubsubConstants;
+import org.springframework.stereotype.Component;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Serializes Avro-records with binary encoding.
+ *
+ * The binary encoding does not contain the schema, so the fingerprint of the writer-schema is added as a message
+ * attribute to let consumers resolve the schema.
+ */
+@Component
+public class SiriAvroBinarySerializer implements Processor {
+
+    public static final String SCHEMA_FINGERPRINT_ATTRIBUTE = "schemaFingerprint";
+    public static final String SCHEMA_NAME_ATTRIBUTE = "schemaName";
+
+    private final Map<Schema, DatumWriter<SpecificRecord>> writers = new ConcurrentHashMap<>();
+    private final Map<Schema, Map<String, String>> attributes = new ConcurrentHashMap<>();
+
+    @Override
+    public void process(Exchange exchange) throws Exception {
+        Object body = exchange.getMessage().getBody();
+        if (body instanceof SpecificRecord record) {
+            exchange.getMessage().setBody(serialize(record));
+            exchange.getMessage().setHeader(GooglePubsubConstants.ATTRIBUTES, getAttributes(record.getSchema()));
+        }
+    }
+
+    byte[] serialize(SpecificRecord record) throws IOException {
+        ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        BinaryEncoder encoder = EncoderFactory.get().binaryEncoder(stream, null);
+        writers.computeIfAbsent(record.getSchema(), SpecificDatumWriter::new)
+                .write(record, encoder);
+        encoder.flush();
+        return stream.toByteArray();
+    }
+
+    Map<String, String> getAttributes(Schema schema) {
+        return attributes.computeIfAbsent(schema, s -> Map.of(
+                SCHEMA_FINGERPRINT_ATTRIBUTE, getFingerprint(s),
+                SCHEMA_NAME_ATTRIBUTE, s.getFullName()
+        ));
+    }
+
+    /**
+     * @return CRC-64-AVRO fingerprint of the parsing canonical form of the schema as hex
+     */
+    static String getFingerprint(Schema schema) {
+        return String.format("%016x", SchemaNormalization.parsingFingerprint64(schema));
+    }
+}
@@ -0,0 +1,102 @@
+package no.rutebanken.anshar.routes.pubsub;
+
+import uk.org.siri.siri21.EstimatedTimetableDeliveryStructure;
+import uk.org.siri.siri21.EstimatedVehicleJourney;
+import uk.org.siri.siri21.EstimatedVersionFrameStructure;
+import uk.org.siri.siri21.PtSituationElement;
+import uk.org.siri.siri21.ServiceDelivery;
+import uk.org.siri.siri21.Siri;
+import uk.org.siri.siri21.SituationExchangeDeliveryStructure;
+import uk.org.siri.siri21.VehicleActivityStructure;
+import uk.org.siri.siri21.VehicleMonitoringDeliveryStructure;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Splits a ServiceDelivery into one ServiceDelivery per journey/activity/situation - at object level, as
+ * xsl/split.xsl does for XML.
+ *
+ * Elements are not copied, so the split deliveries share elements with the original delivery.
+ */
+public class SiriDeliverySplitter {
+
+    private static final String VERSION = "2.0";
+
+    private SiriDeliverySplitter() {
+    }
+
+    public static List<Siri> split(Siri siri) {
+        List<Siri> result = new ArrayList<>();
+        if (siri == null || siri.getServiceDelivery() == null) {
+            return result;
+        }
+        ServiceDelivery serviceDelivery = siri.getServiceDelivery();
+
+        for (EstimatedTimetableDeliveryStructure delivery : serviceDelivery.getEstimatedTimetableDeliveries()) {
+            for (EstimatedVersionFrameStructure frame : delivery.getEstimatedJourneyVersionFrames()) {
+                for (EstimatedVehicleJourney journey : frame.getEstimatedVehicleJourneies()) {
+                    EstimatedVersionFrameStructure splitFrame = new EstimatedVersionFrameStructure();
+                    splitFrame.setRecordedAtTime(frame.getRecordedAtTime());
+                    splitFrame.getEstimatedVehicleJourneies().add(journey);
+
+                    EstimatedTimetableDeliveryStructure splitDelivery = new EstimatedTimetableDeliveryStructure();
+                    splitDelivery.setVersion(VERSION);
+                    splitDelivery.setResponseTimestamp(delivery.getResponseTimestamp());
+                    splitDelivery.getEstimatedJourneyVersionFrames().add(splitFrame);
+
+                    ServiceDelivery split = createServiceDelivery(serviceDelivery);
+                    split.getEstimatedTimetableDeliveries().add(splitDelivery);
+                    result.add(createSiri(split));
+                }
+            }
+        }
+
+        for (VehicleMonitoringDeliveryStructure delivery : serviceDelivery.getVehicleMonitoringDeliveries()) {
+            for (VehicleActivityStructure activity : delivery.getVehicleActivities()) {
+                VehicleMonitoringDeliveryStructure splitDelivery = new VehicleMonitoringDeliveryStructure();
+                splitDelivery.setVersion(VERSION);
+                splitDelivery.setResponseTimestamp(delivery.getResponseTimestamp());
+                splitDelivery.getVehicleActivities().add(activity);
+
+                ServiceDelivery split = createServiceDelivery(serviceDelivery);
+                split.getVehicleMonitoringDeliveries().add(splitDelivery);
+                result.add(createSiri(split));
+            }
+        }
+
+        for (SituationExchangeDeliveryStructure delivery : serviceDelivery.getSituationExchangeDeliveries()) {
+            if (delivery.getSituations() == null) {
+                continue;
+            }
+            for (PtSituationElement situation : delivery.getSituations().getPtSituationElements()) {
+                SituationExchangeDeliveryStructure.Situations situations = new SituationExchangeDeliveryStructure.Situations();
+                situations.getPtSituationElements().add(situation);
+
+                SituationExchangeDeliveryStructure splitDelivery = new SituationExchangeDeliveryStructure();
+                splitDelivery.setVersion(VERSION);
+                splitDelivery.setResponseTimestamp(delivery.getResponseTimestamp());
+                splitDelivery.setSituations(situations);
+
+                ServiceDelivery split = createServiceDelivery(serviceDelivery);
+                split.getSituationExchangeDeliveries().add(splitDelivery);
+                result.add(createSiri(split));
+            }
+        }
+        return result;
+    }
+
+    private static ServiceDelivery createServiceDelivery(ServiceDelivery original) {
+        ServiceDelivery serviceDelivery = new ServiceDelivery();
+        serviceDelivery.setResponseTimestamp(original.getResponseTimestamp());
+        serviceDelivery.setProducerRef(original.getProducerRef());
+        return serviceDelivery;
+    }
+
+    private static Siri createSiri(ServiceDelivery serviceDelivery) {
+        Siri siri = new Siri();
+        siri.setVersion(VERSION);
+        siri.setServiceDelivery(serviceDelivery);
+        return siri;
+    }
+}
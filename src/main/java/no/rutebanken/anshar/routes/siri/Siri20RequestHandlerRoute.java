@@ -255,6 +255,7 @@ public class Siri20RequestHandlerRoute extends RestRouteBuilder {
                         }
                     })
                     .marshal(SiriDataFormatHelper.getSiriJaxbDataformat())
+                    .process(this::compressResponseBody)
                     .to("log:serResponse:" + getClass().getSimpleName() + "?showAll=true&multiline=true&showStreams=true")
                 .otherwise()
                     .to("direct:anshar.invalid.tracking.header.response")
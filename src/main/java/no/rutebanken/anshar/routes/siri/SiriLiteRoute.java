@@ -17,37 +17,81 @@ package no.rutebanken.anshar.routes.siri;
 
 import jakarta.servlet.http.HttpServletRequest;
 import jakarta.servlet.http.HttpServletResponse;
+import jakarta.ws.rs.core.HttpHeaders;
+import jakarta.xml.bind.JAXBException;
 import no.rutebanken.anshar.config.AnsharConfiguration;
 import no.rutebanken.anshar.data.EstimatedTimetables;
+import no.rutebanken.anshar.data.PagedServiceDelivery;
+import no.rutebanken.anshar.data.RequestorRefRepository;
 import no.rutebanken.anshar.data.Situations;
 import no.rutebanken.anshar.data.VehicleActivities;
 import no.rutebanken.anshar.metrics.PrometheusMetricsService;
 import no.rutebanken.anshar.routes.RestRouteBuilder;
+import no.rutebanken.anshar.routes.dataformat.SiriStreamingXmlWriter;
 import no.rutebanken.anshar.routes.siri.handlers.OutboundIdMappingPolicy;
 import no.rutebanken.anshar.routes.siri.handlers.SiriHandler;
 import no.rutebanken.anshar.routes.siri.helpers.SiriObjectFactory;
+import no.rutebanken.anshar.routes.siri.helpers.SnapshotCache;
 import no.rutebanken.anshar.routes.siri.transformer.SiriValueTransformer;
 import no.rutebanken.anshar.routes.siri.transformer.ValueAdapter;
 import no.rutebanken.anshar.subscription.SiriDataType;
 import no.rutebanken.anshar.subscription.SubscriptionSetup;
 import no.rutebanken.anshar.subscription.helpers.MappingAdapterPresets;
+import no.rutebanken.anshar.util.BufferingOutputStream;
+import no.rutebanken.anshar.util.CompressingOutputStream;
+import no.rutebanken.anshar.util.ContentEncoding;
+import org.apache.camel.Exchange;
+import org.apache.camel.Message;
 import org.apache.camel.model.rest.RestParamType;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
+import uk.org.siri.siri21.EstimatedVehicleJourney;
+import uk.org.siri.siri21.PtSituationElement;
 import uk.org.siri.siri21.Siri;
 import uk.org.siri.siri21.VehicleActivityStructure;
 
+import javax.annotation.PostConstruct;
+import javax.xml.stream.XMLStreamException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.time.temporal.ChronoUnit;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.List;
+import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.Stream;
 
+import static no.rutebanken.anshar.routes.HttpParameter.NEXT_CURSOR_HEADER_NAME;
+import static no.rutebanken.anshar.routes.HttpParameter.PARAM_CURSOR;
 import static no.rutebanken.anshar.routes.HttpParameter.PARAM_DATASET_ID;
 import static no.rutebanken.anshar.routes.HttpParameter.PARAM_EXCLUDED_DATASET_ID;
 import static no.rutebanken.anshar.routes.HttpParameter.PARAM_LINE_REF;
 import static no.rutebanken.anshar.routes.HttpParameter.PARAM_MAX_SIZE;
+import static no.rutebanken.anshar.routes.HttpParameter.PARAM_LATITUDE;
+import static no.rutebanken.anshar.routes.HttpParameter.PARAM_LONGITUDE;
+import static no.rutebanken.anshar.routes.HttpParameter.PARAM_MAX_LATITUDE;
+import static no.rutebanken.anshar.routes.HttpParameter.PARAM_MAX_LONGITUDE;
+import static no.rutebanken.anshar.routes.HttpParameter.PARAM_MIN_LATITUDE;
+import static no.rutebanken.anshar.routes.HttpParameter.PARAM_MIN_LONGITUDE;
 import static no.rutebanken.anshar.routes.HttpParameter.PARAM_PREVIEW_INTERVAL;
+import static no.rutebanken.anshar.routes.HttpParameter.PARAM_RADIUS;
+import static no.rutebanken.anshar.routes.HttpParameter.PARAM_START_TIME;
+import static no.rutebanken.anshar.routes.HttpParameter.PARAM_STOP_PLACE_REF;
+import static no.rutebanken.anshar.routes.HttpParameter.PARAM_STOP_POINT_REF;
+import static no.rutebanken.anshar.routes.HttpParameter.PARAM_STOP_REF;
+import static no.rutebanken.anshar.routes.HttpParameter.PARAM_TIME_WINDOW;
 import static no.rutebanken.anshar.routes.HttpParameter.PARAM_USE_ORIGINAL_ID;
+import static no.rutebanken.anshar.routes.HttpParameter.PARAM_VALID_AT;
+import static no.rutebanken.anshar.routes.HttpParameter.PARAM_VEHICLE_JOURNEY_REF;
 import static no.rutebanken.anshar.routes.HttpParameter.getParameterValuesAsList;
 
 @Service
@@ -75,6 +119,28 @@ public class SiriLiteRoute extends RestRouteBuilder {
     @Autowired
     private MappingAdapterPresets mappingAdapterPresets;
 
+    @Autowired
+    private RequestorRefRepository requestorRefRepository;
+
+    private static final int DEFAULT_DEPARTURES_TIME_WINDOW_MINUTES = 60;
+
+    private SnapshotCache snapshotCache;
+
+    /**
+     * Change-versions start from 0 on every restart - included in ETag to avoid reuse of tags across restarts
+     */
+    private final String instanceId = Long.toString(System.currentTimeMillis(), 36);
+
+    @PostConstruct
+    private void initSnapshotCache() {
+        snapshotCache = new SnapshotCache(
+            configuration.getSnapshotCacheMaxAgeSeconds() * 1000L,
+            configuration.getSnapshotCacheMaxEntrySizeMb() * 1024L * 1024L,
+            configuration.getSnapshotCacheMaxTotalSizeMb() * 1024L * 1024L
+        );
+        metrics.registerSnapshotCache(snapshotCache);
+    }
+
     @Override
     public void configure() throws Exception {
         super.configure();
@@ -85,12 +151,26 @@ public class SiriLiteRoute extends RestRouteBuilder {
                         .param().required(false).name(PARAM_DATASET_ID).type(RestParamType.query).description("The id of the dataset to get").dataType("string").endParam()
                         .param().required(false).name(PARAM_USE_ORIGINAL_ID).type(RestParamType.query).description("Option to return original Ids").dataType("boolean").endParam()
                         .param().required(false).name(PARAM_MAX_SIZE).type(RestParamType.query).description("Specify max number of returned elements").dataType("integer").endParam()
+                        .param().required(false).name(PARAM_CURSOR).type(RestParamType.query).description("Token for the next page, from the Next-Cursor header of the previous page").dataType("string").endParam()
+                        .param().required(false).name(PARAM_LINE_REF).type(RestParamType.query).description("Comma-separated list of affected lines").dataType("string").endParam()
+                        .param().required(false).name(PARAM_STOP_POINT_REF).type(RestParamType.query).description("Comma-separated list of affected stop points").dataType("string").endParam()
+                        .param().required(false).name(PARAM_STOP_PLACE_REF).type(RestParamType.query).description("Comma-separated list of affected stop places").dataType("string").endParam()
+                        .param().required(false).name(PARAM_VEHICLE_JOURNEY_REF).type(RestParamType.query).description("Comma-separated list of affected vehicle journeys").dataType("string").endParam()
+                        .param().required(false).name(PARAM_VALID_AT).type(RestParamType.query).description("Only situations valid at this time (ISO-8601), or 'now'").dataType("string").endParam()
 
                 .get("/vm").to("direct:anshar.rest.vm")
                         .param().required(false).name(PARAM_DATASET_ID).type(RestParamType.query).description("The id of the dataset to get").dataType("string").endParam()
                         .param().required(false).name(PARAM_EXCLUDED_DATASET_ID).type(RestParamType.query).description("Comma-separated list of dataset-IDs to be excluded from response").dataType("string").endParam()
                         .param().required(false).name(PARAM_USE_ORIGINAL_ID).type(RestParamType.query).description("Option to return original Ids").dataType("boolean").endParam()
                         .param().required(false).name(PARAM_MAX_SIZE).type(RestParamType.query).description("Specify max number of returned elements").dataType("integer").endParam()
+                        .param().required(false).name(PARAM_CURSOR).type(RestParamType.query).description("Token for the next page, from the Next-Cursor header of the previous page").dataType("string").endParam()
+                        .param().required(false).name(PARAM_MIN_LATITUDE).type(RestParamType.query).description("Bounding box - southern latitude").dataType("number").endParam()
+                        .param().required(false).name(PARAM_MIN_LONGITUDE).type(RestParamType.query).description("Bounding box - western longitude").dataType("number").endParam()
+                        .param().required(false).name(PARAM_MAX_LATITUDE).type(RestParamType.query).description("Bounding box - northern latitude").dataType("number").endParam()
+                        .param().required(false).name(PARAM_MAX_LONGITUDE).type(RestParamType.query).description("Bounding box - eastern longitude").dataType("number").endParam()
+                        .param().required(false).name(PARAM_LATITUDE).type(RestParamType.query).description("Latitude of the center - used with radius").dataType("number").endParam()
+                        .param().required(false).name(PARAM_LONGITUDE).type(RestParamType.query).description("Longitude of the center - used with radius").dataType("number").endParam()
+                        .param().required(false).name(PARAM_RADIUS).type(RestParamType.query).description("Radius in meters - vehicles are returned nearest first").dataType("number").endParam()
 
                 .get("/et").to("direct:anshar.rest.et.cached")
                         .param().required(false).name(PARAM_DATASET_ID).type(RestParamType.query).description("The id of the dataset to get").dataType("string").endParam()
@@ -98,6 +178,14 @@ public class SiriLiteRoute extends RestRouteBuilder {
                         .param().required(false).name(PARAM_USE_ORIGINAL_ID).type(RestParamType.query).description("Option to return original Ids").dataType("boolean").endParam()
                         .param().required(false).name(PARAM_MAX_SIZE).type(RestParamType.query).description("Specify max number of returned elements").dataType("integer").endParam()
 
+                .get("/et-departures").to("direct:anshar.rest.et.departures")
+                        .param().required(true).name(PARAM_STOP_REF).type(RestParamType.query).description("Comma-separated list of quay- or stop place-IDs").dataType("string").endParam()
+                        .param().required(false).name(PARAM_START_TIME).type(RestParamType.query).description("Start of the time window (ISO-8601) - defaults to now").dataType("string").endParam()
+                        .param().required(false).name(PARAM_TIME_WINDOW).type(RestParamType.query).description("Length of the time window in minutes - defaults to " + DEFAULT_DEPARTURES_TIME_WINDOW_MINUTES).dataType("integer").endParam()
+                        .param().required(false).name(PARAM_DATASET_ID).type(RestParamType.query).description("The id of the dataset to get").dataType("string").endParam()
+                        .param().required(false).name(PARAM_USE_ORIGINAL_ID).type(RestParamType.query).description("Option to return original Ids").dataType("boolean").endParam()
+                        .param().required(false).name(PARAM_MAX_SIZE).type(RestParamType.query).description("Specify max number of returned elements").dataType("integer").endParam()
+
                 .get("/et-monitored").to("direct:anshar.rest.et.monitored")
                 .get("/et-all").to("direct:anshar.rest.et")
                 .get("/et-monitored-cache").to("direct:anshar.rest.et.monitored.cached")
@@ -120,6 +208,7 @@ public class SiriLiteRoute extends RestRouteBuilder {
                         String datasetId = p.getIn().getHeader(PARAM_DATASET_ID, String.class);
                         String originalId = p.getIn().getHeader(PARAM_USE_ORIGINAL_ID, String.class);
                         Integer maxSizeStr = p.getIn().getHeader(PARAM_MAX_SIZE, Integer.class);
+                        String cursor = p.getIn().getHeader(PARAM_CURSOR, String.class);
                         String etClientName = p.getIn().getHeader(configuration.getTrackingHeaderName(), String.class);
                         int maxSize = datasetId != null ? Integer.MAX_VALUE:configuration.getDefaultMaxSize();
 
@@ -127,21 +216,58 @@ public class SiriLiteRoute extends RestRouteBuilder {
                             maxSize = maxSizeStr.intValue();
                         }
 
-                        Siri response = situations.createServiceDelivery(requestorId, datasetId, etClientName, maxSize);
+                        if (isAffectsRequest(p.getIn())) {
+                            streamAffectingSituations(p, datasetId, originalId, maxSize);
+                            return;
+                        }
 
-                        List<ValueAdapter> outboundAdapters = mappingAdapterPresets.getOutboundAdapters(
-                            SiriDataType.SITUATION_EXCHANGE,
-                            SiriHandler.getIdMappingPolicy(originalId)
-                        );
-                        if ("test".equals(originalId)) {
-                            outboundAdapters = null;
+                        PagedServiceDelivery cursorPage = null;
+                        if (cursor != null) {
+                            cursorPage = situations.createServiceDeliveryFromCursor(cursor, maxSize);
+                            if (cursorPage == null) {
+                                respondInvalidCursor(p);
+                                return;
+                            }
+                        } else if (requestorId == null && isNotModified(p, SiriDataType.SITUATION_EXCHANGE,
+                            situations.getChangeVersion(datasetId), situations.getLastChanged(datasetId))) {
+                            return;
                         }
-                        response = SiriValueTransformer.transform(response, outboundAdapters, false, false);
 
-                        metrics.countOutgoingData(response, SubscriptionSetup.SubscriptionMode.LITE);
+                        final int limit = maxSize;
+                        final PagedServiceDelivery page = cursorPage;
+                        AtomicReference<String> nextCursor = new AtomicReference<>();
+                        Callable<Siri> responseSupplier = () -> {
+                            PagedServiceDelivery delivery = page != null ? page :
+                                situations.createPagedServiceDelivery(requestorId, datasetId, etClientName, limit);
+                            setNextCursor(p, nextCursor, delivery.getNextCursor());
+                            Siri response = delivery.getSiri();
+
+                            List<ValueAdapter> outboundAdapters = mappingAdapterPresets.getOutboundAdapters(
+                                SiriDataType.SITUATION_EXCHANGE,
+                                SiriHandler.getIdMappingPolicy(originalId)
+                            );
+                            if ("test".equals(originalId)) {
+                                outboundAdapters = null;
+                            }
+                            return SiriValueTransformer.transform(response, outboundAdapters, false, false);
+                        };
+
+                        if (requestorId == null && cursor == null && configuration.isSnapshotCacheEnabled()) {
+                            streamSnapshot(p, SiriDataType.SITUATION_EXCHANGE,
+                                createSnapshotKey("sx", datasetId, maxSize, originalId),
+                                situations.getChangeVersion(datasetId),
+                                responseSupplier,
+                                nextCursor,
+                                () -> requestorRefRepository.touchRequestorRef(null, datasetId, etClientName, SiriDataType.SITUATION_EXCHANGE)
+                            );
+                        } else {
+                            Siri response = responseSupplier.call();
 
-                        HttpServletResponse out = p.getIn().getBody(HttpServletResponse.class);
-                        streamOutput(p, response, out);
+                            metrics.countOutgoingData(response, SubscriptionSetup.SubscriptionMode.LITE);
+
+                            HttpServletResponse out = p.getIn().getBody(HttpServletResponse.class);
+                            streamOutput(p, response, out);
+                        }
                     })
                     .log("RequestTracer - Request done (SX)")
                 .otherwise()
@@ -161,6 +287,7 @@ public class SiriLiteRoute extends RestRouteBuilder {
                         String originalId = p.getIn().getHeader(PARAM_USE_ORIGINAL_ID, String.class);
                         String maxSizeStr = p.getIn().getHeader(PARAM_MAX_SIZE, String.class);
                         String lineRef = p.getIn().getHeader(PARAM_LINE_REF, String.class);
+                        String cursor = lineRef == null ? p.getIn().getHeader(PARAM_CURSOR, String.class) : null;
                         String etClientName = p.getIn().getHeader(configuration.getTrackingHeaderName(), String.class);
                         List<String> excludedIdList = getParameterValuesAsList(p.getIn(), PARAM_EXCLUDED_DATASET_ID);
 
@@ -175,27 +302,65 @@ public class SiriLiteRoute extends RestRouteBuilder {
                             }
                         }
 
-                        Siri response;
-                        if (lineRef != null) {
-                            response = vehicleActivities.createServiceDelivery(lineRef);
-                        } else {
-                            response = vehicleActivities.createServiceDelivery(requestorId, datasetId, etClientName, excludedIdList, maxSize);
+                        if (isAreaRequest(p.getIn())) {
+                            streamVehiclesInArea(p, datasetId, originalId, maxSize);
+                            return;
                         }
 
-                        List<ValueAdapter> outboundAdapters = mappingAdapterPresets.getOutboundAdapters(
-                            SiriDataType.VEHICLE_MONITORING,
-                            SiriHandler.getIdMappingPolicy(originalId)
-                        );
-                        if ("test".equals(originalId)) {
-                            outboundAdapters = null;
+                        String versionedDatasetId = lineRef == null ? datasetId : null;
+                        PagedServiceDelivery cursorPage = null;
+                        if (cursor != null) {
+                            cursorPage = vehicleActivities.createServiceDeliveryFromCursor(cursor, maxSize);
+                            if (cursorPage == null) {
+                                respondInvalidCursor(p);
+                                return;
+                            }
+                        } else if (requestorId == null && isNotModified(p, SiriDataType.VEHICLE_MONITORING,
+                            vehicleActivities.getChangeVersion(versionedDatasetId), vehicleActivities.getLastChanged(versionedDatasetId))) {
+                            return;
                         }
-                        response = SiriValueTransformer.transform(response, outboundAdapters, false, false);
 
-                        metrics.countOutgoingData(response, SubscriptionSetup.SubscriptionMode.LITE);
+                        final int limit = maxSize;
+                        final PagedServiceDelivery page = cursorPage;
+                        AtomicReference<String> nextCursor = new AtomicReference<>();
+                        Callable<Siri> responseSupplier = () -> {
+                            Siri response;
+                            if (lineRef != null) {
+                                response = vehicleActivities.createServiceDelivery(lineRef);
+                            } else {
+                                PagedServiceDelivery delivery = page != null ? page :
+                                    vehicleActivities.createPagedServiceDelivery(requestorId, datasetId, etClientName, excludedIdList, limit);
+                                setNextCursor(p, nextCursor, delivery.getNextCursor());
+                                response = delivery.getSiri();
+                            }
 
-                        HttpServletResponse out = p.getIn().getBody(HttpServletResponse.class);
+                            List<ValueAdapter> outboundAdapters = mappingAdapterPresets.getOutboundAdapters(
+                                SiriDataType.VEHICLE_MONITORING,
+                                SiriHandler.getIdMappingPolicy(originalId)
+                            );
+                            if ("test".equals(originalId)) {
+                                outboundAdapters = null;
+                            }
+                            return SiriValueTransformer.transform(response, outboundAdapters, false, false);
+                        };
+
+                        if (requestorId == null && lineRef == null && cursor == null && configuration.isSnapshotCacheEnabled()) {
+                            streamSnapshot(p, SiriDataType.VEHICLE_MONITORING,
+                                createSnapshotKey("vm", datasetId, excludedIdList, maxSize, originalId),
+                                vehicleActivities.getChangeVersion(datasetId),
+                                responseSupplier,
+                                nextCursor,
+                                () -> requestorRefRepository.touchRequestorRef(null, datasetId, etClientName, SiriDataType.VEHICLE_MONITORING)
+                            );
+                        } else {
+                            Siri response = responseSupplier.call();
 
-                        streamOutput(p, response, out);
+                            metrics.countOutgoingData(response, SubscriptionSetup.SubscriptionMode.LITE);
+
+                            HttpServletResponse out = p.getIn().getBody(HttpServletResponse.class);
+
+                            streamOutput(p, response, out);
+                        }
                     })
                     .log("RequestTracer - Request done (VM)")
                 .otherwise()
@@ -216,6 +381,7 @@ public class SiriLiteRoute extends RestRouteBuilder {
                         String originalId = p.getIn().getHeader(PARAM_USE_ORIGINAL_ID, String.class);
                         String maxSizeStr = p.getIn().getHeader(PARAM_MAX_SIZE, String.class);
                         String lineRef = p.getIn().getHeader(PARAM_LINE_REF, String.class);
+                        String cursor = lineRef == null ? p.getIn().getHeader(PARAM_CURSOR, String.class) : null;
                         String etClientName = p.getIn().getHeader(configuration.getTrackingHeaderName(), String.class);
                         String previewIntervalMinutesStr = p.getIn().getHeader(PARAM_PREVIEW_INTERVAL, String.class);
                         List<String> excludedIdList = getParameterValuesAsList(p.getIn(), PARAM_EXCLUDED_DATASET_ID);
@@ -236,13 +402,21 @@ public class SiriLiteRoute extends RestRouteBuilder {
                             previewIntervalMillis = minutes*60*1000;
                         }
 
-                        Siri response;
-                        if (lineRef != null) {
-                            response = estimatedTimetables.createServiceDelivery(lineRef);
-                        } else {
-                            response = estimatedTimetables.createServiceDelivery(requestorId, datasetId, etClientName, excludedIdList, maxSize, previewIntervalMillis);
+                        String versionedDatasetId = lineRef == null ? datasetId : null;
+                        EstimatedTimetables.StreamedServiceDelivery cursorPage = null;
+                        if (cursor != null) {
+                            cursorPage = estimatedTimetables.createStreamedServiceDeliveryFromCursor(cursor, maxSize);
+                            if (cursorPage == null) {
+                                respondInvalidCursor(p);
+                                return;
+                            }
+                        } else if (requestorId == null && previewIntervalMillis < 0 && isNotModified(p, SiriDataType.ESTIMATED_TIMETABLE,
+                            estimatedTimetables.getChangeVersion(versionedDatasetId), estimatedTimetables.getLastChanged(versionedDatasetId))) {
+                            return;
                         }
 
+                        final int limit = maxSize;
+                        final long previewInterval = previewIntervalMillis;
                         List<ValueAdapter> outboundAdapters = mappingAdapterPresets.getOutboundAdapters(
                             SiriDataType.ESTIMATED_TIMETABLE,
                             SiriHandler.getIdMappingPolicy(originalId)
@@ -250,13 +424,45 @@ public class SiriLiteRoute extends RestRouteBuilder {
                         if ("test".equals(originalId)) {
                             outboundAdapters = null;
                         }
-                        response = SiriValueTransformer.transform(response, outboundAdapters, false, false);
-
-                        metrics.countOutgoingData(response, SubscriptionSetup.SubscriptionMode.LITE);
-
-                        HttpServletResponse out = p.getIn().getBody(HttpServletResponse.class);
+                        final List<ValueAdapter> adapters = outboundAdapters;
+                        final EstimatedTimetables.StreamedServiceDelivery page = cursorPage;
+                        AtomicReference<String> nextCursor = new AtomicReference<>();
+
+                        // XML is written in batches directly from the repository - other formats need the complete delivery
+                        DeliveryWriter writer = (format, siri21Version, out) -> {
+                            Siri response;
+                            if (lineRef != null) {
+                                response = estimatedTimetables.createServiceDelivery(lineRef);
+                            } else {
+                                EstimatedTimetables.StreamedServiceDelivery delivery = page != null ? page :
+                                    estimatedTimetables.createStreamedServiceDelivery(requestorId, datasetId, etClientName, excludedIdList, limit, previewInterval);
+                                setNextCursor(p, nextCursor, delivery.getNextCursor());
+
+                                if (format == OutputFormat.XML) {
+                                    return writeEstimatedTimetableDelivery(delivery, adapters, siri21Version, out);
+                                }
+                                response = estimatedTimetables.createServiceDelivery(delivery);
+                            }
+                            response = SiriValueTransformer.transform(response, adapters, false, false);
+
+                            writeOutput(format, siri21Version, response, out);
+                            return metrics.countOutgoingData(response, SubscriptionSetup.SubscriptionMode.LITE);
+                        };
+
+                        // Preview interval is relative to current time, and is never cached
+                        if (requestorId == null && lineRef == null && cursor == null && previewIntervalMillis < 0 && configuration.isSnapshotCacheEnabled()) {
+                            streamSnapshot(p, SiriDataType.ESTIMATED_TIMETABLE,
+                                createSnapshotKey("et", datasetId, excludedIdList, maxSize, originalId),
+                                estimatedTimetables.getChangeVersion(datasetId),
+                                writer,
+                                nextCursor,
+                                () -> requestorRefRepository.touchRequestorRef(null, datasetId, etClientName, SiriDataType.ESTIMATED_TIMETABLE)
+                            );
+                        } else {
+                            HttpServletResponse out = p.getIn().getBody(HttpServletResponse.class);
 
-                        streamOutput(p, response, out);
+                            streamOutput(p, writer, out);
+                        }
                     })
                     .log("RequestTracer - Request done (ET)")
                 .otherwise()
@@ -271,23 +477,42 @@ public class SiriLiteRoute extends RestRouteBuilder {
                 .when(e -> isTrackingHeaderAcceptable(e))
                 .process(p -> {
 
+                    if (isNotModified(p, SiriDataType.ESTIMATED_TIMETABLE,
+                        estimatedTimetables.getChangeVersion(), estimatedTimetables.getLastChanged(null))) {
+                        return;
+                    }
 
-                    logger.info("Fetching monitored ET-data");
-                    Siri response = siriObjectFactory.createETServiceDelivery(estimatedTimetables.getAllMonitored());
+                    Callable<Siri> responseSupplier = () -> {
+                        logger.info("Fetching monitored ET-data");
+                        Siri response = siriObjectFactory.createETServiceDelivery(estimatedTimetables.getAllMonitored());
 
-                    List<ValueAdapter> outboundAdapters = mappingAdapterPresets.getOutboundAdapters(
-                                                                                    SiriDataType.ESTIMATED_TIMETABLE,
-                                                                                    OutboundIdMappingPolicy.DEFAULT
-                                                                                );
+                        List<ValueAdapter> outboundAdapters = mappingAdapterPresets.getOutboundAdapters(
+                                                                                        SiriDataType.ESTIMATED_TIMETABLE,
+                                                                                        OutboundIdMappingPolicy.DEFAULT
+                                                                                    );
 
-                    logger.info("Transforming monitored ET-data");
-                    response = SiriValueTransformer.transform(response, outboundAdapters, false, true);
+                        logger.info("Transforming monitored ET-data");
+                        return SiriValueTransformer.transform(response, outboundAdapters, false, true);
+                    };
+
+                    if (configuration.isSnapshotCacheEnabled()) {
+                        logger.info("Streaming monitored ET-data");
+                        streamSnapshot(p, SiriDataType.ESTIMATED_TIMETABLE,
+                            createSnapshotKey("et-monitored"),
+                            estimatedTimetables.getChangeVersion(),
+                            responseSupplier,
+                            new AtomicReference<>(),
+                            null
+                        );
+                    } else {
+                        Siri response = responseSupplier.call();
 
-                    metrics.countOutgoingData(response, SubscriptionSetup.SubscriptionMode.LITE);
+                        metrics.countOutgoingData(response, SubscriptionSetup.SubscriptionMode.LITE);
 
-                    HttpServletResponse out = p.getIn().getBody(HttpServletResponse.class);
-                    logger.info("Streaming monitored ET-data");
-                    streamOutput(p, response, out);
+                        HttpServletResponse out = p.getIn().getBody(HttpServletResponse.class);
+                        logger.info("Streaming monitored ET-data");
+                        streamOutput(p, response, out);
+                    }
                     logger.info("Done processing monitored ET-data");
                 })
                 .log("RequestTracer - Request done (ET)")
@@ -306,6 +531,11 @@ public class SiriLiteRoute extends RestRouteBuilder {
                         String datasetId = p.getIn().getHeader(PARAM_DATASET_ID, String.class);
                         String clientTrackingName = p.getIn().getHeader(configuration.getTrackingHeaderName(), String.class);
 
+                        if (requestorId == null && isNotModified(p, SiriDataType.SITUATION_EXCHANGE,
+                            situations.getChangeVersion(datasetId), situations.getLastChanged(datasetId))) {
+                            return;
+                        }
+
                         logger.info("Fetching cached SX-data");
                         Siri response = siriObjectFactory.createSXServiceDelivery(situations.getAllCachedUpdates(requestorId,
                             datasetId, clientTrackingName
@@ -345,6 +575,11 @@ public class SiriLiteRoute extends RestRouteBuilder {
                         String lineRef = p.getIn().getHeader(PARAM_LINE_REF, String.class);
                         String clientTrackingName = p.getIn().getHeader(configuration.getTrackingHeaderName(), String.class);
 
+                        if (requestorId == null && isNotModified(p, SiriDataType.VEHICLE_MONITORING,
+                            vehicleActivities.getChangeVersion(datasetId), vehicleActivities.getLastChanged(datasetId))) {
+                            return;
+                        }
+
                         logger.info("Fetching cached VM-data");
                         final Collection<VehicleActivityStructure> cachedUpdates = vehicleActivities
                             .getAllCachedUpdates(requestorId, datasetId, lineRef, clientTrackingName, maxSize);
@@ -397,6 +632,11 @@ public class SiriLiteRoute extends RestRouteBuilder {
                     String lineRef = p.getIn().getHeader(PARAM_LINE_REF, String.class);
                     String clientTrackingName = p.getIn().getHeader(configuration.getTrackingHeaderName(), String.class);
 
+                    if (requestorId == null && isNotModified(p, SiriDataType.ESTIMATED_TIMETABLE,
+                        estimatedTimetables.getChangeVersion(datasetId), estimatedTimetables.getLastChanged(datasetId))) {
+                        return;
+                    }
+
                     logger.info("Fetching cached ET-data");
                     Siri response = siriObjectFactory.createETServiceDelivery(estimatedTimetables.getAllCachedUpdates(requestorId,
                             datasetId, lineRef, clientTrackingName, maxSize
@@ -432,6 +672,11 @@ public class SiriLiteRoute extends RestRouteBuilder {
             .when(e -> isTrackingHeaderAcceptable(e))
             .process(p -> {
 
+                if (isNotModified(p, SiriDataType.ESTIMATED_TIMETABLE,
+                    estimatedTimetables.getChangeVersion(), estimatedTimetables.getLastChanged(null))) {
+                    return;
+                }
+
                 logger.info("Fetching cached ET-data");
 
                 String clientTrackingName = p.getIn().getHeader(configuration.getTrackingHeaderName(), String.class);
@@ -459,6 +704,437 @@ public class SiriLiteRoute extends RestRouteBuilder {
             .to("direct:anshar.invalid.tracking.header.response")
             .routeId("incoming.rest.et.monitored.cached")
         ;
+
+        createEtDeparturesRoute();
+    }
+
+    /**
+     * Journeys calling at the requested stops within the time window, ordered by time of the first matching call.
+     * Resolved from the stop call index of this instance, so no journeys are scanned.
+     */
+    private void createEtDeparturesRoute() {
+        from("direct:internal.anshar.rest.et.departures")
+            .log("RequestTracer - Incoming request (ET departures)")
+            .to("log:restRequest:" + getClass().getSimpleName() + "?showAll=false&showHeaders=true")
+            .choice()
+            .when(e -> isTrackingHeaderAcceptable(e))
+            .process(p -> {
+                List<String> stopRefs = getParameterValuesAsList(p.getIn(), PARAM_STOP_REF);
+                String startTimeStr = p.getIn().getHeader(PARAM_START_TIME, String.class);
+                Integer timeWindowMinutes = p.getIn().getHeader(PARAM_TIME_WINDOW, Integer.class);
+                String datasetId = p.getIn().getHeader(PARAM_DATASET_ID, String.class);
+                String originalId = p.getIn().getHeader(PARAM_USE_ORIGINAL_ID, String.class);
+                Integer maxSize = p.getIn().getHeader(PARAM_MAX_SIZE, Integer.class);
+
+                if (!estimatedTimetables.isStopCallIndexEnabled()) {
+                    p.getMessage().setHeader(Exchange.HTTP_RESPONSE_CODE, 503);
+                    p.getMessage().setBody("Departures are not enabled");
+                    return;
+                }
+                if (stopRefs == null || stopRefs.isEmpty()) {
+                    respondBadRequest(p, "Missing required parameter " + PARAM_STOP_REF);
+                    return;
+                }
+
+                ZonedDateTime startTime;
+                try {
+                    startTime = startTimeStr != null ? ZonedDateTime.parse(startTimeStr) : ZonedDateTime.now();
+                } catch (DateTimeParseException e) {
+                    respondBadRequest(p, "Invalid " + PARAM_START_TIME + ": " + startTimeStr);
+                    return;
+                }
+                int minutes = timeWindowMinutes != null ? timeWindowMinutes : DEFAULT_DEPARTURES_TIME_WINDOW_MINUTES;
+                if (minutes <= 0 || minutes > configuration.getEtDeparturesMaxTimeWindowMinutes()) {
+                    respondBadRequest(p, PARAM_TIME_WINDOW + " must be between 1 and " + configuration.getEtDeparturesMaxTimeWindowMinutes());
+                    return;
+                }
+
+                long t1 = System.currentTimeMillis();
+                List<EstimatedVehicleJourney> journeys = estimatedTimetables.getJourneysCallingAt(stopRefs, startTime,
+                    startTime.plusMinutes(minutes), datasetId, maxSize != null ? maxSize : configuration.getDefaultMaxSize());
+                logger.info("Found {} journeys calling at {} in {} ms", journeys.size(), stopRefs, (System.currentTimeMillis() - t1));
+
+                Siri response = siriObjectFactory.createETServiceDelivery(journeys);
+
+                List<ValueAdapter> outboundAdapters = mappingAdapterPresets.getOutboundAdapters(
+                    SiriDataType.ESTIMATED_TIMETABLE,
+                    SiriHandler.getIdMappingPolicy(originalId)
+                );
+                if ("test".equals(originalId)) {
+                    outboundAdapters = null;
+                }
+                response = SiriValueTransformer.transform(response, outboundAdapters, false, false);
+
+                metrics.countOutgoingData(response, SubscriptionSetup.SubscriptionMode.LITE);
+
+                HttpServletResponse out = p.getIn().getBody(HttpServletResponse.class);
+                streamOutput(p, response, out);
+            })
+            .log("RequestTracer - Request done (ET departures)")
+            .otherwise()
+            .to("direct:anshar.invalid.tracking.header.response")
+            .routeId("incoming.rest.et.departures")
+        ;
+    }
+
+    private static boolean isAreaRequest(Message message) {
+        return Stream.of(PARAM_MIN_LATITUDE, PARAM_MIN_LONGITUDE, PARAM_MAX_LATITUDE, PARAM_MAX_LONGITUDE,
+                PARAM_LATITUDE, PARAM_LONGITUDE, PARAM_RADIUS)
+            .anyMatch(param -> message.getHeader(param) != null);
+    }
+
+    /**
+     * Vehicles within a bounding box, or within a radius - resolved from the location index of this instance, so
+     * the response scales with the number of vehicles in the area
+     */
+    private void streamVehiclesInArea(Exchange p, String datasetId, String originalId, int maxSize)
+        throws IOException, JAXBException, XMLStreamException {
+        if (!vehicleActivities.isLocationIndexEnabled()) {
+            p.getMessage().setHeader(Exchange.HTTP_RESPONSE_CODE, 503);
+            p.getMessage().setBody("Area queries are not enabled");
+            return;
+        }
+
+        Double minLatitude, minLongitude, maxLatitude, maxLongitude, latitude, longitude, radius;
+        try {
+            minLatitude = getDoubleParameter(p.getIn(), PARAM_MIN_LATITUDE);
+            minLongitude = getDoubleParameter(p.getIn(), PARAM_MIN_LONGITUDE);
+            maxLatitude = getDoubleParameter(p.getIn(), PARAM_MAX_LATITUDE);
+            maxLongitude = getDoubleParameter(p.getIn(), PARAM_MAX_LONGITUDE);
+            latitude = getDoubleParameter(p.getIn(), PARAM_LATITUDE);
+            longitude = getDoubleParameter(p.getIn(), PARAM_LONGITUDE);
+            radius = getDoubleParameter(p.getIn(), PARAM_RADIUS);
+        } catch (NumberFormatException e) {
+            respondBadRequest(p, "Invalid coordinate: " + e.getMessage());
+            return;
+        }
+
+        long t1 = System.currentTimeMillis();
+        List<VehicleActivityStructure> vehicles;
+        if (minLatitude != null && minLongitude != null && maxLatitude != null && maxLongitude != null &&
+            latitude == null && longitude == null && radius == null) {
+            if (minLatitude > maxLatitude || minLongitude > maxLongitude) {
+                respondBadRequest(p, "Bounding box must have " + PARAM_MIN_LATITUDE + " <= " + PARAM_MAX_LATITUDE +
+                    " and " + PARAM_MIN_LONGITUDE + " <= " + PARAM_MAX_LONGITUDE);
+                return;
+            }
+            vehicles = vehicleActivities.getVehiclesWithin(minLatitude, minLongitude, maxLatitude, maxLongitude, datasetId, maxSize);
+        } else if (latitude != null && longitude != null && radius != null &&
+            minLatitude == null && minLongitude == null && maxLatitude == null && maxLongitude == null) {
+            if (radius <= 0) {
+                respondBadRequest(p, PARAM_RADIUS + " must be positive");
+                return;
+            }
+            vehicles = vehicleActivities.getVehiclesNear(latitude, longitude, radius, datasetId, maxSize);
+        } else {
+            respondBadRequest(p, "Area must be given either as " +
+                String.join(", ", PARAM_MIN_LATITUDE, PARAM_MIN_LONGITUDE, PARAM_MAX_LATITUDE, PARAM_MAX_LONGITUDE) + " or as " +
+                String.join(", ", PARAM_LATITUDE, PARAM_LONGITUDE, PARAM_RADIUS));
+            return;
+        }
+        logger.info("Found {} vehicles in area in {} ms", vehicles.size(), (System.currentTimeMillis() - t1));
+
+        Siri response = siriObjectFactory.createVMServiceDelivery(vehicles);
+
+        List<ValueAdapter> outboundAdapters = mappingAdapterPresets.getOutboundAdapters(
+            SiriDataType.VEHICLE_MONITORING,
+            SiriHandler.getIdMappingPolicy(originalId)
+        );
+        if ("test".equals(originalId)) {
+            outboundAdapters = null;
+        }
+        response = SiriValueTransformer.transform(response, outboundAdapters, false, false);
+
+        metrics.countOutgoingData(response, SubscriptionSetup.SubscriptionMode.LITE);
+
+        HttpServletResponse out = p.getIn().getBody(HttpServletResponse.class);
+        streamOutput(p, response, out);
+    }
+
+    private static boolean isAffectsRequest(Message message) {
+        return Stream.of(PARAM_LINE_REF, PARAM_STOP_POINT_REF, PARAM_STOP_PLACE_REF, PARAM_VEHICLE_JOURNEY_REF, PARAM_VALID_AT)
+            .anyMatch(param -> message.getHeader(param) != null);
+    }
+
+    /**
+     * Situations affecting the given lines, stops or vehicle journeys, optionally valid at a given time - resolved from
+     * the situation index of this instance, so the Affects-structure of all situations is not walked
+     */
+    private void streamAffectingSituations(Exchange p, String datasetId, String originalId, int maxSize)
+        throws IOException, JAXBException, XMLStreamException {
+        if (!situations.isSituationIndexEnabled()) {
+            p.getMessage().setHeader(Exchange.HTTP_RESPONSE_CODE, 503);
+            p.getMessage().setBody("Filtering situations is not enabled");
+            return;
+        }
+
+        String validAtStr = p.getIn().getHeader(PARAM_VALID_AT, String.class);
+        ZonedDateTime validAt = null;
+        if ("now".equalsIgnoreCase(validAtStr)) {
+            validAt = ZonedDateTime.now();
+        } else if (validAtStr != null) {
+            try {
+                validAt = ZonedDateTime.parse(validAtStr);
+            } catch (DateTimeParseException e) {
+                respondBadRequest(p, "Invalid " + PARAM_VALID_AT + ": " + validAtStr);
+                return;
+            }
+        }
+
+        long t1 = System.currentTimeMillis();
+        List<PtSituationElement> affecting = situations.getAffectingSituations(
+            getParameterValuesAsList(p.getIn(), PARAM_LINE_REF),
+            getParameterValuesAsList(p.getIn(), PARAM_STOP_POINT_REF),
+            getParameterValuesAsList(p.getIn(), PARAM_STOP_PLACE_REF),
+            getParameterValuesAsList(p.getIn(), PARAM_VEHICLE_JOURNEY_REF),
+            validAt, datasetId, maxSize);
+        logger.info("Found {} affecting situations in {} ms", affecting.size(), (System.currentTimeMillis() - t1));
+
+        Siri response = siriObjectFactory.createSXServiceDelivery(affecting);
+
+        List<ValueAdapter> outboundAdapters = mappingAdapterPresets.getOutboundAdapters(
+            SiriDataType.SITUATION_EXCHANGE,
+            SiriHandler.getIdMappingPolicy(originalId)
+        );
+        if ("test".equals(originalId)) {
+            outboundAdapters = null;
+        }
+        response = SiriValueTransformer.transform(response, outboundAdapters, false, false);
+
+        metrics.countOutgoingData(response, SubscriptionSetup.SubscriptionMode.LITE);
+
+        HttpServletResponse out = p.getIn().getBody(HttpServletResponse.class);
+        streamOutput(p, response, out);
+    }
+
+    private static Double getDoubleParameter(Message message, String parameter) {
+        String value = message.getHeader(parameter, String.class);
+        if (value == null) {
+            return null;
+        }
+        double result = Double.parseDouble(value);
+        if (!Double.isFinite(result)) {
+            throw new NumberFormatException(parameter + "=" + value);
+        }
+        return result;
+    }
+
+    private static void respondBadRequest(Exchange p, String message) {
+        p.getMessage().setHeader(Exchange.HTTP_RESPONSE_CODE, 400);
+        p.getMessage().setBody(message);
+    }
+
+    /**
+     * Writes the journeys of the delivery in batches, so that the complete delivery is never held in memory
+     *
+     * @return Number of journeys written
+     */
+    private int writeEstimatedTimetableDelivery(EstimatedTimetables.StreamedServiceDelivery delivery, List<ValueAdapter> adapters,
+                                                boolean siri21Version, OutputStream out) throws Exception {
+        Siri envelope = SiriValueTransformer.transform(delivery.getEnvelope(), adapters, false, false);
+
+        int count = SiriStreamingXmlWriter.writeEstimatedTimetableDelivery(
+            envelope,
+            delivery.getIds(),
+            configuration.getStreamingBatchSize(),
+            ids -> {
+                Siri batch = siriObjectFactory.createETServiceDelivery(estimatedTimetables.getEstimatedVehicleJourneys(ids));
+                return SiriValueTransformer.transform(batch, adapters, false, false)
+                    .getServiceDelivery().getEstimatedTimetableDeliveries().get(0)
+                    .getEstimatedJourneyVersionFrames().get(0)
+                    .getEstimatedVehicleJourneies();
+            },
+            siri -> encodeOutput(OutputFormat.XML, siri21Version, siri),
+            out
+        );
+        metrics.countOutgoingData(SiriDataType.ESTIMATED_TIMETABLE, SubscriptionSetup.SubscriptionMode.LITE, count);
+        return count;
+    }
+
+    /**
+     * Streams the encoded snapshot for the request from cache. The response is only created, transformed and
+     * encoded when data has changed since the snapshot was cached.
+     *
+     * @param dataType Type of requested data
+     * @param requestKey Identifies the request - output-format, SIRI-version and content-encoding are added
+     * @param version Current change-version of the requested data
+     * @param responseSupplier Creates the transformed response
+     * @param nextCursor Token for the next page, set when the response is created - kept with the snapshot
+     * @param onCachedResponse Tracking that is otherwise performed when creating the response - may be null
+     */
+    private void streamSnapshot(Exchange p, SiriDataType dataType, String requestKey, long version, Callable<Siri> responseSupplier,
+                                AtomicReference<String> nextCursor, Runnable onCachedResponse) throws Exception {
+        streamSnapshot(p, dataType, requestKey, version, (format, siri21Version, out) -> {
+            Siri response = responseSupplier.call();
+            writeOutput(format, siri21Version, response, out);
+            return metrics.countOutgoingData(response, SubscriptionSetup.SubscriptionMode.LITE);
+        }, nextCursor, onCachedResponse);
+    }
+
+    /**
+     * @param writer Writes the transformed response, and counts outgoing data
+     */
+    private void streamSnapshot(Exchange p, SiriDataType dataType, String requestKey, long version, DeliveryWriter writer,
+                                AtomicReference<String> nextCursor, Runnable onCachedResponse) throws Exception {
+        HttpServletResponse out = p.getIn().getBody(HttpServletResponse.class);
+
+        OutputFormat format = resolveOutputFormat(p);
+        boolean siri21Version = isSiri21Version(p);
+        ContentEncoding contentEncoding = resolveContentEncoding(p, out);
+        String key = String.join("|", requestKey, format.name(), siri21Version ? "2.1" : "2.0",
+            contentEncoding != null ? contentEncoding.getValue() : "identity");
+
+        SnapshotCache.Snapshot snapshot = snapshotCache.get(key, version);
+        if (snapshot != null) {
+            if (onCachedResponse != null) {
+                onCachedResponse.run();
+            }
+            metrics.countOutgoingData(dataType, SubscriptionSetup.SubscriptionMode.LITE, snapshot.getObjectCount());
+        } else {
+            SnapshotCache.Reservation reservation = snapshotCache.reserve(key, version);
+            if (reservation == null) {
+                // Already being created, e.g. for another version or by a stalled request - streamed without caching
+                streamOutput(p, writer, out);
+                return;
+            }
+            try {
+                snapshot = createSnapshot(p, reservation, writer, format, siri21Version, contentEncoding, nextCursor, out);
+            } finally {
+                // Releases waiting requests if creation failed - ignored when completed
+                snapshotCache.cancel(reservation);
+            }
+            if (snapshot == null) {
+                // Too large to be cached - already streamed to the response
+                return;
+            }
+        }
+        if (snapshot.getNextCursor() != null) {
+            out.setHeader(NEXT_CURSOR_HEADER_NAME, snapshot.getNextCursor());
+        }
+
+        streamOutput(p, snapshot.getBody(), format, snapshot.getContentEncoding(), out);
+    }
+
+    /**
+     * Writes and compresses the response into memory, up to the max size of a cached snapshot. Larger responses are
+     * written directly to the client as they are created, so that memory use does not grow with the dataset.
+     *
+     * @return Snapshot that has been cached, or null if the response was too large and has been streamed
+     */
+    private SnapshotCache.Snapshot createSnapshot(Exchange p, SnapshotCache.Reservation reservation, DeliveryWriter writer,
+                                                  OutputFormat format, boolean siri21Version, ContentEncoding contentEncoding,
+                                                  AtomicReference<String> nextCursor, HttpServletResponse out) throws Exception {
+        // Requests waiting for this snapshot are released as soon as it is known to be too large
+        BufferingOutputStream buffered = new BufferingOutputStream(out.getOutputStream(),
+            snapshotCache.getMaxEntryBytes(), () -> snapshotCache.reject(reservation));
+
+        p.getMessage().setHeader(HttpHeaders.CONTENT_TYPE, format.getContentType());
+
+        int objectCount;
+        ContentEncoding appliedEncoding = null;
+        if (contentEncoding != null) {
+            CompressingOutputStream compressed = createCompressingOutputStream(contentEncoding, out, buffered);
+            objectCount = writer.write(format, siri21Version, compressed);
+            compressed.finish();
+            if (compressed.isCompressed()) {
+                appliedEncoding = contentEncoding;
+            }
+        } else {
+            objectCount = writer.write(format, siri21Version, buffered);
+        }
+
+        if (buffered.isLimitExceeded()) {
+            buffered.flush();
+            p.getMessage().setBody(out.getOutputStream());
+            return null;
+        }
+        SnapshotCache.Snapshot snapshot = new SnapshotCache.Snapshot(buffered.toByteArray(), objectCount, appliedEncoding, nextCursor.get());
+        snapshotCache.put(reservation, snapshot);
+        return snapshot;
+    }
+
+    /**
+     * Adds token for the next page to the response - set directly on the response, as the body may be written
+     * before the route completes
+     */
+    private static void setNextCursor(Exchange p, AtomicReference<String> holder, String nextCursor) {
+        holder.set(nextCursor);
+        if (nextCursor != null) {
+            p.getIn().getBody(HttpServletResponse.class).setHeader(NEXT_CURSOR_HEADER_NAME, nextCursor);
+        }
+    }
+
+    private static void respondInvalidCursor(Exchange p) {
+        p.getMessage().setHeader(Exchange.HTTP_RESPONSE_CODE, 410);
+        p.getMessage().setBody("Cursor is invalid or expired");
+    }
+
+    /**
+     * Adds ETag and Last-Modified for the current version of the requested data to the response. If the client
+     * already has this version, the request is completed with 304 Not Modified - without creating the delivery.
+     *
+     * Versions are only valid for responses that contain all current data, i.e. not for requests with requestorId.
+     *
+     * @return true if the request has been completed with 304 Not Modified
+     */
+    private boolean isNotModified(Exchange p, SiriDataType dataType, long version, Instant lastChanged) {
+        // Representation depends on output-format, SIRI-version and content-coding as well as data
+        ContentEncoding contentEncoding = resolveContentEncoding(p, p.getIn().getBody(HttpServletResponse.class));
+        String etag = "\"" + instanceId + "-" + version + "-" + resolveOutputFormat(p).name() +
+            (isSiri21Version(p) ? "-2.1" : "") +
+            (contentEncoding != null ? "-" + contentEncoding.getValue() : "") + "\"";
+        // Rounded up to whole seconds - a change later within the same second is then never answered with 304
+        Instant lastModified = lastChanged.truncatedTo(ChronoUnit.SECONDS);
+        if (lastModified.isBefore(lastChanged)) {
+            lastModified = lastModified.plusSeconds(1);
+        }
+
+        boolean notModified = false;
+        String ifNoneMatch = p.getIn().getHeader(HttpHeaders.IF_NONE_MATCH, String.class);
+        String ifModifiedSince = p.getIn().getHeader(HttpHeaders.IF_MODIFIED_SINCE, String.class);
+        if (ifNoneMatch != null) {
+            // If-Modified-Since is ignored when If-None-Match is present
+            notModified = Arrays.stream(ifNoneMatch.split(","))
+                .map(String::trim)
+                .anyMatch(tag -> tag.equals(etag) || tag.equals("*"));
+        } else if (ifModifiedSince != null) {
+            try {
+                Instant since = ZonedDateTime.parse(ifModifiedSince, DateTimeFormatter.RFC_1123_DATE_TIME).toInstant();
+                notModified = !lastModified.isAfter(since);
+            } catch (DateTimeParseException e) {
+                // Invalid date is ignored
+            }
+        }
+
+        // Last-Modified may not be later than the response - until the second has passed, the truncated time is
+        // sent, which is never considered unmodified
+        Instant sentLastModified = lastModified.isAfter(Instant.now()) ? lastModified.minusSeconds(1) : lastModified;
+
+        p.getMessage().setHeader(HttpHeaders.ETAG, etag);
+        p.getMessage().setHeader(HttpHeaders.LAST_MODIFIED,
+            DateTimeFormatter.RFC_1123_DATE_TIME.format(sentLastModified.atZone(ZoneOffset.UTC)));
+
+        if (ifNoneMatch != null || ifModifiedSince != null) {
+            metrics.registerConditionalRequest(dataType, notModified);
+        }
+
+        if (notModified) {
+            p.getMessage().setHeader(Exchange.HTTP_RESPONSE_CODE, 304);
+            p.getMessage().setBody("");
+        }
+        return notModified;
+    }
+
+    private static String createSnapshotKey(String endpoint, Object... parameters) {
+        StringBuilder key = new StringBuilder(endpoint);
+        for (Object parameter : parameters) {
+            if (parameter instanceof Collection) {
+                // Order of ids does not affect the response
+                parameter = new TreeSet<>((Collection<?>) parameter);
+            }
+            key.append('|').append(parameter);
+        }
+        return key.toString();
     }
 
     /**
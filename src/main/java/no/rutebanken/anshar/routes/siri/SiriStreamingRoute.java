@@ -0,0 +1,267 @@
+/*
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ *   https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ */
+
+package no.rutebanken.anshar.routes.siri;
+
+import jakarta.servlet.http.HttpServletResponse;
+import no.rutebanken.anshar.config.AnsharConfiguration;
+import no.rutebanken.anshar.data.EstimatedTimetables;
+import no.rutebanken.anshar.data.Situations;
+import no.rutebanken.anshar.data.VehicleActivities;
+import no.rutebanken.anshar.metrics.PrometheusMetricsService;
+import no.rutebanken.anshar.routes.RestRouteBuilder;
+import no.rutebanken.anshar.routes.outbound.SiriHelper;
+import no.rutebanken.anshar.routes.outbound.StreamingSubscription;
+import no.rutebanken.anshar.routes.outbound.StreamingSubscriptionManager;
+import no.rutebanken.anshar.routes.siri.handlers.SiriHandler;
+import no.rutebanken.anshar.routes.siri.helpers.SiriObjectFactory;
+import no.rutebanken.anshar.routes.siri.transformer.SiriValueTransformer;
+import no.rutebanken.anshar.routes.siri.transformer.ValueAdapter;
+import no.rutebanken.anshar.subscription.SiriDataType;
+import no.rutebanken.anshar.subscription.SubscriptionSetup;
+import no.rutebanken.anshar.subscription.helpers.MappingAdapterPresets;
+import no.rutebanken.anshar.util.ServerSentEventOutputStream;
+import org.apache.camel.Exchange;
+import org.apache.camel.Message;
+import org.apache.camel.model.rest.RestParamType;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+import uk.org.siri.siri21.LineRef;
+import uk.org.siri.siri21.Siri;
+import uk.org.siri.siri21.VehicleRef;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import static no.rutebanken.anshar.routes.HttpParameter.PARAM_DATASET_ID;
+import static no.rutebanken.anshar.routes.HttpParameter.PARAM_LINE_REF;
+import static no.rutebanken.anshar.routes.HttpParameter.PARAM_USE_ORIGINAL_ID;
+import static no.rutebanken.anshar.routes.HttpParameter.PARAM_VEHICLE_REF;
+import static no.rutebanken.anshar.routes.HttpParameter.getParameterValuesAsList;
+
+/**
+ * Streams SIRI-deliveries as Server-Sent Events - an initial snapshot followed by the same updates that are pushed
+ * to SIRI-subscriptions, filtered by datasetId, lineRef and vehicleRef.
+ *
+ * Each connection holds a request-thread from the shared Jetty thread-pool (200 threads by default) while open - the
+ * number of connections is capped by anshar.rest.stream.max.connections, which must be kept well below the pool size
+ * to leave threads for the other endpoints.
+ *
+ * The snapshot is written directly to the response, and updates received meanwhile are held by the subscription until
+ * the snapshot is written. Clients that do not keep up with later updates are disconnected, and are expected to
+ * reconnect and receive a new snapshot.
+ */
+@Service
+public class SiriStreamingRoute extends RestRouteBuilder {
+    private final Logger logger = LoggerFactory.getLogger(this.getClass());
+
+    static final String SNAPSHOT_EVENT = "snapshot";
+    static final String UPDATE_EVENT = "update";
+    static final String DISCONNECT_EVENT = "disconnect";
+
+    private static final byte[] HEARTBEAT = ":\n\n".getBytes(StandardCharsets.UTF_8);
+
+    @Autowired
+    private AnsharConfiguration configuration;
+
+    @Autowired
+    private Situations situations;
+
+    @Autowired
+    private VehicleActivities vehicleActivities;
+
+    @Autowired
+    private EstimatedTimetables estimatedTimetables;
+
+    @Autowired
+    private PrometheusMetricsService metrics;
+
+    @Autowired
+    private SiriObjectFactory siriObjectFactory;
+
+    @Autowired
+    private MappingAdapterPresets mappingAdapterPresets;
+
+    @Autowired
+    private StreamingSubscriptionManager streamingSubscriptionManager;
+
+    @Override
+    public void configure() throws Exception {
+        super.configure();
+        rest("/anshar/rest")
+                .tag("siri.stream")
+
+                .get("/sx-stream").to("direct:anshar.rest.sx.stream")
+                        .param().required(false).name(PARAM_DATASET_ID).type(RestParamType.query).description("The id of the dataset to stream").dataType("string").endParam()
+                        .param().required(false).name(PARAM_LINE_REF).type(RestParamType.query).description("Comma-separated list of lineRefs to stream").dataType("string").endParam()
+                        .param().required(false).name(PARAM_USE_ORIGINAL_ID).type(RestParamType.query).description("Option to return original Ids").dataType("boolean").endParam()
+
+                .get("/vm-stream").to("direct:anshar.rest.vm.stream")
+                        .param().required(false).name(PARAM_DATASET_ID).type(RestParamType.query).description("The id of the dataset to stream").dataType("string").endParam()
+                        .param().required(false).name(PARAM_LINE_REF).type(RestParamType.query).description("Comma-separated list of lineRefs to stream").dataType("string").endParam()
+                        .param().required(false).name(PARAM_VEHICLE_REF).type(RestParamType.query).description("Comma-separated list of vehicleRefs to stream").dataType("string").endParam()
+                        .param().required(false).name(PARAM_USE_ORIGINAL_ID).type(RestParamType.query).description("Option to return original Ids").dataType("boolean").endParam()
+
+                .get("/et-stream").to("direct:anshar.rest.et.stream")
+                        .param().required(false).name(PARAM_DATASET_ID).type(RestParamType.query).description("The id of the dataset to stream").dataType("string").endParam()
+                        .param().required(false).name(PARAM_LINE_REF).type(RestParamType.query).description("Comma-separated list of lineRefs to stream").dataType("string").endParam()
+                        .param().required(false).name(PARAM_USE_ORIGINAL_ID).type(RestParamType.query).description("Option to return original Ids").dataType("boolean").endParam()
+        ;
+
+        createStreamRoute("sx", SiriDataType.SITUATION_EXCHANGE, configuration.processSX());
+        createStreamRoute("vm", SiriDataType.VEHICLE_MONITORING, configuration.processVM());
+        createStreamRoute("et", SiriDataType.ESTIMATED_TIMETABLE, configuration.processET());
+    }
+
+    /**
+     * Streams are not redirected by proxy-instances, since the redirect would wait for the complete response
+     */
+    private void createStreamRoute(String type, SiriDataType dataType, boolean processData) {
+        if (!processData) {
+            from("direct:anshar.rest." + type + ".stream")
+                    .removeHeaders("*")
+                    .setHeader(Exchange.HTTP_RESPONSE_CODE, constant("503"))
+                    .setBody(constant("Streaming is only available from instances processing " + dataType))
+                    .routeId("incoming.rest." + type + ".stream");
+            return;
+        }
+
+        from("direct:anshar.rest." + type + ".stream")
+                .log("RequestTracer - Incoming stream request (" + type.toUpperCase() + ")")
+                .choice()
+                .when(e -> isTrackingHeaderAcceptable(e))
+                    .process(p -> stream(p, dataType))
+                    .log("RequestTracer - Stream closed (" + type.toUpperCase() + ")")
+                .otherwise()
+                    .to("direct:anshar.invalid.tracking.header.response")
+                .routeId("incoming.rest." + type + ".stream")
+        ;
+    }
+
+    private void stream(Exchange p, SiriDataType dataType) throws Exception {
+        String datasetId = p.getIn().getHeader(PARAM_DATASET_ID, String.class);
+        String originalId = p.getIn().getHeader(PARAM_USE_ORIGINAL_ID, String.class);
+        String clientName = p.getIn().getHeader(configuration.getTrackingHeaderName(), String.class);
+
+        // Registered before the snapshot is created, so updates received meanwhile are held until it is written
+        StreamingSubscription subscription = streamingSubscriptionManager.register(dataType, datasetId, getFilter(p.getIn(), dataType), clientName);
+        if (subscription == null) {
+            p.getMessage().setHeader(Exchange.HTTP_RESPONSE_CODE, 503);
+            p.getMessage().setBody("Max number of streaming connections reached");
+            return;
+        }
+
+        List<ValueAdapter> outboundAdapters = mappingAdapterPresets.getOutboundAdapters(dataType, SiriHandler.getIdMappingPolicy(originalId));
+        if ("test".equals(originalId)) {
+            outboundAdapters = null;
+        }
+        OutputFormat format = resolveOutputFormat(p) == OutputFormat.JSON ? OutputFormat.JSON : OutputFormat.XML;
+        boolean siri21Version = isSiri21Version(p);
+        long heartbeatIntervalMillis = configuration.getStreamHeartbeatIntervalSeconds() * 1000L;
+
+        HttpServletResponse out = p.getIn().getBody(HttpServletResponse.class);
+        try {
+            out.setStatus(200);
+            out.setContentType("text/event-stream");
+            out.setCharacterEncoding(StandardCharsets.UTF_8.name());
+            out.setHeader("Cache-Control", "no-cache");
+            out.setHeader("X-Accel-Buffering", "no");
+            OutputStream stream = out.getOutputStream();
+
+            Siri snapshot = SiriHelper.filterSiriPayload(createSnapshot(dataType, datasetId), subscription.getFilterMap());
+            writeDelivery(stream, SNAPSHOT_EVENT, SiriValueTransformer.transform(snapshot, outboundAdapters, false, false), format, siri21Version);
+            // Not retained while the connection is open
+            snapshot = null;
+
+            while (!subscription.isClosed()) {
+                Siri update = subscription.poll(heartbeatIntervalMillis, TimeUnit.MILLISECONDS);
+                if (update == null) {
+                    stream.write(HEARTBEAT);
+                    stream.flush();
+                    continue;
+                }
+
+                Siri filtered = SiriHelper.filterSiriPayload(update, subscription.getFilterMap());
+                if (metrics.countOutgoingData(filtered, SubscriptionSetup.SubscriptionMode.STREAM) > 0) {
+                    // Updates are shared between connections - copied before transformation unless already copied by the filter
+                    boolean deepCopy = filtered == update;
+                    writeDelivery(stream, UPDATE_EVENT, SiriValueTransformer.transform(filtered, outboundAdapters, deepCopy, false), format, siri21Version);
+                }
+            }
+
+            if (subscription.isSlowConsumer()) {
+                writeEvent(stream, DISCONNECT_EVENT, "Buffer full - client is not keeping up".getBytes(StandardCharsets.UTF_8));
+            }
+        } catch (IOException e) {
+            logger.info("Streaming connection closed by client: {}", subscription);
+        } finally {
+            streamingSubscriptionManager.remove(subscription);
+        }
+        p.getMessage().setBody(out.getOutputStream());
+    }
+
+    private Siri createSnapshot(SiriDataType dataType, String datasetId) {
+        switch (dataType) {
+            case SITUATION_EXCHANGE:
+                return siriObjectFactory.createSXServiceDelivery(situations.getAll(datasetId));
+            case VEHICLE_MONITORING:
+                return siriObjectFactory.createVMServiceDelivery(vehicleActivities.getAll(datasetId));
+            default:
+                return siriObjectFactory.createETServiceDelivery(estimatedTimetables.getAll(datasetId));
+        }
+    }
+
+    /**
+     * Encodes the delivery directly to the response as an event
+     */
+    private void writeDelivery(OutputStream out, String event, Siri delivery, OutputFormat format, boolean siri21Version) throws Exception {
+        try (ServerSentEventOutputStream data = new ServerSentEventOutputStream(out, event)) {
+            writeOutput(format, siri21Version, delivery, data);
+        }
+    }
+
+    static void writeEvent(OutputStream out, String event, byte[] data) throws IOException {
+        try (ServerSentEventOutputStream eventStream = new ServerSentEventOutputStream(out, event)) {
+            eventStream.write(data);
+        }
+    }
+
+    /**
+     * Creates a filter in the same format as for SIRI-subscriptions
+     */
+    static Map<Class, Set<String>> getFilter(Message msg, SiriDataType dataType) {
+        Map<Class, Set<String>> filterMap = new HashMap<>();
+
+        List<String> lineRefs = getParameterValuesAsList(msg, PARAM_LINE_REF);
+        if (lineRefs != null) {
+            filterMap.put(LineRef.class, new HashSet<>(lineRefs));
+        }
+
+        List<String> vehicleRefs = getParameterValuesAsList(msg, PARAM_VEHICLE_REF);
+        if (vehicleRefs != null && dataType == SiriDataType.VEHICLE_MONITORING) {
+            filterMap.put(VehicleRef.class, new HashSet<>(vehicleRefs));
+        }
+        return filterMap;
+    }
+}
@@ -22,6 +22,7 @@ import no.rutebanken.anshar.data.EstimatedTimetables;
 import no.rutebanken.anshar.data.Situations;
 import no.rutebanken.anshar.data.VehicleActivities;
 import no.rutebanken.anshar.metrics.PrometheusMetricsService;
+import no.rutebanken.anshar.routes.dataformat.JaxbPool;
 import no.rutebanken.anshar.routes.health.HealthManager;
 import no.rutebanken.anshar.routes.outbound.ServerSubscriptionManager;
 import no.rutebanken.anshar.routes.outbound.SiriHelper;
@@ -335,7 +336,7 @@ public class SiriHandler {
                 receivedBytes = 0;
             }
             long t1 = System.currentTimeMillis();
-            Siri incoming = SiriXml.parseXml(xml);
+            Siri incoming = JaxbPool.SIRI_21.unmarshal(xml, Siri.class);
 
             logger.info("Parsing XML took {} ms, {} bytes", (System.currentTimeMillis() -t1), receivedBytes);
             if (incoming == null) {
@@ -37,6 +37,7 @@ import uk.org.siri.siri21.CheckStatusRequestStructure;
 import uk.org.siri.siri21.CheckStatusResponseStructure;
 import uk.org.siri.siri21.DataReadyRequestStructure;
 import uk.org.siri.siri21.DataSupplyRequestStructure;
+import uk.org.siri.siri21.EstimatedCall;
 import uk.org.siri.siri21.EstimatedTimetableDeliveryStructure;
 import uk.org.siri.siri21.EstimatedTimetableRequestStructure;
 import uk.org.siri.siri21.EstimatedTimetableSubscriptionStructure;
@@ -50,6 +51,7 @@ import uk.org.siri.siri21.MessageRefStructure;
 import uk.org.siri.siri21.OperatorRefStructure;
 import uk.org.siri.siri21.OtherErrorStructure;
 import uk.org.siri.siri21.PtSituationElement;
+import uk.org.siri.siri21.RecordedCall;
 import uk.org.siri.siri21.RequestorRef;
 import uk.org.siri.siri21.ResponseStatus;
 import uk.org.siri.siri21.ServiceDelivery;
@@ -657,4 +659,32 @@ public class SiriObjectFactory {
         	kryoPool.release(kryo);
         }
     }
+
+    /**
+     * Creates a deep copy of provided object
+     * @param estimatedCall
+     * @return
+     */
+    public static EstimatedCall deepCopy(EstimatedCall estimatedCall) {
+    	Kryo kryo = kryoPool.borrow();
+        try {
+        	return kryo.copy(estimatedCall);
+        } finally {
+        	kryoPool.release(kryo);
+        }
+    }
+
+    /**
+     * Creates a deep copy of provided object
+     * @param recordedCall
+     * @return
+     */
+    public static RecordedCall deepCopy(RecordedCall recordedCall) {
+    	Kryo kryo = kryoPool.borrow();
+        try {
+        	return kryo.copy(recordedCall);
+        } finally {
+        	kryoPool.release(kryo);
+        }
+    }
 }
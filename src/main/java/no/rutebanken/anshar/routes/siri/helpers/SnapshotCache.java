@@ -0,0 +1,299 @@
+/*
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ *   https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ */
+
+package no.rutebanken.anshar.routes.siri.helpers;
+
+import no.rutebanken.anshar.util.ContentEncoding;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Keeps encoded full snapshots of SIRI-Lite responses, so that identical requests from different clients are
+ * served from the same bytes.
+ *
+ * Each snapshot is stored with the change-version of the data it was created from, and is reused until the
+ * version changes, or it is older than max age. Snapshots larger than the per-entry limit are never stored, and the
+ * least recently used snapshots are evicted when the total size exceeds the configured limit.
+ *
+ * A missing snapshot is created by the request that reserves it - concurrent requests for the same version wait
+ * until it is stored, or until the creating request finds that it is too large to be cached. Requests wait at most
+ * max age, and then create the response without caching it.
+ */
+public class SnapshotCache {
+
+    public static class Snapshot {
+        private final byte[] body;
+        private final int objectCount;
+        private final ContentEncoding contentEncoding;
+        private final String nextCursor;
+
+        public Snapshot(byte[] body, int objectCount) {
+            this(body, objectCount, null);
+        }
+
+        /**
+         * @param contentEncoding Compression applied to body - null if not compressed
+         */
+        public Snapshot(byte[] body, int objectCount, ContentEncoding contentEncoding) {
+            this(body, objectCount, contentEncoding, null);
+        }
+
+        /**
+         * @param nextCursor Token for the next page of the snapshot - shared by all clients served from this snapshot
+         */
+        public Snapshot(byte[] body, int objectCount, ContentEncoding contentEncoding, String nextCursor) {
+            this.body = body;
+            this.objectCount = objectCount;
+            this.contentEncoding = contentEncoding;
+            this.nextCursor = nextCursor;
+        }
+
+        public byte[] getBody() {
+            return body;
+        }
+
+        public int getObjectCount() {
+            return objectCount;
+        }
+
+        public ContentEncoding getContentEncoding() {
+            return contentEncoding;
+        }
+
+        public String getNextCursor() {
+            return nextCursor;
+        }
+    }
+
+    /**
+     * Right to create the snapshot for a key and version - must be completed with put, reject or cancel
+     */
+    public static class Reservation {
+        private final String key;
+        private final long version;
+        private final CompletableFuture<Snapshot> result = new CompletableFuture<>();
+
+        private Reservation(String key, long version) {
+            this.key = key;
+            this.version = version;
+        }
+    }
+
+    private static class Entry {
+        private final Snapshot snapshot;
+        private final long version;
+        private final long created;
+
+        private Entry(Snapshot snapshot, long version, long created) {
+            this.snapshot = snapshot;
+            this.version = version;
+            this.created = created;
+        }
+    }
+
+    private final long maxAgeMillis;
+    private final long maxEntryBytes;
+    private final long maxTotalBytes;
+
+    // Access-ordered - iteration starts with least recently used
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long totalBytes;
+
+    private final ConcurrentMap<String, Reservation> reservations = new ConcurrentHashMap<>();
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+    private final AtomicLong rejections = new AtomicLong();
+    private final AtomicLong timeouts = new AtomicLong();
+
+    /**
+     * @param maxAgeMillis Max age of a snapshot, regardless of version
+     * @param maxEntryBytes Max size of a single snapshot
+     * @param maxTotalBytes Max total size of all snapshots
+     */
+    public SnapshotCache(long maxAgeMillis, long maxEntryBytes, long maxTotalBytes) {
+        this.maxAgeMillis = maxAgeMillis;
+        this.maxEntryBytes = maxEntryBytes;
+        this.maxTotalBytes = maxTotalBytes;
+    }
+
+    /**
+     * Returns cached snapshot for the given key if it was created from the given version. If the snapshot is being
+     * created by another request, waits until it is completed - at most max age.
+     *
+     * @param key Identifies the request - all parameters that affect the response must be included
+     * @param version Change-version of the data - must be resolved before the snapshot is created
+     * @return Cached snapshot, or null if the caller must create the response
+     */
+    public Snapshot get(String key, long version) throws InterruptedException, ExecutionException {
+        Snapshot snapshot = getValid(key, version);
+        if (snapshot == null) {
+            Reservation reservation = reservations.get(key);
+            if (reservation != null && reservation.version == version) {
+                try {
+                    snapshot = reservation.result.get(maxAgeMillis, TimeUnit.MILLISECONDS);
+                } catch (TimeoutException e) {
+                    // Creating request is stalled - served without caching
+                    timeouts.incrementAndGet();
+                }
+            }
+        }
+        if (snapshot != null) {
+            hits.incrementAndGet();
+        }
+        return snapshot;
+    }
+
+    /**
+     * Reserves creation of the snapshot for the given key and version.
+     *
+     * @return Reservation to complete when the snapshot is created, or null if it is already being created - the
+     *         caller must then create the response without caching it
+     */
+    public Reservation reserve(String key, long version) {
+        Reservation reservation = new Reservation(key, version);
+        if (reservations.putIfAbsent(key, reservation) != null) {
+            return null;
+        }
+        misses.incrementAndGet();
+        return reservation;
+    }
+
+    /**
+     * Stores the created snapshot, and releases requests waiting for it
+     */
+    public void put(Reservation reservation, Snapshot snapshot) {
+        if (reservation.result.isDone()) {
+            return;
+        }
+        put(reservation.key, new Entry(snapshot, reservation.version, System.currentTimeMillis()));
+        complete(reservation, snapshot);
+    }
+
+    /**
+     * Releases requests waiting for a snapshot that turned out to be larger than the per-entry limit
+     */
+    public void reject(Reservation reservation) {
+        if (!reservation.result.isDone()) {
+            rejections.incrementAndGet();
+            complete(reservation, null);
+        }
+    }
+
+    /**
+     * Releases requests waiting for a snapshot that could not be created
+     */
+    public void cancel(Reservation reservation) {
+        complete(reservation, null);
+    }
+
+    private void complete(Reservation reservation, Snapshot snapshot) {
+        reservations.remove(reservation.key, reservation);
+        reservation.result.complete(snapshot);
+    }
+
+    /**
+     * @return Max size of a single snapshot - larger responses are not buffered for caching
+     */
+    public long getMaxEntryBytes() {
+        return maxEntryBytes;
+    }
+
+    private synchronized Snapshot getValid(String key, long version) {
+        Entry entry = entries.get(key);
+        if (entry == null) {
+            return null;
+        }
+        if (entry.version != version || System.currentTimeMillis() - entry.created > maxAgeMillis) {
+            remove(key);
+            return null;
+        }
+        return entry.snapshot;
+    }
+
+    private synchronized void put(String key, Entry entry) {
+        remove(key);
+        if (entry.snapshot.body.length > maxEntryBytes) {
+            rejections.incrementAndGet();
+            return;
+        }
+        entries.put(key, entry);
+        totalBytes += entry.snapshot.body.length;
+
+        Iterator<Map.Entry<String, Entry>> iterator = entries.entrySet().iterator();
+        while (totalBytes > maxTotalBytes && iterator.hasNext()) {
+            Map.Entry<String, Entry> eldest = iterator.next();
+            if (eldest.getValue() == entry) {
+                continue;
+            }
+            totalBytes -= eldest.getValue().snapshot.body.length;
+            iterator.remove();
+            evictions.incrementAndGet();
+        }
+    }
+
+    private void remove(String key) {
+        Entry removed = entries.remove(key);
+        if (removed != null) {
+            totalBytes -= removed.snapshot.body.length;
+        }
+    }
+
+    public synchronized void clear() {
+        entries.clear();
+        totalBytes = 0;
+    }
+
+    public synchronized long getSizeBytes() {
+        return totalBytes;
+    }
+
+    public synchronized int getEntryCount() {
+        return entries.size();
+    }
+
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    public long getEvictionCount() {
+        return evictions.get();
+    }
+
+    public long getRejectedCount() {
+        return rejections.get();
+    }
+
+    /**
+     * @return Number of requests that gave up waiting for a snapshot being created by another request
+     */
+    public long getTimeoutCount() {
+        return timeouts.get();
+    }
+}
@@ -15,10 +15,10 @@
 
 package no.rutebanken.anshar.routes.siri.processor;
 
-import no.rutebanken.anshar.data.collections.KryoSerializer;
 import no.rutebanken.anshar.routes.siri.helpers.SiriObjectFactory;
 import no.rutebanken.anshar.routes.siri.processor.routedata.ServiceDate;
 import no.rutebanken.anshar.routes.siri.processor.routedata.StopTime;
+import no.rutebanken.anshar.routes.siri.processor.routedata.TrainJourney;
 import no.rutebanken.anshar.routes.siri.transformer.ValueAdapter;
 import no.rutebanken.anshar.subscription.SiriDataType;
 import org.slf4j.Logger;
@@ -43,15 +43,15 @@ import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.function.UnaryOperator;
 
 import static no.rutebanken.anshar.routes.siri.processor.routedata.NetexUpdaterService.getPublicCode;
-import static no.rutebanken.anshar.routes.siri.processor.routedata.NetexUpdaterService.getServiceDates;
-import static no.rutebanken.anshar.routes.siri.processor.routedata.NetexUpdaterService.getServiceJourney;
-import static no.rutebanken.anshar.routes.siri.processor.routedata.NetexUpdaterService.getStopTimes;
-import static no.rutebanken.anshar.routes.siri.processor.routedata.NetexUpdaterService.isDsjCancelled;
+import static no.rutebanken.anshar.routes.siri.processor.routedata.NetexUpdaterService.getStopFingerprint;
+import static no.rutebanken.anshar.routes.siri.processor.routedata.NetexUpdaterService.getTrainJourneys;
 import static no.rutebanken.anshar.routes.siri.processor.routedata.NetexUpdaterService.isKnownTrainNr;
 import static no.rutebanken.anshar.routes.siri.processor.routedata.NetexUpdaterService.isStopIdOrParentMatch;
 import static no.rutebanken.anshar.routes.siri.transformer.MappingNames.REMOVE_UNKNOWN_DEPARTURE;
@@ -121,10 +121,16 @@ public class BaneNorSiriEtRewriter extends ValueAdapter implements PostProcessor
 
     private String datasetId;
 
-    private transient KryoSerializer kryoSerializer;
+    /** Match calls to the StopTime at the same position when the stop sequence is the same - disabled to compare in tests */
+    private final boolean positionalMatching;
 
     public BaneNorSiriEtRewriter(String datasetId) {
+        this(datasetId, true);
+    }
+
+    BaneNorSiriEtRewriter(String datasetId, boolean positionalMatching) {
         this.datasetId = datasetId;
+        this.positionalMatching = positionalMatching;
     }
 
     @Override
@@ -139,10 +145,6 @@ public class BaneNorSiriEtRewriter extends ValueAdapter implements PostProcessor
         int previousSize = 0;
         int newSize = 0;
 
-        if (kryoSerializer == null) {
-            kryoSerializer = new KryoSerializer();
-        }
-
         if (siri != null && siri.getServiceDelivery() != null) {
 
             List<EstimatedTimetableDeliveryStructure> etDeliveries = siri.getServiceDelivery().getEstimatedTimetableDeliveries();
@@ -204,15 +206,13 @@ public class BaneNorSiriEtRewriter extends ValueAdapter implements PostProcessor
                                         //Extra journey - ignore comparison to planned data
                                         foundMatch = true;
                                     } else if (!shouldBeIgnored) {
-                                        Set<String> serviceJourneys = getServiceJourney(etTrainNumber);
-                                        for (String serviceJourney : serviceJourneys) {
-                                            List<ServiceDate> serviceDates = getServiceDates(serviceJourney);
-                                            if (serviceDates.contains(serviceDate)) {
-                                                if (!isDsjCancelled(serviceJourney, serviceDate)) {
+                                        for (TrainJourney serviceJourney : getTrainJourneys(etTrainNumber)) {
+                                            if (serviceJourney.operatesOn(serviceDate)) {
+                                                if (!serviceJourney.isCancelled(serviceDate)) {
                                                     foundMatch = true;
                                                     break;
                                                 } else {
-                                                    logger.info("Skipping departure cancelled in DSJ: {} - {} ", serviceJourney, serviceDate);
+                                                    logger.info("Skipping departure cancelled in DSJ: {} - {} ", serviceJourney.getServiceJourneyId(), serviceDate);
                                                 }
                                             }
                                         }
@@ -258,19 +258,12 @@ public class BaneNorSiriEtRewriter extends ValueAdapter implements PostProcessor
                             getMetricsService().registerDataMapping(SiriDataType.ESTIMATED_TIMETABLE, datasetId, REPLACE_TRAIN_NUMBER, 1);
 
                             ServiceDate serviceDate = getServiceDate(et);
-                            Set<String> serviceJourneyIds = getServiceJourney(etTrainNumber);
-                            if (serviceJourneyIds == null) {
-                                serviceJourneyIds = new HashSet<>();
-                            }
-                            serviceJourneyIds.removeIf(sjId -> isDsjCancelled(sjId, serviceDate));
-
-                            for (String serviceJourney : serviceJourneyIds) {
-                                List<ServiceDate> serviceDates = getServiceDates(serviceJourney);
-                                if (serviceDates.contains(serviceDate)) {
-                                    if (!isDsjCancelled(serviceJourney, serviceDate)) {
+                            for (TrainJourney serviceJourney : getTrainJourneys(etTrainNumber)) {
+                                if (serviceJourney.operatesOn(serviceDate)) {
+                                    if (!serviceJourney.isCancelled(serviceDate)) {
                                         // Populate start of trip
 
-                                        List<StopTime> stopTimes = getStopTimes(serviceJourney);
+                                        List<StopTime> stopTimes = serviceJourney.getStopTimes();
 
                                         if (et.getRecordedCalls() != null && !et.getRecordedCalls().getRecordedCalls().isEmpty()) {
 
@@ -340,19 +333,12 @@ public class BaneNorSiriEtRewriter extends ValueAdapter implements PostProcessor
                             getMetricsService().registerDataMapping(SiriDataType.ESTIMATED_TIMETABLE, datasetId, REPLACE_TRAIN_NUMBER, 1);
 
                             ServiceDate serviceDate = getServiceDate(et);
-                            Set<String> serviceJourneyIds = getServiceJourney(etTrainNumber);
-                            if (serviceJourneyIds == null) {
-                                serviceJourneyIds = new HashSet<>();
-                            }
-                            serviceJourneyIds.removeIf(sjId -> isDsjCancelled(sjId, serviceDate));
-
-                            for (String serviceJourney : serviceJourneyIds) {
-                                List<ServiceDate> serviceDates = getServiceDates(serviceJourney);
-                                if (serviceDates.contains(serviceDate)) {
-                                    if (!isDsjCancelled(serviceJourney, serviceDate)) {
+                            for (TrainJourney serviceJourney : getTrainJourneys(etTrainNumber)) {
+                                if (serviceJourney.operatesOn(serviceDate)) {
+                                    if (!serviceJourney.isCancelled(serviceDate)) {
                                         // Populate end of trip
 
-                                        List<StopTime> stopTimes = getStopTimes(serviceJourney);
+                                        List<StopTime> stopTimes = serviceJourney.getStopTimes();
 
                                         if (et.getEstimatedCalls() != null && !et.getEstimatedCalls().getEstimatedCalls().isEmpty()) {
 
@@ -460,11 +446,9 @@ public class BaneNorSiriEtRewriter extends ValueAdapter implements PostProcessor
         if (trainIdMappingPostfixedMultipleMappings.containsKey(etTrainNumber)) {
             Set<String> possibleTrainNumbers = trainIdMappingPostfixedMultipleMappings.get(etTrainNumber);
             for (String trainNumber : possibleTrainNumbers) {
-                Set<String> serviceJourneys = getServiceJourney(trainNumber);
-                for (String serviceJourney : serviceJourneys) {
-                    List<ServiceDate> serviceDates = getServiceDates(serviceJourney);
-                    if (serviceDates.contains(serviceDate)) {
-                        if (!isDsjCancelled(serviceJourney, serviceDate)) {
+                for (TrainJourney serviceJourney : getTrainJourneys(trainNumber)) {
+                    if (serviceJourney.operatesOn(serviceDate)) {
+                        if (!serviceJourney.isCancelled(serviceDate)) {
                             return trainNumber;
                         }
                     }
@@ -577,18 +561,27 @@ public class BaneNorSiriEtRewriter extends ValueAdapter implements PostProcessor
         Map<String, List<EstimatedCall>> remappedEstimatedCalls = new HashMap<>();
         Map<String, List<RecordedCall>> remappedRecordedCalls = new HashMap<>();
         if (serviceDate != null) {
-            Set<String> serviceJourneyIds = getServiceJourney(etTrainNumber);
-            serviceJourneyIds.removeIf(sjId -> isDsjCancelled(sjId, serviceDate));;
+            List<TrainJourney> serviceJourneys = new ArrayList<>();
+            for (TrainJourney serviceJourney : getTrainJourneys(etTrainNumber)) {
+                if (!serviceJourney.isCancelled(serviceDate)) {
+                    serviceJourneys.add(serviceJourney);
+                }
+            }
 
-            remappedRecordedCalls.putAll(remapRecordedCalls(serviceDate, serviceJourneyIds, estimatedVehicleJourney.getRecordedCalls()));
-            remappedEstimatedCalls.putAll(remapEstimatedCalls(serviceDate, serviceJourneyIds, estimatedVehicleJourney.getEstimatedCalls()));
+            remappedRecordedCalls.putAll(remapRecordedCalls(serviceDate, serviceJourneys, estimatedVehicleJourney.getRecordedCalls()));
+            remappedEstimatedCalls.putAll(remapEstimatedCalls(serviceDate, serviceJourneys, estimatedVehicleJourney.getEstimatedCalls()));
         }
         if (remappedRecordedCalls.isEmpty() && remappedEstimatedCalls.isEmpty()) {
             // Found match with no RecordedCalls and no EstimatedCalls - keep data unchanged
             restructuredJourneyList.add(estimatedVehicleJourney);
         } else {
+            // Remapped calls may still be shared with the original journey - copy all journeys before setting order
             if (!remappedEstimatedCalls.isEmpty()) {
                 // EstimatedCalls exist - loop through all remapped journeys
+                for (String id : remappedEstimatedCalls.keySet()) {
+                    restructuredJourneyList.add(createCopyOfEstimatedVehicleJourney(estimatedVehicleJourney,
+                            remappedRecordedCalls.get(id), remappedEstimatedCalls.get(id)));
+                }
                 for (String id : remappedEstimatedCalls.keySet()) {
                     List<RecordedCall> recordedCalls = remappedRecordedCalls.get(id);
                     List<EstimatedCall> estimatedCalls = remappedEstimatedCalls.get(id);
@@ -602,51 +595,60 @@ public class BaneNorSiriEtRewriter extends ValueAdapter implements PostProcessor
                     for (EstimatedCall estimatedCall : estimatedCalls) {
                         estimatedCall.setOrder(BigInteger.valueOf(order++));
                     }
-
-                    EstimatedVehicleJourney journey = createCopyOfEstimatedVehicleJourney(estimatedVehicleJourney);
-
-                    if (recordedCalls != null) {
-                        EstimatedVehicleJourney.RecordedCalls restructuredRecordedCalls = new EstimatedVehicleJourney.RecordedCalls();
-                        restructuredRecordedCalls.getRecordedCalls().addAll(recordedCalls);
-                        journey.setRecordedCalls(restructuredRecordedCalls);
-                    }
-
-                    EstimatedVehicleJourney.EstimatedCalls restructuredCalls = new EstimatedVehicleJourney.EstimatedCalls();
-                    restructuredCalls.getEstimatedCalls().addAll(estimatedCalls);
-                    journey.setEstimatedCalls(restructuredCalls);
-
-                    restructuredJourneyList.add(journey);
                 }
             } else {
                 // Only RecordedCalls exist for journey -
+                for (String id : remappedRecordedCalls.keySet()) {
+                    restructuredJourneyList.add(createCopyOfEstimatedVehicleJourney(estimatedVehicleJourney,
+                            remappedRecordedCalls.get(id), null));
+                }
                 for (String id : remappedRecordedCalls.keySet()) {
                     List<RecordedCall> recordedCalls = remappedRecordedCalls.get(id);
 
                     int order = 1;
-                    if (recordedCalls != null) {
-                        for (RecordedCall recordedCall : recordedCalls) {
-                            recordedCall.setOrder(BigInteger.valueOf(order++));
-                        }
-                    }
-
-                    EstimatedVehicleJourney journey = createCopyOfEstimatedVehicleJourney(estimatedVehicleJourney);
-
-                    if (recordedCalls != null) {
-                        EstimatedVehicleJourney.RecordedCalls restructuredRecordedCalls = new EstimatedVehicleJourney.RecordedCalls();
-                        restructuredRecordedCalls.getRecordedCalls().addAll(recordedCalls);
-                        journey.setRecordedCalls(restructuredRecordedCalls);
+                    for (RecordedCall recordedCall : recordedCalls) {
+                        recordedCall.setOrder(BigInteger.valueOf(order++));
                     }
-
-                    restructuredJourneyList.add(journey);
                 }
             }
         }
         return restructuredJourneyList;
     }
 
-    private EstimatedVehicleJourney createCopyOfEstimatedVehicleJourney(EstimatedVehicleJourney estimatedVehicleJourney) {
+    /**
+     * Copies the journey with the remapped calls - remapped calls are used as they are, only calls that are not
+     * replaced are copied from the original.
+     */
+    private EstimatedVehicleJourney createCopyOfEstimatedVehicleJourney(EstimatedVehicleJourney estimatedVehicleJourney,
+                                                                        List<RecordedCall> recordedCalls, List<EstimatedCall> estimatedCalls) {
+        EstimatedVehicleJourney.RecordedCalls originalRecordedCalls = estimatedVehicleJourney.getRecordedCalls();
+        EstimatedVehicleJourney.EstimatedCalls originalEstimatedCalls = estimatedVehicleJourney.getEstimatedCalls();
+
+        EstimatedVehicleJourney journey;
+        try {
+            if (recordedCalls != null) {
+                estimatedVehicleJourney.setRecordedCalls(null);
+            }
+            if (estimatedCalls != null) {
+                estimatedVehicleJourney.setEstimatedCalls(null);
+            }
+            journey = SiriObjectFactory.deepCopy(estimatedVehicleJourney);
+        } finally {
+            estimatedVehicleJourney.setRecordedCalls(originalRecordedCalls);
+            estimatedVehicleJourney.setEstimatedCalls(originalEstimatedCalls);
+        }
 
-        return SiriObjectFactory.deepCopy(estimatedVehicleJourney);
+        if (recordedCalls != null) {
+            EstimatedVehicleJourney.RecordedCalls restructuredRecordedCalls = new EstimatedVehicleJourney.RecordedCalls();
+            restructuredRecordedCalls.getRecordedCalls().addAll(recordedCalls);
+            journey.setRecordedCalls(restructuredRecordedCalls);
+        }
+        if (estimatedCalls != null) {
+            EstimatedVehicleJourney.EstimatedCalls restructuredCalls = new EstimatedVehicleJourney.EstimatedCalls();
+            restructuredCalls.getEstimatedCalls().addAll(estimatedCalls);
+            journey.setEstimatedCalls(restructuredCalls);
+        }
+        return journey;
     }
 
     protected static ServiceDate getServiceDate(EstimatedVehicleJourney estimatedVehicleJourney) {
@@ -692,7 +694,7 @@ public class BaneNorSiriEtRewriter extends ValueAdapter implements PostProcessor
         return departureTime;
     }
 
-    private Map<String, List<EstimatedCall>> remapEstimatedCalls(ServiceDate serviceDate, Set<String> serviceJourneyIds, EstimatedVehicleJourney.EstimatedCalls estimatedCallsWrapper) {
+    private Map<String, List<EstimatedCall>> remapEstimatedCalls(ServiceDate serviceDate, List<TrainJourney> serviceJourneys, EstimatedVehicleJourney.EstimatedCalls estimatedCallsWrapper) {
 
         Map<String, List<EstimatedCall>> matches = new HashMap<>();
 
@@ -701,9 +703,16 @@ public class BaneNorSiriEtRewriter extends ValueAdapter implements PostProcessor
         }
         List<EstimatedCall> estimatedCalls = estimatedCallsWrapper.getEstimatedCalls();
 
+        SharedCalls<EstimatedCall> sharedCalls = new SharedCalls<>(SiriObjectFactory::deepCopy);
+        boolean hasExtraCall = estimatedCalls.stream().anyMatch(call -> call.isExtraCall() != null && call.isExtraCall());
+
+        // Stops of the calls - resolved again when stops are rewritten
+        List<String> callStopIds = null;
+        long callStopFingerprint = 0;
 
-        for (String serviceJourneyId : serviceJourneyIds) {
-            List<StopTime> stopTimes = getStopTimes(serviceJourneyId);
+        for (TrainJourney serviceJourney : serviceJourneys) {
+            String serviceJourneyId = serviceJourney.getServiceJourneyId();
+            List<StopTime> stopTimes = serviceJourney.getStopTimes();
 
             // Override known unmappable stops
             if (estimatedCalls.size() == stopTimes.size()) {
@@ -714,14 +723,36 @@ public class BaneNorSiriEtRewriter extends ValueAdapter implements PostProcessor
                     if (call.getArrivalPlatformName() == null &&
                             call.getDeparturePlatformName() == null &&
                             getMappedStopId(stopPointRef).equals(stopPointRef.getValue())) {
+                        sharedCalls.beforeWrite(call);
                         stopPointRef.setValue(createCombinedId(stopPointRef.getValue(), stopTimes.get(i).getStopId()));
+                        callStopIds = null;
                     }
                 }
             }
 
 
-            List<ServiceDate> serviceDates = getServiceDates(serviceJourneyId);
-            if (serviceDates.contains(serviceDate)) {
+            if (serviceJourney.operatesOn(serviceDate)) {
+                if (callStopIds == null) {
+                    callStopIds = new ArrayList<>(estimatedCalls.size());
+                    for (EstimatedCall estimatedCall : estimatedCalls) {
+                        callStopIds.add(getMappedStopId(estimatedCall.getStopPointRef()));
+                    }
+                    callStopFingerprint = getStopFingerprint(callStopIds);
+                }
+
+                if (positionalMatching && !hasExtraCall && !estimatedCalls.isEmpty() &&
+                        isSameStopSequence(serviceJourney, stopTimes, callStopIds, callStopFingerprint,
+                                estimatedCalls.get(0).getAimedArrivalTime(), estimatedCalls.get(0).getAimedDepartureTime())) {
+                    // Each call matches the StopTime at the same position
+                    List<EstimatedCall> calls = matches.computeIfAbsent(serviceJourneyId, id -> new ArrayList<>());
+                    for (int i = 0; i < stopTimes.size(); i++) {
+                        if (addMatchedCall(estimatedCalls.get(i), stopTimes.get(i), sharedCalls, calls)) {
+                            callStopIds = null;
+                        }
+                    }
+                    continue;
+                }
+
                 boolean matchStopIdOnly = false;
                 Set<EstimatedCall> visitedCalls = new HashSet<>();
                 for (StopTime stopTime : stopTimes) {
@@ -739,33 +770,12 @@ public class BaneNorSiriEtRewriter extends ValueAdapter implements PostProcessor
                                 matchStopIdOnly = true;
                             }
 
-                            String originalId = getOriginalId(estimatedCall.getStopPointRef().getValue());
-                            if (foreignStops.contains(originalId)) {
-                                stopId = stopTime.getStopId();
-
-                                String publicCode = getPublicCode(stopId);
-                                if (publicCode != null && !publicCode.isEmpty()) {
-                                    NaturalLanguageStringStructure platform = new NaturalLanguageStringStructure();
-                                    platform.setValue(publicCode);
-                                    if (estimatedCall.getDeparturePlatformName() != null && !"".equals(estimatedCall.getDeparturePlatformName().getValue())) {
-                                        estimatedCall.setDeparturePlatformName(platform);
-                                    }
-                                    if (estimatedCall.getArrivalPlatformName() != null && !"".equals(estimatedCall.getArrivalPlatformName().getValue())) {
-                                        estimatedCall.setArrivalPlatformName(platform);
-                                    }
-                                }
-                                StopPointRefStructure stopPointRef = new StopPointRefStructure();
-                                stopPointRef.setValue(createCombinedId(originalId, stopId));
-                                estimatedCall.setStopPointRef(stopPointRef);
+                            List<EstimatedCall> calls = matches.computeIfAbsent(serviceJourneyId, id -> new ArrayList<>());
+                            if (addMatchedCall(estimatedCall, stopTime, sharedCalls, calls)) {
+                                callStopIds = null;
                             }
 
-                            List<EstimatedCall> calls = matches.getOrDefault(serviceJourneyId, new ArrayList<>());
-                            final byte[] bytes = kryoSerializer.write(estimatedCall);
-                            calls.add((EstimatedCall) kryoSerializer.read(bytes));
-
                             visitedCalls.add(estimatedCall);
-
-                            matches.put(serviceJourneyId, calls);
                             break;
                         }
                     }
@@ -776,7 +786,41 @@ public class BaneNorSiriEtRewriter extends ValueAdapter implements PostProcessor
         return matches;
     }
 
-    private Map<String, List<RecordedCall>> remapRecordedCalls(ServiceDate serviceDate, Set<String> serviceJourneyIds, EstimatedVehicleJourney.RecordedCalls recordedCallsWrapper) {
+    /**
+     * Adds the call matched to the StopTime - stop and platform for foreign stops are replaced by the planned.
+     *
+     * @return true if the stop of the call was rewritten
+     */
+    private boolean addMatchedCall(EstimatedCall estimatedCall, StopTime stopTime, SharedCalls<EstimatedCall> sharedCalls, List<EstimatedCall> calls) {
+        boolean rewritten = false;
+        String originalId = getOriginalId(estimatedCall.getStopPointRef().getValue());
+        if (foreignStops.contains(originalId)) {
+            sharedCalls.beforeWrite(estimatedCall);
+
+            String stopId = stopTime.getStopId();
+
+            String publicCode = getPublicCode(stopId);
+            if (publicCode != null && !publicCode.isEmpty()) {
+                NaturalLanguageStringStructure platform = new NaturalLanguageStringStructure();
+                platform.setValue(publicCode);
+                if (estimatedCall.getDeparturePlatformName() != null && !"".equals(estimatedCall.getDeparturePlatformName().getValue())) {
+                    estimatedCall.setDeparturePlatformName(platform);
+                }
+                if (estimatedCall.getArrivalPlatformName() != null && !"".equals(estimatedCall.getArrivalPlatformName().getValue())) {
+                    estimatedCall.setArrivalPlatformName(platform);
+                }
+            }
+            StopPointRefStructure stopPointRef = new StopPointRefStructure();
+            stopPointRef.setValue(createCombinedId(originalId, stopId));
+            estimatedCall.setStopPointRef(stopPointRef);
+            rewritten = true;
+        }
+
+        sharedCalls.add(estimatedCall, calls);
+        return rewritten;
+    }
+
+    private Map<String, List<RecordedCall>> remapRecordedCalls(ServiceDate serviceDate, List<TrainJourney> serviceJourneys, EstimatedVehicleJourney.RecordedCalls recordedCallsWrapper) {
 
         Map<String, List<RecordedCall>> matches = new HashMap<>();
 
@@ -785,8 +829,16 @@ public class BaneNorSiriEtRewriter extends ValueAdapter implements PostProcessor
         }
         List<RecordedCall> recordedCalls = recordedCallsWrapper.getRecordedCalls();
 
-        for (String serviceJourneyId : serviceJourneyIds) {
-            List<StopTime> stopTimes = getStopTimes(serviceJourneyId);
+        SharedCalls<RecordedCall> sharedCalls = new SharedCalls<>(SiriObjectFactory::deepCopy);
+        boolean hasExtraCall = recordedCalls.stream().anyMatch(call -> call.isExtraCall() != null && call.isExtraCall());
+
+        // Stops of the calls - resolved again when stops are rewritten
+        List<String> callStopIds = null;
+        long callStopFingerprint = 0;
+
+        for (TrainJourney serviceJourney : serviceJourneys) {
+            String serviceJourneyId = serviceJourney.getServiceJourneyId();
+            List<StopTime> stopTimes = serviceJourney.getStopTimes();
 
             // Override known unmappable stops
             if (recordedCalls.size() == stopTimes.size()) {
@@ -797,14 +849,36 @@ public class BaneNorSiriEtRewriter extends ValueAdapter implements PostProcessor
                     if (call.getArrivalPlatformName() == null &&
                             call.getDeparturePlatformName() == null &&
                             getMappedStopId(stopPointRef).equals(stopPointRef.getValue())) {
+                        sharedCalls.beforeWrite(call);
                         stopPointRef.setValue(createCombinedId(stopPointRef.getValue(), stopTimes.get(i).getStopId()));
+                        callStopIds = null;
                     }
                 }
             }
 
 
-            List<ServiceDate> serviceDates = getServiceDates(serviceJourneyId);
-            if (serviceDates.contains(serviceDate)) {
+            if (serviceJourney.operatesOn(serviceDate)) {
+                if (callStopIds == null) {
+                    callStopIds = new ArrayList<>(recordedCalls.size());
+                    for (RecordedCall recordedCall : recordedCalls) {
+                        callStopIds.add(getMappedStopId(recordedCall.getStopPointRef()));
+                    }
+                    callStopFingerprint = getStopFingerprint(callStopIds);
+                }
+
+                if (positionalMatching && !hasExtraCall && !recordedCalls.isEmpty() &&
+                        isSameStopSequence(serviceJourney, stopTimes, callStopIds, callStopFingerprint,
+                                recordedCalls.get(0).getAimedArrivalTime(), recordedCalls.get(0).getAimedDepartureTime())) {
+                    // Each call matches the StopTime at the same position
+                    List<RecordedCall> calls = matches.computeIfAbsent(serviceJourneyId, id -> new ArrayList<>());
+                    for (int i = 0; i < stopTimes.size(); i++) {
+                        if (addMatchedCall(recordedCalls.get(i), stopTimes.get(i), sharedCalls, calls)) {
+                            callStopIds = null;
+                        }
+                    }
+                    continue;
+                }
+
                 boolean matchStopIdOnly = false;
                 Set<RecordedCall> visitedCall = new HashSet<>();
                 for (StopTime stopTime : stopTimes) {
@@ -824,34 +898,12 @@ public class BaneNorSiriEtRewriter extends ValueAdapter implements PostProcessor
                                 matchStopIdOnly = true;
                             }
 
-                            String originalId = getOriginalId(recordedCall.getStopPointRef().getValue());
-                            if (foreignStops.contains(originalId)) {
-                                stopId = stopTime.getStopId();
-
-                                String publicCode = getPublicCode(stopId);
-                                if (publicCode != null && !publicCode.isEmpty()) {
-                                    NaturalLanguageStringStructure platform = new NaturalLanguageStringStructure();
-                                    platform.setValue(publicCode);
-                                    if (recordedCall.getDeparturePlatformName() != null && !"".equals(recordedCall.getDeparturePlatformName().getValue())) {
-                                        recordedCall.setDeparturePlatformName(platform);
-                                    }
-                                    if (recordedCall.getArrivalPlatformName() != null && !"".equals(recordedCall.getArrivalPlatformName().getValue())) {
-                                        recordedCall.setArrivalPlatformName(platform);
-                                    }
-                                }
-                                StopPointRefStructure stopPointRef = new StopPointRefStructure();
-                                stopPointRef.setValue(createCombinedId(originalId, stopId));
-                                recordedCall.setStopPointRef(stopPointRef);
+                            List<RecordedCall> calls = matches.computeIfAbsent(serviceJourneyId, id -> new ArrayList<>());
+                            if (addMatchedCall(recordedCall, stopTime, sharedCalls, calls)) {
+                                callStopIds = null;
                             }
 
-                            List<RecordedCall> calls = matches.getOrDefault(serviceJourneyId, new ArrayList<>());
-                            final byte[] bytes = kryoSerializer.write(recordedCall);
-                            calls.add((RecordedCall) kryoSerializer.read(bytes));
-
-
                             visitedCall.add(recordedCall);
-
-                            matches.put(serviceJourneyId, calls);
                             break;
                         }
                     }
@@ -861,6 +913,60 @@ public class BaneNorSiriEtRewriter extends ValueAdapter implements PostProcessor
         return matches;
     }
 
+    /**
+     * Adds the call matched to the StopTime - stop and platform for foreign stops are replaced by the planned.
+     *
+     * @return true if the stop of the call was rewritten
+     */
+    private boolean addMatchedCall(RecordedCall recordedCall, StopTime stopTime, SharedCalls<RecordedCall> sharedCalls, List<RecordedCall> calls) {
+        boolean rewritten = false;
+        String originalId = getOriginalId(recordedCall.getStopPointRef().getValue());
+        if (foreignStops.contains(originalId)) {
+            sharedCalls.beforeWrite(recordedCall);
+
+            String stopId = stopTime.getStopId();
+
+            String publicCode = getPublicCode(stopId);
+            if (publicCode != null && !publicCode.isEmpty()) {
+                NaturalLanguageStringStructure platform = new NaturalLanguageStringStructure();
+                platform.setValue(publicCode);
+                if (recordedCall.getDeparturePlatformName() != null && !"".equals(recordedCall.getDeparturePlatformName().getValue())) {
+                    recordedCall.setDeparturePlatformName(platform);
+                }
+                if (recordedCall.getArrivalPlatformName() != null && !"".equals(recordedCall.getArrivalPlatformName().getValue())) {
+                    recordedCall.setArrivalPlatformName(platform);
+                }
+            }
+            StopPointRefStructure stopPointRef = new StopPointRefStructure();
+            stopPointRef.setValue(createCombinedId(originalId, stopId));
+            recordedCall.setStopPointRef(stopPointRef);
+            rewritten = true;
+        }
+
+        sharedCalls.add(recordedCall, calls);
+        return rewritten;
+    }
+
+    /**
+     * @return true if the calls visit the same stops as the journey, and the first call is at the planned time - each
+     * call then matches the StopTime at the same position, as when matching call by call
+     */
+    private boolean isSameStopSequence(TrainJourney serviceJourney, List<StopTime> stopTimes, List<String> callStopIds,
+                                       long callStopFingerprint, ZonedDateTime firstArrival, ZonedDateTime firstDeparture) {
+        if (callStopIds.size() != stopTimes.size() || callStopFingerprint != serviceJourney.getStopFingerprint()) {
+            return false;
+        }
+        if (!isMatch(false, stopTimes.get(0), callStopIds.get(0), firstArrival, firstDeparture)) {
+            return false;
+        }
+        for (int i = 1; i < stopTimes.size(); i++) {
+            if (!isMatch(true, stopTimes.get(i), callStopIds.get(i), null, null)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
     protected boolean isMatch(boolean matchStopIdOnly, StopTime stopTime, String stopId, ZonedDateTime arrival, ZonedDateTime departure) {
 
         if (isStopIdOrParentMatch(stopId, stopTime.getStopId())) {
@@ -910,5 +1016,40 @@ public class BaneNorSiriEtRewriter extends ValueAdapter implements PostProcessor
         return -1;
     }
 
+    /**
+     * Calls matched to journeys are shared with the original journey, and copied only when matched to another journey
+     * or before they are changed while matched - each journey keeps the call as it was when matched.
+     */
+    private static class SharedCalls<T> {
+
+        private final UnaryOperator<T> copier;
+
+        // Calls used as they are - and the list of the journey using them
+        private final Map<T, List<T>> sharedCalls = new IdentityHashMap<>();
+
+        SharedCalls(UnaryOperator<T> copier) {
+            this.copier = copier;
+        }
 
+        void add(T call, List<T> calls) {
+            if (sharedCalls.containsKey(call)) {
+                calls.add(copier.apply(call));
+            } else {
+                calls.add(call);
+                sharedCalls.put(call, calls);
+            }
+        }
+
+        void beforeWrite(T call) {
+            List<T> calls = sharedCalls.remove(call);
+            if (calls != null) {
+                for (int i = calls.size() - 1; i >= 0; i--) {
+                    if (calls.get(i) == call) {
+                        calls.set(i, copier.apply(call));
+                        break;
+                    }
+                }
+            }
+        }
+    }
 }
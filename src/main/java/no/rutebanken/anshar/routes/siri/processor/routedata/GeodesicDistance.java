@@ -0,0 +1,96 @@
+/*
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ *   https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ */
+
+package no.rutebanken.anshar.routes.siri.processor.routedata;
+
+/**
+ * Distance on the WGS84 ellipsoid - Vincenty's inverse formula, without allocation.
+ *
+ * Agrees with GeoTools' orthodromic distance to well below a millimeter for distances within Norway. Haversine is
+ * not used, as the spherical approximation is off by up to 0.4% at Norwegian latitudes.
+ */
+public final class GeodesicDistance {
+
+    private static final double A = 6378137.0;
+    private static final double F = 1 / 298.257223563;
+    private static final double B = A * (1 - F);
+
+    private static final double MEAN_RADIUS = 6371008.8;
+
+    private static final int MAX_ITERATIONS = 200;
+    private static final double CONVERGENCE_LIMIT = 1e-12;
+
+    private GeodesicDistance() {
+    }
+
+    /**
+     * @return Distance in meters between two coordinates given in degrees
+     */
+    public static double distance(double fromLatitude, double fromLongitude, double toLatitude, double toLongitude) {
+        if (fromLatitude == toLatitude && fromLongitude == toLongitude) {
+            return 0;
+        }
+
+        double l = Math.toRadians(toLongitude - fromLongitude);
+        double u1 = Math.atan((1 - F) * Math.tan(Math.toRadians(fromLatitude)));
+        double u2 = Math.atan((1 - F) * Math.tan(Math.toRadians(toLatitude)));
+        double sinU1 = Math.sin(u1);
+        double cosU1 = Math.cos(u1);
+        double sinU2 = Math.sin(u2);
+        double cosU2 = Math.cos(u2);
+
+        double lambda = l;
+        for (int i = 0; i < MAX_ITERATIONS; i++) {
+            double sinLambda = Math.sin(lambda);
+            double cosLambda = Math.cos(lambda);
+            double x = cosU2 * sinLambda;
+            double y = cosU1 * sinU2 - sinU1 * cosU2 * cosLambda;
+            double sinSigma = Math.sqrt(x * x + y * y);
+            if (sinSigma == 0) {
+                return 0;
+            }
+            double cosSigma = sinU1 * sinU2 + cosU1 * cosU2 * cosLambda;
+            double sigma = Math.atan2(sinSigma, cosSigma);
+            double sinAlpha = cosU1 * cosU2 * sinLambda / sinSigma;
+            double cosSqAlpha = 1 - sinAlpha * sinAlpha;
+            // Along the equator cosSqAlpha is 0
+            double cos2SigmaM = cosSqAlpha != 0 ? cosSigma - 2 * sinU1 * sinU2 / cosSqAlpha : 0;
+            double c = F / 16 * cosSqAlpha * (4 + F * (4 - 3 * cosSqAlpha));
+            double previousLambda = lambda;
+            lambda = l + (1 - c) * F * sinAlpha *
+                    (sigma + c * sinSigma * (cos2SigmaM + c * cosSigma * (-1 + 2 * cos2SigmaM * cos2SigmaM)));
+
+            if (Math.abs(lambda - previousLambda) < CONVERGENCE_LIMIT) {
+                double uSq = cosSqAlpha * (A * A - B * B) / (B * B);
+                double a = 1 + uSq / 16384 * (4096 + uSq * (-768 + uSq * (320 - 175 * uSq)));
+                double b = uSq / 1024 * (256 + uSq * (-128 + uSq * (74 - 47 * uSq)));
+                double deltaSigma = b * sinSigma * (cos2SigmaM + b / 4 * (cosSigma * (-1 + 2 * cos2SigmaM * cos2SigmaM) -
+                        b / 6 * cos2SigmaM * (-3 + 4 * sinSigma * sinSigma) * (-3 + 4 * cos2SigmaM * cos2SigmaM)));
+                return B * a * (sigma - deltaSigma);
+            }
+        }
+
+        // Only nearly antipodal points fail to converge
+        return haversine(fromLatitude, fromLongitude, toLatitude, toLongitude);
+    }
+
+    static double haversine(double fromLatitude, double fromLongitude, double toLatitude, double toLongitude) {
+        double sinHalfLatitude = Math.sin(Math.toRadians(toLatitude - fromLatitude) / 2);
+        double sinHalfLongitude = Math.sin(Math.toRadians(toLongitude - fromLongitude) / 2);
+        double h = sinHalfLatitude * sinHalfLatitude +
+                Math.cos(Math.toRadians(fromLatitude)) * Math.cos(Math.toRadians(toLatitude)) * sinHalfLongitude * sinHalfLongitude;
+        return 2 * MEAN_RADIUS * Math.asin(Math.min(1, Math.sqrt(h)));
+    }
+}
@@ -0,0 +1,226 @@
+/*
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ *   https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ */
+
+package no.rutebanken.anshar.routes.siri.processor.routedata;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.io.Writer;
+import java.net.HttpURLConnection;
+import java.net.URI;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.time.Duration;
+import java.util.Properties;
+
+/**
+ * NeTEx-file downloaded over HTTP, and kept in a download directory between updates.
+ *
+ * Conditional requests with the ETag and Last-Modified of the previous download are used, so unchanged files are not
+ * downloaded again. The version of the downloaded file is kept next to it, so this also applies after a restart.
+ * Failed requests are retried a limited number of times, with exponential backoff.
+ */
+public class HttpRouteDataSource implements RouteDataSource {
+
+    private static final Logger logger = LoggerFactory.getLogger(HttpRouteDataSource.class);
+
+    private static final int BUFFER_SIZE = 256 * 1024;
+    private static final int CONNECT_TIMEOUT_MILLIS = 30_000;
+    private static final int READ_TIMEOUT_MILLIS = 300_000;
+
+    private static final String ETAG = "etag";
+    private static final String LAST_MODIFIED = "lastModified";
+    private static final String CONTENT_HASH = "contentHash";
+
+    private final URL url;
+    private final String name;
+    private final Path file;
+    private final Path versionFile;
+    private final int maxAttempts;
+    private final Duration initialBackoff;
+
+    private boolean versionRead;
+    private String etag;
+    private String lastModified;
+    private String contentHash;
+
+    /**
+     * @param maxAttempts    Attempts before giving up
+     * @param initialBackoff Delay before the first retry - doubled for each following retry
+     */
+    public HttpRouteDataSource(String url, Path downloadDirectory, int maxAttempts, Duration initialBackoff) throws IOException {
+        this.url = URI.create(url).toURL();
+        this.name = url.substring(url.lastIndexOf('/') + 1);
+        this.file = downloadDirectory.resolve(name);
+        this.versionFile = downloadDirectory.resolve(name + ".version");
+        this.maxAttempts = maxAttempts;
+        this.initialBackoff = initialBackoff;
+    }
+
+    @Override
+    public String getName() {
+        return name;
+    }
+
+    @Override
+    public synchronized Content fetch() throws IOException {
+        if (!versionRead) {
+            readVersion();
+            versionRead = true;
+        }
+
+        for (int attempt = 1; ; attempt++) {
+            try {
+                return download();
+            } catch (IOException e) {
+                if (attempt >= maxAttempts || (e instanceof HttpStatusException && !((HttpStatusException) e).retryable)) {
+                    throw e;
+                }
+                long backoffMillis = initialBackoff.toMillis() << (attempt - 1);
+                logger.warn("Could not download {} - retrying in {} ms ({}/{})", url, backoffMillis, attempt, maxAttempts, e);
+                try {
+                    Thread.sleep(backoffMillis);
+                } catch (InterruptedException interrupted) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted while waiting to retry " + url);
+                }
+            }
+        }
+    }
+
+    private Content download() throws IOException {
+        long start = System.currentTimeMillis();
+        boolean downloaded = contentHash != null && Files.isRegularFile(file);
+
+        HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+        connection.setConnectTimeout(CONNECT_TIMEOUT_MILLIS);
+        connection.setReadTimeout(READ_TIMEOUT_MILLIS);
+        if (downloaded && etag != null) {
+            connection.setRequestProperty("If-None-Match", etag);
+        }
+        if (downloaded && lastModified != null) {
+            connection.setRequestProperty("If-Modified-Since", lastModified);
+        }
+        try {
+            int status = connection.getResponseCode();
+            if (status == HttpURLConnection.HTTP_NOT_MODIFIED && downloaded) {
+                logger.info("{} is not modified", url);
+                return new Content(file, contentHash);
+            }
+            if (status != HttpURLConnection.HTTP_OK) {
+                throw new HttpStatusException(url, status);
+            }
+
+            Files.createDirectories(file.toAbsolutePath().getParent());
+            Path tmpFile = Files.createTempFile(file.toAbsolutePath().getParent(), name, ".tmp");
+            try {
+                MessageDigest digest = RouteDataSnapshot.newDigest();
+                long length = 0;
+                try (InputStream in = connection.getInputStream(); OutputStream out = Files.newOutputStream(tmpFile)) {
+                    byte[] buffer = new byte[BUFFER_SIZE];
+                    int count;
+                    while ((count = in.read(buffer)) >= 0) {
+                        out.write(buffer, 0, count);
+                        digest.update(buffer, 0, count);
+                        length += count;
+                    }
+                }
+                String downloadedHash = RouteDataSnapshot.contentHash(digest, length);
+                if (!downloaded || !downloadedHash.equals(contentHash)) {
+                    Files.move(tmpFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                }
+                logger.info("Downloaded {} - {} kB in {} ms, content {}", url, length / 1024,
+                        (System.currentTimeMillis() - start), downloadedHash.equals(contentHash) ? "unchanged" : "changed");
+
+                etag = connection.getHeaderField("ETag");
+                lastModified = connection.getHeaderField("Last-Modified");
+                contentHash = downloadedHash;
+                writeVersion();
+                return new Content(file, contentHash);
+            } finally {
+                Files.deleteIfExists(tmpFile);
+            }
+        } finally {
+            connection.disconnect();
+        }
+    }
+
+    /**
+     * The version is only used if it matches the content of the downloaded file
+     */
+    private void readVersion() {
+        if (!Files.isRegularFile(versionFile) || !Files.isRegularFile(file)) {
+            return;
+        }
+        Properties version = new Properties();
+        try (Reader reader = Files.newBufferedReader(versionFile, StandardCharsets.UTF_8)) {
+            version.load(reader);
+        } catch (IOException e) {
+            logger.warn("Could not read version of downloaded file {}", versionFile, e);
+            return;
+        }
+        String storedHash = version.getProperty(CONTENT_HASH);
+        if (storedHash != null && storedHash.equals(RouteDataSnapshot.hash(file.toString()))) {
+            etag = version.getProperty(ETAG);
+            lastModified = version.getProperty(LAST_MODIFIED);
+            contentHash = storedHash;
+        } else {
+            logger.info("Ignoring previously downloaded {} - content does not match version", file);
+        }
+    }
+
+    private void writeVersion() {
+        Properties version = new Properties();
+        if (etag != null) {
+            version.setProperty(ETAG, etag);
+        }
+        if (lastModified != null) {
+            version.setProperty(LAST_MODIFIED, lastModified);
+        }
+        version.setProperty(CONTENT_HASH, contentHash);
+        try (Writer writer = Files.newBufferedWriter(versionFile, StandardCharsets.UTF_8)) {
+            version.store(writer, url.toString());
+        } catch (IOException e) {
+            logger.warn("Could not write version of downloaded file {}", versionFile, e);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return url.toString();
+    }
+
+    /**
+     * Server errors and rate limiting are retried - other statuses are not expected to change by retrying
+     */
+    private static class HttpStatusException extends IOException {
+        private final boolean retryable;
+
+        HttpStatusException(URL url, int status) {
+            super("Unexpected status " + status + " from " + url);
+            this.retryable = status >= 500 || status == 429;
+        }
+    }
+}
@@ -0,0 +1,89 @@
+/*
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ *   https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ */
+
+package no.rutebanken.anshar.routes.siri.processor.routedata;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.List;
+import java.util.stream.Stream;
+
+/**
+ * NeTEx-file on the local file system. The content hash is only recalculated when the modification time or size of
+ * the file changes.
+ *
+ * A missing file is read as empty, so the remaining files are still loaded. A file that exists but cannot be read
+ * fails the fetch.
+ */
+public class LocalRouteDataSource implements RouteDataSource {
+
+    private final Path file;
+
+    private long lastModified = -1;
+    private long size = -1;
+    private String contentHash;
+
+    public LocalRouteDataSource(Path file) {
+        this.file = file;
+    }
+
+    /**
+     * @return A source for each zip-file in the directory, ordered by file name
+     */
+    public static List<RouteDataSource> inDirectory(Path directory) throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.filter(file -> file.getFileName().toString().endsWith(".zip"))
+                    .sorted()
+                    .map(LocalRouteDataSource::new)
+                    .map(RouteDataSource.class::cast)
+                    .toList();
+        }
+    }
+
+    @Override
+    public String getName() {
+        return file.toString();
+    }
+
+    @Override
+    public synchronized Content fetch() throws IOException {
+        long currentLastModified = 0;
+        long currentSize = 0;
+        try {
+            BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+            currentLastModified = attributes.lastModifiedTime().toMillis();
+            currentSize = attributes.size();
+        } catch (NoSuchFileException e) {
+            // Hashed and parsed as empty
+        }
+        if (contentHash == null || currentLastModified != lastModified || currentSize != size) {
+            contentHash = RouteDataSnapshot.hash(file.toString());
+            if (contentHash == null) {
+                throw new IOException("Could not read " + file);
+            }
+            lastModified = currentLastModified;
+            size = currentSize;
+        }
+        return new Content(file, contentHash);
+    }
+
+    @Override
+    public String toString() {
+        return getName();
+    }
+}
@@ -15,10 +15,9 @@
 
 package no.rutebanken.anshar.routes.siri.processor.routedata;
 
-import jakarta.xml.bind.JAXBContext;
 import jakarta.xml.bind.JAXBElement;
 import jakarta.xml.bind.JAXBException;
-import jakarta.xml.bind.Unmarshaller;
+import no.rutebanken.anshar.routes.dataformat.JaxbPool;
 import org.apache.commons.io.IOUtils;
 import org.rutebanken.netex.model.AllVehicleModesOfTransportEnumeration;
 import org.rutebanken.netex.model.Common_VersionFrameStructure;
@@ -52,6 +51,7 @@ import org.rutebanken.netex.model.StopPointInJourneyPattern;
 import org.rutebanken.netex.model.TimetableFrame;
 import org.rutebanken.netex.model.TimetabledPassingTime;
 
+import javax.xml.stream.XMLStreamException;
 import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.IOException;
@@ -71,8 +71,6 @@ import java.util.zip.ZipFile;
 @SuppressWarnings("WeakerAccess")
 public class NetexProcessor {
 
-    private static JAXBContext jaxbContext;
-
     private Map<String, DayTypeAssignment> dayTypeAssignmentByDayTypeId = new HashMap<>();
     private Map<String, OperatingDay> operatingDaysById = new HashMap<>();
     private Map<String, ServiceJourney> serviceJourneyById = new HashMap<>();
@@ -89,14 +87,6 @@ public class NetexProcessor {
     private Map<String, LocationStructure> locations = new HashMap<>();
     private Map<String, AllVehicleModesOfTransportEnumeration> modes = new HashMap<>();
 
-    static {
-        try {
-            jaxbContext = JAXBContext.newInstance(PublicationDeliveryStructure.class);
-        } catch (JAXBException e) {
-            e.printStackTrace();
-        }
-    }
-
     public Map<String, List<StopTime>> getTripStops() {
         return tripStops;
     }
@@ -132,10 +122,6 @@ public class NetexProcessor {
         return modes;
     }
 
-    private Unmarshaller createUnmarshaller() throws JAXBException {
-        return jaxbContext.createUnmarshaller();
-    }
-
     public void loadFiles(File file) throws IOException {
         ZipFile zipFile = new ZipFile(file, ZipFile.OPEN_READ);
         zipFile.stream().forEach(entry -> loadFile(entry, zipFile));
@@ -249,8 +235,12 @@ public class NetexProcessor {
     private PublicationDeliveryStructure parseXmlDoc(byte[] bytesArray) throws JAXBException {
         JAXBElement<PublicationDeliveryStructure> root;
         ByteArrayInputStream stream = new ByteArrayInputStream(bytesArray);
-        //noinspection unchecked
-        root = (JAXBElement<PublicationDeliveryStructure>) createUnmarshaller().unmarshal(stream);
+        try {
+            //noinspection unchecked
+            root = JaxbPool.NETEX.withUnmarshaller(unmarshaller -> (JAXBElement<PublicationDeliveryStructure>) unmarshaller.unmarshal(stream));
+        } catch (XMLStreamException e) {
+            throw new JAXBException(e.getMessage(), e);
+        }
         return root.getValue();
     }
 
@@ -0,0 +1,746 @@
+/*
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ *   https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ */
+
+package no.rutebanken.anshar.routes.siri.processor.routedata;
+
+import no.rutebanken.anshar.routes.siri.processor.routedata.RouteData.JourneyStops;
+import no.rutebanken.anshar.routes.siri.processor.routedata.RouteData.ServiceDates;
+import no.rutebanken.anshar.routes.siri.processor.routedata.RouteData.StopPattern;
+import org.rutebanken.netex.model.AllVehicleModesOfTransportEnumeration;
+import org.rutebanken.netex.model.LocationStructure;
+import org.rutebanken.netex.model.ServiceAlterationEnumeration;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * Reads route data from NeTEx zip-files without building the full object model.
+ *
+ * All xml-entries are streamed in parallel, and only the elements needed by {@link RouteData} are read. References
+ * are resolved per file when all entries of the file have been read - like {@link NetexParserProcessor} does.
+ */
+public class NetexStreamingLoader {
+
+    private static final Logger logger = LoggerFactory.getLogger(NetexStreamingLoader.class);
+
+    private static final XMLInputFactory xmlInputFactory = XMLInputFactory.newInstance();
+
+    static {
+        xmlInputFactory.setProperty(XMLInputFactory.IS_COALESCING, true);
+        xmlInputFactory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+    }
+
+    private final int parallelism;
+
+    private final Map<String, String> internedIds = new ConcurrentHashMap<>();
+    private final Map<StopPattern, StopPattern> stopPatterns = new HashMap<>();
+    private final Map<ServiceDates, ServiceDates> serviceDates = new HashMap<>();
+
+    public NetexStreamingLoader(int parallelism) {
+        this.parallelism = parallelism;
+    }
+
+    /**
+     * Files that cannot be read are logged and skipped. Data from later files replace data with the same id from
+     * earlier files - except train numbers, where journeys from all files are kept.
+     */
+    public RouteData load(String... paths) {
+        RouteData routeData = read(paths);
+        routeData.buildIndexes();
+        return routeData;
+    }
+
+    /**
+     * Same as {@link #load(String...)}, without building indexes - for data that is merged with data from other
+     * sources before use, see {@link RouteData#merge(List)}
+     */
+    RouteData read(String... paths) {
+        RouteData routeData = new RouteData();
+
+        ExecutorService executor = Executors.newFixedThreadPool(parallelism);
+        Map<String, ZipFile> zipFiles = new LinkedHashMap<>();
+        Map<String, List<Future<NetexContent>>> parsedEntries = new HashMap<>();
+        try {
+            for (String path : paths) {
+                try {
+                    ZipFile zipFile = new ZipFile(path);
+                    zipFiles.put(path, zipFile);
+                    parsedEntries.put(path, zipFile.stream()
+                            .filter(entry -> !entry.isDirectory() && entry.getName().endsWith(".xml"))
+                            .map(entry -> executor.submit(() -> parse(zipFile, entry)))
+                            .toList());
+                } catch (IOException e) {
+                    logger.error("Could not load NeTEx file from path {}", path);
+                }
+            }
+
+            for (Map.Entry<String, ZipFile> zipFile : zipFiles.entrySet()) {
+                long start = System.currentTimeMillis();
+                NetexContent content = new NetexContent();
+                try {
+                    for (Future<NetexContent> entry : parsedEntries.get(zipFile.getKey())) {
+                        content.merge(entry.get());
+                    }
+                } catch (ExecutionException e) {
+                    logger.error("Could not load NeTEx file from path {}", zipFile.getKey(), e.getCause());
+                    continue;
+                } finally {
+                    close(zipFile.getValue());
+                }
+                resolve(content, routeData);
+                logger.info("Read {} rail journeys from {} in {} ms", content.serviceJourneys.size(), zipFile.getKey(),
+                        (System.currentTimeMillis() - start));
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while loading NeTEx", e);
+        } finally {
+            executor.shutdownNow();
+            zipFiles.values().forEach(NetexStreamingLoader::close);
+        }
+        return routeData;
+    }
+
+    private static void close(ZipFile zipFile) {
+        try {
+            zipFile.close();
+        } catch (IOException e) {
+            logger.warn("Could not close file {}", zipFile.getName(), e);
+        }
+    }
+
+    private NetexContent parse(ZipFile zipFile, ZipEntry entry) throws IOException, XMLStreamException {
+        try (InputStream inputStream = zipFile.getInputStream(entry)) {
+            XMLStreamReader reader = xmlInputFactory.createXMLStreamReader(inputStream);
+            try {
+                return new EntryParser(reader).parse();
+            } finally {
+                reader.close();
+            }
+        }
+    }
+
+    private void resolve(NetexContent content, RouteData routeData) {
+        Map<String, List<DatedJourneyRecord>> datedServiceJourneys = new HashMap<>();
+        for (DatedJourneyRecord dated : content.datedServiceJourneys) {
+            datedServiceJourneys.computeIfAbsent(dated.journeyRef, ref -> new ArrayList<>()).add(dated);
+        }
+
+        Map<String, StopPattern> patternsById = new HashMap<>();
+        for (JourneyRecord journey : content.serviceJourneys) {
+            if (journey.trainNumber != null && journey.serviceAlteration != ServiceAlterationEnumeration.CANCELLATION) {
+                routeData.trainNumberTrips.computeIfAbsent(journey.trainNumber, trainNumber -> new HashSet<>())
+                        .add(journey.id);
+            }
+
+            if (journey.dayTypeRefs != null) {
+                List<Long> dates = new ArrayList<>();
+                for (String dayTypeRef : journey.dayTypeRefs) {
+                    dates.addAll(content.datesByDayType.getOrDefault(dayTypeRef, List.of()));
+                    for (String operatingDayRef : content.operatingDayRefsByDayType.getOrDefault(dayTypeRef, List.of())) {
+                        addOperatingDay(content, operatingDayRef, dates);
+                    }
+                }
+                routeData.serviceDates.put(journey.id, toServiceDates(dates));
+            } else if (datedServiceJourneys.containsKey(journey.id)) {
+                List<Long> dates = new ArrayList<>();
+                for (DatedJourneyRecord dated : datedServiceJourneys.get(journey.id)) {
+                    addOperatingDay(content, dated.operatingDayRef, dates);
+                }
+                routeData.serviceDates.put(journey.id, toServiceDates(dates));
+            }
+
+            if (journey.journeyPatternRef != null) {
+                StopPattern pattern = patternsById.computeIfAbsent(journey.journeyPatternRef,
+                        ref -> toStopPattern(content, ref));
+                if (pattern == null) {
+                    logger.warn("Unknown JourneyPattern {} for ServiceJourney {}", journey.journeyPatternRef, journey.id);
+                    continue;
+                }
+                int[] passingTimes = new int[pattern.stopSequences.length * 2];
+                for (int i = 0; i < pattern.stopSequences.length; i++) {
+                    int order = pattern.stopSequences[i];
+                    if (order < 0 || order * 2 >= journey.passingTimeCount) {
+                        logger.warn("No passing time for stop {} on ServiceJourney {}", order, journey.id);
+                        passingTimes = null;
+                        break;
+                    }
+                    passingTimes[2 * i] = journey.passingTimes[2 * order];
+                    passingTimes[2 * i + 1] = journey.passingTimes[2 * order + 1];
+                }
+                if (passingTimes != null) {
+                    routeData.journeyStops.put(journey.id, new JourneyStops(pattern, passingTimes));
+                }
+            }
+        }
+
+        // The first DatedServiceJourney on each date decides whether the journey is cancelled
+        for (Map.Entry<String, List<DatedJourneyRecord>> journey : datedServiceJourneys.entrySet()) {
+            Set<Long> operatingDays = new HashSet<>();
+            List<Long> cancelled = new ArrayList<>();
+            for (DatedJourneyRecord dated : journey.getValue()) {
+                Long epochDay = content.operatingDays.get(dated.operatingDayRef);
+                if (epochDay != null && operatingDays.add(epochDay) &&
+                        (dated.serviceAlteration == ServiceAlterationEnumeration.CANCELLATION ||
+                                dated.serviceAlteration == ServiceAlterationEnumeration.REPLACED)) {
+                    cancelled.add(epochDay);
+                }
+            }
+            if (cancelled.isEmpty()) {
+                routeData.cancelledDates.remove(journey.getKey());
+            } else {
+                routeData.cancelledDates.put(journey.getKey(), toServiceDates(cancelled));
+            }
+        }
+        routeData.parentStops.putAll(content.parentStops);
+        routeData.quayPublicCodes.putAll(content.quayPublicCodes);
+        routeData.locations.putAll(content.locations);
+        routeData.modes.putAll(content.modes);
+    }
+
+    private static void addOperatingDay(NetexContent content, String operatingDayRef, List<Long> dates) {
+        Long epochDay = content.operatingDays.get(operatingDayRef);
+        if (epochDay != null) {
+            dates.add(epochDay);
+        }
+    }
+
+    private ServiceDates toServiceDates(List<Long> dates) {
+        ServiceDates dateSet = ServiceDates.of(dates.stream().mapToLong(Long::longValue).toArray());
+        return serviceDates.computeIfAbsent(dateSet, d -> d);
+    }
+
+    private StopPattern toStopPattern(NetexContent content, String journeyPatternRef) {
+        PatternRecord record = content.journeyPatterns.get(journeyPatternRef);
+        if (record == null) {
+            return null;
+        }
+        String[] stopIds = new String[record.stopPointRefs.size()];
+        for (int i = 0; i < stopIds.length; i++) {
+            stopIds[i] = content.quayByStopPoint.get(record.stopPointRefs.get(i));
+        }
+        StopPattern pattern = new StopPattern(stopIds, Arrays.copyOf(record.orders, stopIds.length));
+        return stopPatterns.computeIfAbsent(pattern, p -> p);
+    }
+
+    private String intern(String id) {
+        if (id == null) {
+            return null;
+        }
+        String existing = internedIds.putIfAbsent(id, id);
+        return existing != null ? existing : id;
+    }
+
+    /**
+     * Needed content of one or more NeTEx-documents - references are not resolved
+     */
+    private static class NetexContent {
+        private final Map<String, String> quayByStopPoint = new HashMap<>();
+        private final Map<String, PatternRecord> journeyPatterns = new HashMap<>();
+        private final Map<String, List<Long>> datesByDayType = new HashMap<>();
+        private final Map<String, List<String>> operatingDayRefsByDayType = new HashMap<>();
+        private final Map<String, Long> operatingDays = new HashMap<>();
+        private final List<JourneyRecord> serviceJourneys = new ArrayList<>();
+        private final List<DatedJourneyRecord> datedServiceJourneys = new ArrayList<>();
+        private final Map<String, String> parentStops = new HashMap<>();
+        private final Map<String, String> quayPublicCodes = new HashMap<>();
+        private final Map<String, LocationStructure> locations = new HashMap<>();
+        private final Map<String, AllVehicleModesOfTransportEnumeration> modes = new HashMap<>();
+
+        private void merge(NetexContent other) {
+            quayByStopPoint.putAll(other.quayByStopPoint);
+            journeyPatterns.putAll(other.journeyPatterns);
+            other.datesByDayType.forEach((ref, dates) -> datesByDayType.computeIfAbsent(ref, r -> new ArrayList<>()).addAll(dates));
+            other.operatingDayRefsByDayType.forEach((ref, refs) -> operatingDayRefsByDayType.computeIfAbsent(ref, r -> new ArrayList<>()).addAll(refs));
+            operatingDays.putAll(other.operatingDays);
+            serviceJourneys.addAll(other.serviceJourneys);
+            datedServiceJourneys.addAll(other.datedServiceJourneys);
+            parentStops.putAll(other.parentStops);
+            quayPublicCodes.putAll(other.quayPublicCodes);
+            locations.putAll(other.locations);
+            modes.putAll(other.modes);
+        }
+    }
+
+    private static class PatternRecord {
+        private final String id;
+        private final List<String> stopPointRefs = new ArrayList<>();
+        private int[] orders = new int[16];
+
+        private PatternRecord(String id) {
+            this.id = id;
+        }
+
+        private void addPoint(String stopPointRef, int order) {
+            if (stopPointRefs.size() == orders.length) {
+                orders = Arrays.copyOf(orders, orders.length * 2);
+            }
+            orders[stopPointRefs.size()] = order;
+            stopPointRefs.add(stopPointRef);
+        }
+    }
+
+    private static class JourneyRecord {
+        private final String id;
+        private String trainNumber;
+        private String transportMode;
+        private ServiceAlterationEnumeration serviceAlteration;
+        private String journeyPatternRef;
+        private List<String> dayTypeRefs;
+        private int[] passingTimes = new int[32];
+        private int passingTimeCount;
+
+        private JourneyRecord(String id) {
+            this.id = id;
+        }
+
+        private void addPassingTime(int arrivalTime, int departureTime) {
+            if (passingTimeCount + 2 > passingTimes.length) {
+                passingTimes = Arrays.copyOf(passingTimes, passingTimes.length * 2);
+            }
+            passingTimes[passingTimeCount++] = arrivalTime;
+            passingTimes[passingTimeCount++] = departureTime;
+        }
+    }
+
+    private static class DatedJourneyRecord {
+        private String journeyRef;
+        private String operatingDayRef;
+        private ServiceAlterationEnumeration serviceAlteration;
+    }
+
+    /**
+     * Reads one document - elements are identified by name and parent, as they are in the NeTEx-profile
+     */
+    private class EntryParser {
+        private final XMLStreamReader reader;
+        private final NetexContent content = new NetexContent();
+
+        private String[] path = new String[32];
+        private int depth;
+
+        private String[] stopAssignment;
+        private PatternRecord pattern;
+        private String stopPointRef;
+        private int stopPointOrder;
+        private JourneyRecord journey;
+        private String[] passingTime;
+        private DatedJourneyRecord datedJourney;
+        private String[] dayTypeAssignment;
+        private String operatingDayId;
+        private String operatingDayDate;
+        private String stopPlaceId;
+        private AllVehicleModesOfTransportEnumeration stopPlaceMode;
+        private List<String> stopPlaceQuays;
+        private String quayId;
+        private String locationOwner;
+        private String longitude;
+        private String latitude;
+
+        private EntryParser(XMLStreamReader reader) {
+            this.reader = reader;
+        }
+
+        private NetexContent parse() throws XMLStreamException {
+            while (reader.hasNext()) {
+                int event = reader.next();
+                if (event == XMLStreamConstants.START_ELEMENT) {
+                    String name = reader.getLocalName();
+                    if (!readText(name, parent(0))) {
+                        startElement(name, parent(0));
+                        push(name);
+                    }
+                } else if (event == XMLStreamConstants.END_ELEMENT) {
+                    depth--;
+                    endElement(reader.getLocalName(), parent(0));
+                }
+            }
+            return content;
+        }
+
+        private void push(String name) {
+            if (depth == path.length) {
+                path = Arrays.copyOf(path, depth * 2);
+            }
+            path[depth++] = name;
+        }
+
+        /**
+         * @return name of the element levels above the current parent - empty string above the root
+         */
+        private String parent(int levels) {
+            return depth > levels ? path[depth - 1 - levels] : "";
+        }
+
+        private String ref() {
+            return reader.getAttributeValue(null, "ref");
+        }
+
+        private String id() {
+            return reader.getAttributeValue(null, "id");
+        }
+
+        private void startElement(String name, String parent) {
+            switch (name) {
+                case "PassengerStopAssignment" -> stopAssignment = new String[2];
+                case "ScheduledStopPointRef" -> {
+                    if (stopAssignment != null && parent.equals("PassengerStopAssignment")) {
+                        stopAssignment[0] = ref();
+                    } else if (pattern != null && parent.equals("StopPointInJourneyPattern")) {
+                        stopPointRef = ref();
+                    }
+                }
+                case "QuayRef" -> {
+                    if (stopAssignment != null && parent.equals("PassengerStopAssignment")) {
+                        stopAssignment[1] = intern(ref());
+                    }
+                }
+                case "JourneyPattern" -> {
+                    if (parent.equals("journeyPatterns")) {
+                        pattern = new PatternRecord(id());
+                    }
+                }
+                case "StopPointInJourneyPattern" -> {
+                    if (pattern != null && parent.equals("pointsInSequence")) {
+                        stopPointRef = null;
+                        String order = reader.getAttributeValue(null, "order");
+                        stopPointOrder = order != null ? Integer.parseInt(order.trim()) - 1 : -1; //We want order to start on 0
+                    }
+                }
+                case "ServiceJourney" -> {
+                    if (parent.equals("vehicleJourneys")) {
+                        journey = new JourneyRecord(id());
+                    }
+                }
+                case "dayTypes" -> {
+                    if (journey != null && parent.equals("ServiceJourney")) {
+                        journey.dayTypeRefs = new ArrayList<>();
+                    }
+                }
+                case "DayTypeRef" -> {
+                    if (journey != null && journey.dayTypeRefs != null && parent.equals("dayTypes")) {
+                        journey.dayTypeRefs.add(ref());
+                    } else if (dayTypeAssignment != null && parent.equals("DayTypeAssignment")) {
+                        dayTypeAssignment[0] = ref();
+                    }
+                }
+                case "JourneyPatternRef" -> {
+                    if (journey != null && parent.equals("ServiceJourney")) {
+                        journey.journeyPatternRef = ref();
+                    }
+                }
+                case "TimetabledPassingTime" -> passingTime = new String[4];
+                case "DatedServiceJourney" -> {
+                    if (parent.equals("vehicleJourneys")) {
+                        datedJourney = new DatedJourneyRecord();
+                    }
+                }
+                case "OperatingDayRef" -> {
+                    if (datedJourney != null && parent.equals("DatedServiceJourney")) {
+                        datedJourney.operatingDayRef = ref();
+                    } else if (dayTypeAssignment != null && parent.equals("DayTypeAssignment")) {
+                        dayTypeAssignment[2] = ref();
+                    }
+                }
+                case "DayTypeAssignment" -> dayTypeAssignment = new String[3];
+                case "OperatingDay" -> {
+                    if (parent.equals("operatingDays")) {
+                        operatingDayId = id();
+                        operatingDayDate = null;
+                    }
+                }
+                case "StopPlace" -> {
+                    if (parent.equals("stopPlaces")) {
+                        stopPlaceId = intern(id());
+                        stopPlaceMode = null;
+                        stopPlaceQuays = new ArrayList<>();
+                    }
+                }
+                case "Quay" -> {
+                    if (stopPlaceId != null && parent.equals("quays")) {
+                        quayId = intern(id());
+                        stopPlaceQuays.add(quayId);
+                        content.parentStops.put(quayId, stopPlaceId);
+                    }
+                }
+                case "Location" -> {
+                    // Only the centroid of the stop place or quay itself
+                    locationOwner = null;
+                    if (stopPlaceId != null && parent.equals("Centroid")) {
+                        if (parent(1).equals("StopPlace")) {
+                            locationOwner = stopPlaceId;
+                        } else if (quayId != null && parent(1).equals("Quay")) {
+                            locationOwner = quayId;
+                        }
+                    }
+                    longitude = null;
+                    latitude = null;
+                }
+                default -> {
+                    if (datedJourney != null && datedJourney.journeyRef == null &&
+                            parent.equals("DatedServiceJourney") && name.endsWith("JourneyRef")) {
+                        datedJourney.journeyRef = ref();
+                    }
+                }
+            }
+        }
+
+        /**
+         * Reads the text of simple elements that are needed
+         *
+         * @return true if the element was read - including its end-tag
+         */
+        private boolean readText(String name, String parent) throws XMLStreamException {
+            switch (name) {
+                case "ArrivalTime", "DepartureTime", "ArrivalDayOffset", "DepartureDayOffset" -> {
+                    if (passingTime == null || !parent.equals("TimetabledPassingTime")) {
+                        return false;
+                    }
+                    int index = switch (name) {
+                        case "ArrivalTime" -> 0;
+                        case "DepartureTime" -> 1;
+                        case "ArrivalDayOffset" -> 2;
+                        default -> 3;
+                    };
+                    passingTime[index] = reader.getElementText();
+                    return true;
+                }
+                case "PrivateCode" -> {
+                    if (journey == null || !parent.equals("ServiceJourney")) {
+                        return false;
+                    }
+                    journey.trainNumber = reader.getElementText();
+                    return true;
+                }
+                case "TransportMode" -> {
+                    if (journey != null && parent.equals("ServiceJourney")) {
+                        journey.transportMode = reader.getElementText().trim();
+                        return true;
+                    } else if (stopPlaceId != null && parent.equals("StopPlace")) {
+                        stopPlaceMode = toMode(reader.getElementText());
+                        return true;
+                    }
+                    return false;
+                }
+                case "ServiceAlteration" -> {
+                    if (journey != null && parent.equals("ServiceJourney")) {
+                        journey.serviceAlteration = toServiceAlteration(reader.getElementText());
+                        return true;
+                    } else if (datedJourney != null && parent.equals("DatedServiceJourney")) {
+                        datedJourney.serviceAlteration = toServiceAlteration(reader.getElementText());
+                        return true;
+                    }
+                    return false;
+                }
+                case "Date" -> {
+                    if (dayTypeAssignment == null || !parent.equals("DayTypeAssignment")) {
+                        return false;
+                    }
+                    dayTypeAssignment[1] = reader.getElementText();
+                    return true;
+                }
+                case "CalendarDate" -> {
+                    if (operatingDayId == null || !parent.equals("OperatingDay")) {
+                        return false;
+                    }
+                    operatingDayDate = reader.getElementText();
+                    return true;
+                }
+                case "PublicCode" -> {
+                    if (quayId == null || !parent.equals("Quay")) {
+                        return false;
+                    }
+                    String publicCode = reader.getElementText();
+                    if (!publicCode.isEmpty()) {
+                        content.quayPublicCodes.put(quayId, publicCode);
+                    }
+                    return true;
+                }
+                case "Longitude", "Latitude" -> {
+                    if (locationOwner == null || !parent.equals("Location")) {
+                        return false;
+                    }
+                    if (name.equals("Longitude")) {
+                        longitude = reader.getElementText();
+                    } else {
+                        latitude = reader.getElementText();
+                    }
+                    return true;
+                }
+                default -> {
+                    return false;
+                }
+            }
+        }
+
+        private void endElement(String name, String parent) {
+            switch (name) {
+                case "PassengerStopAssignment" -> {
+                    if (stopAssignment[0] != null && stopAssignment[1] != null) {
+                        content.quayByStopPoint.put(stopAssignment[0], stopAssignment[1]);
+                    }
+                    stopAssignment = null;
+                }
+                case "StopPointInJourneyPattern" -> {
+                    if (pattern != null && parent.equals("pointsInSequence")) {
+                        pattern.addPoint(stopPointRef, stopPointOrder);
+                    }
+                }
+                case "JourneyPattern" -> {
+                    if (pattern != null && parent.equals("journeyPatterns")) {
+                        if (!pattern.stopPointRefs.isEmpty()) {
+                            content.journeyPatterns.put(pattern.id, pattern);
+                        }
+                        pattern = null;
+                    }
+                }
+                case "TimetabledPassingTime" -> {
+                    if (journey != null && passingTime != null) {
+                        int arrivalTime = toSeconds(passingTime[0], passingTime[2]);
+                        int departureTime = toSeconds(passingTime[1], passingTime[3]);
+                        //Same as NetexParserProcessor - originally there to give same result as the gtfs service
+                        if (arrivalTime == 0) {
+                            arrivalTime = departureTime;
+                        } else if (departureTime == 0) {
+                            departureTime = arrivalTime;
+                        }
+                        journey.addPassingTime(arrivalTime, departureTime);
+                    }
+                    passingTime = null;
+                }
+                case "ServiceJourney" -> {
+                    //Only process RAIL-mode
+                    if (journey != null && parent.equals("vehicleJourneys")) {
+                        if (AllVehicleModesOfTransportEnumeration.RAIL.value().equals(journey.transportMode)) {
+                            content.serviceJourneys.add(journey);
+                        }
+                        journey = null;
+                    }
+                }
+                case "DatedServiceJourney" -> {
+                    if (datedJourney != null && parent.equals("vehicleJourneys")) {
+                        if (datedJourney.journeyRef != null && datedJourney.operatingDayRef != null) {
+                            content.datedServiceJourneys.add(datedJourney);
+                        }
+                        datedJourney = null;
+                    }
+                }
+                case "DayTypeAssignment" -> {
+                    if (dayTypeAssignment[0] != null) {
+                        if (dayTypeAssignment[1] != null) {
+                            content.datesByDayType.computeIfAbsent(dayTypeAssignment[0], ref -> new ArrayList<>())
+                                    .add(toEpochDay(dayTypeAssignment[1]));
+                        } else if (dayTypeAssignment[2] != null) {
+                            content.operatingDayRefsByDayType.computeIfAbsent(dayTypeAssignment[0], ref -> new ArrayList<>())
+                                    .add(dayTypeAssignment[2]);
+                        }
+                    }
+                    dayTypeAssignment = null;
+                }
+                case "OperatingDay" -> {
+                    if (operatingDayId != null && parent.equals("operatingDays")) {
+                        if (operatingDayDate != null) {
+                            content.operatingDays.put(operatingDayId, toEpochDay(operatingDayDate));
+                        }
+                        operatingDayId = null;
+                    }
+                }
+                case "Location" -> {
+                    if (locationOwner != null && longitude != null && latitude != null) {
+                        content.locations.put(locationOwner, new LocationStructure()
+                                .withLongitude(new BigDecimal(longitude.trim()))
+                                .withLatitude(new BigDecimal(latitude.trim())));
+                    }
+                    locationOwner = null;
+                }
+                case "Quay" -> {
+                    if (quayId != null && parent.equals("quays")) {
+                        quayId = null;
+                    }
+                }
+                case "StopPlace" -> {
+                    if (stopPlaceId != null && parent.equals("stopPlaces")) {
+                        if (stopPlaceMode != null) {
+                            content.modes.put(stopPlaceId, stopPlaceMode);
+                        }
+                        for (String quay : stopPlaceQuays) {
+                            content.modes.put(quay, stopPlaceMode);
+                        }
+                        stopPlaceId = null;
+                    }
+                }
+                default -> {
+                }
+            }
+        }
+    }
+
+    static int toSeconds(String time, String dayOffset) {
+        if (time == null) return 0;
+        int seconds = LocalTime.parse(time.trim()).toSecondOfDay();
+        if (dayOffset != null) {
+            seconds += Integer.parseInt(dayOffset.trim()) * 86400; //24x60x60
+        }
+        return seconds;
+    }
+
+    /**
+     * @param date Date, or date-time, on ISO format
+     */
+    static long toEpochDay(String date) {
+        String trimmed = date.trim();
+        return LocalDate.parse(trimmed.length() > 10 ? trimmed.substring(0, 10) : trimmed).toEpochDay();
+    }
+
+    private static AllVehicleModesOfTransportEnumeration toMode(String value) {
+        try {
+            return AllVehicleModesOfTransportEnumeration.fromValue(value.trim());
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    private static ServiceAlterationEnumeration toServiceAlteration(String value) {
+        try {
+            return ServiceAlterationEnumeration.fromValue(value.trim());
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+}
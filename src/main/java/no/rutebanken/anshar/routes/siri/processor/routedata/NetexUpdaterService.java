@@ -16,10 +16,7 @@
 package no.rutebanken.anshar.routes.siri.processor.routedata;
 
 import org.rutebanken.netex.model.AllVehicleModesOfTransportEnumeration;
-import org.rutebanken.netex.model.DatedServiceJourney;
 import org.rutebanken.netex.model.LocationStructure;
-import org.rutebanken.netex.model.OperatingDay;
-import org.rutebanken.netex.model.ServiceAlterationEnumeration;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Value;
@@ -27,15 +24,12 @@ import org.springframework.context.annotation.Configuration;
 import org.springframework.stereotype.Service;
 
 import javax.annotation.PostConstruct;
-import java.io.BufferedInputStream;
-import java.io.BufferedOutputStream;
-import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.OutputStream;
-import java.net.URL;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -61,6 +55,21 @@ public class NetexUpdaterService {
     @Value("${anshar.startup.load.mapping.data:true}")
     private boolean loadMappingData;
 
+    //Snapshot of route data is disabled by default
+    @Value("${anshar.route.data.snapshot.path:}")
+    private String snapshotPath;
+
+    //NeTEx is downloaded from the urls below by default
+    @Value("${anshar.route.data.directory:}")
+    private String localDirectory;
+
+    //Defaults to a directory in java.io.tmpdir
+    @Value("${anshar.route.data.download.directory:}")
+    private String downloadDirectory;
+
+    private static final int DOWNLOAD_ATTEMPTS = 5;
+    private static final Duration DOWNLOAD_INITIAL_BACKOFF = Duration.ofSeconds(30);
+
     private ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor();
 
     // Kept non-configurable since this whole adapter is a temporary hack - ROR-326/ROR-329
@@ -72,77 +81,85 @@ public class NetexUpdaterService {
         "https://storage.googleapis.com/marduk-production/tiamat/CurrentAndFuture_latest.zip"
     };
 
-    private static Map<String, List<StopTime>> tripStops = new HashMap<>();
-    private static Map<String, Set<String>> trainNumberTrips = new HashMap<>();
-    private static Map<String, List<ServiceDate>> tripDates = new HashMap<>();
-    private static Map<String, String> parentStops = new HashMap<>();
-    private static Map<String, String> quayPublicCodes = new HashMap<>();
-    private static Map<String, List<DatedServiceJourney>> datedServiceJourneysForTrip = new HashMap<>();
-    private static Map<String, OperatingDay> operatingDayRefs = new HashMap<>();
+    private static volatile RouteData routeData = RouteData.EMPTY;
+
+    // Hash of the NeTEx sources the current route data is derived from
+    private static String sourceHash;
+
+    // Content hash of each source in the current route data, by source name - the data itself is only kept merged
+    private static Map<String, String> sourceHashes = new HashMap<>();
 
     //public for testing-purposes
     public static Map<String, LocationStructure> locations = new HashMap<>();
     public static Map<String, AllVehicleModesOfTransportEnumeration> modes = new HashMap<>();
 
+    /**
+     * @return Distance in meters between the stops - NaN if any of the stops is not indexed
+     */
+    static double getDistance(String fromStopId, String toStopId) {
+        return routeData.getDistance(fromStopId, toStopId);
+    }
+
     public static boolean isStopIdOrParentMatch(String stop1, String stop2) {
+        Map<String, String> parentStops = routeData.parentStops;
         return stop1.equals(stop2) || parentStops.get(stop2).equals(parentStops.get(stop1));
     }
 
     static Map<String, String> getParentStops() {
-        return parentStops;
+        return routeData.parentStops;
+    }
+
+    /**
+     * @return Quays of the stop place - empty if the stop place is unknown
+     */
+    public static List<String> getQuays(String stopPlaceId) {
+        return routeData.getQuays(stopPlaceId);
     }
 
     public static List<StopTime> getStopTimes(String serviceJourneyId) {
-        return tripStops.get(serviceJourneyId);
+        return routeData.getStopTimes(serviceJourneyId);
     }
 
     public static List<ServiceDate> getServiceDates(String serviceJourneyId) {
-        return tripDates.get(serviceJourneyId);
+        return routeData.getServiceDates(serviceJourneyId);
     }
 
     public static Set<String> getServiceJourney(String trainNumber) {
-        return trainNumberTrips.get(trainNumber);
+        return routeData.trainNumberTrips.get(trainNumber);
+    }
+
+    /**
+     * @return Journeys with the train number, in the same order as {@link #getServiceJourney(String)} - empty if the
+     * train number is unknown
+     */
+    public static List<TrainJourney> getTrainJourneys(String trainNumber) {
+        return routeData.getTrainJourneys(trainNumber);
+    }
+
+    /**
+     * @return Fingerprint of the ordered stops, comparable with {@link TrainJourney#getStopFingerprint()}
+     */
+    public static long getStopFingerprint(List<String> stopIds) {
+        return TrainJourney.stopFingerprint(stopIds, routeData.parentStops);
     }
 
     public static String getPublicCode(String quayRef) {
         if (quayRef != null) {
-            return quayPublicCodes.get(quayRef);
+            return routeData.quayPublicCodes.get(quayRef);
         }
         return null;
     }
 
     public static boolean isKnownTrainNr(String trainNumber) {
-        return trainNumberTrips.containsKey(trainNumber);
+        return routeData.trainNumberTrips.containsKey(trainNumber);
     }
 
     public static boolean isDsjCancelled(String serviceJourneyId, ServiceDate serviceDate) {
-        if (serviceJourneyId != null) {
-            if (datedServiceJourneysForTrip.containsKey(serviceJourneyId)) {
-                List<DatedServiceJourney> datedServiceJourneys = datedServiceJourneysForTrip.get(serviceJourneyId);
-                for (DatedServiceJourney dsj : datedServiceJourneys) {
-
-                    OperatingDay operatingDay = operatingDayRefs.get(dsj.getOperatingDayRef().getRef());
-                    if (isSameDate(operatingDay, serviceDate)) {
-                        return dsj.getServiceAlteration() != null && (
-                                dsj.getServiceAlteration() == ServiceAlterationEnumeration.CANCELLATION ||
-                                dsj.getServiceAlteration() == ServiceAlterationEnumeration.REPLACED
-                                );
-                    }
-                }
-            }
-        }
-        return false;
-    }
-
-    private static boolean isSameDate(OperatingDay operatingDay, ServiceDate serviceDate) {
-        return (
-                operatingDay.getCalendarDate().getYear() == serviceDate.year &&
-                operatingDay.getCalendarDate().getMonthValue() == serviceDate.month &&
-                operatingDay.getCalendarDate().getDayOfMonth() == serviceDate.day);
+        return serviceJourneyId != null && routeData.isCancelled(serviceJourneyId, serviceDate);
     }
 
     public static boolean serviceJourneyIdExists(String serviceJourneyId) {
-        return serviceJourneyId != null && tripStops.containsKey(serviceJourneyId);
+        return serviceJourneyId != null && routeData.containsJourney(serviceJourneyId);
     }
 
     @PostConstruct
@@ -155,164 +172,197 @@ public class NetexUpdaterService {
         logger.info("Starting the NeTEx updater service");
         int initialDelay = 0;
 
-        if (delayStartupForInitialization) {
+        List<RouteDataSource> sources;
+        try {
+            sources = createSources();
+        } catch (IOException e) {
+            throw new IllegalStateException("Could not create NeTEx sources", e);
+        }
+
+        Path snapshotFile = snapshotPath.isBlank() ? null : Path.of(snapshotPath);
+        RouteDataSnapshot.Snapshot snapshot = snapshotFile != null ? RouteDataSnapshot.read(snapshotFile, null) : null;
+
+        if (snapshot != null) {
+            //Refreshed asynchronously - NeTEx is only parsed if files have changed since the snapshot was created
+            logger.info("Using route data from snapshot before NeTEx is loaded.");
+            swap(snapshot.getRouteData(), snapshot.getSourceHash());
+        } else if (delayStartupForInitialization) {
             //Initialize data synchronous
             logger.info("Loading NeTEx before continuing.");
-            initializeNetexData();
+            initializeNetexData(snapshotFile, sources);
             initialDelay = UPDATE_FREQUENCY;
         }
 
-        executor.scheduleWithFixedDelay(() -> initializeNetexData(),
+        executor.scheduleWithFixedDelay(() -> initializeNetexData(snapshotFile, sources),
                 initialDelay,
                 UPDATE_FREQUENCY,
                 FREQUENCY_TIME_UNIT);
 
     }
 
-    private static void initializeNetexData() {
+    private List<RouteDataSource> createSources() throws IOException {
+        if (!localDirectory.isBlank()) {
+            logger.info("Reading NeTEx from local directory {}", localDirectory);
+            return LocalRouteDataSource.inDirectory(Path.of(localDirectory));
+        }
+        Path downloads = downloadDirectory.isBlank() ?
+                Path.of(System.getProperty("java.io.tmpdir"), "anshar-netex") : Path.of(downloadDirectory);
+        List<RouteDataSource> sources = new ArrayList<>();
+        for (String url : urls) {
+            sources.add(new HttpRouteDataSource(url, downloads, DOWNLOAD_ATTEMPTS, DOWNLOAD_INITIAL_BACKOFF));
+        }
+        return sources;
+    }
+
+    private static void initializeNetexData(Path snapshotFile, List<RouteDataSource> sources) {
         long t1 = System.currentTimeMillis();
         logger.info("Updating NeTEx-data - start");
-
-        String[] paths = new String[urls.length];
-
         try {
-            for (int i = 0; i < urls.length; i++) {
-                logger.info("Downloading {}", urls[i]);
-                paths[i] = readUrl(urls[i]);
-                if (paths[i] == null) {
-                    logger.error("File could not be downloaded - retrying: {}", urls[i]);
-                    i--; // trigger retry
-                }
-            }
-
-             update(paths);
-
-        } finally {
-            cleanup(paths);
+            update(snapshotFile, sources);
+        } catch (RuntimeException e) {
+            // Must not escape, as that would cancel the scheduled updates
+            logger.error("Updating NeTEx-data failed", e);
         }
         logger.info("Updating NeTEx-data - done: {} ms", (System.currentTimeMillis() - t1));
     }
 
-    private static void cleanup(String... paths) {
-        for (String path : paths) {
-            if (path != null) {
-                try {
-                    logger.debug("Deletes temporary file {} ", path);
-                    File file = new File(path);
-                    //noinspection ResultOfMethodCallIgnored
-                    file.delete();
-                } catch (Exception e) {
-                    logger.warn("Could not delete file {}", path, e);
-                }
-            }
-        }
-    }
-
     public static void update(String... paths) {
-        logger.info("Reading {} NeTEx files", paths.length);
-        long start = System.currentTimeMillis();
-        Map<String, List<StopTime>> tmpTripStops = new HashMap<>();
-        Map<String, Set<String>> tmpTrainNumberTrips = new HashMap<>();
-        Map<String, List<DatedServiceJourney>> tmpDatedServiceJourneysForTrip = new HashMap<>();
-        Map<String, List<ServiceDate>> tmpTripDates = new HashMap<>();
-        Map<String, String> tmpParentStops = new HashMap<>();
-        Map<String, String> tmpQuayPublicCodes = new HashMap<>();
-        Map<String, LocationStructure> tmpLocations = new HashMap<>();
-        Map<String, AllVehicleModesOfTransportEnumeration> tmpModes = new HashMap<>();
-        Map<String, OperatingDay> tmpOperatingDayRefs = new HashMap<>();
+        update(null, paths);
+    }
 
+    public static void update(Path snapshotFile, String... paths) {
+        List<RouteDataSource> sources = new ArrayList<>(paths.length);
         for (String path : paths) {
-            readNeTEx(path, tmpTripStops, tmpTrainNumberTrips, tmpDatedServiceJourneysForTrip, tmpTripDates, tmpParentStops, tmpQuayPublicCodes,
-                tmpLocations, tmpModes, tmpOperatingDayRefs);
+            sources.add(new LocalRouteDataSource(Path.of(path)));
         }
-
-        // Swapping updated data
-        tripStops = tmpTripStops;
-        trainNumberTrips = tmpTrainNumberTrips;
-        datedServiceJourneysForTrip = tmpDatedServiceJourneysForTrip;
-        tripDates = tmpTripDates;
-        parentStops = tmpParentStops;
-        quayPublicCodes = tmpQuayPublicCodes;
-        locations = tmpLocations;
-        modes = tmpModes;
-        operatingDayRefs = tmpOperatingDayRefs;
-        logger.info("Read and merged {} NeTEx files in {} ms", paths.length, (System.currentTimeMillis()-start));
+        update(snapshotFile, sources);
     }
 
-    private static String readUrl(String url) {
+    /**
+     * Route data is read from the snapshot if it was derived from the same content. Otherwise data from all sources is
+     * merged, and the snapshot is replaced.
+     *
+     * Data from each source is also kept in a snapshot next to the snapshot file - only sources with changed content
+     * are parsed, and data from unchanged sources is read from their snapshots. Only the merged data is kept in memory.
+     *
+     * A source that cannot be fetched keeps the data from its previous update, if its snapshot is available. Otherwise
+     * the current route data is kept - unless no route data is loaded yet.
+     *
+     * @param snapshotFile Snapshot of route data - null to parse NeTEx from all sources when any source has changed
+     */
+    public static synchronized void update(Path snapshotFile, List<RouteDataSource> sources) {
+        logger.info("Reading {} NeTEx sources", sources.size());
+        long start = System.currentTimeMillis();
 
-        InputStream httpIn = null;
-        OutputStream bufferedOut = null;
-        try {
-            long start = System.currentTimeMillis();
-            File tmpFile = File.createTempFile("netex", ".zip");
-            // check the http connection before we do anything to the fs
-            httpIn = new BufferedInputStream(new URL(url).openStream());
-            bufferedOut = new BufferedOutputStream(new FileOutputStream(tmpFile), 1024);
-            byte[] data = new byte[1024];
-            boolean fileComplete = false;
-            int count;
-            while (!fileComplete) {
-                count = httpIn.read(data, 0, 1024);
-                if (count <= 0) {
-                    fileComplete = true;
+        Map<RouteDataSource, RouteDataSource.Content> contents = new LinkedHashMap<>();
+        Map<String, String> updatedSourceHashes = new LinkedHashMap<>();
+        boolean missingSource = false;
+        for (RouteDataSource source : sources) {
+            try {
+                RouteDataSource.Content content = source.fetch();
+                contents.put(source, content);
+                updatedSourceHashes.put(source.getName(), content.getContentHash());
+            } catch (IOException e) {
+                String previousHash = sourceHashes.get(source.getName());
+                if (previousHash != null) {
+                    logger.error("Could not fetch NeTEx source {} - keeping data from previous update", source, e);
+                    updatedSourceHashes.put(source.getName(), previousHash);
                 } else {
-                    bufferedOut.write(data, 0, count);
+                    logger.error("Could not fetch NeTEx source {}", source, e);
+                    missingSource = true;
                 }
             }
-            logger.debug("Downloaded {} to temporary file {} in {} ms", url, tmpFile.getAbsolutePath(), (System.currentTimeMillis() - start));
-            return tmpFile.getAbsolutePath();
-        } catch (IOException e) {
-            logger.error("Could not download file", e);
-        } finally {
-            try {
-                if (httpIn != null) httpIn.close();
-            } catch (Exception e) {
-                logger.error("Could not close resource", e);
-            }
-            try {
-                if (bufferedOut != null) bufferedOut.close();
-            } catch (Exception e) {
-                logger.error("Could not close resource", e);
-            }
         }
-        return null;
-    }
+        if (missingSource && routeData != RouteData.EMPTY) {
+            logger.warn("Keeping current route data until all NeTEx sources have been loaded");
+            return;
+        }
 
-    private static void readNeTEx(
-            String path, Map<String, List<StopTime>> tripStops,
-            Map<String, Set<String>> trainNumberTrips,
-            Map<String, List<DatedServiceJourney>> datedServiceJourneysForTrip,
-            Map<String, List<ServiceDate>> tripDates,
-            Map<String, String> parentStops, Map<String, String> quayPublicCodes,
-            Map<String, LocationStructure> locations, Map<String, AllVehicleModesOfTransportEnumeration> tmpModes,
-            Map<String, OperatingDay> operatingDayRefs) {
-        try {
+        String hash = RouteDataSnapshot.hashOf(new ArrayList<>(updatedSourceHashes.values()));
+        if (hash.equals(sourceHash)) {
+            logger.info("NeTEx sources are unchanged - keeping route data");
+            sourceHashes = updatedSourceHashes;
+            return;
+        }
 
-            NetexParserProcessor netexProcessor = new NetexParserProcessor();
-            netexProcessor.loadFiles(new File(path));
-            tripStops.putAll(netexProcessor.getTripStops());
+        if (snapshotFile != null && !missingSource) {
+            RouteDataSnapshot.Snapshot snapshot = RouteDataSnapshot.read(snapshotFile, hash);
+            if (snapshot != null) {
+                swap(snapshot.getRouteData(), hash);
+                sourceHashes = updatedSourceHashes;
+                return;
+            }
+        }
 
-            for (String trainNumber : netexProcessor.getTrainNumberTrips().keySet()) {
-                if (!trainNumberTrips.containsKey(trainNumber)) {
-                    trainNumberTrips.put(trainNumber, netexProcessor.getTrainNumberTrips().get(trainNumber));
-                } else {
-                    trainNumberTrips.get(trainNumber).addAll(netexProcessor.getTrainNumberTrips().get(trainNumber));
-                }
+        NetexStreamingLoader loader = new NetexStreamingLoader(Runtime.getRuntime().availableProcessors());
+        List<RouteData> dataBySource = new ArrayList<>();
+        int parsed = 0;
+        for (RouteDataSource source : sources) {
+            String contentHash = updatedSourceHashes.get(source.getName());
+            if (contentHash == null) {
+                // Never loaded
+                continue;
             }
+            RouteDataSource.Content content = contents.get(source);
+            Path sourceSnapshotFile = getSourceSnapshotFile(snapshotFile, source);
+            RouteDataSnapshot.Snapshot sourceSnapshot = sourceSnapshotFile != null ?
+                    RouteDataSnapshot.read(sourceSnapshotFile, contentHash, false) : null;
+
+            RouteData data;
+            if (sourceSnapshot != null) {
+                data = sourceSnapshot.getRouteData();
+            } else if (content != null) {
+                data = loader.read(content.getFile().toString());
+                parsed++;
+                writeSnapshot(data, contentHash, sourceSnapshotFile);
+            } else {
+                // Previous data from the source is only kept in its snapshot
+                logger.warn("Keeping current route data - no snapshot of previous update of NeTEx source {}", source);
+                return;
+            }
+            dataBySource.add(data);
+        }
+        sourceHashes = updatedSourceHashes;
 
-            datedServiceJourneysForTrip.putAll(netexProcessor.getDatedServiceJourneyForServiceJourneyId());
-            operatingDayRefs.putAll(netexProcessor.getOperatingDayRefs());
-            tripDates.putAll(netexProcessor.getTripDates());
-            parentStops.putAll(netexProcessor.getParentStops());
-            quayPublicCodes.putAll(netexProcessor.getPublicCodeByQuayId());
-            locations.putAll(netexProcessor.getLocations());
-            tmpModes.putAll(netexProcessor.getModes());
-        } catch (IOException e) {
-            logger.error("Could not load NeTEx file from path {}", path);
+        RouteData updated = RouteData.merge(dataBySource);
+        swap(updated, hash);
+        logger.info("Read {} changed and merged {} NeTEx sources in {} ms - {} journeys", parsed, dataBySource.size(),
+                (System.currentTimeMillis() - start), updated.getJourneyCount());
+
+        if (!missingSource) {
+            writeSnapshot(updated, hash, snapshotFile);
         }
     }
 
+    /**
+     * @return Snapshot of the data from the source, next to the snapshot of the merged data - null if snapshots are
+     * disabled
+     */
+    private static Path getSourceSnapshotFile(Path snapshotFile, RouteDataSource source) {
+        if (snapshotFile == null) {
+            return null;
+        }
+        // Source names may be urls or paths
+        String sourceKey = RouteDataSnapshot.hashOf(List.of(source.getName())).substring(0, 16);
+        return snapshotFile.resolveSibling(snapshotFile.getFileName() + "." + sourceKey);
+    }
 
+    private static void writeSnapshot(RouteData data, String hash, Path snapshotFile) {
+        if (snapshotFile == null) {
+            return;
+        }
+        try {
+            RouteDataSnapshot.write(data, hash, snapshotFile);
+        } catch (IOException e) {
+            logger.warn("Could not write route data snapshot {}", snapshotFile, e);
+        }
+    }
 
+    private static void swap(RouteData updated, String updatedSourceHash) {
+        // Swapping updated data
+        routeData = updated;
+        locations = updated.locations;
+        modes = updated.modes;
+        sourceHash = updatedSourceHash;
+    }
 }
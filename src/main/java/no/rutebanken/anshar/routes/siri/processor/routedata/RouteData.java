@@ -0,0 +1,280 @@
+/*
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ *   https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ */
+
+package no.rutebanken.anshar.routes.siri.processor.routedata;
+
+import org.rutebanken.netex.model.AllVehicleModesOfTransportEnumeration;
+import org.rutebanken.netex.model.LocationStructure;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Route data derived from NeTEx, kept in compact form.
+ *
+ * Stops and sequences are shared by all journeys with the same stop pattern, passing times are kept as int[] per
+ * journey, and service dates as a bitset per distinct set of dates. StopTimes and ServiceDates are created on
+ * request.
+ *
+ * DatedServiceJourneys are resolved when loading - only the dates each journey is cancelled are kept.
+ *
+ * Stop coordinates, distances between adjacent stops and journeys by train number are indexed when all data is loaded -
+ * see {@link #buildIndexes()}.
+ */
+public class RouteData {
+
+    static final RouteData EMPTY = new RouteData();
+
+    final Map<String, JourneyStops> journeyStops = new HashMap<>();
+    final Map<String, ServiceDates> serviceDates = new HashMap<>();
+    final Map<String, Set<String>> trainNumberTrips = new HashMap<>();
+    final Map<String, String> parentStops = new HashMap<>();
+    final Map<String, String> quayPublicCodes = new HashMap<>();
+    final Map<String, ServiceDates> cancelledDates = new HashMap<>();
+    final Map<String, LocationStructure> locations = new HashMap<>();
+    final Map<String, AllVehicleModesOfTransportEnumeration> modes = new HashMap<>();
+
+    StopCoordinates stopCoordinates = StopCoordinates.EMPTY;
+    Map<String, List<TrainJourney>> trainJourneys = Map.of();
+    Map<String, List<String>> quaysByStopPlace = Map.of();
+
+    RouteData() {
+    }
+
+    /**
+     * Indexes stop coordinates, precalculates distances between adjacent stops in all stop patterns, and indexes
+     * journeys by train number and quays by stop place
+     */
+    void buildIndexes() {
+        stopCoordinates = StopCoordinates.of(locations, journeyStops.values());
+
+        Map<String, List<TrainJourney>> journeysByTrainNumber = new HashMap<>(trainNumberTrips.size() * 4 / 3 + 1);
+        for (Map.Entry<String, Set<String>> trainNumber : trainNumberTrips.entrySet()) {
+            // Same order as the ids of the train number
+            List<TrainJourney> journeys = new ArrayList<>(trainNumber.getValue().size());
+            for (String serviceJourneyId : trainNumber.getValue()) {
+                journeys.add(new TrainJourney(serviceJourneyId, journeyStops.get(serviceJourneyId),
+                        serviceDates.get(serviceJourneyId), cancelledDates.get(serviceJourneyId), parentStops));
+            }
+            journeysByTrainNumber.put(trainNumber.getKey(), Collections.unmodifiableList(journeys));
+        }
+        trainJourneys = journeysByTrainNumber;
+
+        Map<String, List<String>> quays = new HashMap<>();
+        for (Map.Entry<String, String> quay : parentStops.entrySet()) {
+            if (!quay.getKey().equals(quay.getValue())) {
+                quays.computeIfAbsent(quay.getValue(), stopPlace -> new ArrayList<>()).add(quay.getKey());
+            }
+        }
+        quaysByStopPlace = quays;
+    }
+
+    /**
+     * Merges data read separately from each source, in the given order. Data from later sources replace data with the
+     * same id from earlier sources - except train numbers, where journeys from all sources are kept. Cancelled dates
+     * are replaced for all journeys in a later source.
+     *
+     * Stop patterns and service dates are shared across sources, and indexes are built for the merged data.
+     */
+    static RouteData merge(List<RouteData> sources) {
+        RouteData merged = new RouteData();
+        Map<StopPattern, StopPattern> patterns = new HashMap<>();
+        Map<ServiceDates, ServiceDates> dateSets = new HashMap<>();
+        for (RouteData source : sources) {
+            for (Map.Entry<String, JourneyStops> journey : source.journeyStops.entrySet()) {
+                JourneyStops stops = journey.getValue();
+                StopPattern pattern = patterns.computeIfAbsent(stops.pattern, p -> p);
+                merged.journeyStops.put(journey.getKey(),
+                        pattern == stops.pattern ? stops : new JourneyStops(pattern, stops.passingTimes));
+            }
+            for (Map.Entry<String, ServiceDates> journey : source.serviceDates.entrySet()) {
+                merged.serviceDates.put(journey.getKey(), dateSets.computeIfAbsent(journey.getValue(), d -> d));
+            }
+            for (Map.Entry<String, Set<String>> trainNumber : source.trainNumberTrips.entrySet()) {
+                merged.trainNumberTrips.computeIfAbsent(trainNumber.getKey(), t -> new HashSet<>())
+                        .addAll(trainNumber.getValue());
+            }
+
+            merged.cancelledDates.keySet().removeAll(source.journeyStops.keySet());
+            merged.cancelledDates.keySet().removeAll(source.serviceDates.keySet());
+            for (Map.Entry<String, ServiceDates> journey : source.cancelledDates.entrySet()) {
+                merged.cancelledDates.put(journey.getKey(), dateSets.computeIfAbsent(journey.getValue(), d -> d));
+            }
+
+            merged.parentStops.putAll(source.parentStops);
+            merged.quayPublicCodes.putAll(source.quayPublicCodes);
+            merged.locations.putAll(source.locations);
+            merged.modes.putAll(source.modes);
+        }
+        merged.buildIndexes();
+        return merged;
+    }
+
+    /**
+     * @return Distance in meters between the stops - NaN if any of the stops has no known coordinates
+     */
+    double getDistance(String fromStopId, String toStopId) {
+        return stopCoordinates.getDistance(fromStopId, toStopId);
+    }
+
+    /**
+     * @return StopTimes for the journey - null if the journey is unknown
+     */
+    List<StopTime> getStopTimes(String serviceJourneyId) {
+        JourneyStops stops = journeyStops.get(serviceJourneyId);
+        return stops != null ? stops.toStopTimes() : null;
+    }
+
+    /**
+     * @return Dates the journey is operating, in ascending order - null if the journey is unknown
+     */
+    List<ServiceDate> getServiceDates(String serviceJourneyId) {
+        ServiceDates dates = serviceDates.get(serviceJourneyId);
+        return dates != null ? dates.toServiceDates() : null;
+    }
+
+    /**
+     * @return true if a DatedServiceJourney cancels or replaces the journey on the date - without allocating
+     */
+    boolean isCancelled(String serviceJourneyId, ServiceDate serviceDate) {
+        ServiceDates cancelled = cancelledDates.get(serviceJourneyId);
+        return cancelled != null && cancelled.contains(serviceDate.toEpochDay());
+    }
+
+    /**
+     * @return Journeys with the train number - empty if the train number is unknown
+     */
+    List<TrainJourney> getTrainJourneys(String trainNumber) {
+        return trainJourneys.getOrDefault(trainNumber, List.of());
+    }
+
+    /**
+     * @return Quays of the stop place - empty if the stop place is unknown
+     */
+    List<String> getQuays(String stopPlaceId) {
+        return quaysByStopPlace.getOrDefault(stopPlaceId, List.of());
+    }
+
+    boolean containsJourney(String serviceJourneyId) {
+        return journeyStops.containsKey(serviceJourneyId);
+    }
+
+    int getJourneyCount() {
+        return journeyStops.size();
+    }
+
+    /**
+     * Ordered stops - shared by all journeys visiting the same stops
+     */
+    static class StopPattern {
+        final String[] stopIds;
+        final int[] stopSequences;
+
+        StopPattern(String[] stopIds, int[] stopSequences) {
+            this.stopIds = stopIds;
+            this.stopSequences = stopSequences;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            StopPattern that = (StopPattern) o;
+            return Arrays.equals(stopIds, that.stopIds) && Arrays.equals(stopSequences, that.stopSequences);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * Arrays.hashCode(stopIds) + Arrays.hashCode(stopSequences);
+        }
+    }
+
+    static class JourneyStops {
+        final StopPattern pattern;
+
+        /** Arrival and departure in seconds after midnight for each stop - [arrival0, departure0, arrival1, ...] */
+        final int[] passingTimes;
+
+        JourneyStops(StopPattern pattern, int[] passingTimes) {
+            this.pattern = pattern;
+            this.passingTimes = passingTimes;
+        }
+
+        List<StopTime> toStopTimes() {
+            List<StopTime> stopTimes = new ArrayList<>(pattern.stopIds.length);
+            for (int i = 0; i < pattern.stopIds.length; i++) {
+                stopTimes.add(new StopTime(pattern.stopIds[i], pattern.stopSequences[i], passingTimes[2 * i], passingTimes[2 * i + 1]));
+            }
+            return stopTimes;
+        }
+    }
+
+    /**
+     * Set of dates as bits from the first date - shared by all journeys operating on the same dates
+     */
+    static class ServiceDates {
+        final long firstEpochDay;
+        final BitSet days;
+
+        ServiceDates(long firstEpochDay, BitSet days) {
+            this.firstEpochDay = firstEpochDay;
+            this.days = days;
+        }
+
+        static ServiceDates of(long... epochDays) {
+            long first = Arrays.stream(epochDays).min().orElse(0);
+            BitSet days = new BitSet();
+            for (long epochDay : epochDays) {
+                days.set((int) (epochDay - first));
+            }
+            return new ServiceDates(first, days);
+        }
+
+        boolean contains(long epochDay) {
+            long index = epochDay - firstEpochDay;
+            return index >= 0 && index < days.length() && days.get((int) index);
+        }
+
+        List<ServiceDate> toServiceDates() {
+            List<ServiceDate> dates = new ArrayList<>(days.cardinality());
+            for (int i = days.nextSetBit(0); i >= 0; i = days.nextSetBit(i + 1)) {
+                LocalDate date = LocalDate.ofEpochDay(firstEpochDay + i);
+                dates.add(new ServiceDate(date.getYear(), date.getMonthValue(), date.getDayOfMonth()));
+            }
+            return dates;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            ServiceDates that = (ServiceDates) o;
+            return firstEpochDay == that.firstEpochDay && days.equals(that.days);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * Long.hashCode(firstEpochDay) + days.hashCode();
+        }
+    }
+}
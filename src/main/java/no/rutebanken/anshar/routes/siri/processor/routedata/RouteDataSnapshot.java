@@ -0,0 +1,492 @@
+/*
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ *   https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ */
+
+package no.rutebanken.anshar.routes.siri.processor.routedata;
+
+import no.rutebanken.anshar.routes.siri.processor.routedata.RouteData.JourneyStops;
+import no.rutebanken.anshar.routes.siri.processor.routedata.RouteData.ServiceDates;
+import no.rutebanken.anshar.routes.siri.processor.routedata.RouteData.StopPattern;
+import org.rutebanken.netex.model.AllVehicleModesOfTransportEnumeration;
+import org.rutebanken.netex.model.LocationStructure;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashSet;
+import java.util.HexFormat;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.CRC32;
+
+/**
+ * Binary snapshot of {@link RouteData}, so the NeTEx-files only need to be parsed when their content changes.
+ *
+ * The file starts with a header containing format-version, the hash of the NeTEx-files the data was derived from,
+ * and a CRC32 of the payload. All strings are kept once in a table in the payload, and referred to by index.
+ * A snapshot with a different version, hash or checksum is ignored.
+ *
+ * The file is read with a plain channel-read and decoded into a {@link RouteData} on the heap - lookups are served from
+ * the decoded data, and the file is not used after it has been read.
+ */
+public class RouteDataSnapshot {
+
+    private static final Logger logger = LoggerFactory.getLogger(RouteDataSnapshot.class);
+
+    private static final int MAGIC = 0x414e5244; // "ANRD"
+
+    /** Must be increased when the payload-format changes */
+    static final int FORMAT_VERSION = 2;
+
+    private RouteDataSnapshot() {
+    }
+
+    /**
+     * @return SHA-256 of the content of all files, in the given order - missing files are included as empty. File
+     * names are not included, since downloaded files get temporary names.
+     */
+    public static String hash(String... paths) {
+        try {
+            MessageDigest digest = newDigest();
+            byte[] buffer = new byte[64 * 1024];
+            for (String path : paths) {
+                long length = 0;
+                try (InputStream in = new DigestInputStream(Files.newInputStream(Path.of(path)), digest)) {
+                    int count;
+                    while ((count = in.read(buffer)) >= 0) {
+                        length += count;
+                    }
+                } catch (NoSuchFileException e) {
+                    logger.warn("File {} does not exist", path);
+                }
+                digest.update(ByteBuffer.allocate(Long.BYTES).putLong(length).flip());
+            }
+            return HexFormat.of().formatHex(digest.digest());
+        } catch (IOException e) {
+            logger.warn("Could not calculate hash of NeTEx files", e);
+            return null;
+        }
+    }
+
+    /**
+     * @return Hash of the sources' content hashes, in the given order
+     */
+    static String hashOf(List<String> contentHashes) {
+        MessageDigest digest = newDigest();
+        for (String contentHash : contentHashes) {
+            digest.update(contentHash.getBytes(StandardCharsets.UTF_8));
+            digest.update((byte) 0);
+        }
+        return HexFormat.of().formatHex(digest.digest());
+    }
+
+    static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * @return Hash of content read through the digest - same as {@link #hash(String...)} of a file with the content
+     */
+    static String contentHash(MessageDigest digest, long length) {
+        digest.update(ByteBuffer.allocate(Long.BYTES).putLong(length).flip());
+        return HexFormat.of().formatHex(digest.digest());
+    }
+
+    /**
+     * Writes to a temporary file that replaces the snapshot when complete, so a partial snapshot is never read. The
+     * temporary file is removed if the snapshot could not be written
+     */
+    public static void write(RouteData routeData, String sourceHash, Path snapshotFile) throws IOException {
+        long start = System.currentTimeMillis();
+        byte[] payload = new Encoder().encode(routeData);
+
+        CRC32 crc = new CRC32();
+        crc.update(payload);
+        byte[] hash = sourceHash.getBytes(StandardCharsets.UTF_8);
+
+        Path directory = snapshotFile.toAbsolutePath().getParent();
+        Files.createDirectories(directory);
+        Path tmpFile = Files.createTempFile(directory, snapshotFile.getFileName().toString(), ".tmp");
+        try {
+            try (DataOutputStream out = new DataOutputStream(Files.newOutputStream(tmpFile))) {
+                out.writeInt(MAGIC);
+                out.writeInt(FORMAT_VERSION);
+                out.writeInt(hash.length);
+                out.write(hash);
+                out.writeLong(crc.getValue());
+                out.writeInt(payload.length);
+                out.write(payload);
+            }
+            Files.move(tmpFile, snapshotFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tmpFile);
+        }
+        logger.info("Wrote route data snapshot {} - {} kB in {} ms", snapshotFile, payload.length / 1024,
+                (System.currentTimeMillis() - start));
+    }
+
+    /**
+     * @param expectedSourceHash Hash of the NeTEx-files the snapshot must be derived from - null to accept any
+     * @return Route data from the snapshot - null if the file is missing, of another version, derived from other
+     * NeTEx-files or corrupt
+     */
+    public static Snapshot read(Path snapshotFile, String expectedSourceHash) {
+        return read(snapshotFile, expectedSourceHash, true);
+    }
+
+    /**
+     * @param buildIndexes false for data that is merged with data from other sources before use, see
+     * {@link RouteData#merge(List)}
+     */
+    static Snapshot read(Path snapshotFile, String expectedSourceHash, boolean buildIndexes) {
+        if (!Files.isRegularFile(snapshotFile)) {
+            return null;
+        }
+        long start = System.currentTimeMillis();
+        try (FileChannel channel = FileChannel.open(snapshotFile, StandardOpenOption.READ)) {
+            ByteBuffer buffer = readFully(channel);
+
+            if (buffer.getInt() != MAGIC || buffer.getInt() != FORMAT_VERSION) {
+                logger.info("Ignoring route data snapshot {} - unknown format", snapshotFile);
+                return null;
+            }
+            byte[] hash = new byte[buffer.getInt()];
+            buffer.get(hash);
+            String sourceHash = new String(hash, StandardCharsets.UTF_8);
+            if (expectedSourceHash != null && !expectedSourceHash.equals(sourceHash)) {
+                logger.info("Ignoring route data snapshot {} - NeTEx files have changed", snapshotFile);
+                return null;
+            }
+            long checksum = buffer.getLong();
+            int payloadLength = buffer.getInt();
+            ByteBuffer payload = buffer.slice(buffer.position(), payloadLength);
+
+            CRC32 crc = new CRC32();
+            crc.update(payload.duplicate());
+            if (crc.getValue() != checksum) {
+                logger.warn("Ignoring route data snapshot {} - checksum mismatch", snapshotFile);
+                return null;
+            }
+
+            RouteData routeData = new Decoder(payload).decode(buildIndexes);
+            logger.info("Read route data snapshot {} - {} journeys in {} ms", snapshotFile, routeData.getJourneyCount(),
+                    (System.currentTimeMillis() - start));
+            return new Snapshot(routeData, sourceHash);
+        } catch (IOException | RuntimeException e) {
+            logger.warn("Could not read route data snapshot {}", snapshotFile, e);
+            return null;
+        }
+    }
+
+    private static ByteBuffer readFully(FileChannel channel) throws IOException {
+        long size = channel.size();
+        if (size > Integer.MAX_VALUE) {
+            throw new IOException("Snapshot too large: " + size + " bytes");
+        }
+        ByteBuffer buffer = ByteBuffer.allocate((int) size);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer) < 0) {
+                throw new IOException("Unexpected end of snapshot after " + buffer.position() + " bytes");
+            }
+        }
+        return buffer.flip();
+    }
+
+    public static class Snapshot {
+        private final RouteData routeData;
+        private final String sourceHash;
+
+        Snapshot(RouteData routeData, String sourceHash) {
+            this.routeData = routeData;
+            this.sourceHash = sourceHash;
+        }
+
+        public RouteData getRouteData() {
+            return routeData;
+        }
+
+        /**
+         * @return Hash of the NeTEx-files the route data was derived from
+         */
+        public String getSourceHash() {
+            return sourceHash;
+        }
+    }
+
+    private static class Encoder {
+        private final Map<String, Integer> strings = new LinkedHashMap<>();
+        private final ByteArrayOutputStream sections = new ByteArrayOutputStream();
+        private final DataOutputStream out = new DataOutputStream(sections);
+
+        private byte[] encode(RouteData routeData) throws IOException {
+            Map<StopPattern, Integer> patterns = new IdentityHashMap<>();
+            List<StopPattern> patternList = new ArrayList<>();
+            for (JourneyStops stops : routeData.journeyStops.values()) {
+                if (patterns.putIfAbsent(stops.pattern, patterns.size()) == null) {
+                    patternList.add(stops.pattern);
+                }
+            }
+            out.writeInt(patternList.size());
+            for (StopPattern pattern : patternList) {
+                out.writeInt(pattern.stopIds.length);
+                for (int i = 0; i < pattern.stopIds.length; i++) {
+                    writeString(pattern.stopIds[i]);
+                    out.writeInt(pattern.stopSequences[i]);
+                }
+            }
+
+            Map<ServiceDates, Integer> dateSets = new IdentityHashMap<>();
+            List<ServiceDates> dateSetList = new ArrayList<>();
+            for (Map<String, ServiceDates> dateMap : List.of(routeData.serviceDates, routeData.cancelledDates)) {
+                for (ServiceDates dates : dateMap.values()) {
+                    if (dateSets.putIfAbsent(dates, dateSets.size()) == null) {
+                        dateSetList.add(dates);
+                    }
+                }
+            }
+            out.writeInt(dateSetList.size());
+            for (ServiceDates dates : dateSetList) {
+                out.writeLong(dates.firstEpochDay);
+                long[] words = dates.days.toLongArray();
+                out.writeInt(words.length);
+                for (long word : words) {
+                    out.writeLong(word);
+                }
+            }
+
+            out.writeInt(routeData.journeyStops.size());
+            for (Map.Entry<String, JourneyStops> journey : routeData.journeyStops.entrySet()) {
+                writeString(journey.getKey());
+                out.writeInt(patterns.get(journey.getValue().pattern));
+                for (int passingTime : journey.getValue().passingTimes) {
+                    out.writeInt(passingTime);
+                }
+            }
+
+            writeDates(routeData.serviceDates, dateSets);
+            writeDates(routeData.cancelledDates, dateSets);
+
+            out.writeInt(routeData.trainNumberTrips.size());
+            for (Map.Entry<String, Set<String>> trainNumber : routeData.trainNumberTrips.entrySet()) {
+                writeString(trainNumber.getKey());
+                out.writeInt(trainNumber.getValue().size());
+                for (String serviceJourneyId : trainNumber.getValue()) {
+                    writeString(serviceJourneyId);
+                }
+            }
+
+            writeStrings(routeData.parentStops);
+            writeStrings(routeData.quayPublicCodes);
+
+            out.writeInt(routeData.locations.size());
+            for (Map.Entry<String, LocationStructure> location : routeData.locations.entrySet()) {
+                writeString(location.getKey());
+                writeDecimal(location.getValue().getLongitude());
+                writeDecimal(location.getValue().getLatitude());
+            }
+
+            out.writeInt(routeData.modes.size());
+            for (Map.Entry<String, AllVehicleModesOfTransportEnumeration> mode : routeData.modes.entrySet()) {
+                writeString(mode.getKey());
+                writeString(mode.getValue() != null ? mode.getValue().value() : null);
+            }
+
+            out.flush();
+
+            // String table first, so it is available when reading the sections
+            ByteArrayOutputStream payload = new ByteArrayOutputStream(sections.size() + strings.size() * 24);
+            DataOutputStream payloadOut = new DataOutputStream(payload);
+            payloadOut.writeInt(strings.size());
+            for (String string : strings.keySet()) {
+                byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+                payloadOut.writeInt(bytes.length);
+                payloadOut.write(bytes);
+            }
+            sections.writeTo(payloadOut);
+            payloadOut.flush();
+            return payload.toByteArray();
+        }
+
+        private void writeString(String value) throws IOException {
+            out.writeInt(value != null ? strings.computeIfAbsent(value, s -> strings.size()) : -1);
+        }
+
+        private void writeDates(Map<String, ServiceDates> dates, Map<ServiceDates, Integer> dateSets) throws IOException {
+            out.writeInt(dates.size());
+            for (Map.Entry<String, ServiceDates> journey : dates.entrySet()) {
+                writeString(journey.getKey());
+                out.writeInt(dateSets.get(journey.getValue()));
+            }
+        }
+
+        private void writeStrings(Map<String, String> values) throws IOException {
+            out.writeInt(values.size());
+            for (Map.Entry<String, String> entry : values.entrySet()) {
+                writeString(entry.getKey());
+                writeString(entry.getValue());
+            }
+        }
+
+        private void writeDecimal(BigDecimal value) throws IOException {
+            byte[] unscaled = value.unscaledValue().toByteArray();
+            out.writeInt(value.scale());
+            out.writeByte(unscaled.length);
+            out.write(unscaled);
+        }
+    }
+
+    private static class Decoder {
+        private final ByteBuffer in;
+        private String[] strings;
+
+        private Decoder(ByteBuffer in) {
+            this.in = in;
+        }
+
+        private RouteData decode(boolean buildIndexes) {
+            strings = new String[in.getInt()];
+            for (int i = 0; i < strings.length; i++) {
+                byte[] bytes = new byte[in.getInt()];
+                in.get(bytes);
+                strings[i] = new String(bytes, StandardCharsets.UTF_8);
+            }
+
+            RouteData routeData = new RouteData();
+
+            StopPattern[] patterns = new StopPattern[in.getInt()];
+            for (int i = 0; i < patterns.length; i++) {
+                int size = in.getInt();
+                String[] stopIds = new String[size];
+                int[] stopSequences = new int[size];
+                for (int j = 0; j < size; j++) {
+                    stopIds[j] = readString();
+                    stopSequences[j] = in.getInt();
+                }
+                patterns[i] = new StopPattern(stopIds, stopSequences);
+            }
+
+            ServiceDates[] dateSets = new ServiceDates[in.getInt()];
+            for (int i = 0; i < dateSets.length; i++) {
+                long firstEpochDay = in.getLong();
+                long[] words = new long[in.getInt()];
+                for (int j = 0; j < words.length; j++) {
+                    words[j] = in.getLong();
+                }
+                dateSets[i] = new ServiceDates(firstEpochDay, BitSet.valueOf(words));
+            }
+
+            int journeyCount = in.getInt();
+            for (int i = 0; i < journeyCount; i++) {
+                String serviceJourneyId = readString();
+                StopPattern pattern = patterns[in.getInt()];
+                int[] passingTimes = new int[pattern.stopIds.length * 2];
+                for (int j = 0; j < passingTimes.length; j++) {
+                    passingTimes[j] = in.getInt();
+                }
+                routeData.journeyStops.put(serviceJourneyId, new JourneyStops(pattern, passingTimes));
+            }
+
+            readDates(routeData.serviceDates, dateSets);
+            readDates(routeData.cancelledDates, dateSets);
+
+            int trainNumberCount = in.getInt();
+            for (int i = 0; i < trainNumberCount; i++) {
+                String trainNumber = readString();
+                int size = in.getInt();
+                Set<String> serviceJourneyIds = new HashSet<>();
+                for (int j = 0; j < size; j++) {
+                    serviceJourneyIds.add(readString());
+                }
+                routeData.trainNumberTrips.put(trainNumber, serviceJourneyIds);
+            }
+
+            readStrings(routeData.parentStops);
+            readStrings(routeData.quayPublicCodes);
+
+            int locationCount = in.getInt();
+            for (int i = 0; i < locationCount; i++) {
+                routeData.locations.put(readString(), new LocationStructure()
+                        .withLongitude(readDecimal())
+                        .withLatitude(readDecimal()));
+            }
+
+            int modeCount = in.getInt();
+            for (int i = 0; i < modeCount; i++) {
+                String stopId = readString();
+                String mode = readString();
+                routeData.modes.put(stopId, mode != null ? AllVehicleModesOfTransportEnumeration.fromValue(mode) : null);
+            }
+
+            if (in.hasRemaining()) {
+                throw new IllegalStateException(in.remaining() + " bytes left after reading snapshot");
+            }
+            if (buildIndexes) {
+                // Derived from the stored data - not part of the snapshot
+                routeData.buildIndexes();
+            }
+            return routeData;
+        }
+
+        private String readString() {
+            int index = in.getInt();
+            return index >= 0 ? strings[index] : null;
+        }
+
+        private void readDates(Map<String, ServiceDates> dates, ServiceDates[] dateSets) {
+            int size = in.getInt();
+            for (int i = 0; i < size; i++) {
+                dates.put(readString(), dateSets[in.getInt()]);
+            }
+        }
+
+        private void readStrings(Map<String, String> values) {
+            int size = in.getInt();
+            for (int i = 0; i < size; i++) {
+                values.put(readString(), readString());
+            }
+        }
+
+        private BigDecimal readDecimal() {
+            int scale = in.getInt();
+            byte[] unscaled = new byte[in.get()];
+            in.get(unscaled);
+            return new BigDecimal(new BigInteger(unscaled), scale);
+        }
+    }
+}
@@ -0,0 +1,60 @@
+/*
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ *   https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ */
+
+package no.rutebanken.anshar.routes.siri.processor.routedata;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+/**
+ * Source of a NeTEx-file with route data.
+ *
+ * Each source is parsed separately, and only when its content has changed - see
+ * {@link NetexUpdaterService#update(Path, java.util.List)}.
+ */
+public interface RouteDataSource {
+
+    /**
+     * @return Name of the source - must be unique, as the snapshot of the data from each source is kept by source name
+     */
+    String getName();
+
+    /**
+     * @return Local copy of the current content - unchanged content gives the same content hash
+     * @throws IOException if the content could not be read
+     */
+    Content fetch() throws IOException;
+
+    class Content {
+        private final Path file;
+        private final String contentHash;
+
+        public Content(Path file, String contentHash) {
+            this.file = file;
+            this.contentHash = contentHash;
+        }
+
+        public Path getFile() {
+            return file;
+        }
+
+        /**
+         * @return Hash of the content - as calculated by {@link RouteDataSnapshot#hash(String...)}
+         */
+        public String getContentHash() {
+            return contentHash;
+        }
+    }
+}
@@ -18,6 +18,18 @@ public class ServiceDate {
         this(departureTime.getYear(), departureTime.getMonthValue(), departureTime.getDayOfMonth());
     }
 
+    /**
+     * @return Days since 1970-01-01 - same as LocalDate.toEpochDay, without creating a LocalDate
+     */
+    public long toEpochDay() {
+        long y = month <= 2 ? year - 1 : year;
+        long era = Math.floorDiv(y, 400);
+        long yearOfEra = y - era * 400;
+        long dayOfYear = (153L * (month > 2 ? month - 3 : month + 9) + 2) / 5 + day - 1;
+        long dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+        return era * 146097 + dayOfEra - 719468;
+    }
+
     @Override
     public boolean equals(Object o) {
         if (this == o) return true;
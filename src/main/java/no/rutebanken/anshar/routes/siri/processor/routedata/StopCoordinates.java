@@ -0,0 +1,158 @@
+/*
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ *   https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ */
+
+package no.rutebanken.anshar.routes.siri.processor.routedata;
+
+import org.rutebanken.netex.model.LocationStructure;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/**
+ * Stop coordinates in primitive arrays, indexed by stop id.
+ *
+ * Distances between adjacent stops in all stop patterns are calculated when indexing, and kept in an open addressing
+ * table keyed by the pair of stop indices. Other distances are calculated on request. Lookups do not allocate.
+ */
+class StopCoordinates {
+
+    static final StopCoordinates EMPTY = new StopCoordinates(Map.of(), new double[0], new double[0], 0);
+
+    private static final long NO_KEY = -1;
+
+    private final Map<String, Integer> indexByStopId;
+    private final double[] latitudes;
+    private final double[] longitudes;
+
+    private final long[] pairKeys;
+    private final double[] pairDistances;
+    private int pairCount;
+
+    private StopCoordinates(Map<String, Integer> indexByStopId, double[] latitudes, double[] longitudes, int expectedPairs) {
+        this.indexByStopId = indexByStopId;
+        this.latitudes = latitudes;
+        this.longitudes = longitudes;
+
+        int capacity = Integer.highestOneBit(Math.max(1, expectedPairs * 2 - 1)) << 1;
+        this.pairKeys = new long[capacity];
+        this.pairDistances = new double[capacity];
+        Arrays.fill(pairKeys, NO_KEY);
+    }
+
+    static StopCoordinates of(Map<String, LocationStructure> locations, Collection<RouteData.JourneyStops> journeyStops) {
+        Map<String, Integer> indexByStopId = new HashMap<>(locations.size() * 4 / 3 + 1);
+        double[] latitudes = new double[locations.size()];
+        double[] longitudes = new double[locations.size()];
+        for (Map.Entry<String, LocationStructure> location : locations.entrySet()) {
+            LocationStructure coordinates = location.getValue();
+            if (coordinates != null && coordinates.getLatitude() != null && coordinates.getLongitude() != null) {
+                int index = indexByStopId.size();
+                indexByStopId.put(location.getKey(), index);
+                latitudes[index] = coordinates.getLatitude().doubleValue();
+                longitudes[index] = coordinates.getLongitude().doubleValue();
+            }
+        }
+
+        Map<RouteData.StopPattern, Boolean> patterns = new IdentityHashMap<>();
+        int adjacentStops = 0;
+        for (RouteData.JourneyStops stops : journeyStops) {
+            if (patterns.put(stops.pattern, Boolean.TRUE) == null) {
+                adjacentStops += Math.max(0, stops.pattern.stopIds.length - 1);
+            }
+        }
+
+        StopCoordinates stopCoordinates = new StopCoordinates(indexByStopId, latitudes, longitudes, adjacentStops);
+        for (RouteData.StopPattern pattern : patterns.keySet()) {
+            for (int i = 1; i < pattern.stopIds.length; i++) {
+                int from = stopCoordinates.indexOf(pattern.stopIds[i - 1]);
+                int to = stopCoordinates.indexOf(pattern.stopIds[i]);
+                if (from >= 0 && to >= 0 && from != to) {
+                    stopCoordinates.putPairDistance(from, to);
+                }
+            }
+        }
+        return stopCoordinates;
+    }
+
+    /**
+     * @return Index of the stop - -1 if the stop has no known coordinates
+     */
+    int indexOf(String stopId) {
+        Integer index = stopId != null ? indexByStopId.get(stopId) : null;
+        return index != null ? index : -1;
+    }
+
+    /**
+     * @return Distance in meters between the stops - NaN if any of the stops has no known coordinates
+     */
+    double getDistance(String fromStopId, String toStopId) {
+        int from = indexOf(fromStopId);
+        int to = indexOf(toStopId);
+        if (from < 0 || to < 0) {
+            return Double.NaN;
+        }
+        if (from == to) {
+            return 0;
+        }
+        int slot = findSlot(pairKey(from, to));
+        if (pairKeys[slot] != NO_KEY) {
+            return pairDistances[slot];
+        }
+        return calculateDistance(from, to);
+    }
+
+    int getPrecalculatedPairCount() {
+        return pairCount;
+    }
+
+    private void putPairDistance(int from, int to) {
+        long key = pairKey(from, to);
+        int slot = findSlot(key);
+        if (pairKeys[slot] == NO_KEY) {
+            pairKeys[slot] = key;
+            pairDistances[slot] = calculateDistance(from, to);
+            pairCount++;
+        }
+    }
+
+    private double calculateDistance(int from, int to) {
+        return GeodesicDistance.distance(latitudes[from], longitudes[from], latitudes[to], longitudes[to]);
+    }
+
+    /**
+     * Linear probing - the table is sized to at least twice the number of pairs, so a free slot is always found
+     */
+    private int findSlot(long key) {
+        int mask = pairKeys.length - 1;
+        int slot = mix(key) & mask;
+        while (pairKeys[slot] != NO_KEY && pairKeys[slot] != key) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    // Distance is symmetric - lowest index first
+    private static long pairKey(int from, int to) {
+        return from < to ? ((long) from << 32) | to : ((long) to << 32) | from;
+    }
+
+    private static int mix(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+}
@@ -1,57 +1,17 @@
 package no.rutebanken.anshar.routes.siri.processor.routedata;
 
-import com.google.common.cache.CacheBuilder;
-import com.google.common.cache.CacheLoader;
-import com.google.common.cache.LoadingCache;
-import org.apache.commons.lang3.tuple.Pair;
-import org.geotools.api.referencing.operation.TransformException;
-import org.geotools.geometry.jts.JTS;
-import org.geotools.referencing.crs.DefaultGeographicCRS;
-import org.locationtech.jts.geom.Coordinate;
 import org.rutebanken.netex.model.AllVehicleModesOfTransportEnumeration;
 import org.rutebanken.netex.model.LocationStructure;
 import uk.org.siri.siri21.VehicleModesEnumeration;
 
 import java.time.ZonedDateTime;
 import java.util.List;
-import java.util.concurrent.ExecutionException;
-import java.util.concurrent.TimeUnit;
 
 import static no.rutebanken.anshar.routes.siri.processor.routedata.NetexUpdaterService.locations;
 import static no.rutebanken.anshar.routes.siri.processor.routedata.NetexUpdaterService.modes;
 
 public class StopsUtil {
 
-    private static final LoadingCache<Pair<String, String>, Double> distanceCache = CacheBuilder.newBuilder()
-        .expireAfterWrite(120, TimeUnit.MINUTES)
-        .build(
-            new CacheLoader<Pair<String, String>, Double>() {
-                public Double load(Pair<String, String> fromAndTo) {
-
-                    double distance = -1;
-
-                    final LocationStructure from = locations.get(fromAndTo.getLeft());
-                    final LocationStructure to = locations.get(fromAndTo.getRight());
-
-                    if (from != null && to!= null) {
-                        Coordinate fromCoord = new Coordinate(from.getLongitude().doubleValue(), from.getLatitude().doubleValue());
-                        Coordinate toCoord = new Coordinate(to.getLongitude().doubleValue(), to.getLatitude().doubleValue());
-                        try {
-                            distance = JTS.orthodromicDistance(
-                                fromCoord,
-                                toCoord,
-                                DefaultGeographicCRS.WGS84);
-                        }
-                        catch (TransformException e) {
-                            //Ignore
-                        }
-                    }
-                    return distance;
-
-                }
-            })
-        ;
-
     public static boolean doesVehicleModeMatchStopMode(List<VehicleModesEnumeration> reportedModes, String stopRef) {
         final AllVehicleModesOfTransportEnumeration stopMode = modes.get(stopRef);
         if (stopMode != null && reportedModes != null && reportedModes.size() == 1) {
@@ -81,14 +41,27 @@ public class StopsUtil {
         return calculateSpeedKph(getDistance(fromRef, toRef), departureTime, arrivalTime);
     }
 
+    /**
+     * Distances between adjacent stops in NeTEx journey patterns are precalculated, others are calculated from
+     * indexed coordinates. Stops not indexed fall back to the current locations. No allocation.
+     *
+     * @return Distance in meters - -1 if any of the stops has no known location
+     */
     //public for testing-purposes
     public static double getDistance(String fromRef, String toRef) {
-        try {
-            return distanceCache.get(Pair.of(fromRef, toRef));
+        double distance = NetexUpdaterService.getDistance(fromRef, toRef);
+        if (!Double.isNaN(distance)) {
+            return distance;
         }
-        catch (ExecutionException e) {
-            return 0D;
+
+        final LocationStructure from = locations.get(fromRef);
+        final LocationStructure to = locations.get(toRef);
+        if (from != null && to != null && from.getLatitude() != null && from.getLongitude() != null &&
+                to.getLatitude() != null && to.getLongitude() != null) {
+            return GeodesicDistance.distance(from.getLatitude().doubleValue(), from.getLongitude().doubleValue(),
+                    to.getLatitude().doubleValue(), to.getLongitude().doubleValue());
         }
+        return -1;
     }
 
     public static int calculateSpeedKph(double distanceInMeters, ZonedDateTime departureTime, ZonedDateTime arrivalTime) {
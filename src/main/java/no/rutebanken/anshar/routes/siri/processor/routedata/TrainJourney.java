@@ -0,0 +1,105 @@
+/*
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ *   https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ */
+
+package no.rutebanken.anshar.routes.siri.processor.routedata;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * ServiceJourney with a train number - indexed by train number when route data is loaded.
+ *
+ * Operating and cancelled dates are checked without creating the list of service dates, and the stop fingerprint
+ * allows rejecting journeys with other stops without comparing stop by stop.
+ */
+public class TrainJourney {
+
+    private final String serviceJourneyId;
+    private final RouteData.JourneyStops stops;
+    private final RouteData.ServiceDates serviceDates;
+    private final RouteData.ServiceDates cancelledDates;
+    private final long stopFingerprint;
+
+    private volatile List<StopTime> stopTimes;
+
+    TrainJourney(String serviceJourneyId, RouteData.JourneyStops stops, RouteData.ServiceDates serviceDates,
+                 RouteData.ServiceDates cancelledDates, Map<String, String> parentStops) {
+        this.serviceJourneyId = serviceJourneyId;
+        this.stops = stops;
+        this.serviceDates = serviceDates;
+        this.cancelledDates = cancelledDates;
+        this.stopFingerprint = stops != null ? stopFingerprint(Arrays.asList(stops.pattern.stopIds), parentStops) : 0;
+    }
+
+    public String getServiceJourneyId() {
+        return serviceJourneyId;
+    }
+
+    public boolean operatesOn(ServiceDate serviceDate) {
+        return serviceDates != null && serviceDates.contains(serviceDate.toEpochDay());
+    }
+
+    /**
+     * @return true if a DatedServiceJourney cancels or replaces the journey on the date
+     */
+    public boolean isCancelled(ServiceDate serviceDate) {
+        return cancelledDates != null && cancelledDates.contains(serviceDate.toEpochDay());
+    }
+
+    /**
+     * @return StopTimes for the journey - created on first request, and shared by all callers
+     */
+    public List<StopTime> getStopTimes() {
+        List<StopTime> result = stopTimes;
+        if (result == null) {
+            result = stops != null ? Collections.unmodifiableList(stops.toStopTimes()) : List.of();
+            stopTimes = result;
+        }
+        return result;
+    }
+
+    public int getStopCount() {
+        return stops != null ? stops.pattern.stopIds.length : 0;
+    }
+
+    /**
+     * @see NetexUpdaterService#getStopFingerprint(List)
+     */
+    public long getStopFingerprint() {
+        return stopFingerprint;
+    }
+
+    /**
+     * Hash of the ordered stops, where quays are replaced by their parent stop place. Stops matched by
+     * {@link NetexUpdaterService#isStopIdOrParentMatch(String, String)} give the same fingerprint.
+     */
+    static long stopFingerprint(Iterable<String> stopIds, Map<String, String> parentStops) {
+        long fingerprint = 1;
+        for (String stopId : stopIds) {
+            fingerprint = 0x9E3779B97F4A7C15L * fingerprint + stopHash(stopId, parentStops);
+        }
+        return fingerprint;
+    }
+
+    private static int stopHash(String stopId, Map<String, String> parentStops) {
+        if (stopId == null) {
+            return 0;
+        }
+        String parent = parentStops.get(stopId);
+        return parent != null ? parent.hashCode() : stopId.hashCode();
+    }
+}
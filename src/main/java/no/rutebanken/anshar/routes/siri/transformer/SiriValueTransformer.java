@@ -19,10 +19,10 @@ import com.google.common.cache.CacheBuilder;
 import com.google.common.cache.CacheLoader;
 import com.google.common.cache.LoadingCache;
 import jakarta.xml.bind.JAXBException;
+import no.rutebanken.anshar.routes.dataformat.JaxbPool;
 import no.rutebanken.anshar.routes.siri.helpers.SiriObjectFactory;
 import no.rutebanken.anshar.routes.siri.processor.PostProcessor;
 import no.rutebanken.anshar.routes.siri.transformer.impl.OutboundIdAdapter;
-import org.entur.siri21.util.SiriXml;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import uk.org.siri.siri21.LineRef;
@@ -76,11 +76,11 @@ public class SiriValueTransformer {
      * @throws JAXBException
      */
     public static Siri parseXml(InputStream xml, List<ValueAdapter> adapters) throws JAXBException, XMLStreamException {
-        return transform(SiriXml.parseXml(xml), adapters);
+        return transform(parseXml(xml), adapters);
     }
 
     public static Siri parseXml(InputStream xml) throws JAXBException, XMLStreamException {
-        return SiriXml.parseXml(xml);
+        return JaxbPool.SIRI_21.unmarshal(xml, Siri.class);
     }
 
     public static Siri transform(Siri siri, List<ValueAdapter> adapters) {
@@ -15,15 +15,13 @@
 
 package no.rutebanken.anshar.routes.validation;
 
-import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.hazelcast.map.IMap;
 import com.hazelcast.replicatedmap.ReplicatedMap;
-import jakarta.xml.bind.JAXBContext;
 import jakarta.xml.bind.JAXBException;
-import jakarta.xml.bind.Unmarshaller;
 import jakarta.xml.bind.ValidationEvent;
 import no.rutebanken.anshar.config.AnsharConfiguration;
 import no.rutebanken.anshar.metrics.PrometheusMetricsService;
+import no.rutebanken.anshar.routes.dataformat.JaxbPool;
 import no.rutebanken.anshar.routes.siri.transformer.ApplicationContextHolder;
 import no.rutebanken.anshar.routes.validation.validators.CustomValidator;
 import no.rutebanken.anshar.routes.validation.validators.ProfileValidationEventOrList;
@@ -47,37 +45,32 @@ import org.w3c.dom.NodeList;
 import org.xml.sax.SAXException;
 import uk.org.siri.siri21.Siri;
 
-import javax.xml.XMLConstants;
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
 import javax.xml.parsers.DocumentBuilder;
 import javax.xml.parsers.DocumentBuilderFactory;
 import javax.xml.parsers.ParserConfigurationException;
 import javax.xml.stream.XMLInputFactory;
 import javax.xml.stream.XMLStreamException;
 import javax.xml.stream.XMLStreamReader;
-import javax.xml.validation.Schema;
-import javax.xml.validation.SchemaFactory;
 import javax.xml.xpath.XPath;
 import javax.xml.xpath.XPathConstants;
 import javax.xml.xpath.XPathExpressionException;
 import javax.xml.xpath.XPathFactory;
 import java.io.ByteArrayInputStream;
-import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.ObjectInputStream;
 import java.nio.charset.StandardCharsets;
-import java.nio.file.Files;
-import java.nio.file.StandardCopyOption;
 import java.util.ArrayList;
 import java.util.EnumMap;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.UUID;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.zip.GZIPInputStream;
 
@@ -92,8 +85,6 @@ public class SiriXmlValidator extends ApplicationContextHolder {
 
     private static final Logger logger = LoggerFactory.getLogger(SiriXmlValidator.class);
 
-    private static JAXBContext jaxbContext;
-    private static Schema schema;
     private static final XMLInputFactory xmlInputFactory = XMLInputFactory.newInstance();
     private static final DocumentBuilderFactory builderFactory = DocumentBuilderFactory.newInstance();
 
@@ -136,30 +127,28 @@ public class SiriXmlValidator extends ApplicationContextHolder {
 
     private final Map<SiriDataType, Set<CustomValidator>> validationRules = new EnumMap(SiriDataType.class);
 
-    private ExecutorService validationExecutorService;
+    private final Map<SiriDataType, StreamingRuleMatcher> ruleMatchers = new ConcurrentHashMap<>();
 
-    public  SiriXmlValidator() {
-        ThreadFactory factory = new ThreadFactoryBuilder()
-            .setNameFormat("validation")
-            .setDaemon(true)
-            .build();
+    private ValidationExecutor validationExecutor;
 
-        validationExecutorService = Executors.newCachedThreadPool(factory);
-    }
-
-    static {
-        if (jaxbContext == null) {
-            try {
-                jaxbContext = JAXBContext.newInstance(Siri.class);
+    private ValidationSampler validationSampler;
 
-                SchemaFactory sf = SchemaFactory.newInstance(XMLConstants.W3C_XML_SCHEMA_NS_URI);
-
-                schema = sf.newSchema(Siri.class.getClassLoader().getResource("siri-2.1/xsd/siri.xsd"));
+    @PostConstruct
+    private void initValidationExecutor() {
+        validationExecutor = new ValidationExecutor(
+            configuration.getValidationThreads(),
+            configuration.getValidationQueueSize()
+        );
+        validationSampler = new ValidationSampler(
+            configuration.getValidationSampleInterval(),
+            configuration.getValidationMaxPerMinute()
+        );
+        metricsService.registerValidationExecutor(validationExecutor);
+    }
 
-            } catch (JAXBException | SAXException e) {
-                logger.warn("Caught exception when initializing validator", e);
-            }
-        }
+    @PreDestroy
+    private void shutdownValidationExecutor() {
+        validationExecutor.shutdown();
     }
 
     private void populateValidationRules() {
@@ -182,63 +171,99 @@ public class SiriXmlValidator extends ApplicationContextHolder {
 
     public Siri parseXml(SubscriptionSetup subscriptionSetup, String xml)
         throws XMLStreamException {
-        ByteArrayInputStream stream = new ByteArrayInputStream(xml.getBytes());
-        return parseXml(subscriptionSetup, stream);
+        byte[] bytes = xml.getBytes(StandardCharsets.UTF_8);
+        if (shouldValidate(subscriptionSetup)) {
+            return parseAndValidate(subscriptionSetup, ValidationBuffer.wrap(bytes));
+        }
+        return parseWithoutValidation(new ByteArrayInputStream(bytes));
     }
 
     public Siri parseXml(SubscriptionSetup subscriptionSetup, InputStream xml)
         throws XMLStreamException {
+        if (shouldValidate(subscriptionSetup)) {
+            ValidationBuffer buffer;
+            try {
+                buffer = ValidationBuffer.read(xml,
+                    configuration.getMaxInMemoryValidationSizeMb() * 1024 * 1024,
+                    subscriptionSetup.getVendor()
+                );
+            } catch (IOException e) {
+                logger.warn("Caught exception when reading data to validate", e);
+                return null;
+            }
+            return parseAndValidate(subscriptionSetup, buffer);
+        }
+        return parseWithoutValidation(xml);
+    }
+
+    private Siri parseWithoutValidation(InputStream xml) throws XMLStreamException {
         try {
             long parseStart = System.currentTimeMillis();
 
-            Unmarshaller unmarshaller = jaxbContext.createUnmarshaller();
-
-            final SiriValidationEventHandler schemaValidationHandler = new SiriValidationEventHandler();
-
-            boolean validate = false;
-            if (configuration.isFullValidationEnabled() || 
-                                    subscriptionSetup.isValidation()) {
-                validate = true;
+            Siri siri = unmarshal(JaxbPool.SIRI_21, xml, null);
 
-                // Add schema to validate against
-                unmarshaller.setSchema(schema);
+            logger.info("Parsing XML took {} ms ", System.currentTimeMillis()-parseStart);
 
-                // Add event-handler to collect validation-issues
-                unmarshaller.setEventHandler(schemaValidationHandler);
-
-                // Write full stream-contents to disk for easier debugging
-                File targetFile = File.createTempFile(subscriptionSetup.getVendor() + "-", ".xml");
+            return siri;
+        } catch (XMLStreamException e) {
+            logger.warn("Caught exception when parsing", e);
+            throw e;
+        } catch (Exception e) {
+            logger.warn("Caught exception when parsing", e);
+        }
+        return null;
+    }
 
-                Files.copy(
-                        xml,
-                        targetFile.toPath(),
-                        StandardCopyOption.REPLACE_EXISTING
-                );
-                logger.info("Full contents written to {}", targetFile.getAbsolutePath());
+    /**
+     * Validation is performed when enabled, and the delivery is selected by the sampling-policy for the subscription
+     */
+    private boolean shouldValidate(SubscriptionSetup subscriptionSetup) {
+        if (!configuration.isFullValidationEnabled() && !subscriptionSetup.isValidation()) {
+            return false;
+        }
+        if (validationSampler.sample(subscriptionSetup)) {
+            return true;
+        }
+        metricsService.registerSkippedValidation(subscriptionSetup.getSubscriptionType(), subscriptionSetup.getSubscriptionId());
+        return false;
+    }
 
-                // Reset stream to continue processing pipeline
-                xml.reset();
-            }
+    /**
+     * Parses the buffered XML with schema-validation, and triggers async profile-validation of the same buffer.
+     * The buffer is closed when all validation is completed.
+     */
+    private Siri parseAndValidate(SubscriptionSetup subscriptionSetup, ValidationBuffer buffer)
+        throws XMLStreamException {
+        boolean closeBuffer = true;
+        try (InputStream xml = buffer.openStream()) {
+            long parseStart = System.currentTimeMillis();
 
-            XMLStreamReader reader = xmlInputFactory.createXMLStreamReader(xml);
+            final SiriValidationEventHandler schemaValidationHandler = new SiriValidationEventHandler();
 
-            Siri siri = unmarshaller.unmarshal(reader, Siri.class).getValue();
+            // Pooled unmarshallers have the schema attached - add event-handler to collect validation-issues
+            Siri siri = unmarshal(JaxbPool.SIRI_21_VALIDATING, xml, schemaValidationHandler);
 
             final String breadcrumbId = MDC.get("camel.breadcrumbId");
 
-            if (siri.getServiceDelivery() != null && validate) {
-                validationExecutorService.execute(() -> {
+            if (siri.getServiceDelivery() != null) {
+                validationExecutor.submit(subscriptionSetup.getSubscriptionId(), () -> {
                     MDC.put("subscriptionId", subscriptionSetup.getSubscriptionId());
                     MDC.put("camel.breadcrumbId", breadcrumbId);
-                    performProfileValidation(subscriptionSetup, xml, siri, schemaValidationHandler);
-                    MDC.remove("camel.breadcrumbId");
-                    MDC.remove("subscriptionId");
-                });
+                    try {
+                        performProfileValidation(subscriptionSetup, buffer, siri, schemaValidationHandler);
+                    } finally {
+                        buffer.close();
+                        MDC.remove("camel.breadcrumbId");
+                        MDC.remove("subscriptionId");
+                    }
+                }, buffer::close);
+                closeBuffer = false;
             }
 
             long parseDone = System.currentTimeMillis();
 
-            logger.info("Parsing and validating XML took {} ms ", parseDone-parseStart);
+            logger.info("Parsing and validating XML took {} ms, {} bytes, spilled to disk: {}",
+                parseDone-parseStart, buffer.size(), buffer.isSpilledToDisk());
 
             return siri;
         } catch (XMLStreamException e) {
@@ -246,10 +271,25 @@ public class SiriXmlValidator extends ApplicationContextHolder {
             throw e;
         } catch (Exception e) {
             logger.warn("Caught exception when parsing", e);
+        } finally {
+            if (closeBuffer) {
+                buffer.close();
+            }
         }
         return null;
     }
 
+    private Siri unmarshal(JaxbPool pool, InputStream xml, SiriValidationEventHandler eventHandler)
+        throws JAXBException, XMLStreamException {
+        XMLStreamReader reader = xmlInputFactory.createXMLStreamReader(xml);
+        return pool.withUnmarshaller(unmarshaller -> {
+            if (eventHandler != null) {
+                unmarshaller.setEventHandler(eventHandler);
+            }
+            return unmarshaller.unmarshal(reader, Siri.class).getValue();
+        });
+    }
+
     private void addValidationMetrics(SubscriptionSetup subscriptionSetup,
         SiriValidationEventHandler schemaHandler,
         SiriValidationEventHandler profileHandler
@@ -281,7 +321,7 @@ public class SiriXmlValidator extends ApplicationContextHolder {
 
     private static AtomicInteger concurrentValidationThreads = new AtomicInteger();
     private boolean performProfileValidation(
-        SubscriptionSetup subscriptionSetup, InputStream xml, Siri siri, SiriValidationEventHandler schemaValidationResults
+        SubscriptionSetup subscriptionSetup, ValidationBuffer xml, Siri siri, SiriValidationEventHandler schemaValidationResults
     ) {
         concurrentValidationThreads.incrementAndGet();
         long validationStart = System.currentTimeMillis();
@@ -296,20 +336,18 @@ public class SiriXmlValidator extends ApplicationContextHolder {
                 return false;
             }
 
-            /*
-             * Re-marshalling SIRI-data for filtering-purposes
-             */
-            xml.reset();
-
-            String originalXml = new String(xml.readAllBytes());
-
             SiriValidationEventHandler profileValidationResults = new SiriValidationEventHandler();
 
-            validateAttributes(originalXml, type, siri, profileValidationResults);
+            validateAttributes(xml, type, siri, profileValidationResults);
 
             if (subscriptionSetup.isValidation()) {
                 final long t1 = System.currentTimeMillis();
 
+                /*
+                 * Original SIRI-data is only needed as String for filtering-purposes and the report
+                 */
+                String originalXml = xml.asString();
+
                 if (hasValidationFilter(subscriptionSetup) &&
                     !originalXml.contains(subscriptionSetup.getValidationFilter())) {
                     logger.info("Incoming XML does not contain \"{}\", skip validation-report for this request.",
@@ -354,66 +392,93 @@ public class SiriXmlValidator extends ApplicationContextHolder {
     }
 
     private void validateAttributes(
-        String siriXml, SiriDataType type, Siri siri, SiriValidationEventHandler handler
-    ) throws XPathExpressionException, ParserConfigurationException, IOException, SAXException {
+        ValidationBuffer siriXml, SiriDataType type, Siri siri, SiriValidationEventHandler handler
+    ) throws XPathExpressionException, ParserConfigurationException, IOException, SAXException, XMLStreamException {
         if (validationRules.isEmpty()) {
             populateValidationRules();
         }
-        XPathFactory xpathFactory = XPathFactory.newInstance();
-        XPath xpath = xpathFactory.newXPath();
-        DocumentBuilder builder = builderFactory.newDocumentBuilder();
-
-        InputStream stream = new ByteArrayInputStream(siriXml.getBytes(StandardCharsets.UTF_8));
+        final Set<CustomValidator> rules = validationRules.getOrDefault(type, Set.of());
+        final StreamingRuleMatcher matcher = ruleMatchers.computeIfAbsent(type, t -> createRuleMatcher(rules));
+
+        /*
+         * Events are collected per rule, and reported in the same order as when each rule was evaluated separately
+         */
+        Map<CustomValidator, List<ValidationEvent>> ruleEvents = new HashMap<>();
+        Map<CustomValidator, Long> ruleTime = new HashMap<>();
+        AtomicInteger ruleCounter = new AtomicInteger();
+
+        try (InputStream stream = siriXml.openStream()) {
+            matcher.match(stream, (rule, node) -> {
+                ruleCounter.incrementAndGet();
+                long t1 = System.nanoTime();
+                addEvents(ruleEvents.computeIfAbsent(rule, r -> new ArrayList<>()), rule.isValid(node));
+                ruleTime.merge(rule, System.nanoTime() - t1, Long::sum);
+            });
+        }
 
-        Document xmlDocument = builder.parse(stream);
+        Document xmlDocument = null;
+        XPath xpath = null;
 
         int errorCounter = 0;
-        int ruleCounter = 0;
-        for (CustomValidator rule : validationRules.get(type)) {
+        for (CustomValidator rule : rules) {
+            List<ValidationEvent> events = ruleEvents.computeIfAbsent(rule, r -> new ArrayList<>());
             if (rule instanceof SiriObjectValidator) {
-                ValidationEvent event = ((SiriObjectValidator)rule).isValid(siri);
-                ruleCounter++;
-                if (event != null) {
-                    if (event instanceof ProfileValidationEventOrList) {
-                        for (ValidationEvent validationEvent : ((ProfileValidationEventOrList) event).getEvents()) {
-                            handler.handleCategorizedEvent(rule.getCategoryName(), validationEvent);
-                            errorCounter++;
-                        }
-                    } else {
-                        handler.handleCategorizedEvent(rule.getCategoryName(), event);
-                        errorCounter++;
+                ruleCounter.incrementAndGet();
+                long t1 = System.nanoTime();
+                addEvents(events, ((SiriObjectValidator)rule).isValid(siri));
+                ruleTime.merge(rule, System.nanoTime() - t1, Long::sum);
+            } else if (!matcher.isCompiled(rule)) {
+                // Fallback for xpaths that cannot be matched while streaming - requires the complete DOM
+                if (xmlDocument == null) {
+                    xpath = XPathFactory.newInstance().newXPath();
+                    DocumentBuilder builder = builderFactory.newDocumentBuilder();
+                    try (InputStream stream = siriXml.openStream()) {
+                        xmlDocument = builder.parse(stream);
                     }
                 }
-            } else {
                 NodeList nodes = (NodeList) xpath.evaluate(rule.getXpath(),
                     xmlDocument,
                     XPathConstants.NODESET
                 );
+                long t1 = System.nanoTime();
                 for (int i = 0; i < nodes.getLength(); i++) {
-                    ValidationEvent event = rule.isValid(nodes.item(i));
-                    ruleCounter++;
-                    if (event != null) {
-                        if (event instanceof ProfileValidationEventOrList) {
-                            for (ValidationEvent validationEvent : ((ProfileValidationEventOrList) event)
-                                .getEvents()) {
-                                handler.handleCategorizedEvent(rule.getCategoryName(),
-                                    validationEvent
-                                );
-                                errorCounter++;
-                            }
-                        }
-                        else {
-                            handler.handleCategorizedEvent(rule.getCategoryName(), event);
-                            errorCounter++;
-                        }
-                    }
+                    ruleCounter.incrementAndGet();
+                    addEvents(events, rule.isValid(nodes.item(i)));
                 }
+                ruleTime.merge(rule, System.nanoTime() - t1, Long::sum);
+            }
+            for (ValidationEvent event : events) {
+                handler.handleCategorizedEvent(rule.getCategoryName(), event);
+                errorCounter++;
+            }
+            if (ruleTime.containsKey(rule)) {
+                metricsService.registerValidationRuleTime(type, rule.getCategoryName(), ruleTime.get(rule));
             }
         }
-        logger.info("Found {} custom rule violations in SIRI XML, validated {} objects", errorCounter, ruleCounter);
+        logger.info("Found {} custom rule violations in SIRI XML, validated {} objects", errorCounter, ruleCounter.get());
+    }
+
+    private static StreamingRuleMatcher createRuleMatcher(Set<CustomValidator> rules) {
+        List<CustomValidator> xpathRules = new ArrayList<>();
+        for (CustomValidator rule : rules) {
+            if (!(rule instanceof SiriObjectValidator)) {
+                xpathRules.add(rule);
+            }
+        }
+        return new StreamingRuleMatcher(xpathRules);
+    }
+
+    private static void addEvents(List<ValidationEvent> events, ValidationEvent event) {
+        if (event instanceof ProfileValidationEventOrList) {
+            events.addAll(((ProfileValidationEventOrList) event).getEvents());
+        } else if (event != null) {
+            events.add(event);
+        }
     }
 
     public void clearValidationResults(String subscriptionId) {
+        validationSampler.reset(subscriptionId);
+
         List<String> validationRefs = validationResultRefs.get(subscriptionId);
 
         if (validationRefs != null) {
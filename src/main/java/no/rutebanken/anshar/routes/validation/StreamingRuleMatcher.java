@@ -0,0 +1,340 @@
+/*
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ *   https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ */
+
+package no.rutebanken.anshar.routes.validation;
+
+import no.rutebanken.anshar.routes.validation.validators.CustomValidator;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+/**
+ * Matches the xpaths of a set of validation rules in a single streaming pass over the XML.
+ *
+ * All simple, absolute location paths (e.g. "Siri/ServiceDelivery/VehicleMonitoringDelivery/VehicleActivity")
+ * are compiled into one tree of element-names that is walked while reading the XML with StAX. Only the subtrees
+ * that are actually validated are built as DOM-nodes, and each fragment is released when its rules have been
+ * evaluated - the complete document is never kept in memory.
+ *
+ * A fragment-root nested within another fragment is built as a fragment of its own when it needs more levels than
+ * the enclosing fragment - e.g. every VehicleActivity within a ServiceDelivery that is only inspected two levels
+ * down. The enclosing fragment then only gets a copy of the levels it inspects when the nested fragment is complete.
+ *
+ * Elements are matched on local name, regardless of namespace-prefix - same as the previous XPath-evaluation
+ * against a non-namespace-aware DOM. Fragments are built the same way, so validators see identical node-names and
+ * attributes.
+ *
+ * Xpaths that are not simple location paths (predicates, axes, functions etc.) are not compiled - see
+ * {@link #isCompiled(CustomValidator)} - and must be evaluated by the caller.
+ */
+public class StreamingRuleMatcher {
+
+    private static final Pattern SIMPLE_PATH = Pattern.compile("[A-Za-z_][\\w.\\-]*(/[A-Za-z_][\\w.\\-]*)*");
+
+    private static final XMLInputFactory xmlInputFactory = XMLInputFactory.newInstance();
+    private static final DocumentBuilderFactory builderFactory = DocumentBuilderFactory.newInstance();
+
+    static {
+        xmlInputFactory.setProperty(XMLInputFactory.IS_COALESCING, true);
+        xmlInputFactory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+    }
+
+    @FunctionalInterface
+    public interface MatchCallback {
+        void matched(CustomValidator rule, Node node);
+    }
+
+    /**
+     * State in the compiled path-tree - one per distinct path-prefix
+     */
+    private static class PathState {
+        private final Map<String, PathState> children = new HashMap<>();
+
+        /** Rules that validate the element itself */
+        private final List<CustomValidator> elementRules = new ArrayList<>();
+
+        /** Rules that validate a child of the element, with the element as parent-context */
+        private final Map<String, List<CustomValidator>> childRules = new HashMap<>();
+
+        /** Number of levels below the element that must be built - 0 when the element is not validated */
+        private int depth;
+
+        private boolean isFragmentRoot() {
+            return !elementRules.isEmpty() || !childRules.isEmpty();
+        }
+    }
+
+    /**
+     * Open element while streaming
+     */
+    private static class Frame {
+        private final Frame parent;
+        private final PathState state;
+        private final Element element;
+        private final int depth;
+
+        /** Matches within this fragment - only set for the root-element of a fragment */
+        private final List<Match> matches;
+
+        /** Copy of this fragment within the enclosing fragment - only set for a nested fragment-root */
+        private Element enclosingElement;
+
+        /** Number of levels below the copy that must be built */
+        private int enclosingDepth;
+
+        private Frame(Frame parent, PathState state, Element element, int depth, List<Match> matches) {
+            this.parent = parent;
+            this.state = state;
+            this.element = element;
+            this.depth = depth;
+            this.matches = matches;
+        }
+    }
+
+    private static class Match {
+        private final PathState state;
+        private final Element element;
+
+        private Match(PathState state, Element element) {
+            this.state = state;
+            this.element = element;
+        }
+    }
+
+    private final PathState root = new PathState();
+    private final Set<CustomValidator> compiledRules = new LinkedHashSet<>();
+
+    public StreamingRuleMatcher(Collection<? extends CustomValidator> rules) {
+        for (CustomValidator rule : rules) {
+            String xpath = rule.getXpath();
+            if (xpath == null || !SIMPLE_PATH.matcher(xpath).matches()) {
+                continue;
+            }
+            String[] steps = xpath.split("/");
+            int depth = rule.getInspectedDepth() < 0 ? Integer.MAX_VALUE : rule.getInspectedDepth();
+
+            PathState state;
+            if (rule.requiresParentContext() && steps.length > 1) {
+                // Parent is built as well to make siblings available
+                state = resolve(steps, steps.length - 1);
+                state.childRules.computeIfAbsent(steps[steps.length - 1], s -> new ArrayList<>()).add(rule);
+                depth = depth == Integer.MAX_VALUE ? depth : depth + 1;
+            } else {
+                state = resolve(steps, steps.length);
+                state.elementRules.add(rule);
+            }
+            state.depth = Math.max(state.depth, depth);
+            compiledRules.add(rule);
+        }
+    }
+
+    private PathState resolve(String[] steps, int length) {
+        PathState state = root;
+        for (int i = 0; i < length; i++) {
+            state = state.children.computeIfAbsent(steps[i], s -> new PathState());
+        }
+        return state;
+    }
+
+    /**
+     * @return true if the xpath of the rule is evaluated by this matcher
+     */
+    public boolean isCompiled(CustomValidator rule) {
+        return compiledRules.contains(rule);
+    }
+
+    /**
+     * Streams through the XML, and calls back once for every node that matches a compiled rule.
+     *
+     * For each rule, matches are reported in document order. Callbacks for a fragment are made when the
+     * fragment has been read completely.
+     */
+    public void match(InputStream xml, MatchCallback callback) throws XMLStreamException {
+        if (compiledRules.isEmpty()) {
+            return;
+        }
+
+        Document document = newDocument();
+        Frame current = null;
+
+        XMLStreamReader reader = xmlInputFactory.createXMLStreamReader(xml);
+        try {
+            while (reader.hasNext()) {
+                switch (reader.next()) {
+                    case XMLStreamConstants.START_ELEMENT:
+                        current = startElement(document, reader, current);
+                        break;
+
+                    case XMLStreamConstants.END_ELEMENT:
+                        if (current.matches != null) {
+                            for (Match match : current.matches) {
+                                notify(match.state, match.element, callback);
+                            }
+                        }
+                        if (current.enclosingElement != null) {
+                            copyChildren(current.element, current.enclosingElement, current.enclosingDepth);
+                        }
+                        current = current.parent;
+                        break;
+
+                    case XMLStreamConstants.CHARACTERS:
+                    case XMLStreamConstants.CDATA:
+                    case XMLStreamConstants.SPACE:
+                        if (current != null && current.element != null) {
+                            current.element.appendChild(document.createTextNode(reader.getText()));
+                        }
+                        break;
+
+                    case XMLStreamConstants.COMMENT:
+                        if (current != null && current.element != null) {
+                            current.element.appendChild(document.createComment(reader.getText()));
+                        }
+                        break;
+
+                    default:
+                        break;
+                }
+            }
+        } finally {
+            reader.close();
+        }
+    }
+
+    private Frame startElement(Document document, XMLStreamReader reader, Frame parent) {
+        PathState parentState = parent == null ? root : parent.state;
+        PathState state = parentState != null ? parentState.children.get(reader.getLocalName()) : null;
+
+        Element element = null;
+        int depth = 0;
+
+        if (parent != null && parent.element != null && parent.depth > 0) {
+            // Within an already built fragment
+            element = createElement(document, reader);
+            parent.element.appendChild(element);
+            depth = parent.depth == Integer.MAX_VALUE ? parent.depth : parent.depth - 1;
+        }
+
+        if (state == null || !state.isFragmentRoot()) {
+            return new Frame(parent, state, element, depth, null);
+        }
+
+        if (element != null && depth >= state.depth) {
+            // Enclosing fragment already builds all levels that are needed
+            fragmentRoot(parent).matches.add(new Match(state, element));
+            return new Frame(parent, state, element, depth, null);
+        }
+
+        Frame frame = new Frame(parent, state, createElement(document, reader), state.depth, new ArrayList<>());
+        frame.matches.add(new Match(state, frame.element));
+        if (element != null) {
+            // Enclosing fragment gets its levels copied when this fragment is complete
+            frame.enclosingElement = element;
+            frame.enclosingDepth = depth;
+        }
+        return frame;
+    }
+
+    /**
+     * Copies the children of source to target - limited to the given number of element-levels below target
+     */
+    private static void copyChildren(Element source, Element target, int depth) {
+        for (Node child = source.getFirstChild(); child != null; child = child.getNextSibling()) {
+            if (child.getNodeType() != Node.ELEMENT_NODE) {
+                target.appendChild(child.cloneNode(false));
+            } else if (depth > 0) {
+                Element copy = (Element) child.cloneNode(false);
+                target.appendChild(copy);
+                copyChildren((Element) child, copy, depth == Integer.MAX_VALUE ? depth : depth - 1);
+            }
+        }
+    }
+
+    private static Frame fragmentRoot(Frame frame) {
+        while (frame.matches == null) {
+            frame = frame.parent;
+        }
+        return frame;
+    }
+
+    private static void notify(PathState state, Element element, MatchCallback callback) {
+        for (CustomValidator rule : state.elementRules) {
+            callback.matched(rule, element);
+        }
+        if (!state.childRules.isEmpty()) {
+            for (Node child = element.getFirstChild(); child != null; child = child.getNextSibling()) {
+                if (child.getNodeType() == Node.ELEMENT_NODE) {
+                    List<CustomValidator> rules = state.childRules.get(localName(child.getNodeName()));
+                    if (rules != null) {
+                        for (CustomValidator rule : rules) {
+                            callback.matched(rule, child);
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    private static Element createElement(Document document, XMLStreamReader reader) {
+        Element element = document.createElement(qualifiedName(reader.getPrefix(), reader.getLocalName()));
+        for (int i = 0; i < reader.getNamespaceCount(); i++) {
+            String prefix = reader.getNamespacePrefix(i);
+            String uri = reader.getNamespaceURI(i);
+            element.setAttribute(prefix == null || prefix.isEmpty() ? "xmlns" : "xmlns:" + prefix, uri == null ? "" : uri);
+        }
+        for (int i = 0; i < reader.getAttributeCount(); i++) {
+            element.setAttribute(
+                qualifiedName(reader.getAttributePrefix(i), reader.getAttributeLocalName(i)),
+                reader.getAttributeValue(i)
+            );
+        }
+        return element;
+    }
+
+    private static String qualifiedName(String prefix, String localName) {
+        if (prefix == null || prefix.isEmpty()) {
+            return localName;
+        }
+        return prefix + ":" + localName;
+    }
+
+    private static String localName(String nodeName) {
+        int index = nodeName.indexOf(':');
+        return index < 0 ? nodeName : nodeName.substring(index + 1);
+    }
+
+    private static Document newDocument() {
+        try {
+            return builderFactory.newDocumentBuilder().newDocument();
+        } catch (ParserConfigurationException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,161 @@
+/*
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ *   https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ */
+
+package no.rutebanken.anshar.routes.validation;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+/**
+ * Holds the complete contents of an incoming message that is to be validated, so that schema- and profile-validation
+ * can read the same bytes without re-reading the original stream.
+ *
+ * Contents are kept in memory up to a configured size, larger messages are spilled to a temporary file.
+ * The temporary file is deleted when the buffer is closed.
+ */
+public class ValidationBuffer implements Closeable {
+
+    private static final Logger logger = LoggerFactory.getLogger(ValidationBuffer.class);
+
+    private static final int INITIAL_BUFFER_SIZE = 8192;
+
+    private byte[] bytes;
+    private final int length;
+    private final File file;
+    private final long size;
+    private volatile boolean closed;
+
+    private ValidationBuffer(byte[] bytes, int length) {
+        this.bytes = bytes;
+        this.length = length;
+        this.file = null;
+        this.size = length;
+    }
+
+    private ValidationBuffer(File file, long size) {
+        this.file = file;
+        this.length = 0;
+        this.size = size;
+    }
+
+    /**
+     * Wraps bytes that are already in memory - no copy is made.
+     */
+    public static ValidationBuffer wrap(byte[] bytes) {
+        return new ValidationBuffer(bytes, bytes.length);
+    }
+
+    /**
+     * Reads the full stream. Contents are kept in memory up to maxInMemorySize bytes, and written to a temporary
+     * file when exceeded.
+     */
+    public static ValidationBuffer read(InputStream in, int maxInMemorySize, String tempFilePrefix) throws IOException {
+        maxInMemorySize = Math.max(0, maxInMemorySize);
+
+        byte[] buffer = new byte[Math.min(INITIAL_BUFFER_SIZE, maxInMemorySize)];
+        int count = 0;
+        while (true) {
+            if (count == buffer.length) {
+                if (buffer.length >= maxInMemorySize) {
+                    int next = in.read();
+                    if (next < 0) {
+                        break;
+                    }
+                    return spillToFile(buffer, count, next, in, tempFilePrefix);
+                }
+                buffer = Arrays.copyOf(buffer, (int) Math.min(buffer.length * 2L, maxInMemorySize));
+            }
+            int read = in.read(buffer, count, buffer.length - count);
+            if (read < 0) {
+                break;
+            }
+            count += read;
+        }
+        return new ValidationBuffer(buffer, count);
+    }
+
+    private static ValidationBuffer spillToFile(byte[] buffer, int count, int nextByte, InputStream in, String tempFilePrefix) throws IOException {
+        File targetFile = File.createTempFile(tempFilePrefix + "-", ".xml");
+        try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(targetFile.toPath()))) {
+            out.write(buffer, 0, count);
+            out.write(nextByte);
+            long size = count + 1 + in.transferTo(out);
+
+            logger.info("Validated contents exceeds in-memory limit, {} bytes written to {}", size, targetFile.getAbsolutePath());
+            return new ValidationBuffer(targetFile, size);
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(targetFile.toPath());
+            throw e;
+        }
+    }
+
+    /**
+     * @return a new, independent stream of the buffered contents
+     */
+    public InputStream openStream() throws IOException {
+        if (closed) {
+            throw new IllegalStateException("Buffer has been closed");
+        }
+        if (file != null) {
+            return new BufferedInputStream(Files.newInputStream(file.toPath()));
+        }
+        return new ByteArrayInputStream(bytes, 0, length);
+    }
+
+    public String asString() throws IOException {
+        if (file == null && !closed) {
+            return new String(bytes, 0, length, StandardCharsets.UTF_8);
+        }
+        try (InputStream in = openStream()) {
+            return new String(in.readAllBytes(), StandardCharsets.UTF_8);
+        }
+    }
+
+    public long size() {
+        return size;
+    }
+
+    public boolean isSpilledToDisk() {
+        return file != null;
+    }
+
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        bytes = null;
+        if (file != null) {
+            try {
+                Files.deleteIfExists(file.toPath());
+            } catch (IOException e) {
+                logger.warn("Unable to delete temporary file {}", file.getAbsolutePath(), e);
+            }
+        }
+    }
+}
@@ -0,0 +1,128 @@
+/*
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ *   https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ */
+
+package no.rutebanken.anshar.routes.validation;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Executes asynchronous validation with a fixed number of worker-threads and a bounded queue.
+ *
+ * When the queue is full, the oldest queued validation is dropped in favour of the newest - validation should never
+ * build an unlimited backlog, or compete with processing of incoming data.
+ */
+public class ValidationExecutor {
+
+    private static final Logger logger = LoggerFactory.getLogger(ValidationExecutor.class);
+
+    private final ThreadPoolExecutor executor;
+
+    private final AtomicLong submitted = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+
+    public ValidationExecutor(int threads, int queueSize) {
+        ThreadFactory factory = new ThreadFactoryBuilder()
+            .setNameFormat("validation-%d")
+            .setDaemon(true)
+            .build();
+
+        executor = new ThreadPoolExecutor(threads, threads,
+            0L, TimeUnit.MILLISECONDS,
+            new ArrayBlockingQueue<>(Math.max(1, queueSize)),
+            factory,
+            (task, e) -> dropOldest(task)
+        );
+        executor.prestartAllCoreThreads();
+    }
+
+    /**
+     * Queues validation-task for execution
+     *
+     * @param subscriptionId Subscription the validated data belongs to
+     * @param task Validation to perform
+     * @param onDrop Cleanup to perform if the task is dropped before it is executed
+     */
+    public void submit(String subscriptionId, Runnable task, Runnable onDrop) {
+        submitted.incrementAndGet();
+        executor.execute(new ValidationTask(subscriptionId, task, onDrop));
+    }
+
+    private void dropOldest(Runnable rejected) {
+        if (!executor.isShutdown()) {
+            Runnable oldest = executor.getQueue().poll();
+            if (oldest != null) {
+                drop(oldest);
+            }
+            if (executor.getQueue().offer(rejected)) {
+                return;
+            }
+        }
+        drop(rejected);
+    }
+
+    private void drop(Runnable runnable) {
+        dropped.incrementAndGet();
+        if (runnable instanceof ValidationTask) {
+            ValidationTask task = (ValidationTask) runnable;
+            logger.warn("Validation queue is full, dropping validation for subscription {}", task.subscriptionId);
+            task.onDrop.run();
+        }
+    }
+
+    public int getQueueSize() {
+        return executor.getQueue().size();
+    }
+
+    public int getActiveCount() {
+        return executor.getActiveCount();
+    }
+
+    public long getSubmittedCount() {
+        return submitted.get();
+    }
+
+    public long getDroppedCount() {
+        return dropped.get();
+    }
+
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    private static class ValidationTask implements Runnable {
+        private final String subscriptionId;
+        private final Runnable task;
+        private final Runnable onDrop;
+
+        private ValidationTask(String subscriptionId, Runnable task, Runnable onDrop) {
+            this.subscriptionId = subscriptionId;
+            this.task = task;
+            this.onDrop = onDrop;
+        }
+
+        @Override
+        public void run() {
+            task.run();
+        }
+    }
+}
@@ -0,0 +1,94 @@
+/*
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ *   https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ */
+
+package no.rutebanken.anshar.routes.validation;
+
+import no.rutebanken.anshar.subscription.SubscriptionSetup;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Decides which deliveries are validated for each subscription.
+ *
+ * Two policies are supported, and both must allow a delivery for it to be validated:
+ *  - interval: only every Nth delivery is validated
+ *  - max per minute: at most N deliveries are validated per minute
+ *
+ * Policies are configured per subscription, with global defaults for subscriptions that have none.
+ */
+public class ValidationSampler {
+
+    private static final long WINDOW_MILLIS = 60_000;
+
+    private final int defaultInterval;
+    private final int defaultMaxPerMinute;
+
+    private final Map<String, SampleState> states = new ConcurrentHashMap<>();
+
+    /**
+     * @param defaultInterval Validate every Nth delivery - 1 or less to validate all
+     * @param defaultMaxPerMinute Max validated deliveries per minute - 0 or less for no limit
+     */
+    public ValidationSampler(int defaultInterval, int defaultMaxPerMinute) {
+        this.defaultInterval = defaultInterval;
+        this.defaultMaxPerMinute = defaultMaxPerMinute;
+    }
+
+    public boolean sample(SubscriptionSetup subscriptionSetup) {
+        int interval = subscriptionSetup.getValidationSampleInterval() > 0 ?
+            subscriptionSetup.getValidationSampleInterval() : defaultInterval;
+
+        int maxPerMinute = subscriptionSetup.getValidationMaxPerMinute() > 0 ?
+            subscriptionSetup.getValidationMaxPerMinute() : defaultMaxPerMinute;
+
+        return sample(subscriptionSetup.getSubscriptionId(), interval, maxPerMinute, System.currentTimeMillis());
+    }
+
+    boolean sample(String subscriptionId, int interval, int maxPerMinute, long now) {
+        if (interval <= 1 && maxPerMinute <= 0) {
+            return true;
+        }
+        return states.computeIfAbsent(subscriptionId, id -> new SampleState())
+            .sample(interval, maxPerMinute, now);
+    }
+
+    public void reset(String subscriptionId) {
+        states.remove(subscriptionId);
+    }
+
+    private static class SampleState {
+        private long deliveryCounter;
+        private long windowStart;
+        private int windowCounter;
+
+        private synchronized boolean sample(int interval, int maxPerMinute, long now) {
+            if (interval > 1 && deliveryCounter++ % interval != 0) {
+                return false;
+            }
+            if (maxPerMinute > 0) {
+                if (now - windowStart >= WINDOW_MILLIS) {
+                    windowStart = now;
+                    windowCounter = 0;
+                }
+                if (windowCounter >= maxPerMinute) {
+                    return false;
+                }
+                windowCounter++;
+            }
+            return true;
+        }
+    }
+}
@@ -62,6 +62,24 @@ public abstract class CustomValidator {
     public abstract String getXpath();
     public abstract ValidationEvent isValid(Node node);
 
+    /**
+     * Whether the validated node is inspected together with its siblings. When true, the parent of the node is
+     * included when the node is extracted from the XML.
+     * @return
+     */
+    public boolean requiresParentContext() {
+        return false;
+    }
+
+    /**
+     * Number of levels below the validated node that is inspected, -1 for the complete subtree.
+     * Used to limit the part of the XML that is extracted for validation.
+     * @return
+     */
+    public int getInspectedDepth() {
+        return -1;
+    }
+
     /**
      * General, default categoryname if implementing class does not override method
      * @return
@@ -51,4 +51,12 @@ public abstract class ServiceDeliveryInvalidFieldsValidator extends CustomValida
     public String getXpath() {
         return path;
     }
+
+    /**
+     * Only the existence of the delivery-elements is verified
+     */
+    @Override
+    public int getInspectedDepth() {
+        return 2;
+    }
 }
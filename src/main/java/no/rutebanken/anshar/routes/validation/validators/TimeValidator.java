@@ -24,6 +24,11 @@ public abstract class TimeValidator extends CustomValidator {
 
     protected enum Mode {BEFORE, AFTER}
 
+    @Override
+    public boolean requiresParentContext() {
+        return true;
+    }
+
     /**
      * Checks validity of field named @fieldName from @node
      *
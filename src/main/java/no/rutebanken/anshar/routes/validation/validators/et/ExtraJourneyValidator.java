@@ -69,6 +69,11 @@ public class ExtraJourneyValidator extends CustomValidator {
         return path;
     }
 
+    @Override
+    public boolean requiresParentContext() {
+        return true;
+    }
+
     @Override
     public ValidationEvent isValid(Node node) {
         String isExtraJourney = getNodeValue(node);
@@ -51,6 +51,11 @@ public class ValidityPeriodValidator extends CustomValidator {
         return path;
     }
 
+    @Override
+    public boolean requiresParentContext() {
+        return true;
+    }
+
     @Override
     public ValidationEvent isValid(Node node) {
 
@@ -79,6 +79,8 @@ public class SubscriptionSetup implements Serializable {
 
     private DataNotReceivedAction dataNotReceivedAction;
     private String validationFilter;
+    private int validationSampleInterval;
+    private int validationMaxPerMinute;
 
     private boolean forwardPositionData;
 
@@ -285,6 +287,8 @@ public class SubscriptionSetup implements Serializable {
         obj.put("inboundUrl", buildUrl(true));
         obj.put("validation", isValidation());
         obj.put("validationFilter", getValidationFilter());
+        obj.put("validationSampleInterval", getValidationSampleInterval());
+        obj.put("validationMaxPerMinute", getValidationMaxPerMinute());
         obj.put("contentType", getContentType());
         obj.put("restartTime", getRestartTime());
         obj.put("forwardPositionData", forwardPositionData());
@@ -427,6 +431,28 @@ public class SubscriptionSetup implements Serializable {
         return validationFilter;
     }
 
+    /**
+     * @return Validate every Nth delivery - 0 to use global default
+     */
+    public int getValidationSampleInterval() {
+        return validationSampleInterval;
+    }
+
+    public void setValidationSampleInterval(int validationSampleInterval) {
+        this.validationSampleInterval = validationSampleInterval;
+    }
+
+    /**
+     * @return Max number of validated deliveries per minute - 0 to use global default
+     */
+    public int getValidationMaxPerMinute() {
+        return validationMaxPerMinute;
+    }
+
+    public void setValidationMaxPerMinute(int validationMaxPerMinute) {
+        this.validationMaxPerMinute = validationMaxPerMinute;
+    }
+
     public boolean enrichSiriData() {
         return enrichSiriData;
     }
@@ -461,7 +487,7 @@ public class SubscriptionSetup implements Serializable {
 
     public enum ServiceType {SOAP, REST}
 
-    public enum SubscriptionMode {SUBSCRIBE, REQUEST_RESPONSE, POLLING_FETCHED_DELIVERY, FETCHED_DELIVERY, LITE, WEBSOCKET, BIG_DATA_EXPORT, VM_POSITION_FORWARDING, AVRO_PUBSUB, KAFKA_PUBSUB}
+    public enum SubscriptionMode {SUBSCRIBE, REQUEST_RESPONSE, POLLING_FETCHED_DELIVERY, FETCHED_DELIVERY, LITE, WEBSOCKET, BIG_DATA_EXPORT, VM_POSITION_FORWARDING, AVRO_PUBSUB, KAFKA_PUBSUB, STREAM}
 
     public void setIdMappingPrefixes(List<String> idMappingPrefixes) {
         this.idMappingPrefixes = idMappingPrefixes;
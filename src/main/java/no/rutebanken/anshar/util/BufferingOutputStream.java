@@ -0,0 +1,92 @@
+/*
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ *   https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ */
+
+package no.rutebanken.anshar.util;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Keeps written data in memory up to a size limit, e.g. to cache small outputs before they are written.
+ *
+ * When the limit is exceeded, the callback is notified, the buffered data is written to the underlying stream, and
+ * remaining data is passed directly through - so that memory use is bounded by the limit regardless of output size.
+ * Buffered data is never written to the underlying stream while the limit is not exceeded.
+ */
+public class BufferingOutputStream extends OutputStream {
+
+    private final OutputStream out;
+    private final long limit;
+    private final Runnable onLimitExceeded;
+
+    private ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+
+    /**
+     * @param out Stream data is written to when the limit is exceeded
+     * @param limit Max number of bytes to keep in memory
+     * @param onLimitExceeded Called before buffered data is written to the underlying stream - may be null
+     */
+    public BufferingOutputStream(OutputStream out, long limit, Runnable onLimitExceeded) {
+        this.out = out;
+        this.limit = limit;
+        this.onLimitExceeded = onLimitExceeded;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        write(new byte[]{(byte) b}, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        if (buffer == null) {
+            out.write(b, off, len);
+            return;
+        }
+        if (buffer.size() + (long) len <= limit) {
+            buffer.write(b, off, len);
+            return;
+        }
+
+        if (onLimitExceeded != null) {
+            onLimitExceeded.run();
+        }
+        buffer.writeTo(out);
+        buffer = null;
+        out.write(b, off, len);
+    }
+
+    /**
+     * @return true if data has been written to the underlying stream
+     */
+    public boolean isLimitExceeded() {
+        return buffer == null;
+    }
+
+    /**
+     * @return Buffered data - null if the limit has been exceeded
+     */
+    public byte[] toByteArray() {
+        return buffer != null ? buffer.toByteArray() : null;
+    }
+
+    @Override
+    public void flush() throws IOException {
+        if (buffer == null) {
+            out.flush();
+        }
+    }
+}
@@ -0,0 +1,172 @@
+/*
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ *   https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ */
+
+package no.rutebanken.anshar.util;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.DeflaterOutputStream;
+
+/**
+ * Compresses data while it is streamed, but only when the total size reaches a minimum threshold.
+ *
+ * Data is buffered until the threshold is reached. The callback is notified before the first compressed byte is
+ * written - so that e.g. a Content-Encoding header may be set. If the stream is finished before the threshold is
+ * reached, the buffered data is written uncompressed.
+ *
+ * Finishing/closing this stream does not close the underlying stream.
+ */
+public class CompressingOutputStream extends OutputStream {
+
+    @FunctionalInterface
+    public interface CompressionListener {
+        void compressed(ContentEncoding encoding, long nanos, long uncompressedBytes, long compressedBytes);
+    }
+
+    private final CountingOutputStream out;
+    private final ContentEncoding encoding;
+    private final int level;
+    private final int minSize;
+    private final Runnable onCompressionStarted;
+    private final CompressionListener listener;
+
+    private ByteArrayOutputStream buffer;
+    private DeflaterOutputStream compressor;
+
+    private long uncompressedBytes;
+    private long nanos;
+    private boolean finished;
+
+    /**
+     * @param out Stream compressed data is written to
+     * @param encoding Encoding to use
+     * @param level Compression level 1-9
+     * @param minSize Minimum size in bytes for data to be compressed
+     * @param onCompressionStarted Called before compressed data is written - may be null
+     * @param listener Notified with compression time and sizes when finished - may be null
+     */
+    public CompressingOutputStream(OutputStream out, ContentEncoding encoding, int level, int minSize,
+                                   Runnable onCompressionStarted, CompressionListener listener) {
+        this.out = new CountingOutputStream(out);
+        this.encoding = encoding;
+        this.level = level;
+        this.minSize = minSize;
+        this.onCompressionStarted = onCompressionStarted;
+        this.listener = listener;
+        this.buffer = new ByteArrayOutputStream(Math.max(32, Math.min(minSize, 65536)));
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        write(new byte[]{(byte) b}, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        if (finished) {
+            throw new IOException("Stream is finished");
+        }
+        uncompressedBytes += len;
+        if (compressor != null) {
+            compress(b, off, len);
+            return;
+        }
+
+        buffer.write(b, off, len);
+        if (buffer.size() >= minSize) {
+            startCompression();
+        }
+    }
+
+    /**
+     * @return true if data is compressed - only known when the threshold is reached or the stream is finished
+     */
+    public boolean isCompressed() {
+        return compressor != null;
+    }
+
+    private void startCompression() throws IOException {
+        if (onCompressionStarted != null) {
+            onCompressionStarted.run();
+        }
+        compressor = encoding.createOutputStream(out, level);
+
+        byte[] buffered = buffer.toByteArray();
+        buffer = null;
+        compress(buffered, 0, buffered.length);
+    }
+
+    private void compress(byte[] b, int off, int len) throws IOException {
+        long start = System.nanoTime();
+        compressor.write(b, off, len);
+        nanos += System.nanoTime() - start;
+    }
+
+    /**
+     * Writes remaining data without closing the underlying stream
+     */
+    public void finish() throws IOException {
+        if (finished) {
+            return;
+        }
+        finished = true;
+
+        if (compressor != null) {
+            long start = System.nanoTime();
+            compressor.finish();
+            nanos += System.nanoTime() - start;
+
+            if (listener != null) {
+                listener.compressed(encoding, nanos, uncompressedBytes, out.count);
+            }
+        } else {
+            buffer.writeTo(out);
+            buffer = null;
+        }
+        out.flush();
+    }
+
+    @Override
+    public void flush() {
+        // Data is flushed when finished - the threshold is unknown before that, and early flushes reduce compression
+    }
+
+    @Override
+    public void close() throws IOException {
+        finish();
+    }
+
+    private static class CountingOutputStream extends FilterOutputStream {
+        private long count;
+
+        private CountingOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            count += len;
+        }
+    }
+}
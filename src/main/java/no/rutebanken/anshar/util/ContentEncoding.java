@@ -0,0 +1,152 @@
+/*
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ *   https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ */
+
+package no.rutebanken.anshar.util;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * HTTP content-codings supported for compressed responses and outbound deliveries
+ */
+public enum ContentEncoding {
+    GZIP("gzip"),
+    DEFLATE("deflate");
+
+    private static final int BUFFER_SIZE = 8192;
+
+    private final String value;
+
+    ContentEncoding(String value) {
+        this.value = value;
+    }
+
+    /**
+     * @return Value used in Content-Encoding/Accept-Encoding headers
+     */
+    public String getValue() {
+        return value;
+    }
+
+    /**
+     * Resolves the preferred supported encoding from an Accept-Encoding header, e.g. "gzip, deflate;q=0.5"
+     *
+     * @return Encoding with highest q-value - gzip is preferred when equal - or null if none are acceptable
+     */
+    public static ContentEncoding negotiate(String acceptEncoding) {
+        if (acceptEncoding == null || acceptEncoding.isBlank()) {
+            return null;
+        }
+
+        ContentEncoding preferred = null;
+        double preferredQuality = 0;
+        double wildcardQuality = -1;
+        boolean[] listed = new boolean[values().length];
+
+        for (String element : acceptEncoding.split(",")) {
+            String[] parts = element.split(";");
+            String coding = parts[0].trim();
+            double quality = parseQuality(parts);
+
+            if ("*".equals(coding)) {
+                wildcardQuality = quality;
+                continue;
+            }
+            for (ContentEncoding encoding : values()) {
+                if (encoding.value.equalsIgnoreCase(coding) ||
+                    (encoding == GZIP && "x-gzip".equalsIgnoreCase(coding))) {
+                    listed[encoding.ordinal()] = true;
+                    if (quality > preferredQuality ||
+                        (quality == preferredQuality && preferred != null && encoding.ordinal() < preferred.ordinal())) {
+                        preferred = encoding;
+                        preferredQuality = quality;
+                    }
+                }
+            }
+        }
+
+        if (wildcardQuality > preferredQuality) {
+            // Wildcard applies to all encodings not explicitly listed
+            for (ContentEncoding encoding : values()) {
+                if (!listed[encoding.ordinal()]) {
+                    return encoding;
+                }
+            }
+        }
+        return preferred;
+    }
+
+    private static double parseQuality(String[] parts) {
+        for (int i = 1; i < parts.length; i++) {
+            String parameter = parts[i].trim();
+            if (parameter.startsWith("q=")) {
+                try {
+                    return Double.parseDouble(parameter.substring(2));
+                } catch (NumberFormatException e) {
+                    return 0;
+                }
+            }
+        }
+        return 1;
+    }
+
+    /**
+     * @return Stream that compresses all data written to it - must be finished to write trailing data and release
+     * native resources. Finishing does not close the underlying stream.
+     */
+    public DeflaterOutputStream createOutputStream(OutputStream out, int level) throws IOException {
+        if (this == GZIP) {
+            return new GZIPOutputStream(out, BUFFER_SIZE) {
+                private boolean finished;
+                {
+                    def.setLevel(level);
+                }
+
+                @Override
+                public void finish() throws IOException {
+                    if (!finished) {
+                        finished = true;
+                        super.finish();
+                        def.end();
+                    }
+                }
+            };
+        }
+        return new DeflaterOutputStream(out, new Deflater(level), BUFFER_SIZE) {
+            private boolean finished;
+
+            @Override
+            public void finish() throws IOException {
+                if (!finished) {
+                    finished = true;
+                    super.finish();
+                    def.end();
+                }
+            }
+        };
+    }
+
+    public byte[] compress(byte[] data, int level) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(Math.max(32, data.length / 8));
+        DeflaterOutputStream compressed = createOutputStream(out, level);
+        compressed.write(data);
+        compressed.finish();
+        return out.toByteArray();
+    }
+}
@@ -0,0 +1,109 @@
+/*
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ *   https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ */
+
+package no.rutebanken.anshar.util;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Writes a single Server-Sent Event - data written to the stream is passed through as it is written, with every line
+ * prefixed with "data: " as required by the SSE-format.
+ *
+ * CR, LF and CRLF are all line breaks in SSE, and are written as LF. Trailing line breaks are dropped. Closing the
+ * stream ends the event and flushes the underlying stream, which is left open.
+ */
+public class ServerSentEventOutputStream extends OutputStream {
+
+    private static final byte[] DATA_PREFIX = "data: ".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] NEXT_DATA_PREFIX = "\ndata: ".getBytes(StandardCharsets.UTF_8);
+
+    private final OutputStream out;
+
+    private boolean started;
+    private int pendingLineBreaks;
+    private boolean lastWasCarriageReturn;
+    private boolean closed;
+
+    public ServerSentEventOutputStream(OutputStream out, String event) throws IOException {
+        this.out = out;
+        out.write(("event: " + event + "\n").getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        write(new byte[]{(byte) b}, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        int runStart = off;
+        int end = off + len;
+        for (int i = off; i < end; i++) {
+            byte c = b[i];
+            if (c == '\r' || c == '\n') {
+                writeRun(b, runStart, i);
+                if (c == '\n' && lastWasCarriageReturn) {
+                    // LF completing a CRLF
+                    lastWasCarriageReturn = false;
+                } else {
+                    pendingLineBreaks++;
+                    lastWasCarriageReturn = c == '\r';
+                }
+                runStart = i + 1;
+            } else {
+                lastWasCarriageReturn = false;
+            }
+        }
+        writeRun(b, runStart, end);
+    }
+
+    /**
+     * Line breaks are held back until more data follows, so that trailing line breaks are not written
+     */
+    private void writeRun(byte[] b, int from, int to) throws IOException {
+        if (from >= to) {
+            return;
+        }
+        if (!started) {
+            out.write(DATA_PREFIX);
+            started = true;
+        }
+        for (; pendingLineBreaks > 0; pendingLineBreaks--) {
+            out.write(NEXT_DATA_PREFIX);
+        }
+        out.write(b, from, to - from);
+    }
+
+    @Override
+    public void flush() throws IOException {
+        out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        if (!started) {
+            out.write(DATA_PREFIX);
+        }
+        out.write('\n');
+        out.write('\n');
+        out.flush();
+    }
+}
@@ -0,0 +1,317 @@
+/*
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ *   https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ */
+
+package no.rutebanken.anshar.util;
+
+import java.io.FilterReader;
+import java.io.IOException;
+import java.io.PushbackReader;
+import java.io.Reader;
+
+/**
+ * Repairs characters created by wrong encoding (UTF-8 bytes decoded as ISO-8859-1) - KOLDATA-479
+ *
+ * All known substitutions are compiled into a trie, and applied in a single pass over the input.
+ * When no substitutions are needed, the original String is returned without any allocations.
+ */
+public class XmlEncodingRepairer {
+
+    private static final String[][] SUBSTITUTIONS = {
+            {"Ã¦", "æ"},
+            {"Ã†", "Æ"},
+            {"Ã¸", "ø"},
+            {"Ã\u0098", "Ø"},
+            {"Ã¥", "å"},
+            {"Ã\u0085", "Å"}
+    };
+
+    private static final TrieNode ROOT = new TrieNode();
+
+    private static final int MAX_PATTERN_LENGTH;
+
+    static {
+        int maxLength = 0;
+        for (int i = 0; i < SUBSTITUTIONS.length; i++) {
+            String pattern = SUBSTITUTIONS[i][0];
+            TrieNode node = ROOT;
+            for (int j = 0; j < pattern.length(); j++) {
+                node = node.getOrCreateChild(pattern.charAt(j));
+            }
+            node.substitutionIndex = i;
+            maxLength = Math.max(maxLength, pattern.length());
+        }
+        MAX_PATTERN_LENGTH = maxLength;
+    }
+
+    private XmlEncodingRepairer() {
+        //should not be instantiated
+    }
+
+    /**
+     * Callback notified once per pattern that has been repaired, identified by the correct character(s)
+     */
+    @FunctionalInterface
+    public interface RepairListener {
+        void repaired(String replacement, int count);
+    }
+
+    public static String repair(String body) {
+        return repair(body, null);
+    }
+
+    /**
+     * Applies all substitutions in a single pass.
+     *
+     * @return the original instance if no substitutions were made, a repaired copy otherwise
+     */
+    public static String repair(String body, RepairListener listener) {
+        if (body == null) {
+            return null;
+        }
+
+        StringBuilder repaired = null;
+        int[] counts = null;
+
+        int copiedUntil = 0;
+        int i = 0;
+        final int length = body.length();
+        while (i < length) {
+            TrieNode node = ROOT.getChild(body.charAt(i));
+            if (node == null) {
+                i++;
+                continue;
+            }
+
+            int matchIndex = -1;
+            int matchEnd = -1;
+            int j = i + 1;
+            while (true) {
+                if (node.substitutionIndex >= 0) {
+                    matchIndex = node.substitutionIndex;
+                    matchEnd = j;
+                }
+                if (j >= length) {
+                    break;
+                }
+                node = node.getChild(body.charAt(j));
+                if (node == null) {
+                    break;
+                }
+                j++;
+            }
+
+            if (matchIndex < 0) {
+                i++;
+                continue;
+            }
+
+            if (repaired == null) {
+                repaired = new StringBuilder(length);
+                counts = new int[SUBSTITUTIONS.length];
+            }
+            repaired.append(body, copiedUntil, i);
+            repaired.append(SUBSTITUTIONS[matchIndex][1]);
+            counts[matchIndex]++;
+
+            i = matchEnd;
+            copiedUntil = matchEnd;
+        }
+
+        if (repaired == null) {
+            return body;
+        }
+
+        repaired.append(body, copiedUntil, length);
+        notifyListener(listener, counts);
+
+        return repaired.toString();
+    }
+
+    /**
+     * Wraps the provided Reader so that all substitutions are applied while the content is streamed.
+     * Repairs are reported to the listener when the returned Reader is closed.
+     */
+    public static Reader repairingReader(Reader reader, RepairListener listener) {
+        return new RepairingReader(reader, listener);
+    }
+
+    private static void notifyListener(RepairListener listener, int[] counts) {
+        if (listener == null || counts == null) {
+            return;
+        }
+        for (int i = 0; i < counts.length; i++) {
+            if (counts[i] > 0) {
+                listener.repaired(SUBSTITUTIONS[i][1], counts[i]);
+            }
+        }
+    }
+
+    private static class RepairingReader extends FilterReader {
+
+        private final RepairListener listener;
+
+        private final char[] lookahead = new char[MAX_PATTERN_LENGTH];
+
+        private int[] counts;
+
+        /*
+         * Remaining characters of the current substitution not yet returned to the caller
+         */
+        private String pendingSubstitution;
+        private int pendingPosition;
+
+        RepairingReader(Reader in, RepairListener listener) {
+            super(new PushbackReader(in, MAX_PATTERN_LENGTH));
+            this.listener = listener;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (pendingSubstitution != null) {
+                char c = pendingSubstitution.charAt(pendingPosition++);
+                if (pendingPosition >= pendingSubstitution.length()) {
+                    pendingSubstitution = null;
+                }
+                return c;
+            }
+
+            int c = in.read();
+            if (c < 0) {
+                return c;
+            }
+
+            TrieNode node = ROOT.getChild((char) c);
+            if (node == null) {
+                return c;
+            }
+
+            int matchIndex = -1;
+            int matchLength = 0;
+            int read = 0;
+            while (true) {
+                if (node.substitutionIndex >= 0) {
+                    matchIndex = node.substitutionIndex;
+                    matchLength = read;
+                }
+                if (read >= lookahead.length) {
+                    break;
+                }
+                int next = in.read();
+                if (next < 0) {
+                    break;
+                }
+                lookahead[read++] = (char) next;
+                node = node.getChild((char) next);
+                if (node == null) {
+                    break;
+                }
+            }
+
+            // Unread everything that was not part of the (longest) match
+            if (read > matchLength) {
+                ((PushbackReader) in).unread(lookahead, matchLength, read - matchLength);
+            }
+
+            if (matchIndex < 0) {
+                return c;
+            }
+
+            if (counts == null) {
+                counts = new int[SUBSTITUTIONS.length];
+            }
+            counts[matchIndex]++;
+
+            String substitution = SUBSTITUTIONS[matchIndex][1];
+            if (substitution.length() > 1) {
+                pendingSubstitution = substitution;
+                pendingPosition = 1;
+            }
+            return substitution.charAt(0);
+        }
+
+        @Override
+        public int read(char[] cbuf, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            int count = 0;
+            while (count < len) {
+                int c = read();
+                if (c < 0) {
+                    break;
+                }
+                cbuf[off + count++] = (char) c;
+            }
+            return count == 0 ? -1 : count;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = 0;
+            while (skipped < n && read() >= 0) {
+                skipped++;
+            }
+            return skipped;
+        }
+
+        @Override
+        public boolean ready() throws IOException {
+            return pendingSubstitution != null || in.ready();
+        }
+
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+
+        @Override
+        public void close() throws IOException {
+            super.close();
+            notifyListener(listener, counts);
+            counts = null;
+        }
+    }
+
+    private static class TrieNode {
+        private char[] keys = new char[0];
+        private TrieNode[] children = new TrieNode[0];
+        private int substitutionIndex = -1;
+
+        TrieNode getChild(char c) {
+            for (int i = 0; i < keys.length; i++) {
+                if (keys[i] == c) {
+                    return children[i];
+                }
+            }
+            return null;
+        }
+
+        TrieNode getOrCreateChild(char c) {
+            TrieNode child = getChild(c);
+            if (child == null) {
+                child = new TrieNode();
+                char[] newKeys = new char[keys.length + 1];
+                TrieNode[] newChildren = new TrieNode[children.length + 1];
+                System.arraycopy(keys, 0, newKeys, 0, keys.length);
+                System.arraycopy(children, 0, newChildren, 0, children.length);
+                newKeys[keys.length] = c;
+                newChildren[children.length] = child;
+                keys = newKeys;
+                children = newChildren;
+            }
+            return child;
+        }
+    }
+}
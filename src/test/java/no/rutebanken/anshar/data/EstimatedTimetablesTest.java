@@ -35,6 +35,7 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.List;
+import java.util.Set;
 import java.util.UUID;
 
 import static no.rutebanken.anshar.helpers.SleepUtil.sleep;
@@ -399,6 +400,64 @@ public class EstimatedTimetablesTest extends SpringBootBaseTest {
 
     }
 
+    @Test
+    public void testCreateServiceDeliveryForLine() {
+        String datasetId = "LineServiceDeliveryTest";
+        String lineRef = "TST:Line:ordered";
+        ZonedDateTime now = ZonedDateTime.now();
+        estimatedTimetables.add(datasetId, createEstimatedVehicleJourney(lineRef, "line-3", 0, 10, now.plusHours(3), true));
+        estimatedTimetables.add(datasetId, createEstimatedVehicleJourney(lineRef, "line-1", 0, 10, now.plusHours(1), true));
+        estimatedTimetables.add(datasetId, createEstimatedVehicleJourney(lineRef, "line-2", 0, 10, now.plusHours(2), true));
+        estimatedTimetables.add(datasetId, createEstimatedVehicleJourney(lineRef, "line-1-same-time", 0, 10, now.plusHours(1), true));
+        estimatedTimetables.add(datasetId, createEstimatedVehicleJourney("TST:Line:other", "other", 0, 10, now.plusMinutes(30), true));
+
+        estimatedTimetables.commitChanges();
+        // Journeys by line are read from a node-local index, updated asynchronously from entry events
+        sleep(50);
+
+        List<String> vehicleRefs = getVehicleRefs(estimatedTimetables.createServiceDelivery(lineRef));
+        assertEquals(4, vehicleRefs.size());
+
+        // Ordered by first aimed time - journeys with the same time are both included, in any order
+        assertEquals(Set.of("line-1", "line-1-same-time"), Set.copyOf(vehicleRefs.subList(0, 2)));
+        assertEquals(List.of("line-2", "line-3"), vehicleRefs.subList(2, 4));
+
+        // Updated journey is moved to its new position
+        estimatedTimetables.add(datasetId, createEstimatedVehicleJourney(lineRef, "line-3", 0, 10, now.plusMinutes(30), true));
+        estimatedTimetables.commitChanges();
+        sleep(50);
+
+        vehicleRefs = getVehicleRefs(estimatedTimetables.createServiceDelivery(lineRef));
+        assertEquals(4, vehicleRefs.size());
+        assertEquals("line-3", vehicleRefs.get(0));
+    }
+
+    @Test
+    public void testCreateServiceDeliveryForLineWithExpiredJourney() {
+        String datasetId = "LineServiceDeliveryTest";
+        String lineRef = "TST:Line:expiring";
+        // Expires at the last arrival, a few seconds after it is added - no grace period is configured for tests
+        ZonedDateTime expiring = ZonedDateTime.now().plusSeconds(5);
+        estimatedTimetables.add(datasetId, createEstimatedVehicleJourney(lineRef, "expiring", 0, 10, expiring, true));
+        estimatedTimetables.add(datasetId, createEstimatedVehicleJourney(lineRef, "remaining", 0, 10, ZonedDateTime.now().plusHours(1), true));
+
+        estimatedTimetables.commitChanges();
+        sleep(50);
+
+        assertEquals(List.of("expiring", "remaining"), getVehicleRefs(estimatedTimetables.createServiceDelivery(lineRef)));
+
+        // Removed from the index when the expiry event is received
+        List<String> vehicleRefs = null;
+        for (int i = 0; i < 30; i++) {
+            vehicleRefs = getVehicleRefs(estimatedTimetables.createServiceDelivery(lineRef));
+            if (vehicleRefs.size() == 1) {
+                break;
+            }
+            sleep(0);
+        }
+        assertEquals(List.of("remaining"), vehicleRefs);
+    }
+
     @Test
     public void testServiceDeliveryWithPreviewInterval() {
         String datasetId = "PreviewIntervalTest";
@@ -618,6 +677,15 @@ public class EstimatedTimetablesTest extends SpringBootBaseTest {
     }
 
 
+    private static List<String> getVehicleRefs(Siri siri) {
+        List<String> vehicleRefs = new ArrayList<>();
+        for (EstimatedVehicleJourney journey : siri.getServiceDelivery().getEstimatedTimetableDeliveries().get(0)
+                .getEstimatedJourneyVersionFrames().get(0).getEstimatedVehicleJourneies()) {
+            vehicleRefs.add(journey.getVehicleRef().getValue());
+        }
+        return vehicleRefs;
+    }
+
     private EstimatedVehicleJourney createEstimatedVehicleJourney(String lineRefValue, String vehicleRefValue, int startOrder, int callCount, ZonedDateTime arrival, Boolean isComplete) {
         return createEstimatedVehicleJourney(lineRefValue, vehicleRefValue, startOrder, callCount, arrival, arrival, isComplete);
     }
@@ -0,0 +1,93 @@
+/*
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ *   https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ */
+
+
+package no.rutebanken.anshar.data;
+
+import org.junit.jupiter.api.Test;
+import uk.org.siri.siri21.EstimatedCall;
+import uk.org.siri.siri21.EstimatedVehicleJourney;
+
+import java.time.ZonedDateTime;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+public class LineJourneyIndexTest {
+
+    private static final ZonedDateTime NOW = ZonedDateTime.parse("2024-05-02T12:00:00+02:00");
+
+    private final LineJourneyIndex index = new LineJourneyIndex(LineJourneyIndexTest::firstAimedDepartureTime);
+
+    @Test
+    public void testOrderedByFirstAimedTime() {
+        SiriObjectStorageKey late = key("TST:Line:1", "late");
+        SiriObjectStorageKey early = key("TST:Line:1", "early");
+        SiriObjectStorageKey sameTime = key("TST:Line:1", "same-time");
+        SiriObjectStorageKey otherLine = key("TST:Line:2", "other-line");
+
+        index.update(late, journey(NOW.plusHours(2)));
+        index.update(early, journey(NOW.plusHours(1)));
+        index.update(sameTime, journey(NOW.plusHours(1)));
+        index.update(otherLine, journey(NOW));
+
+        assertEquals(List.of(early, sameTime, late), index.find("TST:Line:1"));
+        assertEquals(List.of(otherLine), index.find("TST:Line:2"));
+        assertEquals(List.of(), index.find("TST:Line:3"));
+
+        // Line is matched ignoring case
+        assertEquals(List.of(otherLine), index.find("tst:line:2"));
+    }
+
+    @Test
+    public void testUpdateAndRemove() {
+        SiriObjectStorageKey first = key("TST:Line:1", "first");
+        SiriObjectStorageKey second = key("TST:Line:1", "second");
+        index.update(first, journey(NOW));
+        index.update(second, journey(NOW.plusHours(1)));
+
+        index.update(first, journey(NOW.plusHours(2)));
+        assertEquals(List.of(second, first), index.find("TST:Line:1"));
+        assertEquals(2, index.getIndexedJourneyCount());
+
+        index.remove(second);
+        assertEquals(List.of(first), index.find("TST:Line:1"));
+
+        // Journeys without lineRef are not indexed
+        index.update(key(null, "no-line"), journey(NOW));
+        assertEquals(1, index.getIndexedJourneyCount());
+
+        index.clear();
+        assertEquals(0, index.getIndexedJourneyCount());
+        assertEquals(List.of(), index.find("TST:Line:1"));
+    }
+
+    private static SiriObjectStorageKey key(String lineRef, String id) {
+        return new SiriObjectStorageKey("TST", lineRef, id);
+    }
+
+    private static ZonedDateTime firstAimedDepartureTime(EstimatedVehicleJourney journey) {
+        return journey.getEstimatedCalls().getEstimatedCalls().get(0).getAimedDepartureTime();
+    }
+
+    private static EstimatedVehicleJourney journey(ZonedDateTime aimedDepartureTime) {
+        EstimatedCall call = new EstimatedCall();
+        call.setAimedDepartureTime(aimedDepartureTime);
+        EstimatedVehicleJourney journey = new EstimatedVehicleJourney();
+        journey.setEstimatedCalls(new EstimatedVehicleJourney.EstimatedCalls());
+        journey.getEstimatedCalls().getEstimatedCalls().add(call);
+        return journey;
+    }
+}
@@ -0,0 +1,90 @@
+/*
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ *   https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ */
+
+package no.rutebanken.anshar.data;
+
+import no.rutebanken.anshar.subscription.SiriDataType;
+import org.junit.jupiter.api.Test;
+
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class PagingCursorRepositoryTest {
+
+    @Test
+    public void testTokenRoundTrip() {
+        String token = PagingCursorRepository.encodeToken("abc-123", 1000);
+
+        assertFalse(token.contains("abc-123"), "Token should be opaque");
+        assertFalse(token.contains("="), "Token should not need url-encoding");
+        assertArrayEquals(new String[]{"abc-123", "1000"}, PagingCursorRepository.decodeToken(token));
+    }
+
+    @Test
+    public void testMalformedTokens() {
+        assertNull(PagingCursorRepository.decodeToken("not base64!"));
+        assertNull(PagingCursorRepository.decodeToken(PagingCursorRepository.encodeToken("abc", -1)));
+        assertNull(PagingCursorRepository.decodeToken(PagingCursorRepository.encodeToken("abc:def", 0)));
+    }
+
+    @Test
+    public void testCursorPages() {
+        List<SiriObjectStorageKey> ids = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            ids.add(new SiriObjectStorageKey("TST", null, "" + i));
+        }
+        PagingCursor cursor = new PagingCursor(SiriDataType.VEHICLE_MONITORING, ids);
+
+        // Cursor is not affected by changes to the original list
+        ids.clear();
+
+        assertEquals(5, cursor.size());
+        assertEquals(2, cursor.getIds(0, 2).size());
+        assertEquals("4", cursor.getIds(4, 2).get(0).getKey());
+        assertEquals(1, cursor.getIds(4, 2).size());
+        assertTrue(cursor.getIds(5, 2).isEmpty());
+        assertEquals(5, cursor.getIds(0, Integer.MAX_VALUE).size());
+    }
+
+    @Test
+    public void testSliceIsReadWhereCursorIsStored() {
+        List<SiriObjectStorageKey> ids = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            ids.add(new SiriObjectStorageKey("TST", null, "" + i));
+        }
+        PagingCursor cursor = new PagingCursor(SiriDataType.ESTIMATED_TIMETABLE, ids);
+
+        PagingCursor.Slice slice = new PagingCursorSliceEntryProcessor(3, 10)
+            .process(new AbstractMap.SimpleEntry<>("abc", cursor));
+        assertEquals(SiriDataType.ESTIMATED_TIMETABLE, slice.getDataType());
+        assertEquals(5, slice.getCursorSize());
+        assertEquals(2, slice.getIds().size());
+        assertEquals("3", slice.getIds().get(0).getKey());
+
+        // Last page has been read
+        assertTrue(new PagingCursorSliceEntryProcessor(5, 10).process(new AbstractMap.SimpleEntry<>("abc", cursor)).getIds().isEmpty());
+
+        // Position beyond the end, or expired cursor
+        assertNull(new PagingCursorSliceEntryProcessor(6, 10).process(new AbstractMap.SimpleEntry<>("abc", cursor)));
+        assertNull(new PagingCursorSliceEntryProcessor(0, 10).process(new AbstractMap.SimpleEntry<>("abc", null)));
+    }
+}
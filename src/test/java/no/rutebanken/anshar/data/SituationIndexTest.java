@@ -0,0 +1,279 @@
+/*
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ *   https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ */
+
+
+package no.rutebanken.anshar.data;
+
+import org.junit.jupiter.api.Test;
+import uk.org.ifopt.siri21.StopPlaceRef;
+import uk.org.siri.siri21.AffectedLineStructure;
+import uk.org.siri.siri21.AffectedRouteStructure;
+import uk.org.siri.siri21.AffectedStopPlaceStructure;
+import uk.org.siri.siri21.AffectedStopPointStructure;
+import uk.org.siri.siri21.AffectedVehicleJourneyStructure;
+import uk.org.siri.siri21.AffectsScopeStructure;
+import uk.org.siri.siri21.FramedVehicleJourneyRefStructure;
+import uk.org.siri.siri21.HalfOpenTimestampOutputRangeStructure;
+import uk.org.siri.siri21.LineRef;
+import uk.org.siri.siri21.PtSituationElement;
+import uk.org.siri.siri21.StopPointRefStructure;
+import uk.org.siri.siri21.VehicleJourneyRef;
+
+import java.time.ZonedDateTime;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class SituationIndexTest {
+
+    private static final ZonedDateTime NOW = ZonedDateTime.parse("2024-05-02T12:00:00+02:00");
+
+    private final SituationIndex index = new SituationIndex();
+
+    @Test
+    public void testAffectedEntities() {
+        PtSituationElement situation = situation();
+        addLine(situation, "TST:Line:1");
+        addLineWithStopPoint(situation, "TST:Line:2", "NSR:Quay:2");
+        addStopPoint(situation, "NSR:Quay:1");
+        addStopPlace(situation, "NSR:StopPlace:1");
+        addVehicleJourney(situation, "TST:ServiceJourney:1", "TST:ServiceJourney:2");
+
+        AffectedEntities entities = AffectedEntities.of(situation);
+        assertEquals(Set.of("TST:Line:1", "TST:Line:2"), entities.getLineRefs());
+        assertEquals(Set.of("NSR:Quay:1", "NSR:Quay:2"), entities.getStopPointRefs());
+        assertEquals(Set.of("NSR:StopPlace:1"), entities.getStopPlaceRefs());
+        assertEquals(Set.of("TST:ServiceJourney:1", "TST:ServiceJourney:2"), entities.getVehicleJourneyRefs());
+        assertEquals(Set.of("TST:Line:1", "TST:Line:2"), AffectedEntities.getAffectedLineRefs(situation));
+
+        assertTrue(AffectedEntities.of(situation()).getLineRefs().isEmpty());
+        assertTrue(AffectedEntities.getAffectedLineRefs(new PtSituationElement()).isEmpty());
+    }
+
+    @Test
+    public void testFindByAffectedEntity() {
+        SiriObjectStorageKey line = key("TST", "line");
+        SiriObjectStorageKey stop = key("TST", "stop");
+        SiriObjectStorageKey journey = key("TST", "journey");
+
+        PtSituationElement lineSituation = situation();
+        addLine(lineSituation, "TST:Line:1");
+        index.update(line, lineSituation);
+
+        PtSituationElement stopSituation = situation();
+        addStopPoint(stopSituation, "NSR:Quay:1");
+        addStopPlace(stopSituation, "NSR:StopPlace:1");
+        index.update(stop, stopSituation);
+
+        PtSituationElement journeySituation = situation();
+        addVehicleJourney(journeySituation, "TST:ServiceJourney:1");
+        index.update(journey, journeySituation);
+
+        assertEquals(List.of(line), find(Map.of(SituationIndex.AffectedEntity.LINE, List.of("TST:Line:1"))));
+        assertEquals(List.of(), find(Map.of(SituationIndex.AffectedEntity.LINE, List.of("TST:Line:2"))));
+        assertEquals(List.of(stop), find(Map.of(SituationIndex.AffectedEntity.STOP_POINT, List.of("NSR:Quay:1"))));
+        assertEquals(List.of(stop), find(Map.of(SituationIndex.AffectedEntity.STOP_PLACE, List.of("NSR:StopPlace:1"))));
+        assertEquals(List.of(journey), find(Map.of(SituationIndex.AffectedEntity.VEHICLE_JOURNEY, List.of("TST:ServiceJourney:1"))));
+
+        // Any of the entities match
+        assertEquals(Set.of(line, journey), Set.copyOf(find(Map.of(
+                SituationIndex.AffectedEntity.LINE, List.of("TST:Line:1"),
+                SituationIndex.AffectedEntity.VEHICLE_JOURNEY, List.of("TST:ServiceJourney:1")))));
+
+        // No entities - all situations
+        assertEquals(3, find(Map.of()).size());
+    }
+
+    @Test
+    public void testUpdateReplacesEntities() {
+        SiriObjectStorageKey key = key("TST", "situation");
+
+        PtSituationElement situation = situation();
+        addLine(situation, "TST:Line:1");
+        index.update(key, situation);
+
+        PtSituationElement updated = situation();
+        addLine(updated, "TST:Line:2");
+        index.update(key, updated);
+
+        assertEquals(List.of(), find(Map.of(SituationIndex.AffectedEntity.LINE, List.of("TST:Line:1"))));
+        assertEquals(List.of(key), find(Map.of(SituationIndex.AffectedEntity.LINE, List.of("TST:Line:2"))));
+        assertEquals(1, index.getIndexedSituationCount());
+
+        index.remove(key);
+        assertEquals(List.of(), find(Map.of(SituationIndex.AffectedEntity.LINE, List.of("TST:Line:2"))));
+        assertEquals(0, index.getIndexedSituationCount());
+    }
+
+    @Test
+    public void testFindByValidity() {
+        SiriObjectStorageKey current = key("TST", "current");
+        SiriObjectStorageKey future = key("TST", "future");
+        SiriObjectStorageKey ended = key("TST", "ended");
+        SiriObjectStorageKey openEnded = key("TST", "open-ended");
+        SiriObjectStorageKey twoPeriods = key("TST", "two-periods");
+
+        index.update(current, situation(NOW.minusHours(1), NOW.plusHours(1)));
+        index.update(future, situation(NOW.plusDays(1), NOW.plusDays(2)));
+        index.update(ended, situation(NOW.minusHours(2), NOW.minusHours(1)));
+        index.update(openEnded, situation(NOW.minusDays(1), null));
+        PtSituationElement periods = situation(NOW.minusDays(2), NOW.minusDays(1));
+        periods.getValidityPeriods().add(period(NOW.plusHours(2), NOW.plusHours(3)));
+        index.update(twoPeriods, periods);
+
+        assertEquals(Set.of(current, openEnded), Set.copyOf(findValidAt(NOW)));
+        assertEquals(Set.of(openEnded, twoPeriods), Set.copyOf(findValidAt(NOW.plusHours(2))));
+        assertEquals(Set.of(future, openEnded), Set.copyOf(findValidAt(NOW.plusDays(1))));
+        assertEquals(Set.of(ended, openEnded), Set.copyOf(findValidAt(NOW.minusMinutes(90))));
+
+        // Start is inclusive, end is exclusive
+        assertEquals(Set.of(current, openEnded), Set.copyOf(findValidAt(NOW.minusHours(1))));
+        assertEquals(Set.of(openEnded), Set.copyOf(findValidAt(NOW.plusDays(2))));
+
+        // Validity combined with affected entity
+        PtSituationElement lineSituation = situation(NOW.plusDays(1), NOW.plusDays(2));
+        addLine(lineSituation, "TST:Line:1");
+        index.update(future, lineSituation);
+        Map<SituationIndex.AffectedEntity, Collection<String>> line = Map.of(SituationIndex.AffectedEntity.LINE, List.of("TST:Line:1"));
+        assertEquals(List.of(), index.find(line, NOW.toInstant(), NOW.toInstant(), null, Integer.MAX_VALUE));
+        assertEquals(List.of(future), index.find(line, NOW.plusDays(1).toInstant(), NOW.plusDays(1).toInstant(), null, Integer.MAX_VALUE));
+        assertEquals(List.of(future), index.find(line, NOW.toInstant(), NOW.plusDays(1).toInstant(), null, Integer.MAX_VALUE));
+    }
+
+    @Test
+    public void testDatasetFilterAndMaxSize() {
+        for (int i = 0; i < 10; i++) {
+            PtSituationElement situation = situation();
+            addLine(situation, "TST:Line:1");
+            index.update(key(i % 2 == 0 ? "TST" : "OTH", "situation-" + i), situation);
+        }
+        Map<SituationIndex.AffectedEntity, Collection<String>> line = Map.of(SituationIndex.AffectedEntity.LINE, List.of("TST:Line:1"));
+
+        List<SiriObjectStorageKey> result = index.find(line, null, null, "TST", Integer.MAX_VALUE);
+        assertEquals(5, result.size());
+        assertTrue(result.stream().allMatch(key -> "TST".equals(key.getCodespaceId())));
+        assertEquals(3, index.find(line, null, null, null, 3).size());
+
+        // Filtered by validity alone
+        List<SiriObjectStorageKey> valid = index.find(Map.of(), NOW.toInstant(), NOW.toInstant(), "OTH", 2);
+        assertEquals(2, valid.size());
+        assertTrue(valid.stream().allMatch(key -> "OTH".equals(key.getCodespaceId())));
+
+        index.clear();
+        assertEquals(0, index.getIndexedSituationCount());
+        assertEquals(List.of(), find(line));
+    }
+
+    private List<SiriObjectStorageKey> find(Map<SituationIndex.AffectedEntity, ? extends Collection<String>> affected) {
+        return index.find(affected, null, null, null, Integer.MAX_VALUE);
+    }
+
+    private List<SiriObjectStorageKey> findValidAt(ZonedDateTime time) {
+        return index.find(Map.of(), time.toInstant(), time.toInstant(), null, Integer.MAX_VALUE);
+    }
+
+    private static SiriObjectStorageKey key(String codespaceId, String id) {
+        return new SiriObjectStorageKey(codespaceId, null, id);
+    }
+
+    private static PtSituationElement situation() {
+        PtSituationElement situation = new PtSituationElement();
+        situation.setAffects(new AffectsScopeStructure());
+        return situation;
+    }
+
+    private static PtSituationElement situation(ZonedDateTime startTime, ZonedDateTime endTime) {
+        PtSituationElement situation = situation();
+        situation.getValidityPeriods().add(period(startTime, endTime));
+        return situation;
+    }
+
+    private static HalfOpenTimestampOutputRangeStructure period(ZonedDateTime startTime, ZonedDateTime endTime) {
+        HalfOpenTimestampOutputRangeStructure period = new HalfOpenTimestampOutputRangeStructure();
+        period.setStartTime(startTime);
+        period.setEndTime(endTime);
+        return period;
+    }
+
+    private static AffectedLineStructure addLine(PtSituationElement situation, String lineRef) {
+        AffectsScopeStructure affects = situation.getAffects();
+        if (affects.getNetworks() == null) {
+            affects.setNetworks(new AffectsScopeStructure.Networks());
+            affects.getNetworks().getAffectedNetworks().add(new AffectsScopeStructure.Networks.AffectedNetwork());
+        }
+        AffectedLineStructure line = new AffectedLineStructure();
+        LineRef ref = new LineRef();
+        ref.setValue(lineRef);
+        line.setLineRef(ref);
+        affects.getNetworks().getAffectedNetworks().get(0).getAffectedLines().add(line);
+        return line;
+    }
+
+    private static void addLineWithStopPoint(PtSituationElement situation, String lineRef, String stopPointRef) {
+        AffectedRouteStructure route = new AffectedRouteStructure();
+        route.setStopPoints(new AffectedRouteStructure.StopPoints());
+        route.getStopPoints().getAffectedStopPointsAndLinkProjectionToNextStopPoints().add(stopPoint(stopPointRef));
+        addLine(situation, lineRef).getRoutes().add(route);
+    }
+
+    private static void addStopPoint(PtSituationElement situation, String stopPointRef) {
+        AffectsScopeStructure affects = situation.getAffects();
+        if (affects.getStopPoints() == null) {
+            affects.setStopPoints(new AffectsScopeStructure.StopPoints());
+        }
+        affects.getStopPoints().getAffectedStopPoints().add(stopPoint(stopPointRef));
+    }
+
+    private static AffectedStopPointStructure stopPoint(String stopPointRef) {
+        StopPointRefStructure ref = new StopPointRefStructure();
+        ref.setValue(stopPointRef);
+        AffectedStopPointStructure stopPoint = new AffectedStopPointStructure();
+        stopPoint.setStopPointRef(ref);
+        return stopPoint;
+    }
+
+    private static void addStopPlace(PtSituationElement situation, String stopPlaceRef) {
+        AffectsScopeStructure affects = situation.getAffects();
+        if (affects.getStopPlaces() == null) {
+            affects.setStopPlaces(new AffectsScopeStructure.StopPlaces());
+        }
+        StopPlaceRef ref = new StopPlaceRef();
+        ref.setValue(stopPlaceRef);
+        AffectedStopPlaceStructure stopPlace = new AffectedStopPlaceStructure();
+        stopPlace.setStopPlaceRef(ref);
+        affects.getStopPlaces().getAffectedStopPlaces().add(stopPlace);
+    }
+
+    private static void addVehicleJourney(PtSituationElement situation, String framedRef, String... vehicleJourneyRefs) {
+        AffectsScopeStructure affects = situation.getAffects();
+        if (affects.getVehicleJourneys() == null) {
+            affects.setVehicleJourneys(new AffectsScopeStructure.VehicleJourneys());
+        }
+        AffectedVehicleJourneyStructure journey = new AffectedVehicleJourneyStructure();
+        FramedVehicleJourneyRefStructure framed = new FramedVehicleJourneyRefStructure();
+        framed.setDatedVehicleJourneyRef(framedRef);
+        journey.setFramedVehicleJourneyRef(framed);
+        for (String vehicleJourneyRef : vehicleJourneyRefs) {
+            VehicleJourneyRef ref = new VehicleJourneyRef();
+            ref.setValue(vehicleJourneyRef);
+            journey.getVehicleJourneyReves().add(ref);
+        }
+        affects.getVehicleJourneys().getAffectedVehicleJourneies().add(journey);
+    }
+}
@@ -0,0 +1,157 @@
+/*
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ *   https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ */
+
+package no.rutebanken.anshar.data;
+
+import org.junit.jupiter.api.Test;
+import uk.org.siri.siri21.EstimatedCall;
+import uk.org.siri.siri21.EstimatedVehicleJourney;
+import uk.org.siri.siri21.RecordedCall;
+import uk.org.siri.siri21.StopPointRefStructure;
+
+import java.time.Instant;
+import java.time.ZonedDateTime;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class StopCallIndexTest {
+
+    private static final ZonedDateTime NOW = ZonedDateTime.parse("2024-05-02T12:00:00+02:00");
+
+    private final StopCallIndex index = new StopCallIndex(
+            stopPlaceId -> Map.of("NSR:StopPlace:1", List.of("NSR:Quay:1", "NSR:Quay:2"))
+                    .getOrDefault(stopPlaceId, List.of()));
+
+    @Test
+    public void testFindWithinTimeWindow() {
+        SiriObjectStorageKey early = key("TST", "early");
+        SiriObjectStorageKey late = key("TST", "late");
+        index.update(early, journey(estimatedCall("NSR:Quay:1", NOW.plusMinutes(5))));
+        index.update(late, journey(estimatedCall("NSR:Quay:1", NOW.plusMinutes(65))));
+
+        assertEquals(List.of(early), find(List.of("NSR:Quay:1"), 0, 60));
+        assertEquals(List.of(early, late), find(List.of("NSR:Quay:1"), 0, 120));
+        assertEquals(List.of(late), find(List.of("NSR:Quay:1"), 65, 120));
+        assertEquals(List.of(), find(List.of("NSR:Quay:1"), 6, 65));
+        assertEquals(List.of(), find(List.of("NSR:Quay:3"), 0, 120));
+    }
+
+    @Test
+    public void testStopPlaceResolvedToQuays() {
+        SiriObjectStorageKey first = key("TST", "first");
+        SiriObjectStorageKey second = key("TST", "second");
+        index.update(second, journey(estimatedCall("NSR:Quay:2", NOW.plusMinutes(10))));
+        index.update(first, journey(estimatedCall("NSR:Quay:1", NOW.plusMinutes(5))));
+
+        assertEquals(List.of(first, second), find(List.of("NSR:StopPlace:1"), 0, 60));
+        assertEquals(List.of(first, second), find(List.of("NSR:Quay:2", "NSR:Quay:1"), 0, 60));
+        assertEquals(List.of(second), find(List.of("NSR:Quay:2"), 0, 60));
+    }
+
+    @Test
+    public void testUpdateReplacesCalls() {
+        SiriObjectStorageKey key = key("TST", "journey");
+        index.update(key, journey(estimatedCall("NSR:Quay:1", NOW.plusMinutes(5))));
+        index.update(key, journey(estimatedCall("NSR:Quay:2", NOW.plusMinutes(30))));
+
+        assertEquals(List.of(), find(List.of("NSR:Quay:1"), 0, 60));
+        assertEquals(List.of(key), find(List.of("NSR:Quay:2"), 0, 60));
+        assertEquals(1, index.getIndexedJourneyCount());
+
+        index.remove(key);
+        assertEquals(List.of(), find(List.of("NSR:Quay:2"), 0, 60));
+        assertEquals(0, index.getIndexedJourneyCount());
+    }
+
+    @Test
+    public void testRecordedCallsAndDelays() {
+        SiriObjectStorageKey key = key("TST", "journey");
+
+        RecordedCall recorded = new RecordedCall();
+        recorded.setStopPointRef(stopPointRef("NSR:Quay:1"));
+        recorded.setAimedDepartureTime(NOW.plusMinutes(5));
+        recorded.setActualDepartureTime(NOW.plusMinutes(15));
+
+        EstimatedCall delayed = estimatedCall("NSR:Quay:2", NOW.plusMinutes(10));
+        delayed.setExpectedDepartureTime(NOW.plusMinutes(70));
+
+        EstimatedVehicleJourney journey = journey(delayed);
+        journey.setRecordedCalls(new EstimatedVehicleJourney.RecordedCalls());
+        journey.getRecordedCalls().getRecordedCalls().add(recorded);
+        index.update(key, journey);
+
+        assertEquals(List.of(), find(List.of("NSR:Quay:1"), 0, 10));
+        assertEquals(List.of(key), find(List.of("NSR:Quay:1"), 10, 20));
+        assertEquals(List.of(), find(List.of("NSR:Quay:2"), 0, 60));
+        assertEquals(List.of(key), find(List.of("NSR:Quay:2"), 60, 80));
+    }
+
+    @Test
+    public void testDatasetFilterAndMaxSize() {
+        for (int i = 0; i < 10; i++) {
+            index.update(key(i % 2 == 0 ? "TST" : "OTH", "journey-" + i),
+                    journey(estimatedCall("NSR:Quay:1", NOW.plusMinutes(i))));
+        }
+
+        List<SiriObjectStorageKey> result = index.find(List.of("NSR:Quay:1"), NOW.toInstant(),
+                NOW.plusMinutes(60).toInstant(), "TST", 3);
+        assertEquals(List.of(key("TST", "journey-0"), key("TST", "journey-2"), key("TST", "journey-4")), result);
+
+        // Journey with several matching calls is only returned once
+        SiriObjectStorageKey roundTrip = key("TST", "round-trip");
+        index.update(roundTrip, journey(estimatedCall("NSR:Quay:2", NOW.minusMinutes(1)),
+                estimatedCall("NSR:Quay:1", NOW.plusMinutes(30))));
+        result = find(List.of("NSR:StopPlace:1"), -5, 60);
+        assertEquals(roundTrip, result.get(0));
+        assertEquals(11, result.size());
+
+        index.clear();
+        assertEquals(0, index.getIndexedJourneyCount());
+        assertTrue(find(List.of("NSR:StopPlace:1"), -5, 60).isEmpty());
+    }
+
+    private List<SiriObjectStorageKey> find(List<String> stopIds, int fromMinutes, int toMinutes) {
+        Instant from = NOW.plusMinutes(fromMinutes).toInstant();
+        Instant to = NOW.plusMinutes(toMinutes).toInstant();
+        return index.find(stopIds, from, to, null, Integer.MAX_VALUE);
+    }
+
+    private static SiriObjectStorageKey key(String codespaceId, String id) {
+        return new SiriObjectStorageKey(codespaceId, null, id);
+    }
+
+    private static EstimatedVehicleJourney journey(EstimatedCall... calls) {
+        EstimatedVehicleJourney journey = new EstimatedVehicleJourney();
+        journey.setEstimatedCalls(new EstimatedVehicleJourney.EstimatedCalls());
+        journey.getEstimatedCalls().getEstimatedCalls().addAll(List.of(calls));
+        return journey;
+    }
+
+    private static EstimatedCall estimatedCall(String stopId, ZonedDateTime aimedDepartureTime) {
+        EstimatedCall call = new EstimatedCall();
+        call.setStopPointRef(stopPointRef(stopId));
+        call.setAimedDepartureTime(aimedDepartureTime);
+        return call;
+    }
+
+    private static StopPointRefStructure stopPointRef(String stopId) {
+        StopPointRefStructure stopPointRef = new StopPointRefStructure();
+        stopPointRef.setValue(stopId);
+        return stopPointRef;
+    }
+}
@@ -30,13 +30,16 @@ import uk.org.siri.siri21.VehicleRef;
 import java.math.BigDecimal;
 import java.time.ZonedDateTime;
 import java.util.Arrays;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 import java.util.UUID;
 
 import static no.rutebanken.anshar.helpers.SleepUtil.sleep;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
 public class VehicleActivitiesTest extends SpringBootBaseTest {
@@ -288,6 +291,40 @@ public class VehicleActivitiesTest extends SpringBootBaseTest {
         assertExcludedId("test3");
     }
 
+    @Test
+    public void testPagingWithCursor() {
+        String datasetId = "cursortest";
+        for (int i = 0; i < 5; i++) {
+            vehicleActivities.add(datasetId, createVehicleActivityStructure(ZonedDateTime.now().plusMinutes(1), "cursor-" + i));
+        }
+
+        PagedServiceDelivery page = vehicleActivities.createPagedServiceDelivery(null, datasetId, null, null, 2);
+        assertTrue(page.getSiri().getServiceDelivery().isMoreData());
+        assertNotNull(page.getNextCursor());
+
+        Set<String> vehicleRefs = new HashSet<>();
+        int pageCount = 0;
+        while (true) {
+            pageCount++;
+            List<VehicleActivityStructure> activities = page.getSiri().getServiceDelivery().getVehicleMonitoringDeliveries().get(0).getVehicleActivities();
+            assertTrue(activities.size() <= 2);
+            for (VehicleActivityStructure activity : activities) {
+                assertTrue(vehicleRefs.add(activity.getMonitoredVehicleJourney().getVehicleRef().getValue()), "Returned twice");
+            }
+            if (page.getNextCursor() == null) {
+                break;
+            }
+            page = vehicleActivities.createServiceDeliveryFromCursor(page.getNextCursor(), 2);
+            assertNotNull(page);
+        }
+
+        assertEquals(3, pageCount);
+        assertEquals(5, vehicleRefs.size());
+        assertFalse(page.getSiri().getServiceDelivery().isMoreData());
+
+        assertNull(vehicleActivities.createServiceDeliveryFromCursor("invalid", 2));
+    }
+
     private void assertExcludedId(String excludedDatasetId) {
         Siri serviceDelivery = vehicleActivities.createServiceDelivery(null, null, null, Arrays.asList(excludedDatasetId), 100);
 
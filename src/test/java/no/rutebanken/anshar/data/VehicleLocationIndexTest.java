@@ -0,0 +1,131 @@
+/*
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ *   https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ */
+
+
+package no.rutebanken.anshar.data;
+
+import org.junit.jupiter.api.Test;
+import uk.org.siri.siri21.LocationStructure;
+import uk.org.siri.siri21.VehicleActivityStructure;
+
+import java.math.BigDecimal;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class VehicleLocationIndexTest {
+
+    private final VehicleLocationIndex index = new VehicleLocationIndex(0.02);
+
+    @Test
+    public void testFindWithinBoundingBox() {
+        SiriObjectStorageKey oslo = key("TST", "oslo");
+        SiriObjectStorageKey bergen = key("TST", "bergen");
+        index.update(oslo, activity(59.911, 10.750));
+        index.update(bergen, activity(60.391, 5.322));
+
+        assertEquals(List.of(oslo), findWithin(59.8, 10.6, 60.0, 10.9));
+        assertEquals(List.of(bergen), findWithin(60.3, 5.2, 60.5, 5.4));
+        assertEquals(Set.of(oslo, bergen), new HashSet<>(findWithin(57.0, 4.0, 72.0, 32.0)));
+        assertEquals(List.of(), findWithin(59.912, 10.6, 60.0, 10.9));
+
+        // Edges are included
+        assertEquals(List.of(oslo), findWithin(59.911, 10.750, 59.911, 10.750));
+    }
+
+    @Test
+    public void testUpdateMovesVehicle() {
+        SiriObjectStorageKey key = key("TST", "bus");
+        index.update(key, activity(59.911, 10.750));
+        index.update(key, activity(59.950, 10.900));
+
+        assertEquals(List.of(), findWithin(59.90, 10.70, 59.92, 10.80));
+        assertEquals(List.of(key), findWithin(59.94, 10.85, 59.96, 10.95));
+        assertEquals(1, index.getIndexedVehicleCount());
+
+        // Vehicle without location is removed
+        index.update(key, activity(null, null));
+        assertEquals(List.of(), findWithin(59.0, 10.0, 61.0, 11.0));
+        assertEquals(0, index.getIndexedVehicleCount());
+
+        index.update(key, activity(59.911, 10.750));
+        index.remove(key);
+        assertEquals(List.of(), findWithin(59.0, 10.0, 61.0, 11.0));
+    }
+
+    @Test
+    public void testFindNearOrderedByDistance() {
+        SiriObjectStorageKey near = key("TST", "near");
+        SiriObjectStorageKey further = key("TST", "further");
+        SiriObjectStorageKey outside = key("TST", "outside");
+
+        // About 1.1 km, 2.2 km and 3.3 km north
+        index.update(further, activity(59.930, 10.750));
+        index.update(outside, activity(59.940, 10.750));
+        index.update(near, activity(59.920, 10.750));
+
+        assertEquals(List.of(near, further), index.findNear(59.910, 10.750, 3000, null, Integer.MAX_VALUE));
+        assertEquals(List.of(near), index.findNear(59.910, 10.750, 3000, null, 1));
+        assertEquals(List.of(), index.findNear(59.910, 10.750, 1000, null, Integer.MAX_VALUE));
+
+        // About 2.8 km east - within the radius, although 0.05 degrees away
+        SiriObjectStorageKey east = key("TST", "east");
+        index.update(east, activity(59.910, 10.800));
+        assertEquals(List.of(near, further, east), index.findNear(59.910, 10.750, 3000, null, Integer.MAX_VALUE));
+    }
+
+    @Test
+    public void testDatasetFilterAndMaxSize() {
+        for (int i = 0; i < 10; i++) {
+            index.update(key(i % 2 == 0 ? "TST" : "OTH", "vehicle-" + i), activity(59.9 + i * 0.001, 10.75));
+        }
+
+        List<SiriObjectStorageKey> result = index.findWithin(59.0, 10.0, 61.0, 11.0, "TST", Integer.MAX_VALUE);
+        assertEquals(5, result.size());
+        assertTrue(result.stream().allMatch(key -> "TST".equals(key.getCodespaceId())));
+
+        assertEquals(3, index.findWithin(59.0, 10.0, 61.0, 11.0, null, 3).size());
+        assertEquals(List.of(key("OTH", "vehicle-1"), key("OTH", "vehicle-3")),
+                index.findNear(59.9, 10.75, 1000, "OTH", 2));
+
+        index.clear();
+        assertEquals(0, index.getIndexedVehicleCount());
+        assertEquals(List.of(), findWithin(59.0, 10.0, 61.0, 11.0));
+    }
+
+    private List<SiriObjectStorageKey> findWithin(double minLatitude, double minLongitude, double maxLatitude, double maxLongitude) {
+        return index.findWithin(minLatitude, minLongitude, maxLatitude, maxLongitude, null, Integer.MAX_VALUE);
+    }
+
+    private static SiriObjectStorageKey key(String codespaceId, String id) {
+        return new SiriObjectStorageKey(codespaceId, null, id);
+    }
+
+    private static VehicleActivityStructure activity(Double latitude, Double longitude) {
+        LocationStructure location = new LocationStructure();
+        location.setLatitude(latitude != null ? BigDecimal.valueOf(latitude) : null);
+        location.setLongitude(longitude != null ? BigDecimal.valueOf(longitude) : null);
+
+        VehicleActivityStructure.MonitoredVehicleJourney monitoredVehicleJourney = new VehicleActivityStructure.MonitoredVehicleJourney();
+        monitoredVehicleJourney.setVehicleLocation(location);
+
+        VehicleActivityStructure activity = new VehicleActivityStructure();
+        activity.setMonitoredVehicleJourney(monitoredVehicleJourney);
+        return activity;
+    }
+}
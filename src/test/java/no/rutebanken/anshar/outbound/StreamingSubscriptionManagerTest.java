@@ -0,0 +1,108 @@
+/*
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ *   https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ */
+
+package no.rutebanken.anshar.outbound;
+
+import no.rutebanken.anshar.routes.outbound.StreamingSubscription;
+import no.rutebanken.anshar.routes.outbound.StreamingSubscriptionManager;
+import no.rutebanken.anshar.subscription.SiriDataType;
+import org.junit.jupiter.api.Test;
+import uk.org.siri.siri21.Siri;
+
+import java.util.HashMap;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class StreamingSubscriptionManagerTest {
+
+    @Test
+    public void testPushToMatchingSubscriptions() throws Exception {
+        StreamingSubscriptionManager manager = new StreamingSubscriptionManager(10, 10);
+
+        StreamingSubscription allEt = manager.register(SiriDataType.ESTIMATED_TIMETABLE, null, new HashMap<>(), "test");
+        StreamingSubscription datasetEt = manager.register(SiriDataType.ESTIMATED_TIMETABLE, "RUT", new HashMap<>(), "test");
+        StreamingSubscription vm = manager.register(SiriDataType.VEHICLE_MONITORING, null, new HashMap<>(), "test");
+
+        Siri delivery = new Siri();
+        manager.push(SiriDataType.ESTIMATED_TIMETABLE, delivery, "BNR");
+
+        assertSame(delivery, allEt.poll(0, TimeUnit.MILLISECONDS));
+        assertNull(datasetEt.poll(0, TimeUnit.MILLISECONDS));
+        assertNull(vm.poll(0, TimeUnit.MILLISECONDS));
+
+        manager.push(SiriDataType.ESTIMATED_TIMETABLE, delivery, "RUT");
+        assertSame(delivery, allEt.poll(0, TimeUnit.MILLISECONDS));
+        assertSame(delivery, datasetEt.poll(0, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void testSlowConsumerIsDisconnected() {
+        StreamingSubscriptionManager manager = new StreamingSubscriptionManager(10, 2);
+
+        StreamingSubscription subscription = manager.register(SiriDataType.SITUATION_EXCHANGE, null, new HashMap<>(), "test");
+
+        manager.push(SiriDataType.SITUATION_EXCHANGE, new Siri(), "RUT");
+        manager.push(SiriDataType.SITUATION_EXCHANGE, new Siri(), "RUT");
+        assertFalse(subscription.isClosed());
+        assertEquals(2, subscription.getBufferedCount());
+
+        manager.push(SiriDataType.SITUATION_EXCHANGE, new Siri(), "RUT");
+        assertTrue(subscription.isClosed());
+        assertTrue(subscription.isSlowConsumer());
+        assertEquals(1, manager.getSlowConsumerCount());
+        assertEquals(0, manager.getConnectionCount());
+    }
+
+    @Test
+    public void testSlowConsumerIsDisconnectedWhileSnapshotIsWritten() throws Exception {
+        StreamingSubscriptionManager manager = new StreamingSubscriptionManager(10, 2);
+
+        // Not polled while the snapshot is written
+        StreamingSubscription subscription = manager.register(SiriDataType.ESTIMATED_TIMETABLE, null, new HashMap<>(), "test");
+
+        Siri first = new Siri();
+        manager.push(SiriDataType.ESTIMATED_TIMETABLE, first, "RUT");
+        manager.push(SiriDataType.ESTIMATED_TIMETABLE, new Siri(), "RUT");
+        assertFalse(subscription.isClosed());
+        assertSame(first, subscription.poll(0, TimeUnit.MILLISECONDS));
+
+        manager.push(SiriDataType.ESTIMATED_TIMETABLE, new Siri(), "RUT");
+        manager.push(SiriDataType.ESTIMATED_TIMETABLE, new Siri(), "RUT");
+        assertTrue(subscription.isClosed());
+        assertTrue(subscription.isSlowConsumer());
+        assertEquals(2, subscription.getBufferedCount());
+        assertEquals(1, manager.getSlowConsumerCount());
+    }
+
+    @Test
+    public void testMaxConnections() {
+        StreamingSubscriptionManager manager = new StreamingSubscriptionManager(2, 10);
+
+        StreamingSubscription first = manager.register(SiriDataType.VEHICLE_MONITORING, null, new HashMap<>(), "test");
+        manager.register(SiriDataType.VEHICLE_MONITORING, null, new HashMap<>(), "test");
+        assertNull(manager.register(SiriDataType.VEHICLE_MONITORING, null, new HashMap<>(), "test"));
+        assertEquals(1, manager.getRejectedCount());
+
+        manager.remove(first);
+        assertTrue(first.isClosed());
+        assertEquals(1, manager.getConnectionCount());
+        assertTrue(manager.register(SiriDataType.VEHICLE_MONITORING, null, new HashMap<>(), "test") != null);
+    }
+}
@@ -0,0 +1,121 @@
+package no.rutebanken.anshar.routes.dataformat;
+
+import jakarta.xml.bind.ValidationEvent;
+import jakarta.xml.bind.ValidationEventHandler;
+import org.entur.siri21.util.SiriXml;
+import org.junit.jupiter.api.Test;
+import uk.org.siri.siri21.Siri;
+
+import javax.xml.transform.stream.StreamSource;
+import java.io.FileInputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class JaxbPoolTest {
+
+    private static final String[] TEST_FILES = {
+            "src/test/resources/siri-et-from-bnr.xml",
+            "src/test/resources/siri-et-gir-npe.xml"
+    };
+
+    @Test
+    public void testUnmarshalMatchesSiriXml() throws Exception {
+        for (String file : TEST_FILES) {
+            Siri expected = SiriXml.parseXml(new FileInputStream(file));
+            Siri actual = JaxbPool.SIRI_21.unmarshal(new FileInputStream(file), Siri.class);
+
+            assertNotNull(actual);
+            assertEquals(SiriXml.toXml(expected), SiriXml.toXml(actual));
+        }
+    }
+
+    @Test
+    public void testConvertMatchesXmlRoundTrip() throws Exception {
+        for (String file : TEST_FILES) {
+            Siri siri = SiriXml.parseXml(new FileInputStream(file));
+
+            uk.org.siri.siri20.Siri expected = org.rutebanken.siri20.util.SiriXml.parseXml(SiriXml.toXml(siri));
+            uk.org.siri.siri20.Siri actual = JaxbPool.SIRI_21.convert(siri, JaxbPool.SIRI_20, uk.org.siri.siri20.Siri.class);
+
+            assertEquals(org.rutebanken.siri20.util.SiriXml.toXml(expected), org.rutebanken.siri20.util.SiriXml.toXml(actual));
+        }
+    }
+
+    @Test
+    public void testInstancesAreReused() throws Exception {
+        JaxbPool pool = new JaxbPool("test", Siri.class, null, 2);
+        for (int i = 0; i < 10; i++) {
+            pool.unmarshal(new FileInputStream(TEST_FILES[0]), Siri.class);
+        }
+        assertEquals(1, pool.getCreatedCount());
+        assertEquals(10, pool.getBorrowedCount());
+        assertEquals(0, pool.getActiveCount());
+        assertEquals(1, pool.getIdleCount());
+    }
+
+    @Test
+    public void testPoolIsBounded() throws Exception {
+        int poolSize = 2;
+        JaxbPool pool = new JaxbPool("test", Siri.class, null, poolSize);
+
+        AtomicInteger maxActive = new AtomicInteger();
+        ExecutorService executorService = Executors.newFixedThreadPool(8);
+        List<Future<?>> futures = new ArrayList<>();
+        for (int i = 0; i < 32; i++) {
+            futures.add(executorService.submit(() -> pool.withUnmarshaller(unmarshaller -> {
+                maxActive.accumulateAndGet(pool.getActiveCount(), Math::max);
+                try {
+                    Thread.sleep(10);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return null;
+            })));
+        }
+        for (Future<?> future : futures) {
+            future.get();
+        }
+        executorService.shutdown();
+        executorService.awaitTermination(10, TimeUnit.SECONDS);
+
+        assertTrue(maxActive.get() <= poolSize);
+        assertTrue(pool.getIdleCount() <= poolSize);
+        assertEquals(0, pool.getActiveCount());
+        assertEquals(32, pool.getBorrowedCount());
+    }
+
+    @Test
+    public void testValidatingPoolResetsEventHandler() throws Exception {
+        SiriValidationCounter counter = new SiriValidationCounter();
+        Siri siri = JaxbPool.SIRI_21_VALIDATING.withUnmarshaller(unmarshaller -> {
+            unmarshaller.setEventHandler(counter);
+            return unmarshaller.unmarshal(new StreamSource(new FileInputStream(TEST_FILES[0])), Siri.class).getValue();
+        });
+        assertNotNull(siri);
+
+        // Event-handler is reset when returned to the pool
+        JaxbPool.SIRI_21_VALIDATING.withUnmarshaller(unmarshaller -> {
+            assertTrue(unmarshaller.getSchema() != null);
+            assertTrue(unmarshaller.getEventHandler() != counter);
+            return null;
+        });
+    }
+
+    private static class SiriValidationCounter implements ValidationEventHandler {
+        int count;
+        @Override
+        public boolean handleEvent(ValidationEvent event) {
+            count++;
+            return true;
+        }
+    }
+}
@@ -0,0 +1,112 @@
+package no.rutebanken.anshar.routes.dataformat;
+
+import no.rutebanken.anshar.routes.RestRouteBuilder;
+import org.entur.siri21.util.SiriXml;
+import org.junit.jupiter.api.Test;
+import uk.org.siri.siri21.EstimatedVehicleJourney;
+import uk.org.siri.siri21.Siri;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FileInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class SiriStreamingXmlWriterTest {
+
+    private static final String TEST_FILE = "src/test/resources/siri-et-from-bnr.xml";
+
+    @Test
+    public void testStreamedOutputMatchesCompleteDelivery() throws Exception {
+        Siri siri = SiriXml.parseXml(new FileInputStream(TEST_FILE));
+        List<EstimatedVehicleJourney> journeys = getJourneys(siri);
+        int journeyCount = journeys.size();
+
+        String expected = SiriXml.toXml(siri);
+
+        AtomicInteger batchCounter = new AtomicInteger();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        int written = write(siri, 10, batchCounter, true, out);
+
+        assertEquals(journeyCount, written);
+        assertEquals((journeyCount + 9) / 10, batchCounter.get());
+        assertEquals(expected, out.toString(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void testStreamedSiri20OutputMatchesCompleteDelivery() throws Exception {
+        Siri siri = SiriXml.parseXml(new FileInputStream(TEST_FILE));
+
+        String expected = org.rutebanken.siri20.util.SiriXml.toXml(RestRouteBuilder.downgradeSiriVersion(siri));
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        write(siri, 25, new AtomicInteger(), false, out);
+
+        assertEquals(expected, out.toString(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void testEmptyDelivery() throws Exception {
+        Siri siri = SiriXml.parseXml(new FileInputStream(TEST_FILE));
+        getJourneys(siri).clear();
+
+        String expected = SiriXml.toXml(siri);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        write(siri, 10, new AtomicInteger(), true, out);
+
+        assertEquals(expected, out.toString(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void testFindClosingTag() {
+        byte[] frameEnd = "EstimatedJourneyVersionFrame>".getBytes(StandardCharsets.UTF_8);
+
+        String xml = "<Siri><EstimatedJourneyVersionFrame><RecordedAtTime/></EstimatedJourneyVersionFrame></Siri>";
+        assertEquals(xml.indexOf("</EstimatedJourneyVersionFrame>"),
+            SiriStreamingXmlWriter.findClosingTag(xml.getBytes(StandardCharsets.UTF_8), frameEnd));
+
+        String prefixed = "<ns1:Siri><ns1:EstimatedJourneyVersionFrame></ns1:EstimatedJourneyVersionFrame></ns1:Siri>";
+        assertEquals(prefixed.indexOf("</ns1:EstimatedJourneyVersionFrame>"),
+            SiriStreamingXmlWriter.findClosingTag(prefixed.getBytes(StandardCharsets.UTF_8), frameEnd));
+
+        assertThrows(IllegalArgumentException.class, () -> SiriStreamingXmlWriter.findClosingTag(
+            "<Siri><OtherEstimatedJourneyVersionFrame></OtherEstimatedJourneyVersionFrame></Siri>".getBytes(StandardCharsets.UTF_8), frameEnd));
+    }
+
+    /**
+     * Removes journeys from the delivery, and writes them in batches
+     */
+    private static int write(Siri siri, int batchSize, AtomicInteger batchCounter, boolean siri21Version, ByteArrayOutputStream out) throws Exception {
+        List<EstimatedVehicleJourney> journeys = new ArrayList<>(getJourneys(siri));
+        getJourneys(siri).clear();
+
+        List<Integer> ids = IntStream.range(0, journeys.size()).boxed().collect(Collectors.toList());
+        int written = SiriStreamingXmlWriter.writeEstimatedTimetableDelivery(siri, ids, batchSize, batch -> {
+            batchCounter.incrementAndGet();
+            return batch.stream().map(journeys::get).collect(Collectors.toList());
+        }, envelope -> {
+            if (siri21Version) {
+                return SiriXml.toXml(envelope).getBytes(StandardCharsets.UTF_8);
+            }
+            return org.rutebanken.siri20.util.SiriXml.toXml(RestRouteBuilder.downgradeSiriVersion(envelope)).getBytes(StandardCharsets.UTF_8);
+        }, out);
+
+        // Envelope is left empty
+        assertTrue(getJourneys(siri).isEmpty());
+        return written;
+    }
+
+    private static List<EstimatedVehicleJourney> getJourneys(Siri siri) {
+        return siri.getServiceDelivery().getEstimatedTimetableDeliveries().get(0)
+            .getEstimatedJourneyVersionFrames().get(0)
+            .getEstimatedVehicleJourneies();
+    }
+}
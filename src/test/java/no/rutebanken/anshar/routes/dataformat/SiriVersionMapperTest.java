@@ -0,0 +1,79 @@
+package no.rutebanken.anshar.routes.dataformat;
+
+import org.entur.siri21.util.SiriXml;
+import org.junit.jupiter.api.Test;
+import uk.org.siri.siri21.Siri;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class SiriVersionMapperTest {
+
+    @Test
+    public void testMappingMatchesXmlRoundTrip() throws Exception {
+        List<File> files = getSiriTestFiles();
+        assertFalse(files.isEmpty());
+
+        for (File file : files) {
+            Siri siri = SiriXml.parseXml(new FileInputStream(file));
+
+            // Baseline conversion - marshalled as SIRI 2.1 and unmarshalled as SIRI 2.0
+            uk.org.siri.siri20.Siri expected = org.rutebanken.siri20.util.SiriXml.parseXml(SiriXml.toXml(siri));
+            uk.org.siri.siri20.Siri actual = SiriVersionMapper.SIRI_21_TO_20.map(siri, uk.org.siri.siri20.Siri.class);
+
+            assertEquals(org.rutebanken.siri20.util.SiriXml.toXml(expected), org.rutebanken.siri20.util.SiriXml.toXml(actual), file.getName());
+        }
+        assertEquals(0, SiriVersionMapper.SIRI_21_TO_20.getFallbackCount());
+    }
+
+    @Test
+    public void testSourceIsNotModified() throws Exception {
+        for (File file : getSiriTestFiles()) {
+            Siri siri = SiriXml.parseXml(new FileInputStream(file));
+            String before = SiriXml.toXml(siri);
+
+            uk.org.siri.siri20.Siri mapped = SiriVersionMapper.SIRI_21_TO_20.map(siri, uk.org.siri.siri20.Siri.class);
+            mapped.setVersion("2.0");
+
+            assertNotSame(siri.getServiceDelivery(), mapped.getServiceDelivery());
+            assertEquals(before, SiriXml.toXml(siri));
+        }
+    }
+
+    @Test
+    public void testChangedValueTypeIsNotDropped() {
+        no.rutebanken.anshar.routes.dataformat.siri21.VersionedValue source = new no.rutebanken.anshar.routes.dataformat.siri21.VersionedValue();
+        source.name = "name";
+
+        no.rutebanken.anshar.routes.dataformat.siri20.VersionedValue mapped =
+            SiriVersionMapper.SIRI_21_TO_20.map(source, no.rutebanken.anshar.routes.dataformat.siri20.VersionedValue.class);
+        assertEquals("name", mapped.name);
+
+        // Value would be parsed as the new type when converted via XML - must not be mapped to null
+        source.count = "42";
+        assertThrows(IllegalStateException.class, () ->
+            SiriVersionMapper.SIRI_21_TO_20.map(source, no.rutebanken.anshar.routes.dataformat.siri20.VersionedValue.class));
+    }
+
+    private static List<File> getSiriTestFiles() throws Exception {
+        List<File> files = new ArrayList<>();
+        File[] candidates = new File("src/test/resources").listFiles((dir, name) -> name.endsWith(".xml"));
+        if (candidates != null) {
+            for (File file : candidates) {
+                String content = Files.readString(file.toPath());
+                if (content.contains("http://www.siri.org.uk/siri")) {
+                    files.add(file);
+                }
+            }
+        }
+        return files;
+    }
+}
@@ -0,0 +1,17 @@
+package no.rutebanken.anshar.routes.dataformat.siri20;
+
+import jakarta.xml.bind.annotation.XmlElement;
+
+import java.math.BigInteger;
+
+/**
+ * Test model for SiriVersionMapper - Count has another type than in the SIRI 2.1 model
+ */
+public class VersionedValue {
+
+    @XmlElement(name = "Name")
+    public String name;
+
+    @XmlElement(name = "Count")
+    public BigInteger count;
+}
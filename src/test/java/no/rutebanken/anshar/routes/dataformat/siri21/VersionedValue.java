@@ -0,0 +1,15 @@
+package no.rutebanken.anshar.routes.dataformat.siri21;
+
+import jakarta.xml.bind.annotation.XmlElement;
+
+/**
+ * Test model for SiriVersionMapper - the package name identifies the SIRI version
+ */
+public class VersionedValue {
+
+    @XmlElement(name = "Name")
+    public String name;
+
+    @XmlElement(name = "Count")
+    public String count;
+}
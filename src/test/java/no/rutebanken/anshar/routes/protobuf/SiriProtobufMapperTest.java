@@ -0,0 +1,61 @@
+package no.rutebanken.anshar.routes.protobuf;
+
+import no.rutebanken.anshar.routes.dataformat.JaxbPool;
+import no.rutebanken.anshar.routes.dataformat.SiriVersionMapper;
+import org.entur.protobuf.mapper.SiriMapper;
+import org.entur.siri21.util.SiriXml;
+import org.junit.jupiter.api.Test;
+import uk.org.siri.siri21.Siri;
+import uk.org.siri.www.siri.SiriType;
+
+import java.io.FileInputStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+public class SiriProtobufMapperTest {
+
+    private static final String[] TEST_FILES = {
+            "src/test/resources/siri-et-from-bnr.xml",
+            "src/test/resources/siri-et-gir-npe.xml",
+            "src/test/resources/siri-vm.xml",
+            "src/test/resources/siri-sx.xml"
+    };
+
+    @Test
+    public void testMapToPbfMatchesXmlPath() throws Exception {
+        for (String file : TEST_FILES) {
+            Siri siri = SiriXml.parseXml(new FileInputStream(file));
+
+            SiriType expected = SiriMapper.mapToPbf(JaxbPool.SIRI_21.convert(siri, JaxbPool.SIRI_20, uk.org.siri.siri20.Siri.class));
+            SiriType actual = SiriMapper.mapToPbf(SiriVersionMapper.SIRI_21_TO_20.map(siri, uk.org.siri.siri20.Siri.class));
+
+            assertEquals(expected, actual, file);
+        }
+    }
+
+    @Test
+    public void testMapToJaxbMatchesXmlPath() throws Exception {
+        for (String file : TEST_FILES) {
+            Siri siri = SiriXml.parseXml(new FileInputStream(file));
+            SiriType pbf = SiriType.parseFrom(SiriProtobufMapper.mapToPbf(siri).toByteArray());
+
+            Siri expected = JaxbPool.SIRI_20.convert(SiriMapper.mapToJaxb(pbf), JaxbPool.SIRI_21, Siri.class);
+            Siri actual = SiriProtobufMapper.mapToJaxb(pbf);
+
+            assertEquals(SiriXml.toXml(expected), SiriXml.toXml(actual), file);
+        }
+        assertEquals(0, SiriVersionMapper.SIRI_20_TO_21.getFallbackCount());
+    }
+
+    @Test
+    public void testRoundTrip() throws Exception {
+        for (String file : TEST_FILES) {
+            Siri siri = SiriXml.parseXml(new FileInputStream(file));
+
+            SiriType pbf = SiriProtobufMapper.mapToPbf(siri);
+            Siri roundTrip = SiriProtobufMapper.mapToJaxb(SiriType.parseFrom(pbf.toByteArray()));
+
+            assertEquals(pbf, SiriProtobufMapper.mapToPbf(roundTrip), file);
+        }
+    }
+}
@@ -0,0 +1,40 @@
+package no.rutebanken.anshar.routes.pubsub;
+
+import org.apache.camel.CamelContext;
+import org.apache.camel.Exchange;
+import org.apache.camel.impl.DefaultCamelContext;
+import org.apache.camel.support.DefaultExchange;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static no.rutebanken.anshar.routes.pubsub.AvroBatchAggregationStrategy.BATCH_SIZE_BYTES;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+public class AvroBatchAggregationStrategyTest {
+
+    private final CamelContext context = new DefaultCamelContext();
+
+    @Test
+    public void testAggregateBatch() {
+        AvroBatchAggregationStrategy strategy = new AvroBatchAggregationStrategy();
+
+        Exchange batch = strategy.aggregate(null, createExchange(new byte[10], "first"));
+        batch = strategy.aggregate(batch, createExchange(new byte[20], "second"));
+        batch = strategy.aggregate(batch, createExchange(new byte[5], "third"));
+
+        List<?> records = batch.getIn().getBody(List.class);
+        assertEquals(3, records.size());
+        assertArrayEquals(new byte[20], (byte[]) records.get(1));
+        assertEquals(35L, batch.getProperty(BATCH_SIZE_BYTES, Long.class));
+        assertEquals("first", batch.getIn().getHeader("id"));
+    }
+
+    private Exchange createExchange(byte[] body, String id) {
+        Exchange exchange = new DefaultExchange(context);
+        exchange.getIn().setBody(body);
+        exchange.getIn().setHeader("id", id);
+        return exchange;
+    }
+}
@@ -0,0 +1,82 @@
+package no.rutebanken.anshar.routes.pubsub;
+
+import org.apache.avro.SchemaNormalization;
+import org.apache.avro.io.DecoderFactory;
+import org.apache.avro.specific.SpecificDatumReader;
+import org.apache.camel.Exchange;
+import org.apache.camel.component.google.pubsub.GooglePubsubConstants;
+import org.apache.camel.impl.DefaultCamelContext;
+import org.apache.camel.support.DefaultExchange;
+import org.entur.avro.realtime.siri.converter.Converter;
+import org.entur.avro.realtime.siri.model.EstimatedVehicleJourneyRecord;
+import org.entur.siri21.util.SiriXml;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import uk.org.siri.siri21.Siri;
+
+import java.io.FileInputStream;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class SiriAvroBinarySerializerTest {
+
+    private static List<EstimatedVehicleJourneyRecord> records;
+
+    private final SiriAvroBinarySerializer serializer = new SiriAvroBinarySerializer();
+
+    @BeforeAll
+    public static void init() throws Exception {
+        Siri siri = SiriXml.parseXml(new FileInputStream("src/test/resources/siri-et-from-bnr.xml"));
+        records = Converter.jaxb2Avro(siri).getServiceDelivery().getEstimatedTimetableDeliveries().get(0)
+                .getEstimatedJourneyVersionFrames().get(0).getEstimatedVehicleJourneys();
+    }
+
+    @Test
+    public void testRoundTrip() throws Exception {
+        SpecificDatumReader<EstimatedVehicleJourneyRecord> reader = new SpecificDatumReader<>(EstimatedVehicleJourneyRecord.class);
+
+        for (EstimatedVehicleJourneyRecord record : records) {
+            byte[] bytes = serializer.serialize(record);
+            assertEquals(record, reader.read(null, DecoderFactory.get().binaryDecoder(bytes, null)));
+        }
+    }
+
+    @Test
+    public void testSchemaFingerprintAttribute() throws Exception {
+        Exchange exchange = new DefaultExchange(new DefaultCamelContext());
+        exchange.getMessage().setBody(records.get(0));
+
+        serializer.process(exchange);
+
+        assertTrue(exchange.getMessage().getBody() instanceof byte[]);
+
+        Map<String, String> attributes = exchange.getMessage().getHeader(GooglePubsubConstants.ATTRIBUTES, Map.class);
+        assertEquals(String.format("%016x", SchemaNormalization.parsingFingerprint64(EstimatedVehicleJourneyRecord.SCHEMA$)),
+                attributes.get(SiriAvroBinarySerializer.SCHEMA_FINGERPRINT_ATTRIBUTE));
+        assertEquals(EstimatedVehicleJourneyRecord.SCHEMA$.getFullName(),
+                attributes.get(SiriAvroBinarySerializer.SCHEMA_NAME_ATTRIBUTE));
+
+        // Attributes are reused for the same schema
+        assertSame(attributes, serializer.getAttributes(EstimatedVehicleJourneyRecord.SCHEMA$));
+    }
+
+    @Test
+    public void testBinaryIsSmallerThanJson() throws Exception {
+        long binarySize = 0;
+        long jsonSize = 0;
+        SiriAvroJsonSerializer jsonSerializer = new SiriAvroJsonSerializer();
+        for (EstimatedVehicleJourneyRecord record : records) {
+            Exchange exchange = new DefaultExchange(new DefaultCamelContext());
+            exchange.getMessage().setBody(record);
+            jsonSerializer.process(exchange);
+
+            jsonSize += exchange.getMessage().getBody(String.class).length();
+            binarySize += serializer.serialize(record).length;
+        }
+        assertTrue(binarySize < jsonSize, "Binary: " + binarySize + ", JSON: " + jsonSize);
+    }
+}
@@ -0,0 +1,107 @@
+package no.rutebanken.anshar.routes.pubsub;
+
+import org.entur.avro.realtime.siri.converter.Converter;
+import org.entur.avro.realtime.siri.model.SiriRecord;
+import org.entur.siri21.util.SiriXml;
+import org.junit.jupiter.api.Test;
+import org.w3c.dom.Document;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+import uk.org.siri.siri21.EstimatedVehicleJourney;
+import uk.org.siri.siri21.Siri;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.transform.Transformer;
+import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.dom.DOMResult;
+import javax.xml.transform.dom.DOMSource;
+import javax.xml.transform.stream.StreamResult;
+import javax.xml.transform.stream.StreamSource;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class SiriDeliverySplitterTest {
+
+    private static final String[] TEST_FILES = {
+            "src/test/resources/siri-et-from-bnr.xml",
+            "src/test/resources/siri-et-gir-npe.xml",
+            "src/test/resources/siri-vm.xml",
+            "src/test/resources/siri-sx.xml"
+    };
+
+    @Test
+    public void testSplitEstimatedTimetable() throws Exception {
+        Siri siri = SiriXml.parseXml(new FileInputStream(TEST_FILES[0]));
+        List<EstimatedVehicleJourney> journeys = siri.getServiceDelivery().getEstimatedTimetableDeliveries().get(0)
+            .getEstimatedJourneyVersionFrames().get(0).getEstimatedVehicleJourneies();
+
+        List<Siri> split = SiriDeliverySplitter.split(siri);
+
+        assertEquals(journeys.size(), split.size());
+        for (int i = 0; i < split.size(); i++) {
+            Siri single = split.get(i);
+            assertEquals("2.0", single.getVersion());
+            assertEquals(siri.getServiceDelivery().getProducerRef(), single.getServiceDelivery().getProducerRef());
+            List<EstimatedVehicleJourney> singleJourneys = single.getServiceDelivery().getEstimatedTimetableDeliveries().get(0)
+                .getEstimatedJourneyVersionFrames().get(0).getEstimatedVehicleJourneies();
+            assertEquals(1, singleJourneys.size());
+            assertSame(journeys.get(i), singleJourneys.get(0));
+        }
+    }
+
+    @Test
+    public void testEmptyDelivery() {
+        assertTrue(SiriDeliverySplitter.split(null).isEmpty());
+        assertTrue(SiriDeliverySplitter.split(new Siri()).isEmpty());
+    }
+
+    /**
+     * Compares Avro-records with the previous path: XML, split.xsl, and parsing each message
+     */
+    @Test
+    public void testAvroMatchesXmlPath() throws Exception {
+        Transformer transformer = TransformerFactory.newInstance()
+            .newTransformer(new StreamSource(new File("src/main/resources/xsl/split.xsl")));
+
+        for (String file : TEST_FILES) {
+            Siri siri = SiriXml.parseXml(new FileInputStream(file));
+
+            List<SiriRecord> expected = new ArrayList<>();
+            DOMResult result = new DOMResult();
+            transformer.transform(new StreamSource(new ByteArrayInputStream(SiriXml.toXml(siri).getBytes(StandardCharsets.UTF_8))), result);
+            NodeList messages = ((Document) result.getNode()).getDocumentElement().getChildNodes();
+            for (int i = 0; i < messages.getLength(); i++) {
+                expected.add(Converter.jaxb2Avro(SiriXml.parseXml(toXml(messages.item(i)))));
+            }
+
+            List<SiriRecord> actual = new ArrayList<>();
+            for (Siri single : SiriDeliverySplitter.split(siri)) {
+                actual.add(Converter.jaxb2Avro(single));
+            }
+
+            assertFalse(actual.isEmpty(), file);
+            assertEquals(expected.size(), actual.size(), file);
+            for (int i = 0; i < expected.size(); i++) {
+                assertEquals(expected.get(i).getServiceDelivery(), actual.get(i).getServiceDelivery(), file + " message " + i);
+            }
+        }
+    }
+
+    private static String toXml(Node node) throws Exception {
+        StringWriter writer = new StringWriter();
+        Document document = DocumentBuilderFactory.newInstance().newDocumentBuilder().newDocument();
+        document.appendChild(document.importNode(node, true));
+        TransformerFactory.newInstance().newTransformer().transform(new DOMSource(document), new StreamResult(writer));
+        return writer.toString();
+    }
+}
@@ -0,0 +1,172 @@
+package no.rutebanken.anshar.routes.siri.helpers;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class SnapshotCacheTest {
+
+    @Test
+    public void testReusedUntilVersionChanges() throws Exception {
+        SnapshotCache cache = new SnapshotCache(60_000, 1024, 4096);
+        AtomicInteger loadCounter = new AtomicInteger();
+
+        SnapshotCache.Snapshot first = get(cache, "sx", 1, 10, loadCounter);
+        SnapshotCache.Snapshot second = get(cache, "sx", 1, 10, loadCounter);
+
+        assertSame(first, second);
+        assertEquals(1, loadCounter.get());
+        assertEquals(1, cache.getHitCount());
+        assertEquals(1, cache.getMissCount());
+
+        SnapshotCache.Snapshot third = get(cache, "sx", 2, 10, loadCounter);
+        assertEquals(2, loadCounter.get());
+        assertEquals(10, cache.getSizeBytes());
+        assertEquals(1, cache.getEntryCount());
+        assertTrue(first != third);
+    }
+
+    @Test
+    public void testExpiredByAge() throws Exception {
+        SnapshotCache cache = new SnapshotCache(0, 1024, 4096);
+        AtomicInteger loadCounter = new AtomicInteger();
+
+        get(cache, "sx", 1, 10, loadCounter);
+        Thread.sleep(5);
+        get(cache, "sx", 1, 10, loadCounter);
+
+        assertEquals(2, loadCounter.get());
+    }
+
+    @Test
+    public void testEntrySizeLimit() throws Exception {
+        SnapshotCache cache = new SnapshotCache(60_000, 100, 4096);
+        AtomicInteger loadCounter = new AtomicInteger();
+
+        SnapshotCache.Snapshot snapshot = get(cache, "et", 1, 101, loadCounter);
+        assertEquals(101, snapshot.getBody().length);
+        get(cache, "et", 1, 101, loadCounter);
+
+        assertEquals(2, loadCounter.get());
+        assertEquals(2, cache.getRejectedCount());
+        assertEquals(0, cache.getSizeBytes());
+    }
+
+    @Test
+    public void testLeastRecentlyUsedIsEvicted() throws Exception {
+        SnapshotCache cache = new SnapshotCache(60_000, 100, 250);
+        AtomicInteger loadCounter = new AtomicInteger();
+
+        get(cache, "a", 1, 100, loadCounter);
+        get(cache, "b", 1, 100, loadCounter);
+        get(cache, "a", 1, 100, loadCounter);
+        get(cache, "c", 1, 100, loadCounter);
+
+        assertEquals(3, loadCounter.get());
+        assertEquals(1, cache.getEvictionCount());
+        assertEquals(200, cache.getSizeBytes());
+
+        // "b" was least recently used
+        get(cache, "a", 1, 100, loadCounter);
+        assertEquals(3, loadCounter.get());
+        get(cache, "b", 1, 100, loadCounter);
+        assertEquals(4, loadCounter.get());
+    }
+
+    @Test
+    public void testConcurrentRequestsWaitForReservedSnapshot() throws Exception {
+        SnapshotCache cache = new SnapshotCache(60_000, 1024, 4096);
+
+        SnapshotCache.Reservation reservation = cache.reserve("vm", 1);
+        assertNotNull(reservation);
+        // Only one request may create the snapshot
+        assertNull(cache.reserve("vm", 1));
+
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        Future<SnapshotCache.Snapshot> second = executor.submit(() -> cache.get("vm", 1));
+        Future<SnapshotCache.Snapshot> third = executor.submit(() -> cache.get("vm", 1));
+
+        SnapshotCache.Snapshot snapshot = new SnapshotCache.Snapshot(new byte[10], 1);
+        cache.put(reservation, snapshot);
+
+        assertSame(snapshot, second.get(10, TimeUnit.SECONDS));
+        assertSame(snapshot, third.get(10, TimeUnit.SECONDS));
+        assertEquals(1, cache.getMissCount());
+
+        executor.shutdown();
+    }
+
+    @Test
+    public void testWaitForStalledCreatorIsBounded() throws Exception {
+        SnapshotCache cache = new SnapshotCache(100, 1024, 4096);
+
+        // Never completed
+        SnapshotCache.Reservation reservation = cache.reserve("et", 1);
+        assertNotNull(reservation);
+
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        Future<SnapshotCache.Snapshot> waiting = executor.submit(() -> cache.get("et", 1));
+
+        // Served without caching when max age has passed
+        assertNull(waiting.get(10, TimeUnit.SECONDS));
+        assertEquals(1, cache.getTimeoutCount());
+        assertNull(cache.reserve("et", 1));
+
+        executor.shutdown();
+    }
+
+    @Test
+    public void testWaitingRequestsReleasedWhenRejected() throws Exception {
+        SnapshotCache cache = new SnapshotCache(60_000, 100, 4096);
+
+        SnapshotCache.Reservation reservation = cache.reserve("et", 1);
+
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        Future<SnapshotCache.Snapshot> waiting = executor.submit(() -> cache.get("et", 1));
+
+        cache.reject(reservation);
+        // Completing after rejection is ignored
+        cache.put(reservation, new SnapshotCache.Snapshot(new byte[10], 1));
+
+        assertNull(waiting.get(10, TimeUnit.SECONDS));
+        assertEquals(1, cache.getRejectedCount());
+        assertEquals(0, cache.getEntryCount());
+        // Rejected snapshot may be reserved again
+        assertNotNull(cache.reserve("et", 1));
+
+        executor.shutdown();
+    }
+
+    @Test
+    public void testCancelledReservationIsReleased() throws Exception {
+        SnapshotCache cache = new SnapshotCache(60_000, 1024, 4096);
+
+        SnapshotCache.Reservation reservation = cache.reserve("sx", 1);
+        cache.cancel(reservation);
+
+        assertNull(cache.get("sx", 1));
+        assertNotNull(cache.reserve("sx", 1));
+        assertEquals(0, cache.getRejectedCount());
+    }
+
+    private static SnapshotCache.Snapshot get(SnapshotCache cache, String key, long version, int size, AtomicInteger loadCounter) throws Exception {
+        SnapshotCache.Snapshot snapshot = cache.get(key, version);
+        if (snapshot == null) {
+            SnapshotCache.Reservation reservation = cache.reserve(key, version);
+            loadCounter.incrementAndGet();
+            snapshot = new SnapshotCache.Snapshot(new byte[size], 1);
+            cache.put(reservation, snapshot);
+        }
+        return snapshot;
+    }
+}
@@ -3,6 +3,7 @@ package no.rutebanken.anshar.routes.siri.processor;
 import no.rutebanken.anshar.integration.SpringBootBaseTest;
 import no.rutebanken.anshar.routes.siri.processor.routedata.NetexUpdaterService;
 import no.rutebanken.anshar.routes.siri.processor.routedata.StopTime;
+import org.entur.siri21.util.SiriXml;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.slf4j.Logger;
@@ -118,6 +119,25 @@ public class BaneNorSiriEtRewriterTest extends SpringBootBaseTest {
 
     }
 
+    /**
+     * Calls matched by position when the stop sequence is the same must give the same result as matching call by call
+     */
+    @Test
+    public void testPositionalMatchEqualsCallByCallMatch() throws Exception {
+        NetexUpdaterService.update("src/test/resources/rb_flt-aggregated-netex.zip",
+                "src/test/resources/rb_gjb-aggregated-netex.zip",
+                "src/test/resources/RailStations.zip");
+
+        Siri positional = unmarshallSiriFile("src/test/resources/siri-et-from-bnr.xml");
+        rewriter.process(positional);
+
+        Siri callByCall = unmarshallSiriFile("src/test/resources/siri-et-from-bnr.xml");
+        new BaneNorSiriEtRewriter("BNR", false).process(callByCall);
+
+        assertFalse(mapTrainNumbersToStops(positional).isEmpty());
+        assertEquals(SiriXml.toXml(callByCall), SiriXml.toXml(positional));
+    }
+
     @Test
     public void testIsMatch() {
         StopTime stopTime = new StopTime("NSR:STOP:1234", 1, 3600, 3660);
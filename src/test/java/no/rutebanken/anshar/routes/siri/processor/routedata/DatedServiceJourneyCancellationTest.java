@@ -0,0 +1,140 @@
+package no.rutebanken.anshar.routes.siri.processor.routedata;
+
+import org.junit.jupiter.api.Test;
+import org.rutebanken.netex.model.DatedServiceJourney;
+import org.rutebanken.netex.model.OperatingDay;
+import org.rutebanken.netex.model.ServiceAlterationEnumeration;
+
+import java.io.File;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class DatedServiceJourneyCancellationTest {
+
+    private static final String NETEX =
+            "<PublicationDelivery xmlns=\"http://www.netex.org.uk/netex\" version=\"1.0\">\n" +
+            "  <PublicationTimestamp>2018-08-20T00:00:00</PublicationTimestamp>\n" +
+            "  <ParticipantRef>TST</ParticipantRef>\n" +
+            "  <dataObjects>\n" +
+            "    <CompositeFrame version=\"1\" id=\"TST:CompositeFrame:1\">\n" +
+            "      <frames>\n" +
+            "        <ServiceCalendarFrame version=\"1\" id=\"TST:ServiceCalendarFrame:1\">\n" +
+            "          <operatingDays>\n" +
+            "            <OperatingDay version=\"1\" id=\"TST:OperatingDay:20\"><CalendarDate>2018-08-20</CalendarDate></OperatingDay>\n" +
+            "            <OperatingDay version=\"1\" id=\"TST:OperatingDay:21\"><CalendarDate>2018-08-21</CalendarDate></OperatingDay>\n" +
+            "            <OperatingDay version=\"1\" id=\"TST:OperatingDay:22\"><CalendarDate>2018-08-22</CalendarDate></OperatingDay>\n" +
+            "            <OperatingDay version=\"1\" id=\"TST:OperatingDay:23\"><CalendarDate>2018-08-23</CalendarDate></OperatingDay>\n" +
+            "          </operatingDays>\n" +
+            "        </ServiceCalendarFrame>\n" +
+            "        <TimetableFrame version=\"1\" id=\"TST:TimetableFrame:1\">\n" +
+            "          <vehicleJourneys>\n" +
+            "            <ServiceJourney version=\"1\" id=\"TST:ServiceJourney:1\">\n" +
+            "              <PrivateCode>101</PrivateCode>\n" +
+            "              <TransportMode>rail</TransportMode>\n" +
+            "            </ServiceJourney>\n" +
+            "            <ServiceJourney version=\"1\" id=\"TST:ServiceJourney:2\">\n" +
+            "              <PrivateCode>102</PrivateCode>\n" +
+            "              <TransportMode>rail</TransportMode>\n" +
+            "            </ServiceJourney>\n" +
+            dsj(1, "TST:ServiceJourney:1", "TST:OperatingDay:20", null) +
+            dsj(2, "TST:ServiceJourney:1", "TST:OperatingDay:21", "cancellation") +
+            dsj(3, "TST:ServiceJourney:1", "TST:OperatingDay:22", "replaced") +
+            dsj(4, "TST:ServiceJourney:1", "TST:OperatingDay:23", "planned") +
+            // First DatedServiceJourney on a date decides
+            dsj(5, "TST:ServiceJourney:1", "TST:OperatingDay:23", "cancellation") +
+            dsj(6, "TST:ServiceJourney:2", "TST:OperatingDay:20", "extraJourney") +
+            "          </vehicleJourneys>\n" +
+            "        </TimetableFrame>\n" +
+            "      </frames>\n" +
+            "    </CompositeFrame>\n" +
+            "  </dataObjects>\n" +
+            "</PublicationDelivery>\n";
+
+    private static String dsj(int id, String serviceJourneyRef, String operatingDayRef, String serviceAlteration) {
+        return "            <DatedServiceJourney version=\"1\" id=\"TST:DatedServiceJourney:" + id + "\">\n" +
+                (serviceAlteration != null ? "              <ServiceAlteration>" + serviceAlteration + "</ServiceAlteration>\n" : "") +
+                "              <ServiceJourneyRef ref=\"" + serviceJourneyRef + "\"/>\n" +
+                "              <OperatingDayRef ref=\"" + operatingDayRef + "\"/>\n" +
+                "            </DatedServiceJourney>\n";
+    }
+
+    @Test
+    public void testCancelledDates() throws Exception {
+        RouteData routeData = new NetexStreamingLoader(1).load(createNetexFile());
+
+        assertFalse(routeData.isCancelled("TST:ServiceJourney:1", new ServiceDate(2018, 8, 20)));
+        assertTrue(routeData.isCancelled("TST:ServiceJourney:1", new ServiceDate(2018, 8, 21)));
+        assertTrue(routeData.isCancelled("TST:ServiceJourney:1", new ServiceDate(2018, 8, 22)));
+        assertFalse(routeData.isCancelled("TST:ServiceJourney:1", new ServiceDate(2018, 8, 23)));
+        assertFalse(routeData.isCancelled("TST:ServiceJourney:1", new ServiceDate(2018, 8, 24)));
+        assertFalse(routeData.isCancelled("TST:ServiceJourney:1", new ServiceDate(2017, 8, 21)));
+        assertFalse(routeData.isCancelled("TST:ServiceJourney:2", new ServiceDate(2018, 8, 20)));
+        assertFalse(routeData.isCancelled("TST:ServiceJourney:3", new ServiceDate(2018, 8, 20)));
+
+        assertEquals(List.of(new ServiceDate(2018, 8, 20), new ServiceDate(2018, 8, 21), new ServiceDate(2018, 8, 22),
+                new ServiceDate(2018, 8, 23)), routeData.getServiceDates("TST:ServiceJourney:1"));
+    }
+
+    /**
+     * Compares with the previous lookup - linear search through DatedServiceJourneys parsed by NetexParserProcessor
+     */
+    @Test
+    public void testSameResultAsLinearLookup() throws Exception {
+        for (String file : List.of(createNetexFile(), "src/test/resources/rb_flt-aggregated-netex.zip")) {
+            NetexParserProcessor processor = new NetexParserProcessor();
+            processor.loadFiles(new File(file));
+
+            RouteData routeData = new NetexStreamingLoader(1).load(file);
+
+            for (String serviceJourneyId : processor.getTripDates().keySet()) {
+                for (LocalDate date = LocalDate.of(2018, 8, 1); date.isBefore(LocalDate.of(2018, 12, 31)); date = date.plusDays(1)) {
+                    ServiceDate serviceDate = new ServiceDate(date.getYear(), date.getMonthValue(), date.getDayOfMonth());
+                    assertEquals(isCancelledLinear(processor, serviceJourneyId, serviceDate),
+                            routeData.isCancelled(serviceJourneyId, serviceDate), serviceJourneyId + " " + serviceDate);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testEpochDay() {
+        for (LocalDate date = LocalDate.of(1999, 1, 1); date.isBefore(LocalDate.of(2101, 1, 1)); date = date.plusDays(1)) {
+            ServiceDate serviceDate = new ServiceDate(date.getYear(), date.getMonthValue(), date.getDayOfMonth());
+            assertEquals(date.toEpochDay(), serviceDate.toEpochDay());
+        }
+    }
+
+    private static boolean isCancelledLinear(NetexParserProcessor processor, String serviceJourneyId, ServiceDate serviceDate) {
+        Map<String, List<DatedServiceJourney>> datedServiceJourneys = processor.getDatedServiceJourneyForServiceJourneyId();
+        Map<String, OperatingDay> operatingDays = processor.getOperatingDayRefs();
+        for (DatedServiceJourney dsj : datedServiceJourneys.getOrDefault(serviceJourneyId, List.of())) {
+            OperatingDay operatingDay = operatingDays.get(dsj.getOperatingDayRef().getRef());
+            if (operatingDay.getCalendarDate().toLocalDate().equals(LocalDate.of(serviceDate.year, serviceDate.month, serviceDate.day))) {
+                return dsj.getServiceAlteration() == ServiceAlterationEnumeration.CANCELLATION ||
+                        dsj.getServiceAlteration() == ServiceAlterationEnumeration.REPLACED;
+            }
+        }
+        return false;
+    }
+
+    private static String createNetexFile() throws Exception {
+        Path file = Files.createTempFile("netex", ".zip");
+        try (OutputStream out = Files.newOutputStream(file); ZipOutputStream zip = new ZipOutputStream(out)) {
+            zip.putNextEntry(new ZipEntry("TST_dated_service_journeys.xml"));
+            zip.write(NETEX.getBytes(StandardCharsets.UTF_8));
+            zip.closeEntry();
+        }
+        return file.toString();
+    }
+}
@@ -0,0 +1,62 @@
+package no.rutebanken.anshar.routes.siri.processor.routedata;
+
+import org.geotools.geometry.jts.JTS;
+import org.geotools.referencing.crs.DefaultGeographicCRS;
+import org.junit.jupiter.api.Test;
+import org.locationtech.jts.geom.Coordinate;
+
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class GeodesicDistanceTest {
+
+    @Test
+    public void testKnownDistances() {
+        // Flinders Peak - Buninyong, from Vincenty's paper, on WGS84
+        assertEquals(54972.271, GeodesicDistance.distance(
+                -(37 + 57 / 60.0 + 3.72030 / 3600), 144 + 25 / 60.0 + 29.52440 / 3600,
+                -(37 + 39 / 60.0 + 10.15610 / 3600), 143 + 55 / 60.0 + 35.38390 / 3600), 0.001);
+
+        // Quarter of the equator
+        assertEquals(10018754.171, GeodesicDistance.distance(0, 0, 0, 90), 0.001);
+
+        assertEquals(0.0, GeodesicDistance.distance(59.91, 10.75, 59.91, 10.75));
+    }
+
+    @Test
+    public void testNearlyAntipodalPoints() {
+        double distance = GeodesicDistance.distance(0, 0, 0.5, 179.7);
+        assertTrue(distance > 19_900_000 && distance < 20_004_000, "Distance: " + distance);
+    }
+
+    /**
+     * Verifies the error bound within Norway against GeoTools' orthodromic distance
+     */
+    @Test
+    public void testSameDistanceAsGeoTools() throws Exception {
+        Random random = new Random(42);
+        double maxError = 0;
+        double maxHaversineError = 0;
+        for (int i = 0; i < 10_000; i++) {
+            double fromLatitude = 58 + random.nextDouble() * 13;
+            double fromLongitude = 4.5 + random.nextDouble() * 26.5;
+            // Both short and long distances
+            double spread = i % 2 == 0 ? 0.05 : 5;
+            double toLatitude = fromLatitude + (random.nextDouble() - 0.5) * spread;
+            double toLongitude = fromLongitude + (random.nextDouble() - 0.5) * spread;
+
+            double expected = JTS.orthodromicDistance(new Coordinate(fromLongitude, fromLatitude),
+                    new Coordinate(toLongitude, toLatitude), DefaultGeographicCRS.WGS84);
+
+            maxError = Math.max(maxError, Math.abs(GeodesicDistance.distance(fromLatitude, fromLongitude, toLatitude, toLongitude) - expected));
+            maxHaversineError = Math.max(maxHaversineError,
+                    Math.abs(GeodesicDistance.haversine(fromLatitude, fromLongitude, toLatitude, toLongitude) - expected) / expected);
+        }
+        assertTrue(maxError < 0.001, "Max error: " + maxError + " m");
+
+        // Why haversine is not used
+        assertTrue(maxHaversineError > 0.001, "Max haversine error: " + maxHaversineError);
+    }
+}
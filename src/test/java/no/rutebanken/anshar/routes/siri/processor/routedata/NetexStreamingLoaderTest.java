@@ -0,0 +1,96 @@
+package no.rutebanken.anshar.routes.siri.processor.routedata;
+
+import org.junit.jupiter.api.Test;
+import org.rutebanken.netex.model.LocationStructure;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class NetexStreamingLoaderTest {
+
+    private final Logger logger = LoggerFactory.getLogger(getClass());
+
+    // rb_nsb-aggregated-netex.zip is not bundled - only the gtfs-version
+    private static final String[] TEST_FILES = {
+            "src/test/resources/rb_flt-aggregated-netex.zip",
+            "src/test/resources/rb_gjb-aggregated-netex.zip",
+            "src/test/resources/RailStations.zip"
+    };
+
+    @Test
+    public void testSameResultAsNetexParserProcessor() throws Exception {
+        for (String file : TEST_FILES) {
+            NetexParserProcessor processor = new NetexParserProcessor();
+            processor.getParentStops().clear(); // Static - shared by all instances
+            processor.loadFiles(new File(file));
+
+            RouteData routeData = new NetexStreamingLoader(2).load(file);
+
+            assertEquals(processor.getTripStops().keySet(), routeData.journeyStops.keySet(), file);
+            for (String serviceJourneyId : processor.getTripStops().keySet()) {
+                assertEquals(processor.getTripStops().get(serviceJourneyId), routeData.getStopTimes(serviceJourneyId), serviceJourneyId);
+            }
+
+            assertEquals(processor.getTripDates().keySet(), routeData.serviceDates.keySet(), file);
+            for (String serviceJourneyId : processor.getTripDates().keySet()) {
+                assertEquals(new HashSet<>(processor.getTripDates().get(serviceJourneyId)),
+                        new HashSet<>(routeData.getServiceDates(serviceJourneyId)), serviceJourneyId);
+            }
+
+            assertEquals(processor.getTrainNumberTrips(), routeData.trainNumberTrips, file);
+            assertEquals(processor.getParentStops(), routeData.parentStops, file);
+            assertEquals(processor.getPublicCodeByQuayId(), routeData.quayPublicCodes, file);
+            assertEquals(processor.getModes(), routeData.modes, file);
+
+            assertEquals(processor.getLocations().keySet(), routeData.locations.keySet(), file);
+            for (Map.Entry<String, LocationStructure> location : processor.getLocations().entrySet()) {
+                LocationStructure actual = routeData.locations.get(location.getKey());
+                assertEquals(0, location.getValue().getLatitude().compareTo(actual.getLatitude()), location.getKey());
+                assertEquals(0, location.getValue().getLongitude().compareTo(actual.getLongitude()), location.getKey());
+            }
+        }
+    }
+
+    @Test
+    public void testSharedStopPatternsAndServiceDates() {
+        RouteData routeData = new NetexStreamingLoader(2).load(TEST_FILES[0], TEST_FILES[1]);
+        assertFalse(routeData.journeyStops.isEmpty());
+
+        Map<RouteData.StopPattern, RouteData.StopPattern> patterns = new HashMap<>();
+        for (RouteData.JourneyStops stops : routeData.journeyStops.values()) {
+            assertSame(patterns.computeIfAbsent(stops.pattern, p -> p), stops.pattern);
+        }
+        Map<RouteData.ServiceDates, RouteData.ServiceDates> dates = new HashMap<>();
+        for (RouteData.ServiceDates serviceDates : routeData.serviceDates.values()) {
+            assertSame(dates.computeIfAbsent(serviceDates, d -> d), serviceDates);
+        }
+        assertTrue(patterns.size() < routeData.journeyStops.size());
+        assertTrue(dates.size() < routeData.serviceDates.size());
+
+        logger.info("{} journeys share {} stop patterns and {} sets of service dates", routeData.journeyStops.size(),
+                patterns.size(), dates.size());
+    }
+
+    @Test
+    public void testMissingFileIsSkipped() {
+        RouteData routeData = new NetexStreamingLoader(2).load("src/test/resources/missing-netex.zip", TEST_FILES[0]);
+        assertFalse(routeData.journeyStops.isEmpty());
+    }
+
+    @Test
+    public void testTimeOfDay() {
+        assertEquals(0, NetexStreamingLoader.toSeconds(null, "1"));
+        assertEquals(6 * 3600 + 30 * 60, NetexStreamingLoader.toSeconds("06:30:00", null));
+        assertEquals(86400 + 15 * 60, NetexStreamingLoader.toSeconds("00:15:00", "1"));
+        assertEquals(NetexStreamingLoader.toEpochDay("2018-08-20"), NetexStreamingLoader.toEpochDay("2018-08-20T00:00:00"));
+    }
+}
@@ -0,0 +1,126 @@
+package no.rutebanken.anshar.routes.siri.processor.routedata;
+
+import org.junit.jupiter.api.Test;
+import org.rutebanken.netex.model.LocationStructure;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class RouteDataSnapshotTest {
+
+    private final Logger logger = LoggerFactory.getLogger(getClass());
+
+    private static final String[] TEST_FILES = {
+            "src/test/resources/rb_flt-aggregated-netex.zip",
+            "src/test/resources/rb_gjb-aggregated-netex.zip",
+            "src/test/resources/RailStations.zip"
+    };
+
+    @Test
+    public void testSnapshotRoundTrip() throws Exception {
+        long t1 = System.currentTimeMillis();
+        RouteData routeData = new NetexStreamingLoader(2).load(TEST_FILES);
+        long parseMillis = System.currentTimeMillis() - t1;
+        routeData.cancelledDates.put("TST:ServiceJourney:1", RouteData.ServiceDates.of(LocalDate.of(2018, 8, 20).toEpochDay()));
+
+        String hash = RouteDataSnapshot.hash(TEST_FILES);
+        Path snapshotFile = Files.createTempDirectory("anshar").resolve("route-data.snapshot");
+        RouteDataSnapshot.write(routeData, hash, snapshotFile);
+
+        t1 = System.currentTimeMillis();
+        RouteDataSnapshot.Snapshot snapshot = RouteDataSnapshot.read(snapshotFile, hash);
+        long readMillis = System.currentTimeMillis() - t1;
+        assertNotNull(snapshot);
+        assertEquals(hash, snapshot.getSourceHash());
+
+        RouteData actual = snapshot.getRouteData();
+        assertEquals(routeData.journeyStops.keySet(), actual.journeyStops.keySet());
+        for (String serviceJourneyId : routeData.journeyStops.keySet()) {
+            assertEquals(routeData.getStopTimes(serviceJourneyId), actual.getStopTimes(serviceJourneyId));
+        }
+        assertEquals(routeData.serviceDates, actual.serviceDates);
+        assertEquals(routeData.cancelledDates, actual.cancelledDates);
+        assertEquals(routeData.trainNumberTrips, actual.trainNumberTrips);
+        assertEquals(routeData.parentStops, actual.parentStops);
+        assertEquals(routeData.quayPublicCodes, actual.quayPublicCodes);
+        assertEquals(routeData.modes, actual.modes);
+
+        assertEquals(routeData.locations.keySet(), actual.locations.keySet());
+        for (Map.Entry<String, LocationStructure> location : routeData.locations.entrySet()) {
+            assertEquals(location.getValue().getLongitude(), actual.locations.get(location.getKey()).getLongitude());
+            assertEquals(location.getValue().getLatitude(), actual.locations.get(location.getKey()).getLatitude());
+        }
+
+        assertTrue(actual.isCancelled("TST:ServiceJourney:1", new ServiceDate(2018, 8, 20)));
+
+        logger.info("Parsed NeTEx in {} ms - read snapshot of {} kB in {} ms", parseMillis,
+                Files.size(snapshotFile) / 1024, readMillis);
+    }
+
+    @Test
+    public void testSnapshotFromOtherFilesIsIgnored() throws Exception {
+        RouteData routeData = new NetexStreamingLoader(2).load(TEST_FILES[0]);
+        Path snapshotFile = Files.createTempDirectory("anshar").resolve("route-data.snapshot");
+        RouteDataSnapshot.write(routeData, RouteDataSnapshot.hash(TEST_FILES[0]), snapshotFile);
+
+        String otherHash = RouteDataSnapshot.hash(TEST_FILES[1]);
+        assertNotEquals(RouteDataSnapshot.hash(TEST_FILES[0]), otherHash);
+        assertNull(RouteDataSnapshot.read(snapshotFile, otherHash));
+
+        // Any snapshot is accepted on startup
+        assertNotNull(RouteDataSnapshot.read(snapshotFile, null));
+    }
+
+    @Test
+    public void testCorruptSnapshotIsIgnored() throws Exception {
+        RouteData routeData = new NetexStreamingLoader(2).load(TEST_FILES[0]);
+        String hash = RouteDataSnapshot.hash(TEST_FILES[0]);
+        Path snapshotFile = Files.createTempDirectory("anshar").resolve("route-data.snapshot");
+        RouteDataSnapshot.write(routeData, hash, snapshotFile);
+
+        byte[] content = Files.readAllBytes(snapshotFile);
+        content[content.length - 10] ^= 0x01;
+        Files.write(snapshotFile, content);
+        assertNull(RouteDataSnapshot.read(snapshotFile, hash));
+
+        Files.write(snapshotFile, new byte[]{1, 2, 3});
+        assertNull(RouteDataSnapshot.read(snapshotFile, hash));
+
+        assertNull(RouteDataSnapshot.read(snapshotFile.resolveSibling("missing.snapshot"), hash));
+    }
+
+    @Test
+    public void testTemporaryFileRemovedWhenWriteFails() throws Exception {
+        RouteData routeData = new NetexStreamingLoader(1).load(TEST_FILES[0]);
+        Path directory = Files.createTempDirectory("anshar");
+        // Cannot be replaced by the snapshot
+        Path snapshotFile = Files.createDirectory(directory.resolve("route-data.snapshot"));
+        Files.createFile(snapshotFile.resolve("content"));
+
+        assertThrows(IOException.class, () -> RouteDataSnapshot.write(routeData, "hash", snapshotFile));
+        try (Stream<Path> files = Files.list(directory)) {
+            assertEquals(List.of(snapshotFile), files.collect(Collectors.toList()));
+        }
+    }
+
+    @Test
+    public void testHashOfMissingFile() {
+        assertNotNull(RouteDataSnapshot.hash("src/test/resources/missing-netex.zip"));
+        assertNotEquals(RouteDataSnapshot.hash("src/test/resources/missing-netex.zip"), RouteDataSnapshot.hash(TEST_FILES[0]));
+    }
+}
@@ -0,0 +1,270 @@
+package no.rutebanken.anshar.routes.siri.processor.routedata;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class RouteDataSourceTest {
+
+    private static final String FLT = "src/test/resources/rb_flt-aggregated-netex.zip";
+    private static final String GJB = "src/test/resources/rb_gjb-aggregated-netex.zip";
+    private static final String STATIONS = "src/test/resources/RailStations.zip";
+
+    @Test
+    public void testMergeSameAsLoadingAllFiles() {
+        RouteData expected = new NetexStreamingLoader(2).load(FLT, GJB, STATIONS);
+
+        NetexStreamingLoader loader = new NetexStreamingLoader(2);
+        RouteData actual = RouteData.merge(List.of(loader.read(FLT), loader.read(GJB), loader.read(STATIONS)));
+
+        assertEquals(expected.journeyStops.keySet(), actual.journeyStops.keySet());
+        for (String serviceJourneyId : expected.journeyStops.keySet()) {
+            assertEquals(expected.getStopTimes(serviceJourneyId), actual.getStopTimes(serviceJourneyId));
+        }
+        assertEquals(expected.serviceDates, actual.serviceDates);
+        assertEquals(expected.cancelledDates, actual.cancelledDates);
+        assertEquals(expected.trainNumberTrips, actual.trainNumberTrips);
+        assertEquals(expected.parentStops, actual.parentStops);
+        assertEquals(expected.quayPublicCodes, actual.quayPublicCodes);
+        assertEquals(expected.modes, actual.modes);
+        assertEquals(expected.locations.keySet(), actual.locations.keySet());
+        assertEquals(expected.trainJourneys.keySet(), actual.trainJourneys.keySet());
+        assertEquals(expected.stopCoordinates.getPrecalculatedPairCount(), actual.stopCoordinates.getPrecalculatedPairCount());
+    }
+
+    @Test
+    public void testOnlyChangedSourcesAreParsed() throws Exception {
+        Path directory = Files.createTempDirectory("anshar");
+        Path operatorFile = directory.resolve("operator.zip");
+        Files.copy(Path.of(FLT), operatorFile);
+        Path stationsFile = directory.resolve("stations.zip");
+        Files.copy(Path.of(STATIONS), stationsFile);
+
+        StandInSource operator = new StandInSource(new LocalRouteDataSource(operatorFile));
+        StandInSource stations = new StandInSource(new LocalRouteDataSource(stationsFile));
+        List<RouteDataSource> sources = List.of(operator, stations);
+        Path snapshotFile = directory.resolve("route-data.snapshot");
+
+        NetexUpdaterService.update(snapshotFile, sources);
+        assertEquals(1, operator.parsed.get());
+        assertEquals(1, stations.parsed.get());
+        assertTrue(NetexUpdaterService.isKnownTrainNr("3507"));
+        assertFalse(NetexUpdaterService.getParentStops().isEmpty());
+
+        // Unchanged - nothing is parsed
+        NetexUpdaterService.update(snapshotFile, sources);
+        assertEquals(1, operator.parsed.get());
+        assertEquals(1, stations.parsed.get());
+
+        // Only the changed source is parsed, and merged with data from the snapshot of the unchanged source
+        Files.copy(Path.of(GJB), operatorFile, StandardCopyOption.REPLACE_EXISTING);
+        NetexUpdaterService.update(snapshotFile, sources);
+        assertEquals(2, operator.parsed.get());
+        assertEquals(1, stations.parsed.get());
+        assertFalse(NetexUpdaterService.isKnownTrainNr("3507"));
+        assertEquals(new NetexStreamingLoader(1).load(GJB, STATIONS).parentStops, NetexUpdaterService.getParentStops());
+
+        // Data from the previous update is read from the snapshot of a source that fails
+        operator.failing = true;
+        Files.copy(Path.of(FLT), operatorFile, StandardCopyOption.REPLACE_EXISTING);
+        Files.copy(Path.of(GJB), stationsFile, StandardCopyOption.REPLACE_EXISTING);
+        NetexUpdaterService.update(snapshotFile, sources);
+        assertEquals(2, operator.parsed.get());
+        assertEquals(2, stations.parsed.get());
+        assertFalse(NetexUpdaterService.isKnownTrainNr("3507"));
+    }
+
+    @Test
+    public void testAllSourcesAreParsedWithoutSnapshot() throws Exception {
+        Path directory = Files.createTempDirectory("anshar");
+        Path operatorFile = directory.resolve("operator.zip");
+        Files.copy(Path.of(FLT), operatorFile);
+
+        StandInSource operator = new StandInSource(new LocalRouteDataSource(operatorFile));
+        StandInSource stations = new StandInSource(new LocalRouteDataSource(Path.of(STATIONS)));
+        List<RouteDataSource> sources = List.of(operator, stations);
+
+        NetexUpdaterService.update(null, sources);
+        NetexUpdaterService.update(null, sources);
+        assertEquals(1, operator.parsed.get());
+        assertEquals(1, stations.parsed.get());
+
+        // Data from unchanged sources is not kept in memory
+        Files.copy(Path.of(GJB), operatorFile, StandardCopyOption.REPLACE_EXISTING);
+        NetexUpdaterService.update(null, sources);
+        assertEquals(2, operator.parsed.get());
+        assertEquals(2, stations.parsed.get());
+    }
+
+    @Test
+    public void testLocalSourceHash() throws Exception {
+        Path file = Files.createTempDirectory("anshar").resolve("netex.zip");
+        LocalRouteDataSource source = new LocalRouteDataSource(file);
+
+        // Missing file is read as empty
+        assertEquals(RouteDataSnapshot.hash(file.toString()), source.fetch().getContentHash());
+
+        Files.copy(Path.of(FLT), file);
+        assertEquals(RouteDataSnapshot.hash(FLT), source.fetch().getContentHash());
+        assertEquals(file, source.fetch().getFile());
+    }
+
+    @Test
+    public void testHttpSourceConditionalRequests() throws Exception {
+        byte[] content = Files.readAllBytes(Path.of(FLT));
+        List<String> requests = new ArrayList<>();
+        HttpServer server = startServer(exchange -> {
+            String ifNoneMatch = exchange.getRequestHeaders().getFirst("If-None-Match");
+            requests.add(String.valueOf(ifNoneMatch));
+            exchange.getResponseHeaders().add("ETag", "\"v1\"");
+            if ("\"v1\"".equals(ifNoneMatch)) {
+                exchange.sendResponseHeaders(304, -1);
+            } else {
+                send(exchange, content);
+            }
+        });
+        try {
+            String url = "http://localhost:" + server.getAddress().getPort() + "/netex/rb_flt-aggregated-netex.zip";
+            Path downloads = Files.createTempDirectory("anshar");
+
+            HttpRouteDataSource source = new HttpRouteDataSource(url, downloads, 1, Duration.ZERO);
+            assertEquals("rb_flt-aggregated-netex.zip", source.getName());
+            RouteDataSource.Content downloaded = source.fetch();
+            assertEquals(RouteDataSnapshot.hash(FLT), downloaded.getContentHash());
+            assertEquals(RouteDataSnapshot.hash(FLT), RouteDataSnapshot.hash(downloaded.getFile().toString()));
+
+            assertEquals(downloaded.getContentHash(), source.fetch().getContentHash());
+
+            // Version of the downloaded file is kept after restart
+            HttpRouteDataSource restarted = new HttpRouteDataSource(url, downloads, 1, Duration.ZERO);
+            assertEquals(downloaded.getContentHash(), restarted.fetch().getContentHash());
+
+            assertEquals(List.of("null", "\"v1\"", "\"v1\""), requests);
+        } finally {
+            server.stop(0);
+        }
+    }
+
+    @Test
+    public void testHttpSourceUnchangedContentWithoutValidators() throws Exception {
+        byte[] content = Files.readAllBytes(Path.of(FLT));
+        HttpServer server = startServer(exchange -> send(exchange, content));
+        try {
+            String url = "http://localhost:" + server.getAddress().getPort() + "/rb_flt-aggregated-netex.zip";
+            HttpRouteDataSource source = new HttpRouteDataSource(url, Files.createTempDirectory("anshar"), 1, Duration.ZERO);
+            assertEquals(source.fetch().getContentHash(), source.fetch().getContentHash());
+        } finally {
+            server.stop(0);
+        }
+    }
+
+    @Test
+    public void testHttpSourceRetries() throws Exception {
+        byte[] content = Files.readAllBytes(Path.of(STATIONS));
+        AtomicInteger requests = new AtomicInteger();
+        AtomicInteger missingRequests = new AtomicInteger();
+        HttpServer server = startServer(exchange -> {
+            if (exchange.getRequestURI().getPath().endsWith("missing.zip")) {
+                missingRequests.incrementAndGet();
+                exchange.sendResponseHeaders(404, -1);
+            } else if (requests.incrementAndGet() % 3 != 0) {
+                exchange.sendResponseHeaders(503, -1);
+            } else {
+                send(exchange, content);
+            }
+        });
+        try {
+            String url = "http://localhost:" + server.getAddress().getPort() + "/RailStations.zip";
+
+            HttpRouteDataSource source = new HttpRouteDataSource(url, Files.createTempDirectory("anshar"), 3, Duration.ofMillis(1));
+            assertEquals(RouteDataSnapshot.hash(STATIONS), source.fetch().getContentHash());
+            assertEquals(3, requests.get());
+
+            requests.set(0);
+            HttpRouteDataSource giveUp = new HttpRouteDataSource(url, Files.createTempDirectory("anshar"), 2, Duration.ofMillis(1));
+            assertThrows(IOException.class, giveUp::fetch);
+            assertEquals(2, requests.get());
+
+            // Not retried
+            String missingUrl = "http://localhost:" + server.getAddress().getPort() + "/missing.zip";
+            HttpRouteDataSource missing = new HttpRouteDataSource(missingUrl, Files.createTempDirectory("anshar"), 3, Duration.ofMillis(1));
+            assertThrows(IOException.class, missing::fetch);
+            assertEquals(1, missingRequests.get());
+        } finally {
+            server.stop(0);
+        }
+    }
+
+    private interface Handler {
+        void handle(HttpExchange exchange) throws IOException;
+    }
+
+    private static HttpServer startServer(Handler handler) throws IOException {
+        HttpServer server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/", exchange -> {
+            try {
+                handler.handle(exchange);
+            } finally {
+                exchange.close();
+            }
+        });
+        server.start();
+        return server;
+    }
+
+    private static void send(HttpExchange exchange, byte[] content) throws IOException {
+        exchange.sendResponseHeaders(200, content.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(content);
+        }
+    }
+
+    /**
+     * Counts how many times the content is handed out for parsing, and fails on request
+     */
+    private static class StandInSource implements RouteDataSource {
+        private final RouteDataSource source;
+        private final AtomicInteger parsed = new AtomicInteger();
+        private boolean failing;
+
+        private StandInSource(RouteDataSource source) {
+            this.source = source;
+        }
+
+        @Override
+        public String getName() {
+            return source.getName();
+        }
+
+        @Override
+        public Content fetch() throws IOException {
+            if (failing) {
+                throw new IOException("Failing on request");
+            }
+            Content content = source.fetch();
+            return new Content(content.getFile(), content.getContentHash()) {
+                @Override
+                public Path getFile() {
+                    parsed.incrementAndGet();
+                    return super.getFile();
+                }
+            };
+        }
+    }
+}
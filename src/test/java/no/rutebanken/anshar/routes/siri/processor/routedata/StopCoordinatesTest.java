@@ -0,0 +1,68 @@
+package no.rutebanken.anshar.routes.siri.processor.routedata;
+
+import org.junit.jupiter.api.Test;
+import org.rutebanken.netex.model.LocationStructure;
+
+import java.math.BigDecimal;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class StopCoordinatesTest {
+
+    @Test
+    public void testAdjacentStopDistances() {
+        RouteData routeData = new NetexStreamingLoader(2).load(
+                "src/test/resources/rb_flt-aggregated-netex.zip",
+                "src/test/resources/RailStations.zip");
+
+        StopCoordinates stopCoordinates = routeData.stopCoordinates;
+        assertTrue(stopCoordinates.getPrecalculatedPairCount() > 0);
+
+        int adjacentPairs = 0;
+        for (RouteData.JourneyStops stops : routeData.journeyStops.values()) {
+            String[] stopIds = stops.pattern.stopIds;
+            for (int i = 1; i < stopIds.length; i++) {
+                LocationStructure from = routeData.locations.get(stopIds[i - 1]);
+                LocationStructure to = routeData.locations.get(stopIds[i]);
+                if (from != null && to != null) {
+                    double expected = GeodesicDistance.distance(from.getLatitude().doubleValue(), from.getLongitude().doubleValue(),
+                            to.getLatitude().doubleValue(), to.getLongitude().doubleValue());
+                    assertEquals(expected, routeData.getDistance(stopIds[i - 1], stopIds[i]));
+                    assertEquals(expected, routeData.getDistance(stopIds[i], stopIds[i - 1]));
+                    adjacentPairs++;
+                }
+            }
+        }
+        assertTrue(adjacentPairs > 0);
+    }
+
+    @Test
+    public void testDistanceBetweenStops() {
+        RouteData routeData = new RouteData();
+        routeData.locations.put("NSR:Quay:1", location(59.0, 10.0));
+        routeData.locations.put("NSR:Quay:2", location(59.0, 10.1));
+        routeData.locations.put("NSR:Quay:3", location(59.1, 10.1));
+        routeData.locations.put("NSR:Quay:4", new LocationStructure());
+        RouteData.StopPattern pattern = new RouteData.StopPattern(new String[]{"NSR:Quay:1", "NSR:Quay:2", "NSR:Quay:1", "NSR:Quay:4"},
+                new int[]{1, 2, 3, 4});
+        routeData.journeyStops.put("TST:ServiceJourney:1", new RouteData.JourneyStops(pattern, new int[8]));
+        routeData.buildIndexes();
+
+        // 1-2 in both directions - 2-4 has no coordinates
+        assertEquals(1, routeData.stopCoordinates.getPrecalculatedPairCount());
+
+        assertEquals(GeodesicDistance.distance(59.0, 10.0, 59.1, 10.1), routeData.getDistance("NSR:Quay:1", "NSR:Quay:3"));
+        assertEquals(0.0, routeData.getDistance("NSR:Quay:1", "NSR:Quay:1"));
+        assertTrue(Double.isNaN(routeData.getDistance("NSR:Quay:1", "NSR:Quay:4")));
+        assertTrue(Double.isNaN(routeData.getDistance("NSR:Quay:1", "NSR:Quay:5")));
+        assertTrue(Double.isNaN(routeData.getDistance(null, "NSR:Quay:1")));
+        assertTrue(Double.isNaN(RouteData.EMPTY.getDistance("NSR:Quay:1", "NSR:Quay:2")));
+    }
+
+    private static LocationStructure location(double latitude, double longitude) {
+        return new LocationStructure().withLatitude(BigDecimal.valueOf(latitude)).withLongitude(BigDecimal.valueOf(longitude));
+    }
+}
@@ -0,0 +1,65 @@
+package no.rutebanken.anshar.routes.siri.processor.routedata;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class TrainJourneyTest {
+
+    @Test
+    public void testSameJourneysAsTrainNumberLookup() {
+        RouteData routeData = new NetexStreamingLoader(2).load(
+                "src/test/resources/rb_flt-aggregated-netex.zip",
+                "src/test/resources/rb_gjb-aggregated-netex.zip",
+                "src/test/resources/RailStations.zip");
+        assertFalse(routeData.trainNumberTrips.isEmpty());
+
+        for (Map.Entry<String, Set<String>> trainNumber : routeData.trainNumberTrips.entrySet()) {
+            List<TrainJourney> journeys = routeData.getTrainJourneys(trainNumber.getKey());
+
+            List<String> serviceJourneyIds = new ArrayList<>();
+            for (TrainJourney journey : journeys) {
+                String serviceJourneyId = journey.getServiceJourneyId();
+                serviceJourneyIds.add(serviceJourneyId);
+
+                assertEquals(routeData.getStopTimes(serviceJourneyId), journey.getStopTimes());
+                for (ServiceDate serviceDate : routeData.getServiceDates(serviceJourneyId)) {
+                    assertTrue(journey.operatesOn(serviceDate));
+                    assertEquals(routeData.isCancelled(serviceJourneyId, serviceDate), journey.isCancelled(serviceDate));
+                }
+
+                List<String> stopIds = new ArrayList<>();
+                journey.getStopTimes().forEach(stopTime -> stopIds.add(stopTime.getStopId()));
+                assertEquals(TrainJourney.stopFingerprint(stopIds, routeData.parentStops), journey.getStopFingerprint());
+            }
+            // Same order as the ids of the train number
+            assertEquals(new ArrayList<>(trainNumber.getValue()), serviceJourneyIds);
+        }
+        assertTrue(routeData.getTrainJourneys("unknown").isEmpty());
+    }
+
+    @Test
+    public void testStopFingerprint() {
+        Map<String, String> parentStops = Map.of(
+                "NSR:Quay:1", "NSR:StopPlace:1",
+                "NSR:Quay:2", "NSR:StopPlace:1",
+                "NSR:Quay:3", "NSR:StopPlace:3");
+
+        // Quays with the same parent give the same fingerprint
+        assertEquals(TrainJourney.stopFingerprint(List.of("NSR:Quay:1", "NSR:Quay:3"), parentStops),
+                TrainJourney.stopFingerprint(List.of("NSR:Quay:2", "NSR:Quay:3"), parentStops));
+
+        assertNotEquals(TrainJourney.stopFingerprint(List.of("NSR:Quay:1", "NSR:Quay:3"), parentStops),
+                TrainJourney.stopFingerprint(List.of("NSR:Quay:3", "NSR:Quay:1"), parentStops));
+        assertNotEquals(TrainJourney.stopFingerprint(List.of("NSR:Quay:1", "NSR:Quay:3"), parentStops),
+                TrainJourney.stopFingerprint(List.of("NSR:Quay:1", "NSR:Quay:3", "NSR:Quay:4"), parentStops));
+    }
+}
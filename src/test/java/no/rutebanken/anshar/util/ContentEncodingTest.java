@@ -0,0 +1,108 @@
+package no.rutebanken.anshar.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.InflaterInputStream;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class ContentEncodingTest {
+
+    @Test
+    public void testNegotiate() {
+        assertNull(ContentEncoding.negotiate(null));
+        assertNull(ContentEncoding.negotiate(""));
+        assertNull(ContentEncoding.negotiate("br, identity"));
+        assertNull(ContentEncoding.negotiate("gzip;q=0, deflate;q=0"));
+
+        assertEquals(ContentEncoding.GZIP, ContentEncoding.negotiate("gzip"));
+        assertEquals(ContentEncoding.GZIP, ContentEncoding.negotiate("x-gzip"));
+        assertEquals(ContentEncoding.GZIP, ContentEncoding.negotiate("deflate, gzip"));
+        assertEquals(ContentEncoding.GZIP, ContentEncoding.negotiate("*"));
+        assertEquals(ContentEncoding.DEFLATE, ContentEncoding.negotiate("gzip;q=0.5, deflate"));
+        assertEquals(ContentEncoding.DEFLATE, ContentEncoding.negotiate("gzip;q=0, *"));
+    }
+
+    @Test
+    public void testCompressRoundtrip() throws IOException {
+        byte[] data = createData(10_000);
+
+        byte[] gzipped = ContentEncoding.GZIP.compress(data, 6);
+        assertTrue(gzipped.length < data.length);
+        assertArrayEquals(data, readAll(new GZIPInputStream(new ByteArrayInputStream(gzipped))));
+
+        byte[] deflated = ContentEncoding.DEFLATE.compress(data, 6);
+        assertTrue(deflated.length < data.length);
+        assertArrayEquals(data, readAll(new InflaterInputStream(new ByteArrayInputStream(deflated))));
+    }
+
+    @Test
+    public void testStreamBelowThresholdIsNotCompressed() throws IOException {
+        byte[] data = createData(100);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        AtomicBoolean started = new AtomicBoolean();
+
+        CompressingOutputStream compressing = new CompressingOutputStream(out, ContentEncoding.GZIP, 6, 1024,
+            () -> started.set(true), null);
+        compressing.write(data);
+        compressing.finish();
+
+        assertFalse(compressing.isCompressed());
+        assertFalse(started.get());
+        assertArrayEquals(data, out.toByteArray());
+    }
+
+    @Test
+    public void testStreamAboveThresholdIsCompressed() throws IOException {
+        byte[] data = createData(50_000);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        AtomicBoolean started = new AtomicBoolean();
+        AtomicLong uncompressedSize = new AtomicLong();
+        AtomicLong compressedSize = new AtomicLong();
+
+        CompressingOutputStream compressing = new CompressingOutputStream(out, ContentEncoding.GZIP, 6, 1024,
+            () -> started.set(true),
+            (encoding, nanos, uncompressedBytes, compressedBytes) -> {
+                uncompressedSize.set(uncompressedBytes);
+                compressedSize.set(compressedBytes);
+            });
+
+        // Written in chunks to cross the threshold while streaming
+        for (int i = 0; i < data.length; i += 700) {
+            compressing.write(data, i, Math.min(700, data.length - i));
+        }
+        compressing.close();
+
+        assertTrue(compressing.isCompressed());
+        assertTrue(started.get());
+        assertEquals(data.length, uncompressedSize.get());
+        assertEquals(out.size(), compressedSize.get());
+        assertArrayEquals(data, readAll(new GZIPInputStream(new ByteArrayInputStream(out.toByteArray()))));
+    }
+
+    private static byte[] createData(int size) {
+        byte[] pattern = "<EstimatedVehicleJourney><LineRef>TST:Line:1</LineRef></EstimatedVehicleJourney>".getBytes();
+        byte[] data = new byte[size];
+        for (int i = 0; i < size; i++) {
+            data[i] = pattern[i % pattern.length];
+        }
+        return data;
+    }
+
+    private static byte[] readAll(InputStream in) throws IOException {
+        try (in) {
+            return in.readAllBytes();
+        }
+    }
+}
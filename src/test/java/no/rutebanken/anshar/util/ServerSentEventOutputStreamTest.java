@@ -0,0 +1,57 @@
+/*
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ *   https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ */
+
+package no.rutebanken.anshar.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+public class ServerSentEventOutputStreamTest {
+
+    @Test
+    public void testEveryLineIsPrefixed() throws Exception {
+        assertEquals("event: update\ndata: <Siri>\ndata:   <a/>\ndata: </Siri>\n\n",
+                writeEvent("update", "<Siri>\n  <a/>\r\n</Siri>\n"));
+    }
+
+    @Test
+    public void testLineBreaks() throws Exception {
+        assertEquals("event: e\ndata: a\ndata: \ndata: b\ndata: c\n\n", writeEvent("e", "a\n\nb\rc\r\n\r\n"));
+        assertEquals("event: e\ndata: \n\n", writeEvent("e", ""));
+    }
+
+    @Test
+    public void testSplitWrites() throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (ServerSentEventOutputStream event = new ServerSentEventOutputStream(out, "e")) {
+            for (byte b : "a\r\nb\n".getBytes(StandardCharsets.UTF_8)) {
+                event.write(b);
+            }
+        }
+        assertEquals("event: e\ndata: a\ndata: b\n\n", out.toString(StandardCharsets.UTF_8));
+    }
+
+    private static String writeEvent(String event, String data) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (ServerSentEventOutputStream eventStream = new ServerSentEventOutputStream(out, event)) {
+            eventStream.write(data.getBytes(StandardCharsets.UTF_8));
+        }
+        return out.toString(StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,105 @@
+package no.rutebanken.anshar.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class XmlEncodingRepairerTest {
+
+    @Test
+    public void testNoErrorsReturnsSameInstance() throws IOException {
+        String xml = Files.readString(Path.of("src/test/resources/siri-et-from-bnr.xml"), StandardCharsets.UTF_8);
+        assertSame(xml, XmlEncodingRepairer.repair(xml));
+    }
+
+    @Test
+    public void testRepairCountsPerPattern() {
+        Map<String, Integer> counts = new HashMap<>();
+        String repaired = XmlEncodingRepairer.repair("<Name>TrÃ¸ndelag - Ã\u0085lesund - Ã¦Ã¦</Name>", counts::put);
+
+        assertEquals("<Name>Trøndelag - Ålesund - ææ</Name>", repaired);
+        assertEquals(3, counts.size());
+        assertEquals(1, counts.get("ø"));
+        assertEquals(1, counts.get("Å"));
+        assertEquals(2, counts.get("æ"));
+    }
+
+    @Test
+    public void testIncompletePatternsAreKept() {
+        assertEquals("Ã", XmlEncodingRepairer.repair("Ã"));
+        assertEquals("ÃÃ", XmlEncodingRepairer.repair("ÃÃ"));
+        assertEquals("Ãæ", XmlEncodingRepairer.repair("ÃÃ¦"));
+        assertEquals("¦Ã", XmlEncodingRepairer.repair("¦Ã"));
+    }
+
+    @Test
+    public void testIdenticalToPreviousImplementation() throws IOException {
+        List<String> corpus = new ArrayList<>();
+        corpus.add(Files.readString(Path.of("src/test/resources/siri-et-from-bnr.xml"), StandardCharsets.UTF_8));
+        corpus.add(Files.readString(Path.of("src/test/resources/siri-et-gir-npe.xml"), StandardCharsets.UTF_8));
+        corpus.add("<Siri><StopPointName>BodÃ¸ - KristiansÃ¦nd - Ã\u0098stre Ã†rÃ¸ - Ã¥sane</StopPointName></Siri>");
+
+        Random random = new Random(42);
+        String alphabet = "Ã¦†¸\u0098¥\u0085<>a ";
+        for (int i = 0; i < 10000; i++) {
+            StringBuilder sb = new StringBuilder();
+            int length = random.nextInt(16);
+            for (int j = 0; j < length; j++) {
+                sb.append(alphabet.charAt(random.nextInt(alphabet.length())));
+            }
+            corpus.add(sb.toString());
+        }
+
+        for (String input : corpus) {
+            String expected = replaceAll(input);
+            assertEquals(expected, XmlEncodingRepairer.repair(input));
+
+            StringWriter writer = new StringWriter();
+            try (Reader reader = XmlEncodingRepairer.repairingReader(new StringReader(input), null)) {
+                reader.transferTo(writer);
+            }
+            assertEquals(expected, writer.toString());
+        }
+    }
+
+    @Test
+    public void testReaderReportsRepairsOnClose() throws IOException {
+        Map<String, Integer> counts = new HashMap<>();
+        StringWriter writer = new StringWriter();
+        try (Reader reader = XmlEncodingRepairer.repairingReader(new StringReader("Ã¸Ã¸Ã¥"), counts::put)) {
+            reader.transferTo(writer);
+            assertTrue(counts.isEmpty());
+        }
+        assertEquals("øøå", writer.toString());
+        assertEquals(2, counts.get("ø"));
+        assertEquals(1, counts.get("å"));
+    }
+
+    /*
+     * Previous implementation, kept to verify identical output
+     */
+    private static String replaceAll(String body) {
+        body = body.replaceAll("Ã¦", "æ");
+        body = body.replaceAll("Ã†", "Æ");
+        body = body.replaceAll("Ã¸", "ø");
+        body = body.replaceAll("Ã\u0098", "Ø");
+        body = body.replaceAll("Ã¥", "å");
+        body = body.replaceAll("Ã\u0085", "Å");
+        return body;
+    }
+}
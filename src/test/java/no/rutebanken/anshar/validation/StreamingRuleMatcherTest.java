@@ -0,0 +1,239 @@
+package no.rutebanken.anshar.validation;
+
+import jakarta.xml.bind.ValidationEvent;
+import no.rutebanken.anshar.integration.SpringBootBaseTest;
+import no.rutebanken.anshar.routes.validation.StreamingRuleMatcher;
+import no.rutebanken.anshar.routes.validation.validators.CustomValidator;
+import no.rutebanken.anshar.routes.validation.validators.ProfileValidationEventOrList;
+import no.rutebanken.anshar.routes.validation.validators.Validator;
+import no.rutebanken.anshar.routes.validation.validators.et.EstimatedAimedArrivalTimeValidator;
+import no.rutebanken.anshar.routes.validation.validators.et.EstimatedAimedDepartureTimeValidator;
+import no.rutebanken.anshar.routes.validation.validators.et.EtServiceDeliveryInvalidFieldsValidator;
+import no.rutebanken.anshar.subscription.SiriDataType;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.ApplicationContext;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.xpath.XPathConstants;
+import javax.xml.xpath.XPathFactory;
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static no.rutebanken.anshar.routes.validation.validators.Constants.ESTIMATED_CALL;
+import static no.rutebanken.anshar.routes.validation.validators.Constants.ESTIMATED_VEHICLE_JOURNEY;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class StreamingRuleMatcherTest extends SpringBootBaseTest {
+
+    private static final String[] TEST_FILES = {
+            "src/test/resources/siri-et-from-bnr.xml",
+            "src/test/resources/siri-et-gir-npe.xml"
+    };
+
+    private static final Map<SiriDataType, List<String>> TEST_FILES_PER_TYPE = Map.of(
+            SiriDataType.ESTIMATED_TIMETABLE, List.of(TEST_FILES),
+            SiriDataType.VEHICLE_MONITORING, List.of("src/test/resources/siri-vm.xml"),
+            SiriDataType.SITUATION_EXCHANGE, List.of("src/test/resources/siri-sx.xml")
+    );
+
+    @Autowired
+    private ApplicationContext context;
+
+    @Test
+    public void testIdenticalToXpathEvaluation() throws Exception {
+        List<CustomValidator> rules = List.of(
+                new EtServiceDeliveryInvalidFieldsValidator(),
+                new EstimatedAimedDepartureTimeValidator(),
+                new EstimatedAimedArrivalTimeValidator(),
+                new TextContentRule(ESTIMATED_VEHICLE_JOURNEY + "/LineRef"),
+                new TextContentRule(ESTIMATED_CALL)
+        );
+
+        for (String file : TEST_FILES) {
+            byte[] xml = Files.readAllBytes(Path.of(file));
+
+            Map<CustomValidator, List<String>> expected = evaluateXpath(rules, xml);
+            Map<CustomValidator, List<String>> actual = evaluateStreaming(rules, xml);
+
+            for (CustomValidator rule : rules) {
+                assertEquals(expected.get(rule), actual.get(rule), rule.getXpath());
+            }
+            assertFalse(actual.get(rules.get(4)).isEmpty());
+        }
+    }
+
+    @Test
+    public void testRegisteredValidatorsIdenticalToXpathEvaluation() throws Exception {
+        Map<SiriDataType, List<CustomValidator>> validators = new EnumMap<>(SiriDataType.class);
+        for (Object bean : context.getBeansWithAnnotation(Validator.class).values()) {
+            if (bean instanceof CustomValidator) {
+                SiriDataType type = bean.getClass().getAnnotation(Validator.class).targetType();
+                validators.computeIfAbsent(type, t -> new ArrayList<>()).add((CustomValidator) bean);
+            }
+        }
+
+        for (Map.Entry<SiriDataType, List<String>> entry : TEST_FILES_PER_TYPE.entrySet()) {
+            List<CustomValidator> rules = validators.get(entry.getKey());
+            assertFalse(rules == null || rules.isEmpty(), entry.getKey().name());
+
+            StreamingRuleMatcher matcher = new StreamingRuleMatcher(rules);
+            List<CustomValidator> compiled = new ArrayList<>();
+            for (CustomValidator rule : rules) {
+                if (matcher.isCompiled(rule)) {
+                    compiled.add(rule);
+                }
+            }
+            assertFalse(compiled.isEmpty(), entry.getKey().name());
+
+            for (String file : entry.getValue()) {
+                byte[] xml = Files.readAllBytes(Path.of(file));
+
+                Map<CustomValidator, List<String>> expected = evaluateXpath(compiled, xml);
+                Map<CustomValidator, List<String>> actual = evaluateStreaming(compiled, xml);
+
+                for (CustomValidator rule : compiled) {
+                    assertEquals(expected.get(rule), actual.get(rule), file + ": " + rule.getClass().getSimpleName());
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testNestedFragmentIsBuiltSeparately() throws Exception {
+        String xml = "<Siri><ServiceDelivery>" +
+                "<VehicleMonitoringDelivery><VehicleActivity><RecordedAtTime>2018-04-16T10:00:00+02:00</RecordedAtTime></VehicleActivity></VehicleMonitoringDelivery>" +
+                "</ServiceDelivery></Siri>";
+
+        List<CustomValidator> rules = List.of(
+                new EtServiceDeliveryInvalidFieldsValidator(),
+                new TextContentRule("Siri/ServiceDelivery/VehicleMonitoringDelivery/VehicleActivity")
+        );
+
+        Map<CustomValidator, Node> matched = new HashMap<>();
+        new StreamingRuleMatcher(rules).match(new ByteArrayInputStream(xml.getBytes(StandardCharsets.UTF_8)),
+                matched::put
+        );
+
+        Element serviceDelivery = (Element) matched.get(rules.get(0));
+        Node activity = matched.get(rules.get(1));
+
+        // ServiceDelivery only gets the levels that are inspected
+        Node activityCopy = serviceDelivery.getElementsByTagName("VehicleActivity").item(0);
+        assertNotSame(activity, activityCopy);
+        assertFalse(activityCopy.hasChildNodes());
+
+        assertNull(activity.getParentNode());
+        assertEquals("2018-04-16T10:00:00+02:00", activity.getTextContent());
+    }
+
+    @Test
+    public void testNamespacePrefixAndLimitedDepth() throws Exception {
+        String xml = "<siri:Siri xmlns:siri=\"http://www.siri.org.uk/siri\">" +
+                "<siri:ServiceDelivery>" +
+                "<siri:EstimatedTimetableDelivery><siri:EstimatedJourneyVersionFrame>" +
+                "<siri:EstimatedVehicleJourney><siri:LineRef>TST:Line:1</siri:LineRef></siri:EstimatedVehicleJourney>" +
+                "</siri:EstimatedJourneyVersionFrame></siri:EstimatedTimetableDelivery>" +
+                "<siri:VehicleMonitoringDelivery><siri:VehicleActivity><siri:RecordedAtTime>2018-04-16T10:00:00+02:00</siri:RecordedAtTime></siri:VehicleActivity></siri:VehicleMonitoringDelivery>" +
+                "</siri:ServiceDelivery>" +
+                "</siri:Siri>";
+
+        List<CustomValidator> rules = List.of(
+                new EtServiceDeliveryInvalidFieldsValidator(),
+                new TextContentRule(ESTIMATED_VEHICLE_JOURNEY + "/LineRef")
+        );
+
+        byte[] bytes = xml.getBytes(StandardCharsets.UTF_8);
+        Map<CustomValidator, List<String>> expected = evaluateXpath(rules, bytes);
+        Map<CustomValidator, List<String>> actual = evaluateStreaming(rules, bytes);
+
+        assertEquals(1, actual.get(rules.get(0)).size());
+        assertEquals(List.of("TST:Line:1"), actual.get(rules.get(1)));
+        assertEquals(expected, actual);
+    }
+
+    @Test
+    public void testUnsupportedXpathIsNotCompiled() {
+        CustomValidator simple = new TextContentRule(ESTIMATED_CALL);
+        CustomValidator descendant = new TextContentRule("Siri//EstimatedCall");
+        CustomValidator predicate = new TextContentRule(ESTIMATED_CALL + "[1]");
+
+        StreamingRuleMatcher matcher = new StreamingRuleMatcher(List.of(simple, descendant, predicate));
+
+        assertTrue(matcher.isCompiled(simple));
+        assertFalse(matcher.isCompiled(descendant));
+        assertFalse(matcher.isCompiled(predicate));
+    }
+
+    private static Map<CustomValidator, List<String>> evaluateStreaming(List<CustomValidator> rules, byte[] xml) throws Exception {
+        Map<CustomValidator, List<String>> result = new HashMap<>();
+        for (CustomValidator rule : rules) {
+            result.put(rule, new ArrayList<>());
+        }
+        new StreamingRuleMatcher(rules).match(new ByteArrayInputStream(xml),
+                (rule, node) -> addMessages(result.get(rule), rule.isValid(node))
+        );
+        return result;
+    }
+
+    private static Map<CustomValidator, List<String>> evaluateXpath(List<CustomValidator> rules, byte[] xml) throws Exception {
+        Document document = DocumentBuilderFactory.newInstance().newDocumentBuilder().parse(new ByteArrayInputStream(xml));
+
+        Map<CustomValidator, List<String>> result = new HashMap<>();
+        for (CustomValidator rule : rules) {
+            List<String> messages = new ArrayList<>();
+            NodeList nodes = (NodeList) XPathFactory.newInstance().newXPath().evaluate(rule.getXpath(), document, XPathConstants.NODESET);
+            for (int i = 0; i < nodes.getLength(); i++) {
+                addMessages(messages, rule.isValid(nodes.item(i)));
+            }
+            result.put(rule, messages);
+        }
+        return result;
+    }
+
+    private static void addMessages(List<String> messages, ValidationEvent event) {
+        if (event instanceof ProfileValidationEventOrList) {
+            for (ValidationEvent e : ((ProfileValidationEventOrList) event).getEvents()) {
+                messages.add(e.getMessage());
+            }
+        } else if (event != null) {
+            messages.add(event.getMessage());
+        }
+    }
+
+    /**
+     * Reports the complete text-content of every matched node
+     */
+    private static class TextContentRule extends CustomValidator {
+        private final String xpath;
+
+        private TextContentRule(String xpath) {
+            this.xpath = xpath;
+        }
+
+        @Override
+        public String getXpath() {
+            return xpath;
+        }
+
+        @Override
+        public ValidationEvent isValid(Node node) {
+            return createCustomFieldEvent(node, node.getTextContent(), ValidationEvent.WARNING);
+        }
+    }
+}
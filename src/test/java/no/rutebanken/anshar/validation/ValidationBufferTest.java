@@ -0,0 +1,74 @@
+package no.rutebanken.anshar.validation;
+
+import no.rutebanken.anshar.routes.validation.ValidationBuffer;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class ValidationBufferTest {
+
+    @Test
+    public void testSmallContentsKeptInMemory() throws IOException {
+        byte[] contents = "<Siri>æøå</Siri>".getBytes(StandardCharsets.UTF_8);
+
+        try (ValidationBuffer buffer = ValidationBuffer.read(new ByteArrayInputStream(contents), 1024, "test")) {
+            assertFalse(buffer.isSpilledToDisk());
+            assertEquals(contents.length, buffer.size());
+            assertEquals("<Siri>æøå</Siri>", buffer.asString());
+            assertContents(contents, buffer);
+        }
+    }
+
+    @Test
+    public void testLargeContentsSpilledToDisk() throws IOException {
+        byte[] contents = new byte[100_000];
+        new Random(1).nextBytes(contents);
+
+        ValidationBuffer buffer = ValidationBuffer.read(new ByteArrayInputStream(contents), 10_000, "test");
+        assertTrue(buffer.isSpilledToDisk());
+        assertEquals(contents.length, buffer.size());
+
+        // Same contents can be read multiple times
+        assertContents(contents, buffer);
+        assertContents(contents, buffer);
+
+        buffer.close();
+        assertThrows(IllegalStateException.class, buffer::openStream);
+    }
+
+    @Test
+    public void testContentsExactlyAtLimitKeptInMemory() throws IOException {
+        byte[] contents = new byte[10_000];
+        new Random(2).nextBytes(contents);
+
+        try (ValidationBuffer buffer = ValidationBuffer.read(new ByteArrayInputStream(contents), contents.length, "test")) {
+            assertFalse(buffer.isSpilledToDisk());
+            assertContents(contents, buffer);
+        }
+    }
+
+    @Test
+    public void testWrappedBytes() throws IOException {
+        byte[] contents = "<Siri/>".getBytes(StandardCharsets.UTF_8);
+        try (ValidationBuffer buffer = ValidationBuffer.wrap(contents)) {
+            assertFalse(buffer.isSpilledToDisk());
+            assertContents(contents, buffer);
+        }
+    }
+
+    private void assertContents(byte[] expected, ValidationBuffer buffer) throws IOException {
+        try (InputStream in = buffer.openStream()) {
+            assertArrayEquals(expected, in.readAllBytes());
+        }
+    }
+}
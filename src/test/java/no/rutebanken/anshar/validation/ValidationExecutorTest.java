@@ -0,0 +1,107 @@
+package no.rutebanken.anshar.validation;
+
+import no.rutebanken.anshar.routes.validation.ValidationExecutor;
+import no.rutebanken.anshar.routes.validation.ValidationSampler;
+import no.rutebanken.anshar.subscription.SubscriptionSetup;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class ValidationExecutorTest {
+
+    @Test
+    public void testOldestIsDroppedWhenQueueIsFull() throws Exception {
+        ValidationExecutor executor = new ValidationExecutor(1, 2);
+
+        CountDownLatch blocker = new CountDownLatch(1);
+        CountDownLatch started = new CountDownLatch(1);
+        List<String> executed = Collections.synchronizedList(new ArrayList<>());
+        List<String> dropped = Collections.synchronizedList(new ArrayList<>());
+
+        executor.submit("running", () -> {
+            started.countDown();
+            try {
+                blocker.await(10, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }, () -> dropped.add("running"));
+        assertTrue(started.await(10, TimeUnit.SECONDS));
+
+        CountDownLatch done = new CountDownLatch(2);
+        for (String id : List.of("first", "second", "third", "fourth")) {
+            executor.submit(id, () -> {
+                executed.add(id);
+                done.countDown();
+            }, () -> dropped.add(id));
+        }
+
+        assertEquals(2, executor.getQueueSize());
+        assertEquals(List.of("first", "second"), dropped);
+
+        blocker.countDown();
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+
+        assertEquals(List.of("third", "fourth"), executed);
+        assertEquals(2, executor.getDroppedCount());
+        assertEquals(5, executor.getSubmittedCount());
+
+        executor.shutdown();
+    }
+
+    @Test
+    public void testSampleEveryNth() {
+        ValidationSampler sampler = new ValidationSampler(3, 0);
+        SubscriptionSetup subscription = createSubscription("every-nth", 0, 0);
+
+        int sampled = 0;
+        for (int i = 0; i < 9; i++) {
+            if (sampler.sample(subscription)) {
+                sampled++;
+            }
+        }
+        assertEquals(3, sampled);
+    }
+
+    @Test
+    public void testSampleMaxPerMinute() {
+        ValidationSampler sampler = new ValidationSampler(1, 0);
+        SubscriptionSetup subscription = createSubscription("max-per-minute", 0, 2);
+
+        assertTrue(sampler.sample(subscription));
+        assertTrue(sampler.sample(subscription));
+        assertFalse(sampler.sample(subscription));
+
+        // Other subscriptions are not affected
+        assertTrue(sampler.sample(createSubscription("other", 0, 0)));
+
+        sampler.reset(subscription.getSubscriptionId());
+        assertTrue(sampler.sample(subscription));
+    }
+
+    @Test
+    public void testSubscriptionOverridesDefault() {
+        ValidationSampler sampler = new ValidationSampler(10, 0);
+        SubscriptionSetup subscription = createSubscription("override", 1, 0);
+
+        for (int i = 0; i < 5; i++) {
+            assertTrue(sampler.sample(subscription));
+        }
+    }
+
+    private static SubscriptionSetup createSubscription(String subscriptionId, int sampleInterval, int maxPerMinute) {
+        SubscriptionSetup subscription = new SubscriptionSetup();
+        subscription.setSubscriptionId(subscriptionId);
+        subscription.setValidationSampleInterval(sampleInterval);
+        subscription.setValidationMaxPerMinute(maxPerMinute);
+        return subscription;
+    }
+}